@@ -0,0 +1,167 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.common.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The destination of an uncompression that writes straight into a byte
+ * array. The array is either supplied by the caller, and then it is an error
+ * for the result not to fit, or it is sized to the expected length of the
+ * result, and then it grows as needed and is trimmed at the end.
+ *
+ * <p>
+ * Unlike a ByteArrayOutputStream, the array is not copied when the expected
+ * length was right.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+final class ArrayOutput {
+    /**
+     * Create an ArrayOutput that grows as needed.
+     *
+     * @param expectedLength
+     *            the expected size of the result
+     */
+    ArrayOutput(int expectedLength) {
+        this.buf = new byte[expectedLength > 0 ? expectedLength : Compressor.BUF_SIZE];
+        this.fixed = false;
+    }
+
+    /**
+     * Create an ArrayOutput that writes into the caller's array.
+     *
+     * @param output
+     *            the array to fill
+     */
+    ArrayOutput(byte[] output) {
+        this.buf = output;
+        this.fixed = true;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of bytes that can be written without growing
+     */
+    int remaining() {
+        return buf.length - count;
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b
+     *            the byte to write
+     * @throws IOException
+     *             if the byte does not fit in a caller supplied array
+     */
+    void write(byte b) throws IOException {
+        if (count == buf.length) {
+            ensure(1);
+        }
+        buf[count++] = b;
+    }
+
+    /**
+     * Copy all that remains of the stream into the array.
+     *
+     * @param in
+     *            the stream to read
+     * @throws IOException
+     *             if the stream cannot be read or if it does not fit in a
+     *             caller supplied array
+     */
+    void readFrom(InputStream in) throws IOException {
+        while (true) {
+            if (count == buf.length) {
+                // Tell a full array from one that is too small.
+                int next = in.read();
+                if (next == -1) {
+                    return;
+                }
+                write((byte) next);
+            }
+            int read = in.read(buf, count, buf.length - count);
+            if (read < 0) {
+                return;
+            }
+            count += read;
+        }
+    }
+
+    /**
+     * Make room for more bytes.
+     *
+     * @param needed
+     *            the number of bytes that are to be written
+     * @throws IOException
+     *             if the array was supplied by the caller
+     */
+    void ensure(int needed) throws IOException {
+        if (count + needed <= buf.length) {
+            return;
+        }
+        if (fixed) {
+            throw new IOException("Uncompressed data is larger than " + buf.length + " bytes");
+        }
+        int size = Math.max(buf.length << 1, count + needed);
+        byte[] grown = new byte[size];
+        System.arraycopy(buf, 0, grown, 0, count);
+        buf = grown;
+    }
+
+    /**
+     * @return the result, without copying when the array is exactly full
+     */
+    byte[] toByteArray() {
+        if (count == buf.length) {
+            return buf;
+        }
+        byte[] result = new byte[count];
+        System.arraycopy(buf, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * The array being written. Zip inflates straight into it.
+     */
+    byte[] buf;
+
+    /**
+     * The number of bytes written.
+     */
+    int count;
+
+    /**
+     * Whether the array was supplied by the caller.
+     */
+    private final boolean fixed;
+}
@@ -21,6 +21,7 @@
 package org.crosswire.common.compress;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 
 /**
  * An Enumeration of the possible Compressions.
@@ -35,6 +36,11 @@ public enum CompressorType {
         public Compressor getCompressor(byte[] input) {
             return new Zip(new ByteArrayInputStream(input));
         }
+
+        @Override
+        void uncompress(byte[] input, ArrayOutput out) throws IOException {
+            Zip.uncompress(input, out);
+        }
     },
 
     LZSS {
@@ -42,6 +48,12 @@ public enum CompressorType {
         public Compressor getCompressor(byte[] input) {
             return new LZSS(new ByteArrayInputStream(input));
         }
+
+        @Override
+        void uncompress(byte[] input, ArrayOutput out) throws IOException {
+            // The constant hides the class of the same name.
+            org.crosswire.common.compress.LZSS.uncompress(input, out);
+        }
     },
 
     BZIP2 {
@@ -49,6 +61,11 @@ public enum CompressorType {
         public Compressor getCompressor(byte[] input) {
             return new BZip2(new ByteArrayInputStream(input));
         }
+
+        @Override
+        void uncompress(byte[] input, ArrayOutput out) throws IOException {
+            BZip2.uncompress(input, out);
+        }
     },
 
     GZIP {
@@ -56,6 +73,11 @@ public enum CompressorType {
         public Compressor getCompressor(byte[] input) {
             return new Gzip(new ByteArrayInputStream(input));
         }
+
+        @Override
+        void uncompress(byte[] input, ArrayOutput out) throws IOException {
+            Gzip.uncompress(input, out);
+        }
     },
 
     XZ {
@@ -63,6 +85,12 @@ public enum CompressorType {
         public Compressor getCompressor(byte[] input) {
             return new XZ(new ByteArrayInputStream(input));
         }
+
+        @Override
+        void uncompress(byte[] input, ArrayOutput out) throws IOException {
+            // The constant hides the class of the same name.
+            org.crosswire.common.compress.XZ.uncompress(input, out);
+        }
     };
 
     /**
@@ -71,6 +99,55 @@ public enum CompressorType {
      */
     public abstract Compressor getCompressor(byte[] input);
 
+    /**
+     * Uncompress the input into an array that holds exactly the result. When
+     * the expected length is right, the result is written straight into the
+     * array that is returned and is never copied.
+     * 
+     * @param input
+     *            the compressed data
+     * @param expectedLength
+     *            the expected size of the result, used as the initial size of
+     *            the array
+     * @return the uncompressed data
+     * @throws IOException
+     *             if the data is corrupt
+     */
+    public byte[] uncompress(byte[] input, int expectedLength) throws IOException {
+        ArrayOutput out = new ArrayOutput(expectedLength);
+        uncompress(input, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Uncompress the input into the caller's array.
+     * 
+     * @param input
+     *            the compressed data
+     * @param output
+     *            the array to fill from its start
+     * @return the number of bytes that were uncompressed
+     * @throws IOException
+     *             if the data is corrupt or if it does not fit in the array
+     */
+    public int uncompress(byte[] input, byte[] output) throws IOException {
+        ArrayOutput out = new ArrayOutput(output);
+        uncompress(input, out);
+        return out.size();
+    }
+
+    /**
+     * Uncompress the input straight into the output.
+     * 
+     * @param input
+     *            the compressed data
+     * @param out
+     *            where the uncompressed data goes
+     * @throws IOException
+     *             if the data is corrupt or does not fit the output
+     */
+    abstract void uncompress(byte[] input, ArrayOutput out) throws IOException;
+
     /**
      * Get a CompressorType from a String
      * 
@@ -138,9 +138,6 @@ public class LZSS extends AbstractCompressor {
     public LZSS(InputStream input) {
         super(input);
         ringBuffer = new byte[RING_SIZE + MAX_STORE_LENGTH - 1];
-        dad = new short[RING_SIZE + 1];
-        leftSon = new short[RING_SIZE + 1];
-        rightSon = new short[RING_SIZE + 257];
     }
 
     /*
@@ -463,10 +460,117 @@ public class LZSS extends AbstractCompressor {
         return out;
     }
 
+    /**
+     * Uncompress the input straight into the output. This is the same
+     * algorithm as {@link #uncompress(int)}, but it reads from the array
+     * rather than a stream and it needs no LZSS instance.
+     * 
+     * <p>
+     * There is no ring buffer. The byte at ring position p is the byte most
+     * recently written to the output at an index that is a multiple of
+     * RING_SIZE away from p - RING_START. So a position/length pair is a copy
+     * from the output itself, from a distance of 1 to RING_SIZE back. When
+     * the copy reaches back before the start of the output, it reads what the
+     * ring held when it was initialized.
+     * </p>
+     * 
+     * @param data
+     *            the compressed data
+     * @param out
+     *            where the uncompressed data goes
+     * @throws IOException
+     *             if the data does not fit the output
+     */
+    static void uncompress(byte[] data, ArrayOutput out) throws IOException {
+        // Work on local copies of the output, handing back to it to grow.
+        byte[] buf = out.buf;
+        int count = out.count;
+        int pos = 0;
+        int end = data.length;
+        try {
+            while (pos < end) {
+                // Eight flags, the low bit first. A "1" is an unencoded byte
+                // and a "0" is a position/length pair.
+                int flags = data[pos++] & 0xFF;
+                for (int flag = 0; flag < 8; flag++, flags >>= 1) {
+                    if ((flags & 1) != 0) {
+                        if (pos >= end) {
+                            return;
+                        }
+                        if (count == buf.length) {
+                            out.count = count;
+                            out.ensure(1);
+                            buf = out.buf;
+                        }
+                        buf[count++] = data[pos++];
+                        continue;
+                    }
+
+                    if (pos + 2 > end) {
+                        return;
+                    }
+                    int low = data[pos++] & 0xFF;
+                    int high = data[pos++] & 0xFF;
+                    int ringPos = low | ((high & 0xF0) << 4);
+                    int len = (high & 0x0F) + THRESHOLD;
+                    if (count + len > buf.length) {
+                        out.count = count;
+                        out.ensure(len);
+                        buf = out.buf;
+                    }
+
+                    // The ring position of the next byte is RING_START + count.
+                    // A distance of 0 is the byte written a whole ring ago.
+                    int distance = (RING_START + count - ringPos) & RING_WRAP;
+                    if (distance == 0) {
+                        distance = RING_SIZE;
+                    }
+
+                    int from = count - distance;
+                    int stop = count + len;
+                    if (from < 0) {
+                        while (count < stop) {
+                            buf[count++] = from >= 0 ? buf[from] : initialRingByte(from);
+                            from++;
+                        }
+                    } else {
+                        // The copy may overlap what it writes, so go byte by byte.
+                        while (count < stop) {
+                            buf[count++] = buf[from++];
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.count = count;
+        }
+    }
+
+    /**
+     * Get what the ring buffer held, before anything was uncompressed into
+     * it, at the position of an output index before the start of the output.
+     * The first RING_START bytes of the ring are spaces and the rest, which
+     * are filled as uncompression starts, are zeros.
+     * 
+     * @param index
+     *            an output index from -RING_SIZE to -1
+     * @return the initial content of the ring at that position
+     */
+    private static byte initialRingByte(int index) {
+        return index >= -RING_START ? (byte) ' ' : 0;
+    }
+
     /**
      * Initializes the tree nodes to "empty" states.
      */
     private void initTree() {
+        // The trees are only needed to compress.
+        if (dad == null) {
+            dad = new short[RING_SIZE + 1];
+            leftSon = new short[RING_SIZE + 1];
+            rightSon = new short[RING_SIZE + 257];
+        }
+
         // For i = 0 to RING_SIZE - 1, rightSon[i] and leftSon[i] will be the
         // right
         // and left children of node i. These nodes need not be
@@ -661,6 +765,11 @@ public class LZSS extends AbstractCompressor {
      */
     private static final int MAX_STORE_LENGTH = 18;
 
+    /**
+     * The position in the ring buffer of the first uncompressed byte.
+     */
+    private static final int RING_START = RING_SIZE - MAX_STORE_LENGTH;
+
     /**
      * It takes 2 bytes to store an offset and a length. If a character sequence
      * only requires 1 or 2 characters to store uncompressed, then it is better
@@ -21,6 +21,7 @@
 package org.crosswire.common.compress;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -83,4 +84,24 @@ public class XZ extends AbstractCompressor {
         return out;
     }
 
+    /**
+     * Uncompress the input straight into the output, without an intermediate
+     * buffer.
+     * 
+     * @param data
+     *            the compressed data
+     * @param out
+     *            where the uncompressed data goes
+     * @throws IOException
+     *             if the data is corrupt or does not fit the output
+     */
+    static void uncompress(byte[] data, ArrayOutput out) throws IOException {
+        InputStream in = new XZCompressorInputStream(new ByteArrayInputStream(data));
+        try {
+            out.readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
 }
@@ -23,15 +23,25 @@ package org.crosswire.common.compress;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.EOFException;
 import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 /**
  * Zip manages the compression and uncompression of Zip files.
  * 
+ * <p>
+ * An Inflater holds native memory until it is ended. Rather than making one
+ * per uncompression, a small pool of them is shared by all.
+ * </p>
+ * 
  * @see gnu.lgpl.License for license details.<br>
  *      The copyright to this program is held by it's authors.
  * @author DM Smith
@@ -55,15 +65,21 @@ public class Zip extends AbstractCompressor {
     public ByteArrayOutputStream compress() throws IOException {
         BufferedInputStream in = new BufferedInputStream(input);
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        DeflaterOutputStream out = new DeflaterOutputStream(bos, new Deflater(), BUF_SIZE);
+        Deflater deflater = new Deflater();
+        DeflaterOutputStream out = new DeflaterOutputStream(bos, deflater, BUF_SIZE);
         byte[] buf = new byte[BUF_SIZE];
 
-        for (int count = in.read(buf); count != -1; count = in.read(buf)) {
-            out.write(buf, 0, count);
+        try {
+            for (int count = in.read(buf); count != -1; count = in.read(buf)) {
+                out.write(buf, 0, count);
+            }
+            in.close();
+            out.flush();
+            out.close();
+        } finally {
+            // A Deflater that is given to the stream is not ended by it.
+            deflater.end();
         }
-        in.close();
-        out.flush();
-        out.close();
         return bos;
     }
 
@@ -82,17 +98,108 @@ public class Zip extends AbstractCompressor {
      * @see org.crosswire.common.compress.Compressor#uncompress(int)
      */
     public ByteArrayOutputStream uncompress(int expectedLength) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(expectedLength);
-        InflaterInputStream in = new InflaterInputStream(input, new Inflater(), expectedLength);
-        byte[] buf = new byte[expectedLength];
+        int size = expectedLength > 0 ? expectedLength : BUF_SIZE;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        Inflater inflater = obtainInflater();
+        try {
+            InflaterInputStream in = new InflaterInputStream(input, inflater, size);
+            byte[] buf = new byte[size];
 
-        for (int count = in.read(buf); count != -1; count = in.read(buf)) {
-            out.write(buf, 0, count);
+            for (int count = in.read(buf); count != -1; count = in.read(buf)) {
+                out.write(buf, 0, count);
+            }
+            in.close();
+            out.flush();
+            out.close();
+        } finally {
+            releaseInflater(inflater);
         }
-        in.close();
-        out.flush();
-        out.close();
         return out;
     }
 
+    /**
+     * Uncompress the input straight into the output, without an intermediate
+     * stream or buffer.
+     * 
+     * @param data
+     *            the compressed data
+     * @param out
+     *            where the uncompressed data goes
+     * @throws IOException
+     *             if the data is corrupt or does not fit the output
+     */
+    static void uncompress(byte[] data, ArrayOutput out) throws IOException {
+        Inflater inflater = obtainInflater();
+        try {
+            inflater.setInput(data);
+            byte[] single = null;
+            while (!inflater.finished()) {
+                int count;
+                if (out.remaining() > 0) {
+                    count = inflater.inflate(out.buf, out.count, out.remaining());
+                    out.count += count;
+                } else {
+                    // The output is full. Inflating a single byte tells
+                    // whether there is more to come.
+                    if (single == null) {
+                        single = new byte[1];
+                    }
+                    count = inflater.inflate(single, 0, 1);
+                    if (count > 0) {
+                        out.write(single[0]);
+                    }
+                }
+
+                if (count == 0 && !inflater.finished()) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("ZLIB dictionary missing");
+                    }
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            String msg = e.getMessage();
+            throw new ZipException(msg != null ? msg : "Invalid ZLIB data format");
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Get an Inflater from the pool, or a new one if the pool is empty.
+     * 
+     * @return an Inflater ready for new input
+     */
+    private static Inflater obtainInflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    /**
+     * Return an Inflater to the pool. If the pool is full, the Inflater is
+     * ended so that its native memory is freed now rather than when it is
+     * finalized.
+     * 
+     * @param inflater
+     *            the Inflater that is no longer needed
+     */
+    private static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The most Inflaters that are kept for reuse.
+     */
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The idle Inflaters.
+     */
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
 }
@@ -475,7 +475,7 @@ package org.crosswire.common.crypt;
  * @author DM Smith [ dmsmith555 at yahoo dot com] Java port from Sword's C++
  *         implementation
  */
-public class Sapphire {
+public class Sapphire implements Cloneable {
 
     /**
      * Construct a Sapphire Stream Cipher from a key, possibly null or empty.
@@ -536,6 +536,113 @@ public class Sapphire {
         return (byte) lastPlain;
     }
 
+    /**
+     * Decipher a run of bytes in place. This is the same as calling
+     * {@link #cipher(byte)} for each byte in turn, but the state is kept in
+     * local variables for the whole of the run.
+     * 
+     * @param data
+     *            the bytes to decipher
+     * @param offset
+     *            the first byte to decipher
+     * @param length
+     *            the number of bytes to decipher
+     */
+    public void cipher(byte[] data, int offset, int length) {
+        int[] deck = cards;
+        int rot = rotor;
+        int rat = ratchet;
+        int ava = avalanche;
+        int plain = lastPlain;
+        int cipher = lastCipher;
+
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int bVal = data[i] & 0xFF;
+            rat = (rat + deck[rot]) & 0xFF;
+            rot = (rot + 1) & 0xFF;
+            int swaptemp = deck[cipher];
+            deck[cipher] = deck[rat];
+            deck[rat] = deck[plain];
+            deck[plain] = deck[rot];
+            deck[rot] = swaptemp;
+            ava = (ava + deck[swaptemp]) & 0xFF;
+
+            plain = bVal ^ deck[(deck[rat] + deck[rot]) & 0xFF] ^ deck[deck[(deck[plain] + deck[cipher] + deck[ava]) & 0xFF]];
+            cipher = bVal;
+            data[i] = (byte) plain;
+        }
+
+        rotor = rot;
+        ratchet = rat;
+        avalanche = ava;
+        lastPlain = plain;
+        lastCipher = cipher;
+    }
+
+    /**
+     * Encipher a run of bytes in place, the reverse of
+     * {@link #cipher(byte[], int, int)}. The deck is shuffled in the same way,
+     * but it is the enciphered byte that is fed back into the state.
+     * 
+     * @param data
+     *            the bytes to encipher
+     * @param offset
+     *            the first byte to encipher
+     * @param length
+     *            the number of bytes to encipher
+     */
+    public void encipher(byte[] data, int offset, int length) {
+        int[] deck = cards;
+        int rot = rotor;
+        int rat = ratchet;
+        int ava = avalanche;
+        int plain = lastPlain;
+        int cipher = lastCipher;
+
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int bVal = data[i] & 0xFF;
+            rat = (rat + deck[rot]) & 0xFF;
+            rot = (rot + 1) & 0xFF;
+            int swaptemp = deck[cipher];
+            deck[cipher] = deck[rat];
+            deck[rat] = deck[plain];
+            deck[plain] = deck[rot];
+            deck[rot] = swaptemp;
+            ava = (ava + deck[swaptemp]) & 0xFF;
+
+            cipher = bVal ^ deck[(deck[rat] + deck[rot]) & 0xFF] ^ deck[deck[(deck[plain] + deck[cipher] + deck[ava]) & 0xFF]];
+            plain = bVal;
+            data[i] = (byte) cipher;
+        }
+
+        rotor = rot;
+        ratchet = rat;
+        avalanche = ava;
+        lastPlain = plain;
+        lastCipher = cipher;
+    }
+
+    /**
+     * Copy this cipher in its current state. Copying a keyed cipher before it
+     * is used is far cheaper than keying a new one, as the key schedule is
+     * not run again.
+     * 
+     * @return an independent copy of this cipher
+     */
+    @Override
+    public Sapphire clone() {
+        Sapphire clone = null;
+        try {
+            clone = (Sapphire) super.clone();
+            clone.cards = cards.clone();
+        } catch (CloneNotSupportedException e) {
+            assert false : e;
+        }
+        return clone;
+    }
+
     public void burn() {
         // Destroy the key and state information in RAM.
         for (int i = 0; i < 256; i++) {
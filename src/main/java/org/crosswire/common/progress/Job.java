@@ -300,7 +300,10 @@ public final class Job implements Progress {
         if (!finished) {
             ignoreTimings();
             done();
-            if (workerThread != null) {
+            // A worker that cancels its own job, as on a failed install, is
+            // already stopping. Interrupting it would only leave the interrupt
+            // for whatever the thread does next.
+            if (workerThread != null && workerThread != Thread.currentThread()) {
                 workerThread.interrupt();
             }
         }
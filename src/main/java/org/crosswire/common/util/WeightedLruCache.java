@@ -0,0 +1,266 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.common.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe cache that is bounded by the total weight of its entries
+ * rather than by their number. What an entry weighs, be it bytes, characters
+ * or something else, is up to the Weigher. When a new entry would exceed the
+ * bound, the least recently used entries are evicted. The newest entry is
+ * always kept, even when it alone is heavier than the bound, unless it is
+ * heavier than the most that a single entry may weigh, in which case it is not
+ * kept at all.
+ *
+ * <p>
+ * The cache keeps count of its hits, misses and evictions.
+ * </p>
+ *
+ * <p>
+ * All access is under a single monitor, as a lookup changes the recency of an
+ * entry. The monitor is only held for the lookup itself, never while a value
+ * is made, so it is contended only when many threads hit the same cache at
+ * the same instant.
+ * </p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class WeightedLruCache<K, V> {
+    /**
+     * How much an entry weighs.
+     *
+     * @param <K> The type of the keys
+     * @param <V> The type of the values
+     */
+    public interface Weigher<K, V> {
+        /**
+         * Weigh an entry. The weight must not change while the entry is
+         * cached.
+         *
+         * @param key
+         *            the key of the entry
+         * @param value
+         *            the value of the entry
+         * @return the weight of the entry, not negative
+         */
+        long weigh(K key, V value);
+    }
+
+    /**
+     * Create a cache bounded by the given weight. Any entry may be kept.
+     *
+     * @param maxWeight
+     *            the most that all the entries may weigh
+     * @param weigher
+     *            how much an entry weighs
+     */
+    public WeightedLruCache(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        this(maxWeight, Long.MAX_VALUE, weigher);
+    }
+
+    /**
+     * Create a cache bounded by the given weight, that does not keep entries
+     * heavier than the given entry weight.
+     *
+     * @param maxWeight
+     *            the most that all the entries may weigh
+     * @param maxEntryWeight
+     *            the most that a single entry may weigh
+     * @param weigher
+     *            how much an entry weighs
+     */
+    public WeightedLruCache(long maxWeight, long maxEntryWeight, Weigher<? super K, ? super V> weigher) {
+        this.maxWeight = maxWeight;
+        this.maxEntryWeight = maxEntryWeight;
+        this.weigher = weigher;
+        // An access ordered map gives LRU order for free.
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Get an entry from the cache, making it the most recently used.
+     *
+     * @param key
+     *            the key of the entry
+     * @return the value or null if it is not cached
+     */
+    public V get(K key) {
+        V value;
+        synchronized (entries) {
+            value = entries.get(key);
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Determine whether an entry is in the cache, without counting it as a
+     * hit or a miss, or making it more recently used.
+     *
+     * @param key
+     *            the key of the entry
+     * @return true if the entry is cached
+     */
+    public boolean containsKey(K key) {
+        synchronized (entries) {
+            return entries.containsKey(key);
+        }
+    }
+
+    /**
+     * Add an entry to the cache, evicting others as needed. An entry that is
+     * too heavy to keep is ignored.
+     *
+     * @param key
+     *            the key of the entry
+     * @param value
+     *            the value of the entry
+     */
+    public void put(K key, V value) {
+        long weight = weigher.weigh(key, value);
+        if (weight > maxEntryWeight) {
+            return;
+        }
+        synchronized (entries) {
+            V old = entries.put(key, value);
+            if (old != null) {
+                size -= weigher.weigh(key, old);
+            }
+            size += weight;
+
+            // Evict from the eldest, but never the entry just added.
+            Iterator<Map.Entry<K, V>> iter = entries.entrySet().iterator();
+            while (size > maxWeight && entries.size() > 1) {
+                Map.Entry<K, V> eldest = iter.next();
+                size -= weigher.weigh(eldest.getKey(), eldest.getValue());
+                iter.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries from the cache. The statistics are not reset.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the total weight of the entries in the cache
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * @return the most that all the entries may weigh
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return the number of times an entry was found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times an entry was not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries that were evicted to make room
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups that were found in the cache, 0 if
+     *         there have been none
+     */
+    public double getHitRate() {
+        long found = hits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[entries=" + getEntryCount() + ", size=" + getSize() + ", max=" + maxWeight
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ']';
+    }
+
+    /**
+     * The entries in least recently used order. Guarded by itself.
+     */
+    private final Map<K, V> entries;
+
+    /**
+     * The total weight of the entries. Guarded by entries.
+     */
+    private long size;
+
+    private final long maxWeight;
+    private final long maxEntryWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+}
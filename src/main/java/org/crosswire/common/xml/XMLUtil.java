@@ -387,15 +387,15 @@ public final class XMLUtil {
 
     /**
      * Replace entity with its unicode equivalent, if it is not a valid XML
-     * entity. Otherwise strip it out. XML only allows 4 entities: &amp;amp;,
-     * &amp;quot;, &amp;lt; and &amp;gt;.
+     * entity. Otherwise strip it out. XML only allows 5 entities: &amp;amp;,
+     * &amp;quot;, &amp;apos;, &amp;lt; and &amp;gt;.
      * 
      * @param entity
      *            the entity to be replaced
      * @return the substitution for the entity, either itself, the unicode
      *         equivalent or an empty string.
      */
-    private static String handleEntity(String entity) {
+    public static String handleEntity(String entity) {
         if (goodEntities.contains(entity)) {
             return entity;
         }
@@ -416,6 +416,7 @@ public final class XMLUtil {
         // pre-defined XML entities
         goodEntities.add("&quot;"); // quotation mark
         goodEntities.add("&amp;"); // ampersand
+        goodEntities.add("&apos;"); // apostrophe
         goodEntities.add("&lt;"); // less-than sign
         goodEntities.add("&gt;"); // greater-than sign
 
@@ -21,7 +21,9 @@
 package org.crosswire.jsword.book;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.crosswire.common.activate.Activatable;
 import org.crosswire.common.util.Language;
@@ -109,6 +111,28 @@ public interface Book extends Activatable, Comparable<Book> {
      */
     Iterator<Content> getOsisIterator(Key key, boolean allowEmpty) throws BookException;
 
+    /**
+     * Start reading the OSIS of a key in the background. The content is the
+     * same as that returned by {@link #getOsisIterator(Key, boolean)}, not
+     * allowing empty keys. Failures are reported by the Future.
+     * 
+     * @param key
+     *            the Items to locate
+     * @return the future OSIS content of the key
+     */
+    Future<List<Content>> getOsisAsync(Key key);
+
+    /**
+     * Start reading the raw text of a key in the background. Failures are
+     * reported by the Future.
+     * 
+     * @param key
+     *            The item to locate
+     * @return the future raw text of the key
+     * @see #getRawText(Key)
+     */
+    Future<String> getRawTextAsync(Key key);
+
     /**
      * Returns <tt>true</tt> if this book contains the specified element.
      * 
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.crosswire.common.activate.Activator;
 import org.crosswire.common.util.CollectionUtil;
@@ -72,16 +73,26 @@ public final class Books extends AbstractBookList {
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.BookList#getBooks()
      */
-    public synchronized List<Book> getBooks() {
-        return CollectionUtil.createList(books);
+    public List<Book> getBooks() {
+        lock.readLock().lock();
+        try {
+            return CollectionUtil.createList(books);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.BookList#getBooks(org.crosswire.jsword.book.BookFilter)
      */
     @Override
-    public synchronized List<Book> getBooks(BookFilter filter) {
-        return CollectionUtil.createList(new BookFilterIterator(books, filter));
+    public List<Book> getBooks(BookFilter filter) {
+        lock.readLock().lock();
+        try {
+            return CollectionUtil.createList(new BookFilterIterator(books, filter));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -92,39 +103,59 @@ public final class Books extends AbstractBookList {
      * @param name The initials or name of the book to find
      * @return the book or null
      */
-    public synchronized Book getBook(String name) {
+    public Book getBook(String name) {
         if (name == null) {
             return null;
         }
 
-        Book book = initials.get(name);
-        if (book != null) {
-            return book;
-        }
+        lock.readLock().lock();
+        try {
+            Book book = initials.get(name);
+            if (book != null) {
+                return book;
+            }
 
-        book = names.get(name);
-        if (book != null) {
-            return book;
-        }
+            book = names.get(name);
+            if (book != null) {
+                return book;
+            }
 
-        // Check for case-insensitive initial and name matches
-        for (Book b : books) {
-            if (name.equalsIgnoreCase(b.getInitials()) || name.equalsIgnoreCase(b.getName())) {
-                return b;
+            // Check for case-insensitive initial and name matches
+            for (Book b : books) {
+                if (name.equalsIgnoreCase(b.getInitials()) || name.equalsIgnoreCase(b.getName())) {
+                    return b;
+                }
             }
-        }
 
-        return null;
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
      * Add a Book to the current list of Books. This method should only be
      * called by BibleDrivers, it is not a method for general consumption.
      */
-    public synchronized void addBook(Book book) {
-        if (book != null && books.add(book)) {
-            initials.put(book.getInitials(), book);
-            names.put(book.getName(), book);
+    public void addBook(Book book) {
+        if (book == null) {
+            return;
+        }
+
+        boolean added;
+        lock.writeLock().lock();
+        try {
+            added = books.add(book);
+            if (added) {
+                initials.put(book.getInitials(), book);
+                names.put(book.getName(), book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // Listeners are told without the lock held, as they may do anything.
+        if (added) {
             fireBooksChanged(instance, book, true);
         }
     }
@@ -133,15 +164,24 @@ public final class Books extends AbstractBookList {
      * Remove a Book from the current list of Books. This method should only be
      * called by BibleDrivers, it is not a method for general consumption.
      */
-    public synchronized void removeBook(Book book) throws BookException {
+    public void removeBook(Book book) throws BookException {
         // log.debug("unregistering book: {}", bmd.getName());
 
         Activator.deactivate(book);
 
-        boolean removed = books.remove(book);
+        boolean removed;
+        lock.writeLock().lock();
+        try {
+            removed = books.remove(book);
+            if (removed) {
+                initials.remove(book.getInitials());
+                names.remove(book.getName());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
         if (removed) {
-            initials.remove(book.getInitials());
-            names.remove(book.getName());
             fireBooksChanged(instance, book, false);
         } else {
             throw new BookException(JSOtherMsg.lookupText("Could not remove unregistered Book: {0}", book.getName()));
@@ -156,32 +196,56 @@ public final class Books extends AbstractBookList {
      * @param driver
      *            The BookDriver to add
      */
-    public synchronized void registerDriver(BookDriver driver) throws BookException {
+    public void registerDriver(BookDriver driver) throws BookException {
         log.debug("begin registering driver: {}", driver.getClass().getName());
 
-        drivers.add(driver);
+        // The driver finds its books on disk, so that is done without the lock.
+        Book[] bookArray = driver.getBooks();
 
         // Go through all the books and add all the new ones.
         // Remove those that are not known to the driver, but used to be.
-        Book[] bookArray = driver.getBooks();
-        Set<Book> current = CollectionUtil.createSet(new BookFilterIterator(books, BookFilters.getBooksByDriver(driver)));
-
-        for (int j = 0; j < bookArray.length; j++) {
-            Book b = bookArray[j];
-            if (current.contains(b)) {
-                // Since it was already in there, we don't add it.
-                // By removing it from current we will be left with
-                // what is not now known by the driver.
-                current.remove(b);
-            } else {
-                addBook(bookArray[j]);
+        // This is done as a whole under the lock, so that another thread
+        // registering a driver cannot change the books in between.
+        List<Book> added = new ArrayList<Book>();
+        List<Book> removed = new ArrayList<Book>();
+        lock.writeLock().lock();
+        try {
+            drivers.add(driver);
+            Set<Book> current = CollectionUtil.createSet(new BookFilterIterator(books, BookFilters.getBooksByDriver(driver)));
+            for (int j = 0; j < bookArray.length; j++) {
+                Book b = bookArray[j];
+                if (current.contains(b)) {
+                    // Since it was already in there, we don't add it.
+                    // By removing it from current we will be left with
+                    // what is not now known by the driver.
+                    current.remove(b);
+                } else if (b != null && books.add(b)) {
+                    initials.put(b.getInitials(), b);
+                    names.put(b.getName(), b);
+                    added.add(b);
+                }
+            }
+
+            // Remove the books from the previous version of the driver
+            // that are not in this version.
+            for (Book book : current) {
+                if (books.remove(book)) {
+                    initials.remove(book.getInitials());
+                    names.remove(book.getName());
+                    removed.add(book);
+                }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
 
-        // Remove the books from the previous version of the driver
-        // that are not in this version.
-        for (Book book : current) {
-            removeBook(book);
+        // Listeners are told without the lock held, as they may do anything.
+        for (Book book : added) {
+            fireBooksChanged(instance, book, true);
+        }
+        for (Book book : removed) {
+            Activator.deactivate(book);
+            fireBooksChanged(instance, book, false);
         }
 
         log.debug("end registering driver: {}", driver.getClass().getName());
@@ -192,12 +256,17 @@ public final class Books extends AbstractBookList {
      * registered it can be hard to get a hold of the current book driver. This
      * method gives access to the registered instances.
      */
-    public synchronized BookDriver[] getDriversByClass(Class<? extends BookDriver> type) {
+    public BookDriver[] getDriversByClass(Class<? extends BookDriver> type) {
         List<BookDriver> matches = new ArrayList<BookDriver>();
-        for (BookDriver driver : drivers) {
-            if (driver.getClass() == type) {
-                matches.add(driver);
+        lock.readLock().lock();
+        try {
+            for (BookDriver driver : drivers) {
+                if (driver.getClass() == type) {
+                    matches.add(driver);
+                }
             }
+        } finally {
+            lock.readLock().unlock();
         }
 
         return matches.toArray(new BookDriver[matches.size()]);
@@ -208,8 +277,13 @@ public final class Books extends AbstractBookList {
      * 
      * @return Found int or the default value
      */
-    public synchronized BookDriver[] getDrivers() {
-        return drivers.toArray(new BookDriver[drivers.size()]);
+    public BookDriver[] getDrivers() {
+        lock.readLock().lock();
+        try {
+            return drivers.toArray(new BookDriver[drivers.size()]);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -263,6 +337,12 @@ public final class Books extends AbstractBookList {
      */
     private Set<BookDriver> drivers;
 
+    /**
+     * Guards the books, the maps and the drivers. Reading them is far more
+     * common than changing them, so readers do not wait for each other.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
     /**
      * The log stream
      */
@@ -20,9 +20,13 @@
  */
 package org.crosswire.jsword.book.basic;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 
 import org.crosswire.common.activate.Lock;
 import org.crosswire.common.util.Language;
@@ -36,6 +40,7 @@ import org.crosswire.jsword.book.FeatureType;
 import org.crosswire.jsword.book.sword.Backend;
 import org.crosswire.jsword.book.sword.processing.NoOpRawTextProcessor;
 import org.crosswire.jsword.book.sword.processing.RawTextToXmlProcessor;
+import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
 import org.crosswire.jsword.index.IndexStatus;
 import org.crosswire.jsword.index.IndexStatusEvent;
 import org.crosswire.jsword.index.IndexStatusListener;
@@ -315,6 +320,44 @@ public abstract class AbstractBook implements Book {
 
     protected abstract List<Content> getOsis(Key key, RawTextToXmlProcessor noOpRawTextProcessor) throws BookException;
 
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.Book#getOsisAsync(org.crosswire.jsword.passage.Key)
+     */
+    public Future<List<Content>> getOsisAsync(final Key key) {
+        return BookReadExecutor.submit(this, getMaxConcurrentReads(), new Callable<List<Content>>() {
+            public List<Content> call() throws BookException {
+                List<Content> content = new ArrayList<Content>();
+                Iterator<Content> iter = getOsisIterator(key, false);
+                while (iter.hasNext()) {
+                    content.add(iter.next());
+                }
+                return content;
+            }
+        });
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.Book#getRawTextAsync(org.crosswire.jsword.passage.Key)
+     */
+    public Future<String> getRawTextAsync(final Key key) {
+        return BookReadExecutor.submit(this, getMaxConcurrentReads(), new Callable<String>() {
+            public String call() throws BookException {
+                return getRawText(key);
+            }
+        });
+    }
+
+    /**
+     * Get the most background reads of this book that may run at once. Each
+     * read holds an open file state, so this follows the
+     * {@link OpenFileStateManager}.
+     * 
+     * @return the most concurrent background reads
+     */
+    protected int getMaxConcurrentReads() {
+        return OpenFileStateManager.instance().getMaxReadsPerBook();
+    }
+
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.Book#getUnlockKey()
      */
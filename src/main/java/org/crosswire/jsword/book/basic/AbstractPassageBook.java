@@ -20,9 +20,12 @@
  */
 package org.crosswire.jsword.book.basic;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import org.crosswire.common.util.LucidRuntimeException;
 import org.crosswire.jsword.book.BookData;
 import org.crosswire.jsword.book.BookException;
 import org.crosswire.jsword.book.BookMetaData;
@@ -71,7 +74,6 @@ public abstract class AbstractPassageBook extends AbstractBook {
      */
     public Iterator<Content> getOsisIterator(Key key, final boolean allowEmpty) throws BookException {
         // Note: allowEmpty indicates parallel view
-        // TODO(DMS): make the iterator be demand driven
         final Filter filter = getFilter();
 
         // For all the ranges in this Passage
@@ -96,7 +98,7 @@ public abstract class AbstractPassageBook extends AbstractBook {
             public void postVerse(Key verse, List<Content> partialDom, String rawText) {
                 // If the verse is empty or repeated then we shouldn't add the verse
                 if ((allowEmpty || rawText.length() > 0) && !previousVerseText.equals(rawText)) {
-                    List<Content> osisContent = filter.toOSIS(AbstractPassageBook.this, verse, rawText);
+                    List<Content> osisContent = toOSIS(filter, verse, rawText);
                     addOSIS(verse, partialDom, osisContent);
                 }
                 previousVerseText = rawText;
@@ -107,7 +109,135 @@ public abstract class AbstractPassageBook extends AbstractBook {
             }
         };
 
-        return getOsis(ref, processor).iterator();
+        return new OsisIterator(ref, processor);
+    }
+
+    /**
+     * Filter the raw text of a verse into OSIS, using the book's OSISCache
+     * when there is one.
+     *
+     * @param filter  the filter for the book
+     * @param verse   the verse that is being filtered
+     * @param rawText the raw text of the verse
+     * @return the OSIS of the verse, which is the caller's to change
+     */
+    private List<Content> toOSIS(Filter filter, Key verse, String rawText) {
+        OSISCache cache = getOSISCache();
+        if (cache == null) {
+            return filter.toOSIS(this, verse, rawText);
+        }
+
+        Integer ordinal = Integer.valueOf(KeyUtil.getVerse(verse).getOrdinal());
+        List<Content> osisContent = cache.get(ordinal, rawText);
+        if (osisContent == null) {
+            osisContent = filter.toOSIS(this, verse, rawText);
+            cache.put(ordinal, rawText, osisContent);
+        }
+        return osisContent;
+    }
+
+    /**
+     * Get the cache of the filtered OSIS of this book's verses, creating it on
+     * first use. The cache is only created when OSISCache has been given a
+     * default size.
+     *
+     * @return the OSIS cache or null if OSIS is not cached
+     * @see OSISCache#setDefaultMaxChars(long)
+     */
+    public OSISCache getOSISCache() {
+        OSISCache cache = osisCache;
+        if (cache == null && OSISCache.getDefaultMaxChars() > 0) {
+            synchronized (this) {
+                cache = osisCache;
+                if (cache == null) {
+                    cache = new OSISCache();
+                    osisCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Forget the cached OSIS of the book. Entries are checked against the raw
+     * text they were filtered from, so this is not needed for correctness
+     * when the text changes, but frees the memory of entries that are stale.
+     */
+    protected void clearOSISCache() {
+        OSISCache cache = osisCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Reads the OSIS of a passage a chapter or less at a time, as the caller
+     * asks for it, so that only one range is held in memory, no matter how
+     * large the passage. The processor is shared by all the ranges, so that
+     * duplicate verses are detected across them.
+     */
+    private final class OsisIterator implements Iterator<Content> {
+        /**
+         * Read the first range, so that a book that cannot be read is
+         * reported straight away.
+         *
+         * @param ref
+         *            the passage to read, in the versification of this book
+         * @param processor
+         *            turns the raw text of each verse into OSIS
+         * @throws BookException
+         *             if the first range cannot be read
+         */
+        OsisIterator(Passage ref, RawTextToXmlProcessor processor) throws BookException {
+            this.ranges = ref.rangeIterator(RestrictionType.CHAPTER);
+            this.processor = processor;
+            this.current = readNextRange();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#hasNext()
+         */
+        public boolean hasNext() {
+            while (!current.hasNext() && ranges.hasNext()) {
+                try {
+                    current = readNextRange();
+                } catch (BookException e) {
+                    throw new LucidRuntimeException(e.getMessage(), e);
+                }
+            }
+            return current.hasNext();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#next()
+         */
+        public Content next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#remove()
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return the OSIS of the next range or nothing if there are no more
+         */
+        private Iterator<Content> readNextRange() throws BookException {
+            if (!ranges.hasNext()) {
+                return Collections.<Content>emptyList().iterator();
+            }
+            return getOsis(ranges.next(), processor).iterator();
+        }
+
+        private final Iterator<VerseRange> ranges;
+        private final RawTextToXmlProcessor processor;
+        private Iterator<Content> current;
     }
 
     /**
@@ -226,6 +356,11 @@ public abstract class AbstractPassageBook extends AbstractBook {
      */
     private Versification versificationSystem;
 
+    /**
+     * The cache of filtered OSIS, created lazily, so use getter
+     */
+    private volatile OSISCache osisCache;
+
     /**
      * Our key manager
      */
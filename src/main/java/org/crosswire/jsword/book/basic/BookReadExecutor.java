@@ -0,0 +1,348 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.basic;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the reads of books in the background, so that the caller's thread does
+ * not wait on the disk or on uncompressing. Many lookups, across many books,
+ * can be started together and their results gathered as they are needed.
+ *
+ * <p>
+ * The reads are run by a bounded pool of threads shared by all books, with a
+ * bounded queue. When the queue is full, a read fails with a
+ * RejectedExecutionException rather than waiting. Where the Java runtime has
+ * virtual threads, they are used, as a read spends most of its time blocked.
+ * </p>
+ *
+ * <p>
+ * No more than a given number of reads of one book are run at once. The rest
+ * wait for one of them to finish, without holding a thread, so that a burst of
+ * reads of one book does not starve the reading of others. The number of reads
+ * that may wait for a book is bounded too. A read beyond it fails with a
+ * RejectedExecutionException.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public final class BookReadExecutor {
+    /**
+     * Prevent instantiation
+     */
+    private BookReadExecutor() {
+    }
+
+    /**
+     * Run a read of a book in the background.
+     *
+     * @param <T>
+     *            the type of the result of the read
+     * @param book
+     *            the book that is read, or whatever else identifies the
+     *            reads that are limited together
+     * @param maxReads
+     *            the most reads of the book that may run at once
+     * @param read
+     *            the read to run
+     * @return the future result of the read
+     */
+    public static <T> Future<T> submit(Object book, int maxReads, Callable<T> read) {
+        ReadTask<T> task = new ReadTask<T>(book, read);
+        int maxWaiting = getMaxWaiting();
+        boolean runNow;
+        synchronized (BOOKS) {
+            BookReads reads = BOOKS.get(book);
+            if (reads == null) {
+                reads = new BookReads();
+                BOOKS.put(book, reads);
+            }
+            runNow = reads.running < Math.max(1, maxReads);
+            if (runNow) {
+                reads.running++;
+            } else if (reads.waiting.size() < maxWaiting) {
+                reads.waiting.add(task);
+            } else {
+                // The book is running, so it stays in BOOKS.
+                task.reject(new RejectedExecutionException("Too many reads of the book are waiting"));
+                return task;
+            }
+        }
+
+        if (runNow && !execute(task)) {
+            finished(book);
+        }
+        return task;
+    }
+
+    /**
+     * Set the number of threads that read books. The default is twice the
+     * number of processors.
+     *
+     * @param threads
+     *            the number of reading threads
+     */
+    public static synchronized void setThreads(int threads) {
+        BookReadExecutor.threads = Math.max(1, threads);
+        restart();
+    }
+
+    /**
+     * @return the number of reading threads
+     */
+    public static synchronized int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the most reads that may wait for a reading thread, for all books.
+     *
+     * @param queueSize
+     *            the most waiting reads
+     */
+    public static synchronized void setQueueSize(int queueSize) {
+        BookReadExecutor.queueSize = Math.max(1, queueSize);
+        restart();
+    }
+
+    /**
+     * @return the most reads that may wait for a reading thread
+     */
+    public static synchronized int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the most reads of one book that may wait for others of the book to
+     * finish. The default is 256.
+     *
+     * @param maxWaiting
+     *            the most waiting reads per book
+     */
+    public static synchronized void setMaxWaiting(int maxWaiting) {
+        BookReadExecutor.maxWaiting = Math.max(0, maxWaiting);
+    }
+
+    /**
+     * @return the most reads of one book that may wait for others of the book
+     */
+    public static synchronized int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    /**
+     * Set whether virtual threads are used when the Java runtime has them.
+     * They are by default.
+     *
+     * @param virtualThreads
+     *            whether to use virtual threads
+     */
+    public static synchronized void setVirtualThreads(boolean virtualThreads) {
+        BookReadExecutor.virtualThreads = virtualThreads;
+        restart();
+    }
+
+    /**
+     * @return whether virtual threads are used when the Java runtime has them
+     */
+    public static synchronized boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Hand a read to the threads, failing it if they are too busy. If the
+     * threads were shut down by a change of settings after they were gotten,
+     * the read is handed to those that replaced them. A read that fails here
+     * has not run, so the caller must note that it has finished.
+     *
+     * @return whether the read was handed to the threads
+     */
+    private static boolean execute(ReadTask<?> task) {
+        while (true) {
+            ThreadPoolExecutor pool = getExecutor();
+            try {
+                pool.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                if (!pool.isShutdown()) {
+                    // The queue is full.
+                    task.reject(e);
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Note that a read of a book has finished, starting the next read of the
+     * book that is waiting, if any. Those that the threads are too busy to
+     * take are failed in turn, in a loop rather than by recursion, as many
+     * may be waiting.
+     */
+    static void finished(Object book) {
+        while (true) {
+            ReadTask<?> next;
+            synchronized (BOOKS) {
+                BookReads reads = BOOKS.get(book);
+                next = reads.waiting.poll();
+                if (next == null && --reads.running == 0) {
+                    BOOKS.remove(book);
+                }
+            }
+
+            // The next read takes the place of the one that finished.
+            if (next == null || execute(next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the threads that read, creating them on first use.
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            ThreadFactory factory = virtualThreads ? getVirtualThreadFactory() : null;
+            if (factory == null) {
+                factory = new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "BookReader-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                };
+            }
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), factory);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Let the current threads finish their work. New ones are created with
+     * the new settings.
+     */
+    private static void restart() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Get a factory of virtual threads, if the Java runtime has them. The
+     * factory is found by reflection, as this code runs on runtimes without
+     * them.
+     *
+     * @return the factory or null
+     */
+    private static ThreadFactory getVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "BookReader-", Long.valueOf(1));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            // ClassNotFoundException or NoSuchMethodException on older runtimes
+            log.debug("Virtual threads are not available: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * A read of a book, which notes when it has finished, even if it was
+     * cancelled before it began.
+     */
+    private static final class ReadTask<T> extends FutureTask<T> {
+        ReadTask(Object book, Callable<T> read) {
+            super(read);
+            this.book = book;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.FutureTask#run()
+         */
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                finished(book);
+            }
+        }
+
+        /**
+         * Fail the read because there is no room for it.
+         */
+        void reject(RejectedExecutionException e) {
+            setException(e);
+        }
+
+        private final Object book;
+    }
+
+    /**
+     * The reads of a book that are running or waiting to run.
+     */
+    private static final class BookReads {
+        BookReads() {
+            waiting = new LinkedList<ReadTask<?>>();
+        }
+
+        int running;
+        final LinkedList<ReadTask<?>> waiting;
+    }
+
+    /**
+     * The books being read. Guarded by itself.
+     */
+    private static final Map<Object, BookReads> BOOKS = new HashMap<Object, BookReads>();
+
+    private static int threads = 2 * Runtime.getRuntime().availableProcessors();
+    private static int queueSize = 256;
+    private static int maxWaiting = 256;
+    private static boolean virtualThreads = true;
+    private static ThreadPoolExecutor executor;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * The log stream
+     */
+    private static final Logger log = LoggerFactory.getLogger(BookReadExecutor.class);
+}
@@ -0,0 +1,204 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.basic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.crosswire.common.util.WeightedLruCache;
+import org.jdom2.Content;
+
+/**
+ * A cache of the filtered OSIS of the verses of a book, shared by all the
+ * readers of the book. A popular verse is then filtered once, rather than
+ * every time it is asked for.
+ *
+ * <p>
+ * An entry is keyed by the verse and the raw text that it was filtered from,
+ * so a verse that has changed since it was cached is filtered again, and the
+ * stale entry ages out. The cache holds its own copy of the content, which is
+ * never handed out. Each get is given a fresh copy, which is the caller's to
+ * change or to add to a document.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded by the total number of characters of raw text that
+ * its entries were filtered from. The content takes several times as much
+ * memory. An empty entry weighs as one character. An entry that is larger
+ * than a quarter of the bound is not kept.
+ * </p>
+ *
+ * <p>
+ * The cache is optional and is off by default. It is turned on by giving it
+ * a default size before books are read.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISCache extends WeightedLruCache<OSISCache.Key, List<Content>> {
+    /**
+     * Create an OSISCache bounded by the default size.
+     */
+    public OSISCache() {
+        this(defaultMaxChars);
+    }
+
+    /**
+     * Create an OSISCache bounded by the given size.
+     *
+     * @param maxChars
+     *            the most characters of raw text to keep the OSIS of
+     */
+    public OSISCache(long maxChars) {
+        super(maxChars, maxChars / 4, WEIGHER);
+    }
+
+    /**
+     * Get a copy of the filtered OSIS of a verse from the cache.
+     *
+     * @param key
+     *            the ordinal of the verse
+     * @param rawText
+     *            the raw text of the verse as it is now
+     * @return the OSIS or null if it is not cached for this raw text
+     */
+    public List<Content> get(Object key, String rawText) {
+        return get(new Key(key, rawText));
+    }
+
+    /**
+     * Add a copy of the filtered OSIS of a verse to the cache, evicting others
+     * as needed.
+     *
+     * @param key
+     *            the ordinal of the verse
+     * @param rawText
+     *            the raw text that the OSIS was filtered from
+     * @param content
+     *            the filtered OSIS
+     */
+    public void put(Object key, String rawText, List<Content> content) {
+        put(new Key(key, rawText), content);
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.common.util.WeightedLruCache#get(java.lang.Object)
+     */
+    @Override
+    public List<Content> get(Key key) {
+        List<Content> content = super.get(key);
+        return content == null ? null : copy(content);
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.common.util.WeightedLruCache#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void put(Key key, List<Content> content) {
+        // The caller still has the content, so the cache keeps a copy.
+        super.put(key, copy(content));
+    }
+
+    /**
+     * Set the size bound of OSISCaches that are created hereafter. A bound of
+     * 0 or less turns the cache off for books that are read hereafter.
+     *
+     * @param maxChars
+     *            the most characters of raw text to keep the OSIS of per book
+     */
+    public static void setDefaultMaxChars(long maxChars) {
+        OSISCache.defaultMaxChars = maxChars;
+    }
+
+    /**
+     * @return the size bound of OSISCaches that are created hereafter
+     */
+    public static long getDefaultMaxChars() {
+        return defaultMaxChars;
+    }
+
+    /**
+     * Deep copy the content, detached from any parent.
+     */
+    private static List<Content> copy(List<Content> content) {
+        List<Content> copy = new ArrayList<Content>(content.size());
+        for (Content item : content) {
+            copy.add(item.clone());
+        }
+        return copy;
+    }
+
+    /**
+     * A verse and the raw text that it had when it was filtered.
+     */
+    public static final class Key {
+        /**
+         * @param verse
+         *            the ordinal of the verse
+         * @param rawText
+         *            the raw text of the verse
+         */
+        public Key(Object verse, String rawText) {
+            this.verse = verse;
+            this.rawText = rawText;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return 31 * verse.hashCode() + rawText.hashCode();
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return verse.equals(that.verse) && rawText.equals(that.rawText);
+        }
+
+        private final Object verse;
+        private final String rawText;
+    }
+
+    /**
+     * An entry weighs the length of its raw text, an empty one as one
+     * character.
+     */
+    private static final Weigher<Key, List<Content>> WEIGHER = new Weigher<Key, List<Content>>() {
+        public long weigh(Key key, List<Content> content) {
+            return Math.max(1, key.rawText.length());
+        }
+    };
+
+    /**
+     * The default bound, 0 for no cache.
+     */
+    private static volatile long defaultMaxChars;
+}
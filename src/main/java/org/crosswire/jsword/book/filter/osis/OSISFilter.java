@@ -26,7 +26,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.regex.Pattern;
 
 import org.crosswire.common.xml.XMLUtil;
 import org.crosswire.jsword.book.Book;
@@ -60,15 +59,6 @@ public class OSISFilter implements Filter {
         Exception ex = null;
         String clean = plain;
 
-        // The following converts simple <div> and </div> to their milestoned versions.
-        // Current versions of osis2mod do this already
-        // Note: if the div element has attributes, it is not seen.
-        clean = DIV_START.matcher(clean).replaceAll("<div sID=\"xyz\"/>");
-        clean = DIV_END.matcher(clean).replaceAll("<div eID=\"xyz\"/>");
-        clean = CHAPTER_END.matcher(clean).replaceAll("<chapter eID=\"xyz\"/>");
-        clean = SPEECH_START.matcher(clean).replaceAll("<speech sID=\"xyz\"/>");
-        clean = SPEECH_END.matcher(clean).replaceAll("<speech eID=\"xyz\"/>");
-
         // FIXME(dms): this is a major HACK handling a problem with a badly
         // encoded module.
         /* if (book.getInitials().startsWith("NET") && plain.endsWith("</div>")) {
@@ -95,6 +85,21 @@ public class OSISFilter implements Filter {
             }
         }
 
+        // In one pass, convert simple <div> and the like to their milestoned
+        // versions, fix the entities, there should be no bad ones in OSIS,
+        // and see whether the tags are balanced.
+        // Current versions of osis2mod do the milestoning already.
+        OSISScanner scanner = new OSISScanner(clean);
+        clean = scanner.getText();
+
+        // Unbalanced tags won't parse, so don't bother trying as is.
+        if (!scanner.isBalanced()) {
+            String reclosed = XMLUtil.recloseTags(clean);
+            if (reclosed != null) {
+                clean = reclosed;
+            }
+        }
+
         try {
             ele = parse(clean);
         } catch (JDOMException e) {
@@ -103,37 +108,6 @@ public class OSISFilter implements Filter {
             ex = e;
         }
 
-        if (ele == null) {
-            // There should be no bad entities in OSIS.
-            String cleanedEntities = XMLUtil.cleanAllEntities(clean);
-            if (cleanedEntities != null && !cleanedEntities.equals(clean)) {
-                clean = cleanedEntities;
-                try {
-                    ele = parse(clean);
-                    ex = null;
-                } catch (JDOMException e) {
-                    ex = e;
-                } catch (IOException e) {
-                    ex = e;
-                }
-            }
-        }
-
-        if (ele == null) {
-            String reclosed = XMLUtil.recloseTags(clean);
-            if (reclosed != null && !reclosed.equals(clean)) {
-                clean = reclosed;
-                try {
-                    ele = parse(clean);
-                    ex = null;
-                } catch (JDOMException e) {
-                    ex = e;
-                } catch (IOException e) {
-                    ex = e;
-                }
-            }
-        }
-
         if (ex != null) {
             DataPolice.report(book, key, "Parse failed: " + ex.getMessage() + "\non: " + clean);
             ele = cleanTags(book, key, clean);
@@ -177,8 +151,15 @@ public class OSISFilter implements Filter {
     /**
      * If the string is invalid then we might want to have more than one crack
      * at parsing it
+     * 
+     * @param plain
+     *            the cleaned up entry
+     * @return an element holding the content of the entry
+     * @throws JDOMException
+     *             if the entry is not well formed
+     * @throws IOException
      */
-    private Element parse(String plain) throws JDOMException, IOException {
+    protected Element parse(String plain) throws JDOMException, IOException {
         SAXBuilder builder = saxBuilders.poll();
         if (builder == null) {
             //then we have no sax builders available, so let's create a new one and store
@@ -212,26 +193,6 @@ public class OSISFilter implements Filter {
     // space for 32 re-usable sax builders, but doesn't bound the number available to the callers
     private BlockingQueue<SAXBuilder> saxBuilders = new ArrayBlockingQueue<SAXBuilder>(32);
 
-    /**
-     * Pattern to find the start of a div. Used to convert to a milestoned version.
-     */
-    private static final Pattern DIV_START = Pattern.compile("<div>", Pattern.LITERAL);
-    /**
-     * Pattern to find the end of a div. Used to convert to a milestoned version.
-     */
-    private static final Pattern DIV_END = Pattern.compile("</div>", Pattern.LITERAL);
-    /**
-     * Pattern to find the end of a chapter. Used to convert to a milestoned version.
-     */
-    private static final Pattern CHAPTER_END = Pattern.compile("</chapter>", Pattern.LITERAL);
-    /**
-     * Pattern to find the start of a speech. Used to convert to a milestoned version.
-     */
-    private static final Pattern SPEECH_START = Pattern.compile("<speech>", Pattern.LITERAL);
-    /**
-     * Pattern to find the end of a speech. Used to convert to a milestoned version.
-     */
-    private static final Pattern SPEECH_END = Pattern.compile("</speech>", Pattern.LITERAL);
     /**
      * The log stream
      */
@@ -0,0 +1,528 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import org.jdom2.AttributeType;
+import org.jdom2.Element;
+import org.jdom2.JDOMFactory;
+import org.jdom2.Namespace;
+import org.jdom2.UncheckedJDOMFactory;
+
+/**
+ * A pull parser for the fragments of OSIS that make up an entry. It reads the
+ * fragment once, from left to right, building the JDOM content as it goes. It
+ * builds the same content as a SAXBuilder would from the fragment wrapped in
+ * &lt;xxx&gt;&lt;/xxx&gt;, but without the cost of setting up a SAX parse
+ * for each entry.
+ * 
+ * <p>
+ * Only the XML that is found in module entries is handled: elements without
+ * namespaces other than xml:, attributes, text, the predefined entities,
+ * character references, comments and CDATA sections. Anything else, whether
+ * badly formed or merely unusual, such as a namespace declaration or a
+ * processing instruction, gets a null from parse. It is then up to the caller
+ * to parse it the long way, which will say what is wrong with it.
+ * </p>
+ * 
+ * <p>
+ * Content is checked as it is read, so it is created without JDOM checking it
+ * again.
+ * </p>
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+final class OSISFragmentParser {
+    /**
+     * Prepare to parse a fragment.
+     * 
+     * @param fragment
+     *            the OSIS to parse
+     */
+    private OSISFragmentParser(String fragment) {
+        this.raw = fragment;
+        this.length = fragment.length();
+        this.buf = new StringBuilder();
+    }
+
+    /**
+     * Parse a fragment of OSIS.
+     * 
+     * @param fragment
+     *            the OSIS to parse
+     * @return an element named xxx that holds the content of the fragment or
+     *         null if the fragment cannot be parsed here
+     */
+    static Element parse(String fragment) {
+        return new OSISFragmentParser(fragment).parse();
+    }
+
+    private Element parse() {
+        Element root = FACTORY.element(ROOT);
+        Element current = root;
+        while (pos < length) {
+            char c = raw.charAt(pos);
+            if (c == '<') {
+                if (pos + 1 >= length) {
+                    return null;
+                }
+                char next = raw.charAt(pos + 1);
+                if (next == '/') {
+                    flushText(current);
+                    if (current == root || !readEndTag(current)) {
+                        return null;
+                    }
+                    current = current.getParentElement();
+                } else if (next == '!') {
+                    if (!readComment(current) && !readCDATA(current)) {
+                        return null;
+                    }
+                } else {
+                    flushText(current);
+                    Element element = readStartTag(current);
+                    if (element == null) {
+                        return null;
+                    }
+                    if (open) {
+                        current = element;
+                    }
+                }
+            } else if (c == '&') {
+                if (!readReference()) {
+                    return null;
+                }
+            } else if (c == ']' && raw.startsWith("]]>", pos)) {
+                // Not allowed in text
+                return null;
+            } else if (!readChar(c)) {
+                return null;
+            }
+        }
+
+        if (current != root) {
+            return null;
+        }
+        flushText(root);
+        return root;
+    }
+
+    /**
+     * Read the start tag at pos, adding the element to the parent.
+     * 
+     * @return the element or null if it cannot be read
+     */
+    private Element readStartTag(Element parent) {
+        pos++;
+        int colon = readName();
+        if (colon != -1) {
+            // Prefixed elements need their namespace declared.
+            return null;
+        }
+        Element element = FACTORY.element(name);
+        while (true) {
+            boolean space = skipSpace();
+            if (pos >= length) {
+                return null;
+            }
+            char c = raw.charAt(pos);
+            if (c == '>') {
+                pos++;
+                open = true;
+                break;
+            }
+            if (c == '/') {
+                if (pos + 1 >= length || raw.charAt(pos + 1) != '>') {
+                    return null;
+                }
+                pos += 2;
+                open = false;
+                break;
+            }
+            if (!space || !readAttribute(element)) {
+                return null;
+            }
+        }
+        FACTORY.addContent(parent, element);
+        return element;
+    }
+
+    /**
+     * Read an attribute at pos, adding it to the element.
+     * 
+     * @return whether an attribute was read
+     */
+    private boolean readAttribute(Element element) {
+        int colon = readName();
+        if (colon == 0 || name.startsWith("xmlns")) {
+            // Namespace declarations are left to the long way.
+            return false;
+        }
+        String local = name;
+        Namespace ns = Namespace.NO_NAMESPACE;
+        if (colon != -1) {
+            if (colon != 3 || !name.startsWith("xml")) {
+                return false;
+            }
+            local = name.substring(colon + 1);
+            ns = Namespace.XML_NAMESPACE;
+        }
+        if (element.getAttribute(local, ns) != null) {
+            // Attributes may not be repeated.
+            return false;
+        }
+
+        skipSpace();
+        if (pos >= length || raw.charAt(pos) != '=') {
+            return false;
+        }
+        pos++;
+        skipSpace();
+        if (pos >= length) {
+            return false;
+        }
+        char quote = raw.charAt(pos);
+        if (quote != '"' && quote != '\'') {
+            return false;
+        }
+        pos++;
+
+        // Whitespace in the value is normalized to spaces.
+        buf.setLength(0);
+        while (true) {
+            if (pos >= length) {
+                return false;
+            }
+            char c = raw.charAt(pos);
+            if (c == quote) {
+                pos++;
+                break;
+            }
+            if (c == '<') {
+                return false;
+            }
+            if (c == '&') {
+                if (!readReference()) {
+                    return false;
+                }
+            } else if (c == '\r' || c == '\n' || c == '\t') {
+                pos += c == '\r' && pos + 1 < length && raw.charAt(pos + 1) == '\n' ? 2 : 1;
+                buf.append(' ');
+            } else if (!readChar(c)) {
+                return false;
+            }
+        }
+
+        FACTORY.setAttribute(element, FACTORY.attribute(local, buf.toString(), AttributeType.CDATA, ns));
+        buf.setLength(0);
+        return true;
+    }
+
+    /**
+     * Read the end tag at pos, which must end the current element.
+     * 
+     * @return whether it is the end of the element
+     */
+    private boolean readEndTag(Element current) {
+        pos += 2;
+        readName();
+        if (!name.equals(current.getName()) || current.getNamespacePrefix().length() != 0) {
+            return false;
+        }
+        skipSpace();
+        if (pos >= length || raw.charAt(pos) != '>') {
+            return false;
+        }
+        pos++;
+        return true;
+    }
+
+    /**
+     * Read a comment at pos, if there is one.
+     * 
+     * @return whether a comment was read
+     */
+    private boolean readComment(Element parent) {
+        if (!raw.startsWith("<!--", pos)) {
+            return false;
+        }
+        int end = raw.indexOf("--", pos + 4);
+        if (end == -1 || end + 2 >= length || raw.charAt(end + 2) != '>') {
+            // Unterminated or a -- in the comment
+            return false;
+        }
+        flushText(parent);
+        pos += 4;
+        if (!readChars(end)) {
+            return false;
+        }
+        FACTORY.addContent(parent, FACTORY.comment(buf.toString()));
+        buf.setLength(0);
+        pos = end + 3;
+        return true;
+    }
+
+    /**
+     * Read a CDATA section at pos, if there is one. As with a SAXBuilder, the
+     * text before it is added even when there is none.
+     * 
+     * @return whether a CDATA section was read
+     */
+    private boolean readCDATA(Element parent) {
+        if (!raw.startsWith("<![CDATA[", pos)) {
+            return false;
+        }
+        int end = raw.indexOf("]]>", pos + 9);
+        if (end == -1 || end == pos + 9) {
+            // A SAXBuilder makes the text before an empty section into CDATA.
+            return false;
+        }
+        FACTORY.addContent(parent, FACTORY.text(buf.toString()));
+        buf.setLength(0);
+        pos += 9;
+        if (!readChars(end)) {
+            return false;
+        }
+        FACTORY.addContent(parent, FACTORY.cdata(buf.toString()));
+        buf.setLength(0);
+        pos = end + 3;
+        return true;
+    }
+
+    /**
+     * Read the characters from pos up to end into the buffer.
+     * 
+     * @return whether they are all allowed
+     */
+    private boolean readChars(int end) {
+        while (pos < end) {
+            if (!readChar(raw.charAt(pos))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a character, which is not markup, into the buffer. Line ends are
+     * normalized to a newline.
+     * 
+     * @return whether the character is allowed in XML
+     */
+    private boolean readChar(char c) {
+        if (c >= 0x20 && c < 0xD800) {
+            buf.append(c);
+            pos++;
+            return true;
+        }
+        if (c == '\r') {
+            if (pos + 1 < length && raw.charAt(pos + 1) == '\n') {
+                pos++;
+            }
+            buf.append('\n');
+            pos++;
+            return true;
+        }
+        if (c == '\n' || c == '\t' || (c >= 0xE000 && c <= 0xFFFD)) {
+            buf.append(c);
+            pos++;
+            return true;
+        }
+        // A surrogate pair
+        if (Character.isHighSurrogate(c) && pos + 1 < length && Character.isLowSurrogate(raw.charAt(pos + 1))) {
+            buf.append(c).append(raw.charAt(pos + 1));
+            pos += 2;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the entity or character reference at pos into the buffer.
+     * 
+     * @return whether it is a predefined entity or a reference to a character
+     *         allowed in XML
+     */
+    private boolean readReference() {
+        int semi = raw.indexOf(';', pos + 1);
+        if (semi == -1) {
+            return false;
+        }
+        int start = pos + 1;
+        if (start < semi && raw.charAt(start) == '#') {
+            int value = readCharacterReference(start + 1, semi);
+            if (value == -1) {
+                return false;
+            }
+            buf.appendCodePoint(value);
+        } else {
+            int size = semi - start;
+            if (size == 3 && raw.startsWith("amp", start)) {
+                buf.append('&');
+            } else if (size == 2 && raw.startsWith("lt", start)) {
+                buf.append('<');
+            } else if (size == 2 && raw.startsWith("gt", start)) {
+                buf.append('>');
+            } else if (size == 4 && raw.startsWith("quot", start)) {
+                buf.append('"');
+            } else if (size == 4 && raw.startsWith("apos", start)) {
+                buf.append('\'');
+            } else {
+                return false;
+            }
+        }
+        pos = semi + 1;
+        return true;
+    }
+
+    /**
+     * Get the value of the digits of a character reference.
+     * 
+     * @return the character or -1 if it is not allowed
+     */
+    private int readCharacterReference(int from, int to) {
+        int i = from;
+        int radix = 10;
+        if (i < to && raw.charAt(i) == 'x') {
+            radix = 16;
+            i++;
+        }
+        if (i == to) {
+            return -1;
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            char c = raw.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (radix == 16 && c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (radix == 16 && c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            value = value * radix + digit;
+            if (value > 0x10FFFF) {
+                return -1;
+            }
+        }
+        if (value == 0x9 || value == 0xA || value == 0xD
+                || (value >= 0x20 && value <= 0xD7FF)
+                || (value >= 0xE000 && value <= 0xFFFD)
+                || value >= 0x10000)
+        {
+            return value;
+        }
+        return -1;
+    }
+
+    /**
+     * Read a name at pos into name. Only ASCII names are read here.
+     * 
+     * @return the index of the colon in the name or -1 if there is none
+     */
+    private int readName() {
+        int start = pos;
+        int colon = -1;
+        while (pos < length) {
+            char c = raw.charAt(pos);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_') {
+                pos++;
+            } else if (pos > start && ((c >= '0' && c <= '9') || c == '-' || c == '.')) {
+                pos++;
+            } else if (c == ':' && colon == -1 && pos > start) {
+                colon = pos - start;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos == start || colon == pos - start - 1) {
+            // No name, or nothing after the colon
+            name = "";
+            return 0;
+        }
+        name = raw.substring(start, pos);
+        return colon;
+    }
+
+    /**
+     * Skip over any whitespace at pos.
+     * 
+     * @return whether there was any
+     */
+    private boolean skipSpace() {
+        int start = pos;
+        while (pos < length) {
+            char c = raw.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\t' && c != '\r') {
+                break;
+            }
+            pos++;
+        }
+        return pos > start;
+    }
+
+    /**
+     * Add the text that has been read, if any, to the element.
+     */
+    private void flushText(Element parent) {
+        if (buf.length() > 0) {
+            FACTORY.addContent(parent, FACTORY.text(buf.toString()));
+            buf.setLength(0);
+        }
+    }
+
+    /**
+     * The element that contains the fragment, as in OSISFilter.
+     */
+    private static final String ROOT = "xxx";
+
+    /**
+     * What is read has been checked, so JDOM need not check it again.
+     */
+    private static final JDOMFactory FACTORY = new UncheckedJDOMFactory();
+
+    private final String raw;
+    private final int length;
+
+    /**
+     * The text or attribute value being read.
+     */
+    private final StringBuilder buf;
+
+    /**
+     * Where the next character will be read from.
+     */
+    private int pos;
+
+    /**
+     * The last name read.
+     */
+    private String name;
+
+    /**
+     * Whether the last start tag read was for an element with content.
+     */
+    private boolean open;
+}
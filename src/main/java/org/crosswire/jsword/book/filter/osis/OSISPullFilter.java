@@ -0,0 +1,63 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import java.io.IOException;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+
+/**
+ * An OSISFilter that parses each entry with an OSISFragmentParser rather than
+ * a SAXBuilder. The content is the same either way. Entries that the fragment
+ * parser does not handle, including those that are not well formed, are
+ * parsed as OSISFilter would, so that they are cleaned up and reported in the
+ * same way.
+ * 
+ * <p>
+ * To use it for OSIS books, map osis to this class in Filter.plugin.
+ * </p>
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISPullFilter extends OSISFilter {
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.filter.osis.OSISFilter#parse(java.lang.String)
+     */
+    @Override
+    protected Element parse(String plain) throws JDOMException, IOException {
+        Element ele = OSISFragmentParser.parse(plain);
+        if (ele == null) {
+            ele = super.parse(plain);
+        }
+        return ele;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.filter.osis.OSISFilter#clone()
+     */
+    @Override
+    public OSISPullFilter clone() {
+        return (OSISPullFilter) super.clone();
+    }
+}
@@ -0,0 +1,359 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import org.crosswire.common.xml.XMLUtil;
+
+/**
+ * A single pass over the raw OSIS of an entry, done before it is parsed. It
+ * does in one go what was once a chain of full string replacements:
+ * <ul>
+ * <li>Simple &lt;div&gt;, &lt;/div&gt;, &lt;/chapter&gt;, &lt;speech&gt; and
+ * &lt;/speech&gt; are converted to their milestoned versions. If the element
+ * has attributes, it is not seen.</li>
+ * <li>Entities are fixed as XMLUtil.cleanAllEntities would fix them, except
+ * that character references that the parser accepts are left alone.</li>
+ * <li>Start and end tags are matched up, so that the caller knows whether it
+ * needs to reclose the tags before parsing.</li>
+ * </ul>
+ * Comments and CDATA sections are copied as they are.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+final class OSISScanner {
+    /**
+     * Scan the raw text of an entry.
+     * 
+     * @param raw
+     *            the raw OSIS
+     */
+    OSISScanner(String raw) {
+        this.raw = raw;
+        this.length = raw.length();
+        this.balanced = true;
+        scan();
+        // Most entries need no change, so they are not copied.
+        this.text = buf == null ? raw : buf.toString();
+        this.buf = null;
+        this.openTags = null;
+    }
+
+    /**
+     * @return the cleaned text
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * An entry is balanced when every end tag closes the last open start tag
+     * and no start tag is left open. An entry that is not balanced will not
+     * parse as is.
+     * 
+     * @return whether the tags are balanced
+     */
+    boolean isBalanced() {
+        return balanced;
+    }
+
+    private void scan() {
+        int run = 0;
+        int i = 0;
+        while (i < length) {
+            char c = raw.charAt(i);
+            if (c != '<' && c != '&') {
+                i++;
+                continue;
+            }
+
+            i = c == '<' ? scanTag(i, run) : scanEntity(i, run);
+            if (buf != null) {
+                run = i;
+            }
+        }
+        if (buf != null) {
+            buf.append(raw, run, length);
+        }
+
+        if (openCount > 0) {
+            balanced = false;
+        }
+    }
+
+    /**
+     * Replace the markup at start with replace. The text from run up to the
+     * markup has not been copied yet.
+     */
+    private void replace(int run, int start, String replace) {
+        if (buf == null) {
+            buf = new StringBuilder(length + 32);
+        }
+        buf.append(raw, run, start).append(replace);
+    }
+
+    /**
+     * Handle the '&lt;' at lt, returning where to continue. Other than
+     * milestones, the tag is left as text, so that the entities in attributes
+     * are fixed too.
+     */
+    private int scanTag(int lt, int run) {
+        // All the milestones are "<" or "</" followed by d, c or s.
+        int first = lt + 1;
+        if (first < length && raw.charAt(first) == '/') {
+            first++;
+        }
+        if (first < length) {
+            char c = raw.charAt(first);
+            if (c == 'd' || c == 'c' || c == 's') {
+                for (int m = 0; m < MILESTONES.length; m++) {
+                    if (raw.startsWith(MILESTONES[m], lt)) {
+                        replace(run, lt, MILESTONED[m]);
+                        return lt + MILESTONES[m].length();
+                    }
+                }
+            }
+        }
+
+        // Comments and CDATA sections are left as they are.
+        int end = skipLiteral(lt, "<!--", "-->");
+        if (end == -1) {
+            end = skipLiteral(lt, "<![CDATA[", "]]>");
+        }
+        if (end != -1) {
+            if (buf != null) {
+                buf.append(raw, run, end);
+            }
+            return end;
+        }
+
+        if (buf != null) {
+            buf.append(raw, run, lt + 1);
+        }
+        if (balanced) {
+            matchTag(lt);
+        }
+        return lt + 1;
+    }
+
+    /**
+     * Find the end of the markup at lt, if it starts with start and ends with
+     * end.
+     * 
+     * @return the index following the end or -1 if it is not there
+     */
+    private int skipLiteral(int lt, String start, String end) {
+        if (!raw.startsWith(start, lt)) {
+            return -1;
+        }
+        int found = raw.indexOf(end, lt + start.length());
+        return found == -1 ? -1 : found + end.length();
+    }
+
+    /**
+     * Match up the tag at lt, in the same way as XMLUtil.recloseTags. Tag
+     * names are ASCII letters, so namespace prefixes and the like are not
+     * considered. Comments and processing instructions are ignored.
+     */
+    private void matchTag(int lt) {
+        int start = lt + 1;
+        boolean end = start < length && raw.charAt(start) == '/';
+        if (end) {
+            start++;
+        }
+
+        int finish = start;
+        while (finish < length && isLetter(raw.charAt(finish))) {
+            finish++;
+        }
+        if (finish == start) {
+            return;
+        }
+
+        if (end) {
+            if (openCount == 0) {
+                balanced = false;
+                return;
+            }
+            openCount--;
+            int lastStart = openTags[2 * openCount];
+            int lastFinish = openTags[2 * openCount + 1];
+            if (lastFinish - lastStart != finish - start || !raw.regionMatches(start, raw, lastStart, finish - start)) {
+                balanced = false;
+            }
+            return;
+        }
+
+        int gt = raw.indexOf('>', finish);
+        if (gt == -1) {
+            balanced = false;
+            return;
+        }
+
+        // An empty element does not need to be closed.
+        int back = gt - 1;
+        while (Character.isWhitespace(raw.charAt(back))) {
+            back--;
+        }
+        if (raw.charAt(back) != '/') {
+            // Remember where the name is rather than copy it.
+            if (openTags == null) {
+                openTags = new int[16];
+            } else if (2 * openCount == openTags.length) {
+                int[] grown = new int[2 * openTags.length];
+                System.arraycopy(openTags, 0, grown, 0, openTags.length);
+                openTags = grown;
+            }
+            openTags[2 * openCount] = start;
+            openTags[2 * openCount + 1] = finish;
+            openCount++;
+        }
+    }
+
+    /**
+     * Handle the '&amp;' at amp, returning where to continue.
+     */
+    private int scanEntity(int amp, int run) {
+        int i = amp + 1;
+        if (i < length && raw.charAt(i) == '#') {
+            int end = scanCharacterReference(i + 1);
+            if (end != -1) {
+                if (buf != null) {
+                    buf.append(raw, run, end);
+                }
+                return end;
+            }
+        } else {
+            while (i < length && Character.isLetterOrDigit(raw.charAt(i))) {
+                i++;
+            }
+            if (i < length && raw.charAt(i) == ';') {
+                String entity = raw.substring(amp, i + 1);
+                String replace = XMLUtil.handleEntity(entity);
+                if (replace.equals(entity)) {
+                    if (buf != null) {
+                        buf.append(raw, run, i + 1);
+                    }
+                } else {
+                    replace(run, amp, replace);
+                }
+                return i + 1;
+            }
+        }
+
+        // It is not an entity, so it is an '&' that needs to be escaped.
+        replace(run, amp, "&amp;");
+        return amp + 1;
+    }
+
+    /**
+     * Find the end of a character reference, the digits of which start at
+     * from. The reference must be to a character that is allowed in XML.
+     * 
+     * @return the index following the ';' or -1 if it is not valid
+     */
+    private int scanCharacterReference(int from) {
+        int i = from;
+        int radix = 10;
+        if (i < length && raw.charAt(i) == 'x') {
+            radix = 16;
+            i++;
+        }
+
+        int digits = i;
+        int value = 0;
+        while (i < length) {
+            int digit = toDigit(raw.charAt(i), radix);
+            if (digit == -1) {
+                break;
+            }
+            value = value * radix + digit;
+            if (value > MAX_CHAR) {
+                return -1;
+            }
+            i++;
+        }
+
+        if (i == digits || i >= length || raw.charAt(i) != ';' || !isXMLChar(value)) {
+            return -1;
+        }
+        return i + 1;
+    }
+
+    private static int toDigit(char c, int radix) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (radix == 16) {
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            if (c >= 'A' && c <= 'F') {
+                return c - 'A' + 10;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * The characters allowed by XML 1.0.
+     */
+    private static boolean isXMLChar(int c) {
+        return c == 0x9 || c == 0xA || c == 0xD
+                || (c >= 0x20 && c <= 0xD7FF)
+                || (c >= 0xE000 && c <= 0xFFFD)
+                || (c >= 0x10000 && c <= MAX_CHAR);
+    }
+
+    private static final int MAX_CHAR = 0x10FFFF;
+
+    /**
+     * The simple elements that are converted to milestones.
+     */
+    private static final String[] MILESTONES = {
+        "<div>", "</div>", "</chapter>", "<speech>", "</speech>"
+    };
+
+    /**
+     * The milestoned versions of MILESTONES.
+     */
+    private static final String[] MILESTONED = {
+        "<div sID=\"xyz\"/>", "<div eID=\"xyz\"/>", "<chapter eID=\"xyz\"/>", "<speech sID=\"xyz\"/>", "<speech eID=\"xyz\"/>"
+    };
+
+    private final String raw;
+    private final int length;
+    private final String text;
+    private boolean balanced;
+
+    /**
+     * Only used while scanning. The buffer is created on the first change.
+     * The open tags are kept as pairs of start and end of the name.
+     */
+    private StringBuilder buf;
+    private int[] openTags;
+    private int openCount;
+}
@@ -20,10 +20,10 @@
  */
 package org.crosswire.jsword.book.filter.thml;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.crosswire.jsword.book.Book;
 import org.crosswire.jsword.book.DataPolice;
@@ -154,6 +154,21 @@ public class CustomHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Prepare the handler for another parse.
+     * 
+     * @param book
+     *            the book being parsed
+     * @param key
+     *            the key being parsed
+     */
+    public void reset(Book book, Key key) {
+        this.book = book;
+        this.key = key;
+        this.stack.clear();
+        this.rootElement = null;
+    }
+
     public Element getRootElement() {
         return rootElement;
     }
@@ -201,7 +216,7 @@ public class CustomHandler extends DefaultHandler {
     private Book book;
 
     /**
-     * The book being parsed.
+     * The key being parsed.
      */
     private Key key;
 
@@ -211,9 +226,9 @@ public class CustomHandler extends DefaultHandler {
     private LinkedList<Content> stack;
 
     /**
-     * The known tag types
+     * The known tag types. Handlers on many threads add unknown ones.
      */
-    private static final Map<String, Tag> TAG_MAP = new HashMap<String, Tag>();
+    private static final Map<String, Tag> TAG_MAP = new ConcurrentHashMap<String, Tag>();
 
     static {
         /*
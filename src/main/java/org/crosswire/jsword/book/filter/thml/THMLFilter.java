@@ -22,7 +22,11 @@ package org.crosswire.jsword.book.filter.thml;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -104,19 +108,28 @@ public class THMLFilter implements Filter {
     private Element cleanParse(Book book, Key key, String plain) {
         // So just try to strip out all XML looking things
         String clean = XMLUtil.cleanAllEntities(plain);
-        Element ele = parse(book, key, clean, "cleaning entities");
+
+        // Skip the parses that are bound to fail.
+        int needed = getCleanupNeeded(clean);
+        Element ele = null;
+        if (needed == CLEAN_ENTITIES) {
+            ele = parse(book, key, clean, "cleaning entities");
+        }
 
         if (ele == null) {
-            ele = cleanText(book, key, clean);
+            ele = cleanText(book, key, clean, needed);
         }
 
         return ele;
     }
 
-    private Element cleanText(Book book, Key key, String plain) {
+    private Element cleanText(Book book, Key key, String plain, int needed) {
         // So just try to strip out all XML looking things
         String clean = XMLUtil.cleanAllCharacters(plain);
-        Element ele = parse(book, key, clean, "cleaning text");
+        Element ele = null;
+        if (needed != CLOSE_EMPTY_TAGS) {
+            ele = parse(book, key, clean, "cleaning text");
+        }
 
         if (ele == null) {
             ele = parse(book, key, XMLUtil.closeEmptyTags(clean), "closing empty tags");
@@ -129,6 +142,94 @@ public class THMLFilter implements Filter {
         return ele;
     }
 
+    /**
+     * Look over the input once to see which of the cleanups it needs before it
+     * will parse. An input that is left with characters that XML does not
+     * allow needs its text cleaned. One that opens more &lt;br&gt;,
+     * &lt;hr&gt; or &lt;img&gt; tags than it closes needs them closed. The
+     * cleanups are done in order, so needing one means needing those before
+     * it. Anything else wrong is only found by parsing.
+     * 
+     * @param plain
+     *            the input with its entities cleaned
+     * @return CLEAN_ENTITIES, CLEAN_TEXT or CLOSE_EMPTY_TAGS
+     */
+    private static int getCleanupNeeded(String plain) {
+        int needed = CLEAN_ENTITIES;
+        Map<String, int[]> unclosed = null;
+        int length = plain.length();
+        int i = 0;
+        while (i < length) {
+            char c = plain.charAt(i);
+            if (c == '<') {
+                // Tags in comments and CDATA sections don't count.
+                int end = -1;
+                if (plain.startsWith("<!--", i)) {
+                    end = plain.indexOf("-->", i);
+                } else if (plain.startsWith("<![CDATA[", i)) {
+                    end = plain.indexOf("]]>", i);
+                }
+                if (end != -1) {
+                    i = end + 3;
+                    continue;
+                }
+
+                // The tags that XMLUtil.closeEmptyTags closes.
+                boolean close = i + 1 < length && plain.charAt(i + 1) == '/';
+                int start = close ? i + 2 : i + 1;
+                if (plain.startsWith("br", start) || plain.startsWith("hr", start) || plain.startsWith("img", start)) {
+                    int finish = start;
+                    while (finish < length && Character.isLetterOrDigit(plain.charAt(finish))) {
+                        finish++;
+                    }
+                    int gt = plain.indexOf('>', finish);
+                    if (gt != -1 && (close || plain.charAt(gt - 1) != '/')) {
+                        if (unclosed == null) {
+                            unclosed = new HashMap<String, int[]>();
+                        }
+                        String name = plain.substring(start, finish);
+                        int[] count = unclosed.get(name);
+                        if (count == null) {
+                            count = new int[1];
+                            unclosed.put(name, count);
+                        }
+                        count[0] += close ? -1 : 1;
+                    }
+                }
+            } else if (needed == CLEAN_ENTITIES && !isXMLChar(plain, i)) {
+                needed = CLEAN_TEXT;
+            }
+            i++;
+        }
+
+        if (unclosed != null) {
+            for (int[] count : unclosed.values()) {
+                if (count[0] > 0) {
+                    return CLOSE_EMPTY_TAGS;
+                }
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * Whether the character at i is allowed in XML, a surrogate being allowed
+     * only as part of a pair.
+     */
+    private static boolean isXMLChar(String plain, int i) {
+        char c = plain.charAt(i);
+        if (c >= 0x20 && c < 0xD800) {
+            return true;
+        }
+        if (c == '\t' || c == '\n' || c == '\r' || (c >= 0xE000 && c <= 0xFFFD)) {
+            return true;
+        }
+        if (Character.isHighSurrogate(c)) {
+            return i + 1 < plain.length() && Character.isLowSurrogate(plain.charAt(i + 1));
+        }
+        return Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(plain.charAt(i - 1));
+    }
+
     private Element cleanTags(Book book, Key key, String plain) {
         // So just try to strip out all XML looking things
         String clean = XMLUtil.cleanAllTags(plain);
@@ -141,16 +242,22 @@ public class THMLFilter implements Filter {
         // 15 for the tags we add
         StringBuilder buf = new StringBuilder(15 + plain.length());
         buf.append('<').append(RootTag.TAG_ROOT).append('>').append(plain).append("</").append(RootTag.TAG_ROOT).append('>');
-        finalInput = buf.toString();
+        // The filter may be shared, so parse what was built here, not the field.
+        String input = buf.toString();
+        finalInput = input;
+        PooledParser pooled = null;
         try {
-            StringReader in = new StringReader(finalInput);
+            pooled = saxParsers.poll();
+            if (pooled == null) {
+                // then we have no parsers available, so let's create a new one
+                pooled = new PooledParser();
+            }
+            StringReader in = new StringReader(input);
             InputSource is = new InputSource(in);
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            SAXParser parser = spf.newSAXParser();
-            CustomHandler handler = new CustomHandler(book, key);
+            pooled.handler.reset(book, key);
 
-            parser.parse(is, handler);
-            return handler.getRootElement();
+            pooled.parser.parse(is, pooled.handler);
+            return pooled.handler.getRootElement();
         } catch (SAXParseException e) {
             ex = e;
         } catch (SAXException e) {
@@ -162,6 +269,10 @@ public class THMLFilter implements Filter {
         } catch (IllegalArgumentException e) {
             // JDOM has a few exceptions which are all derived from this.
             ex = e;
+        } finally {
+            if (pooled != null) {
+                pooled.release(saxParsers);
+            }
         }
 
         errorMessage = failMessage;
@@ -169,10 +280,57 @@ public class THMLFilter implements Filter {
         return null;
     }
 
+    /**
+     * A SAX parser and the handler that it is used with. Getting a parser
+     * from the factory is costly, so they are reused.
+     */
+    private static final class PooledParser {
+        PooledParser() throws ParserConfigurationException, SAXException {
+            // The factory is not thread safe.
+            synchronized (PARSER_FACTORY) {
+                parser = PARSER_FACTORY.newSAXParser();
+            }
+            handler = new CustomHandler(null, null);
+        }
+
+        /**
+         * Give the parser back to the pool, unless it cannot be reset. The
+         * handler is reset when it is next used.
+         */
+        void release(BlockingQueue<PooledParser> pool) {
+            try {
+                parser.reset();
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+            handler.reset(null, null);
+            // Ignore the return value as we don't care whether it is going to be re-used
+            pool.offer(this);
+        }
+
+        final SAXParser parser;
+        final CustomHandler handler;
+    }
+
+    // space for 32 re-usable parsers, but doesn't bound the number available to the callers
+    private BlockingQueue<PooledParser> saxParsers = new ArrayBlockingQueue<PooledParser>(32);
+
     private String errorMessage;
     private Exception error;
     private String finalInput;
 
+    /**
+     * The cleanups that may be needed, in the order they are done.
+     */
+    private static final int CLEAN_ENTITIES = 0;
+    private static final int CLEAN_TEXT = 1;
+    private static final int CLOSE_EMPTY_TAGS = 2;
+
+    /**
+     * Where the parsers come from. Looking it up is costly, so it is done once.
+     */
+    private static final SAXParserFactory PARSER_FACTORY = SAXParserFactory.newInstance();
+
     /**
      * The log stream
      */
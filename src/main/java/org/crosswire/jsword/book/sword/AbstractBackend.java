@@ -30,6 +30,7 @@ import org.crosswire.common.crypt.Sapphire;
 import org.crosswire.jsword.JSMsg;
 import org.crosswire.jsword.JSOtherMsg;
 import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.KeyType;
 import org.crosswire.jsword.book.sword.processing.RawTextToXmlProcessor;
 import org.crosswire.jsword.book.sword.state.OpenFileState;
 import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
@@ -39,6 +40,8 @@ import org.crosswire.jsword.passage.Passage;
 import org.crosswire.jsword.passage.RestrictionType;
 import org.crosswire.jsword.passage.Verse;
 import org.crosswire.jsword.passage.VerseRange;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
 import org.jdom2.Content;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,23 +84,46 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
      * @see org.crosswire.jsword.book.sword.Backend#decipher(byte[])
      */
     public void decipher(byte[] data) {
-        String cipherKeyString = (String) getBookMetaData().getProperty(ConfigEntryType.CIPHER_KEY);
-        if (cipherKeyString != null) {
-            Sapphire cipherEngine = new Sapphire(cipherKeyString.getBytes());
-            for (int i = 0; i < data.length; i++) {
-                data[i] = cipherEngine.cipher(data[i]);
-            }
+        Sapphire cipherEngine = getCipherEngine();
+        if (cipherEngine != null) {
+            cipherEngine.cipher(data, 0, data.length);
             // destroy any evidence!
             cipherEngine.burn();
         }
     }
 
+    /**
+     * Get a cipher engine, freshly keyed with the book's cipher key. Keying is
+     * the costly part of the cipher, so it is done once per key and each
+     * caller gets a copy of the keyed engine. When the book is unlocked with
+     * another key, the key no longer matches and the engine is keyed again.
+     *
+     * @return the cipher engine or null if the book is not enciphered
+     */
+    private Sapphire getCipherEngine() {
+        String cipherKeyString = (String) getBookMetaData().getProperty(ConfigEntryType.CIPHER_KEY);
+        if (cipherKeyString == null) {
+            return null;
+        }
+
+        KeyedCipher keyed = keyedCipher;
+        if (keyed == null || !keyed.key.equals(cipherKeyString)) {
+            keyed = new KeyedCipher(cipherKeyString);
+            keyedCipher = keyed;
+        }
+        return keyed.engine.clone();
+    }
+
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.sword.Backend#encipher(byte[])
      */
     public void encipher(byte[] data) {
-        // Enciphering and deciphering are the same!
-        decipher(data);
+        Sapphire cipherEngine = getCipherEngine();
+        if (cipherEngine != null) {
+            cipherEngine.encipher(data, 0, data.length);
+            // destroy any evidence!
+            cipherEngine.burn();
+        }
     }
 
     /* (non-Javadoc)
@@ -118,10 +144,24 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
      * @see org.crosswire.jsword.book.sword.Backend#getRawText(org.crosswire.jsword.passage.Key)
      */
     public String getRawText(Key key) throws BookException {
+        RawTextCache cache = getRawTextCache();
+        Object cacheKey = null;
+        if (cache != null) {
+            cacheKey = getCacheKey(key);
+            String rawText = cache.get(cacheKey);
+            if (rawText != null) {
+                return rawText;
+            }
+        }
+
         T state = null;
         try {
             state = initState();
-            return readRawContent(state, key);
+            String rawText = readRawContent(state, key);
+            if (cache != null && rawText != null) {
+                cache.put(cacheKey, rawText);
+            }
+            return rawText;
         } catch (IOException e) {
             throw new BookException("Unable to obtain raw content from backend", e);
         } finally {
@@ -160,10 +200,215 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
      * @see org.crosswire.jsword.book.sword.Backend#getGlobalKeyList()
      */
     public Key getGlobalKeyList() throws BookException {
+        return getVerseBitmap().toPassage();
+    }
+
+    /**
+     * Read the verses that have content from the book itself, typically by
+     * scanning the whole index. This is only done when there is no fresh
+     * VerseBitmap of the book.
+     *
+     * @return the verses that have content
+     * @throws BookException
+     *             if the key list cannot be read
+     */
+    protected Key readGlobalKeyList() throws BookException {
         //by default, this is not implemented
         throw new UnsupportedOperationException("Fast global key list unsupported in this backend");
     }
 
+    /**
+     * Get the bitmap of the verses that have content, loading it or making it
+     * on first use.
+     *
+     * @return the bitmap of the verses that have content
+     * @throws BookException
+     *             if the key list cannot be read
+     * @throws UnsupportedOperationException
+     *             if the book is not verse based or the backend cannot read
+     *             its key list
+     */
+    protected VerseBitmap getVerseBitmap() throws BookException {
+        VerseBitmap bitmap = verseBitmap;
+        if (bitmap == null) {
+            if (getBookMetaData().getKeyType() != KeyType.VERSE) {
+                throw new UnsupportedOperationException("Only verse based books have a verse bitmap");
+            }
+            bitmap = VerseBitmap.getInstance(getBookMetaData(), getVersification(), new VerseBitmap.KeyListReader() {
+                public Key readGlobalKeyList() throws BookException {
+                    return AbstractBackend.this.readGlobalKeyList();
+                }
+            });
+            verseBitmap = bitmap;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Forget the bitmap of the verses that have content. Backends that change
+     * which verses have content must call this.
+     */
+    protected void clearVerseBitmap() {
+        verseBitmap = null;
+    }
+
+    /**
+     * Get the cache of raw text shared by all readers of this book, creating
+     * it on first use. This is useful for monitoring its effectiveness.
+     *
+     * @return the raw text cache or null if raw text is not cached
+     * @see RawTextCache#setDefaultMaxChars(long)
+     */
+    public RawTextCache getRawTextCache() {
+        RawTextCache cache = rawTextCache;
+        if (cache == null && RawTextCache.getDefaultMaxChars() > 0) {
+            synchronized (this) {
+                cache = rawTextCache;
+                if (cache == null) {
+                    cache = new RawTextCache();
+                    rawTextCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Forget the cached raw text of the book. Backends that change the
+     * content of the book must call this. Since an alias shares its entry
+     * with its source, the whole cache is cleared rather than a single key.
+     */
+    protected void clearRawTextCache() {
+        RawTextCache cache = rawTextCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the key under which the raw text of an entry is cached: the
+     * ordinal of a verse, the path of a general book entry or the name of
+     * any other entry.
+     */
+    private Object getCacheKey(Key key) {
+        switch (this.bmd.getKeyType()) {
+            case VERSE:
+                return Integer.valueOf(KeyUtil.getVerse(key).getOrdinal());
+            case TREE:
+                return GenBookBackend.getPath(key);
+            default:
+                return key.getName();
+        }
+    }
+
+    /**
+     * Get the raw text of a single key, from the cache if it is there.
+     *
+     * @param state
+     *            the open file state, from which we read things
+     * @param key
+     *            the key that is sought
+     * @return the raw text of the key
+     * @throws IOException
+     *             something went wrong when reading the key
+     * @throws BookException
+     *             something went wrong when reading the key
+     */
+    private String readCachedRawContent(T state, Key key) throws IOException, BookException {
+        RawTextCache cache = getRawTextCache();
+        if (cache == null) {
+            return readRawContent(state, key);
+        }
+
+        Object cacheKey = getCacheKey(key);
+        String rawText = cache.get(cacheKey);
+        if (rawText == null) {
+            rawText = readRawContent(state, key);
+            if (rawText != null) {
+                cache.put(cacheKey, rawText);
+            }
+        }
+        return rawText;
+    }
+
+    /**
+     * Get the raw text of every verse in a range, from the cache if all of
+     * them are there. Otherwise the whole range is read and cached.
+     *
+     * @param state
+     *            the open file state, from which we read things
+     * @param range
+     *            the verses that are sought
+     * @return the raw text of each verse in the range, null for a verse that could not be read
+     * @throws IOException
+     *             something went wrong when reading the range
+     * @throws BookException
+     *             If the Book can not be read.
+     */
+    private String[] readCachedRawContent(T state, VerseRange range) throws IOException, BookException {
+        RawTextCache cache = getRawTextCache();
+        if (cache == null) {
+            return readRawContent(state, range);
+        }
+
+        String[] rawTexts = new String[range.getCardinality()];
+        boolean complete = true;
+        int i = 0;
+        for (Key verse : range) {
+            rawTexts[i] = cache.get(Integer.valueOf(KeyUtil.getVerse(verse).getOrdinal()));
+            complete &= rawTexts[i] != null;
+            i++;
+        }
+        if (complete) {
+            return rawTexts;
+        }
+
+        rawTexts = readRawContent(state, range);
+        i = 0;
+        for (Key verse : range) {
+            if (rawTexts[i] != null) {
+                cache.put(Integer.valueOf(KeyUtil.getVerse(verse).getOrdinal()), rawTexts[i]);
+            }
+            i++;
+        }
+        return rawTexts;
+    }
+
+    /**
+     * Get the versification of a Bible or commentary, resolving it from the
+     * book's configuration on first use.
+     *
+     * @return the versification of the book
+     */
+    protected Versification getVersification() {
+        Versification v11n = versification;
+        if (v11n == null) {
+            // A race only resolves it twice.
+            v11n = Versifications.instance().getVersification(getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString());
+            versification = v11n;
+        }
+        return v11n;
+    }
+
+    /**
+     * Determine whether a verse has content, without reading the index of the
+     * book. If the bitmap of the verses cannot be had, the index is read.
+     *
+     * @param ordinal
+     *            the ordinal of the verse in the book's versification
+     * @return true if the verse has content
+     */
+    public boolean containsOrdinal(int ordinal) {
+        try {
+            return getVerseBitmap().containsOrdinal(ordinal);
+        } catch (UnsupportedOperationException e) {
+            LOGGER.debug(e.getMessage());
+        } catch (BookException e) {
+            LOGGER.debug(e.getMessage(), e);
+        }
+        return getRawTextLength(getVersification().decodeOrdinal(ordinal)) > 0;
+    }
+
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.sword.Backend#readToOsis(org.crosswire.jsword.passage.Key, org.crosswire.jsword.book.sword.processing.RawTextToXmlProcessor)
      */
@@ -198,6 +443,80 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.Backend#readRawContents(org.crosswire.jsword.passage.Key, org.crosswire.jsword.book.sword.RawTextConsumer)
+     */
+    public void readRawContents(Key key, RawTextConsumer consumer) throws BookException {
+        T openFileState = null;
+
+        try {
+            openFileState = initState();
+            readRawContents(openFileState, key, consumer);
+        } finally {
+            OpenFileStateManager.instance().release(openFileState);
+        }
+    }
+
+    /**
+     * Get the raw text of many keys, all with the same open file state.
+     * Verses are read a range at a time. Other keys are read one at a time.
+     *
+     * @param state
+     *            the open file state, from which we read things
+     * @param key
+     *            the keys to fetch
+     * @param consumer
+     *            receives the raw text of each key
+     * @throws BookException
+     *             If the Book can not be read.
+     */
+    protected void readRawContents(T state, Key key, RawTextConsumer consumer) throws BookException {
+        switch (this.bmd.getKeyType()) {
+            case VERSE:
+                // A Passage iterates in ordinal order.
+                final Iterator<VerseRange> rit = KeyUtil.getPassage(key).rangeIterator(RestrictionType.CHAPTER);
+                while (rit.hasNext()) {
+                    VerseRange range = rit.next();
+                    String[] rawTexts = null;
+                    try {
+                        rawTexts = readCachedRawContent(state, range);
+                    } catch (IOException e) {
+                        LOGGER.debug(e.getMessage(), e);
+                        rawTexts = readRawContentByVerse(state, range);
+                    }
+
+                    int i = 0;
+                    for (Key verse : range) {
+                        String rawText = rawTexts[i++];
+                        if (rawText != null) {
+                            consumer.accept(verse, rawText);
+                        }
+                    }
+                }
+                break;
+            case TREE:
+                // As with readToOsis, the children of a TreeKey are not read.
+                acceptRawContent(state, key, consumer);
+                break;
+            default:
+                for (Key next : key) {
+                    acceptRawContent(state, next, consumer);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Give the raw text of a single key to the consumer, if it can be read.
+     */
+    private void acceptRawContent(T state, Key key, RawTextConsumer consumer) throws BookException {
+        try {
+            consumer.accept(key, readCachedRawContent(state, key));
+        } catch (IOException e) {
+            LOGGER.debug(e.getMessage(), e);
+        }
+    }
+
     private void readNormalOsis(Key key, RawTextToXmlProcessor processor, List<Content> content, T openFileState) throws BookException {
         // simply lookup the key and process the relevant information
         Iterator<Key> iterator = key.iterator();
@@ -206,7 +525,7 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
             Key next = iterator.next();
             String rawText;
             try {
-                rawText = readRawContent(openFileState, next);
+                rawText = readCachedRawContent(openFileState, next);
                 processor.postVerse(next, content, rawText);
             } catch (IOException e) {
                 // failed to process key 'next'
@@ -222,7 +541,7 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
     private void readNormalOsisSingleKey(Key key, RawTextToXmlProcessor processor, List<Content> content, T openFileState) throws BookException {
         String rawText;
         try {
-            rawText = readRawContent(openFileState, key);
+            rawText = readCachedRawContent(openFileState, key);
             processor.postVerse(key, content, rawText);
         } catch (IOException e) {
             // failed to process key
@@ -247,18 +566,22 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
             VerseRange range = rit.next();
             processor.preRange(range, content);
 
-            // FIXME(CJB): can this now be optimized since we can calculate
-            // the buffer size of what to read?
+            String[] rawTexts = null;
+            try {
+                rawTexts = readCachedRawContent(openFileState, range);
+            } catch (IOException e) {
+                // Try again, verse by verse, to get what can be gotten.
+                LOGGER.debug(e.getMessage(), e);
+                rawTexts = readRawContentByVerse(openFileState, range);
+            }
+
             // now iterate through all verses in range
+            int i = 0;
             for (Key verseInRange : range) {
                 currentVerse = KeyUtil.getVerse(verseInRange);
-                try {
-                    String rawText = readRawContent(openFileState, currentVerse);
+                String rawText = rawTexts[i++];
+                if (rawText != null) {
                     processor.postVerse(verseInRange, content, rawText);
-                } catch (IOException e) {
-                    //some versifications have more verses than modules contain - so can't throw
-                    //an error here...
-                    LOGGER.debug(e.getMessage(), e);
                 }
             }
         }
@@ -266,6 +589,52 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
         return currentVerse;
     }
 
+    /**
+     * Get the raw text of every verse in a range, in order. By default, this
+     * reads one verse at a time. Backends that can read a range more
+     * efficiently should override this.
+     *
+     * @param state
+     *            the open file state, from which we read things
+     * @param range
+     *            the verses that are sought
+     * @return the raw text of each verse in the range, null for a verse that could not be read
+     * @throws IOException
+     *             something went wrong when reading the range
+     * @throws BookException
+     *             If the Book can not be read.
+     */
+    protected String[] readRawContent(T state, VerseRange range) throws IOException, BookException {
+        return readRawContentByVerse(state, range);
+    }
+
+    /**
+     * Get the raw text of every verse in a range, one verse at a time.
+     *
+     * @param state
+     *            the open file state, from which we read things
+     * @param range
+     *            the verses that are sought
+     * @return the raw text of each verse in the range, null for a verse that could not be read
+     * @throws BookException
+     *             If the Book can not be read.
+     */
+    protected final String[] readRawContentByVerse(T state, VerseRange range) throws BookException {
+        String[] rawTexts = new String[range.getCardinality()];
+        int i = 0;
+        for (Key verseInRange : range) {
+            try {
+                rawTexts[i] = readRawContent(state, verseInRange);
+            } catch (IOException e) {
+                //some versifications have more verses than modules contain - so can't throw
+                //an error here...
+                LOGGER.debug(e.getMessage(), e);
+            }
+            i++;
+        }
+        return rawTexts;
+    }
+
     /**
      * If non-null, currentKey is used to throw the exception, other, masterKey
      * is used instead, which will be more general.
@@ -313,6 +682,40 @@ public abstract class AbstractBackend<T extends OpenFileState> implements Statef
         return false;
     }
 
+    /**
+     * A cipher engine in the keyed state for a given key. The engine is only
+     * ever cloned, never used, so it can be shared by all threads.
+     */
+    private static final class KeyedCipher {
+        KeyedCipher(String key) {
+            this.key = key;
+            this.engine = new Sapphire(key.getBytes());
+        }
+
+        final String key;
+        final Sapphire engine;
+    }
+
+    /**
+     * The keyed cipher engine for the most recent cipher key, if any.
+     */
+    private transient volatile KeyedCipher keyedCipher;
+
+    /**
+     * The versification of a Bible or commentary, once known.
+     */
+    private transient volatile Versification versification;
+
+    /**
+     * The verses of a Bible or commentary that have content, once known.
+     */
+    private transient volatile VerseBitmap verseBitmap;
+
+    /**
+     * The raw text of recently read entries, if it is being cached.
+     */
+    private transient volatile RawTextCache rawTextCache;
+
     private SwordBookMetaData bmd;
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractBackend.class);
 }
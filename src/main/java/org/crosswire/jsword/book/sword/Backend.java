@@ -86,6 +86,18 @@ public interface Backend<T extends OpenFileState> {
      */
     public abstract List<Content> readToOsis(Key key, RawTextToXmlProcessor processor) throws BookException;
 
+    /**
+     * Get the raw text of many keys at once, giving each to the consumer as
+     * it is read. For a Bible or Commentary, the verses are given in
+     * ordinal order, each as a Verse. Keys that cannot be read, or that
+     * are not in the Book, are skipped.
+     *
+     * @param key       The keys to fetch
+     * @param consumer  receives the raw text of each key
+     * @throws BookException If the Book can not be read.
+     */
+    public abstract void readRawContents(Key key, RawTextConsumer consumer) throws BookException;
+
     /**
      * Create the directory to hold the Book if it does not exist.
      *
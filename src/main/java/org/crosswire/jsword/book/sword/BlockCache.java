@@ -0,0 +1,152 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import org.crosswire.common.util.WeightedLruCache;
+import org.crosswire.jsword.versification.Testament;
+
+/**
+ * A cache of uncompressed blocks, shared by all the readers of a compressed
+ * book. Blocks are keyed by testament and block number, the testament being
+ * null for books that are not verse based.
+ *
+ * <p>
+ * The cache is bounded by the total size of the blocks it holds. When a new
+ * block would exceed the bound, the least recently used blocks are evicted.
+ * The newest block is always kept, even when it alone is larger than the
+ * bound, so that a book blocked by testament still gets the benefit of a
+ * cache of one.
+ * </p>
+ *
+ * <p>
+ * Cached blocks are shared and must not be modified.
+ * </p>
+ *
+ * <p>
+ * Lookups of a book's blocks are serialized by the single monitor of the
+ * cache, as each lookup changes the recency of a block. The monitor is held
+ * only to find or add a block, never while a block is read or uncompressed,
+ * so readers only wait on each other for the map operation itself.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class BlockCache extends WeightedLruCache<Long, byte[]> {
+    /**
+     * Create a BlockCache bounded by the default size.
+     */
+    public BlockCache() {
+        this(defaultMaxBytes);
+    }
+
+    /**
+     * Create a BlockCache bounded by the given size.
+     *
+     * @param maxBytes
+     *            the most bytes of uncompressed data to keep
+     */
+    public BlockCache(long maxBytes) {
+        super(maxBytes, WEIGHER);
+    }
+
+    /**
+     * Get a block from the cache.
+     *
+     * @param testament
+     *            the testament of the block or null
+     * @param blockNum
+     *            the number of the block
+     * @return the block or null if it is not cached
+     */
+    public byte[] get(Testament testament, long blockNum) {
+        return get(toKey(testament, blockNum));
+    }
+
+    /**
+     * Determine whether a block is in the cache, without counting it as a hit
+     * or a miss, or making it more recently used.
+     *
+     * @param testament
+     *            the testament of the block or null
+     * @param blockNum
+     *            the number of the block
+     * @return true if the block is cached
+     */
+    public boolean contains(Testament testament, long blockNum) {
+        return containsKey(toKey(testament, blockNum));
+    }
+
+    /**
+     * Add a block to the cache, evicting others as needed.
+     *
+     * @param testament
+     *            the testament of the block or null
+     * @param blockNum
+     *            the number of the block
+     * @param block
+     *            the uncompressed block
+     */
+    public void put(Testament testament, long blockNum, byte[] block) {
+        put(toKey(testament, blockNum), block);
+    }
+
+    /**
+     * Set the size bound of BlockCaches that are created hereafter.
+     *
+     * @param maxBytes
+     *            the most bytes of uncompressed data to keep per book
+     */
+    public static void setDefaultMaxBytes(long maxBytes) {
+        BlockCache.defaultMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the size bound of BlockCaches that are created hereafter
+     */
+    public static long getDefaultMaxBytes() {
+        return defaultMaxBytes;
+    }
+
+    /**
+     * Combine the testament and the block number into a single key.
+     * Block numbers are unsigned 32 bit numbers in the file.
+     */
+    static Long toKey(Testament testament, long blockNum) {
+        long high = testament == null ? 0 : testament.ordinal() + 1;
+        return Long.valueOf((high << 32) | (blockNum & 0xFFFFFFFFL));
+    }
+
+    /**
+     * A block weighs its size.
+     */
+    private static final Weigher<Long, byte[]> WEIGHER = new Weigher<Long, byte[]>() {
+        public long weigh(Long key, byte[] block) {
+            return block.length;
+        }
+    };
+
+    /**
+     * The default bound, 1MB per book.
+     */
+    private static volatile long defaultMaxBytes = 1024 * 1024;
+}
@@ -0,0 +1,314 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.crosswire.jsword.versification.Testament;
+
+/**
+ * Reads ahead of a reader who is moving forward through a compressed book.
+ * When a block is read right after the block before it, the next few blocks
+ * are uncompressed in the background into the book's {@link BlockCache}, so
+ * that moving on to the next chapter finds its block already there.
+ *
+ * <p>
+ * Several readers may be moving through the same book at once, so the last
+ * few blocks that were read are remembered, not just the last one. The reading
+ * is done by a small pool of daemon threads shared by all books. When the pool
+ * is busy, read-ahead is dropped rather than queued without bound.
+ * </p>
+ *
+ * <p>
+ * Read-ahead is off until the depth is set to more than 0.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class BlockPrefetcher {
+    /**
+     * Create a BlockPrefetcher for a book.
+     *
+     * @param backend
+     *            the book's backend, which does the reading
+     */
+    BlockPrefetcher(ZVerseBackend backend) {
+        this.backend = backend;
+        this.recent = new long[RECENT_SIZE];
+        this.inFlight = new ConcurrentHashMap<Long, Future<?>>();
+        this.prefetchedBlocks = new LinkedHashMap<Long, Boolean>();
+        this.scheduled = new AtomicLong();
+        this.prefetched = new AtomicLong();
+        this.used = new AtomicLong();
+        this.cancelled = new AtomicLong();
+        this.dropped = new AtomicLong();
+    }
+
+    /**
+     * Note that a block has been read. If the reader appears to be moving
+     * forward, read ahead of it.
+     *
+     * @param testament
+     *            the testament of the block
+     * @param blockNum
+     *            the number of the block
+     */
+    void access(Testament testament, long blockNum) {
+        int depth = BlockPrefetcher.depth;
+        if (depth <= 0) {
+            return;
+        }
+
+        long key = BlockCache.toKey(testament, blockNum).longValue();
+        boolean sequential;
+        synchronized (prefetchedBlocks) {
+            sequential = prefetchedBlocks.remove(Long.valueOf(key)) != null;
+        }
+        if (sequential) {
+            used.incrementAndGet();
+        }
+
+        synchronized (recent) {
+            for (int i = 0; !sequential && i < recentCount; i++) {
+                if (recent[i] == key - 1) {
+                    sequential = true;
+                }
+            }
+            recent[recentNext] = key;
+            recentNext = (recentNext + 1) % RECENT_SIZE;
+            recentCount = Math.min(recentCount + 1, RECENT_SIZE);
+        }
+
+        if (sequential) {
+            for (int i = 1; i <= depth; i++) {
+                schedule(testament, blockNum + i);
+            }
+        }
+    }
+
+    /**
+     * Cancel all the read-ahead that has not yet started.
+     */
+    public void cancel() {
+        Iterator<Future<?>> iter = inFlight.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().cancel(false)) {
+                cancelled.incrementAndGet();
+            }
+            iter.remove();
+        }
+    }
+
+    /**
+     * @return the number of blocks that were queued to be read ahead
+     */
+    public long getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * @return the number of blocks that were read ahead into the cache
+     */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * @return the number of blocks read ahead that were then read by a reader
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * @return the number of blocks whose read-ahead was cancelled
+     */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return the number of blocks not read ahead because the threads were busy
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Set how many blocks to read ahead of a reader moving forward through a
+     * book. Use 0, the default, to turn read-ahead off.
+     *
+     * @param depth
+     *            the number of blocks to read ahead
+     */
+    public static void setDepth(int depth) {
+        BlockPrefetcher.depth = depth;
+    }
+
+    /**
+     * @return the number of blocks to read ahead
+     */
+    public static int getDepth() {
+        return depth;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "BlockPrefetcher[scheduled=" + getScheduled() + ", prefetched=" + getPrefetched() + ", used=" + getUsed()
+                + ", cancelled=" + getCancelled() + ", dropped=" + getDropped() + ']';
+    }
+
+    /**
+     * Queue the reading of a block, unless it is already cached or queued.
+     */
+    private void schedule(final Testament testament, final long blockNum) {
+        if (backend.getBlockCache().contains(testament, blockNum)) {
+            return;
+        }
+
+        final Long key = BlockCache.toKey(testament, blockNum);
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+            public void run() {
+                try {
+                    if (backend.prefetchBlock(testament, blockNum)) {
+                        prefetched.incrementAndGet();
+                        remember(key);
+                    }
+                } finally {
+                    inFlight.remove(key);
+                }
+            }
+        }, null);
+
+        if (inFlight.putIfAbsent(key, task) != null) {
+            return;
+        }
+
+        try {
+            getExecutor().execute(task);
+            scheduled.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, task);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remember a block that was read ahead, forgetting the oldest when there
+     * are too many, as it has probably been evicted from the cache.
+     */
+    private void remember(Long key) {
+        synchronized (prefetchedBlocks) {
+            prefetchedBlocks.put(key, Boolean.TRUE);
+            Iterator<Long> iter = prefetchedBlocks.keySet().iterator();
+            while (prefetchedBlocks.size() > MAX_REMEMBERED) {
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the threads that read ahead, creating them on first use.
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BlockPrefetcher-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * The number of recently read blocks to remember when looking for a reader
+     * moving forward.
+     */
+    private static final int RECENT_SIZE = 8;
+
+    /**
+     * The number of prefetched blocks to remember when counting those used.
+     */
+    private static final int MAX_REMEMBERED = 64;
+
+    /**
+     * The number of threads reading ahead for all books.
+     */
+    private static final int THREADS = 2;
+
+    /**
+     * The most blocks waiting to be read ahead for all books.
+     */
+    private static final int QUEUE_SIZE = 64;
+
+    private static volatile int depth;
+    private static ThreadPoolExecutor executor;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ZVerseBackend backend;
+
+    /**
+     * The keys of the last blocks that were read. Guarded by itself.
+     */
+    private final long[] recent;
+    private int recentNext;
+    private int recentCount;
+
+    /**
+     * The blocks that are queued or being read.
+     */
+    private final ConcurrentMap<Long, Future<?>> inFlight;
+
+    /**
+     * The blocks that were read ahead and not yet read by a reader. Guarded by itself.
+     */
+    private final Map<Long, Boolean> prefetchedBlocks;
+
+    private final AtomicLong scheduled;
+    private final AtomicLong prefetched;
+    private final AtomicLong used;
+    private final AtomicLong cancelled;
+    private final AtomicLong dropped;
+}
@@ -273,12 +273,13 @@ public enum BookType {
     }
 
     /**
-     * Create a Book appropriate for the BookMetaData
+     * Create a Book appropriate for the BookMetaData. When serving packs are
+     * enabled, a book with a fresh pack is served from it.
      * 
      * @throws BookException
      */
     public Book createBook(SwordBookMetaData sbmd) throws BookException {
-        return getBook(sbmd, getBackend(sbmd));
+        return getBook(sbmd, ServingPack.select(sbmd, getBackend(sbmd)));
     }
 
     /**
@@ -177,9 +177,7 @@ public class DataEntry {
     public void cipher(byte[] cipherKey, int offset) {
         if (cipherKey != null && cipherKey.length > 0) {
             Sapphire cipherEngine = new Sapphire(cipherKey);
-            for (int i = offset; i < data.length; i++) {
-                data[i] = cipherEngine.cipher(data[i]);
-            }
+            cipherEngine.cipher(data, offset, data.length - offset);
             // destroy any evidence!
             cipherEngine.burn();
         }
@@ -68,6 +68,12 @@ public class GenBookBackend extends AbstractBackend<GenBookBackendState> {
     @Override
     public int getRawTextLength(Key key) {
         try {
+            TreeKeyTable table = index.getTable();
+            if (table != null) {
+                int node = table.find(getPath(key));
+                return node == -1 || table.getDataStart(node) == -1 ? 0 : table.getDataSize(node);
+            }
+
             TreeNode node = find(key);
 
             if (node == null) {
@@ -92,6 +98,23 @@ public class GenBookBackend extends AbstractBackend<GenBookBackendState> {
      * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.Key)
      */
     public String readRawContent(GenBookBackendState state, Key key) throws IOException, BookException {
+        TreeKeyTable table = index.getTable();
+        if (table != null) {
+            int node = table.find(getPath(key));
+            if (node == -1) {
+                // TRANSLATOR: Error condition: Indicates that something could
+                // not be found in the book.
+                // {0} is a placeholder for the unknown key.
+                // {1} is the short name of the book
+                throw new BookException(JSMsg.gettext("No entry for '{0}' in {1}.", key.getName(), getBookMetaData().getInitials()));
+            }
+            int start = table.getDataStart(node);
+            if (start == -1) {
+                return "";
+            }
+            return readRawContent(state, key, start, table.getDataSize(node));
+        }
+
         TreeNode node = find(key);
 
         if (node == null) {
@@ -108,14 +131,43 @@ public class GenBookBackend extends AbstractBackend<GenBookBackendState> {
         if (userData.length == 8) {
             int start = SwordUtil.decodeLittleEndian32(userData, 0);
             int size = SwordUtil.decodeLittleEndian32(userData, 4);
-            byte[] data = SwordUtil.readRAF(state.getBdtRaf(), start, size);
-            decipher(data);
-            return SwordUtil.decode(key.getName(), data, getBookMetaData().getBookCharset());
+            return readRawContent(state, key, start, size);
         }
 
         return "";
     }
 
+    /**
+     * Read the text of an entry from the bdt file.
+     */
+    private String readRawContent(GenBookBackendState state, Key key, int start, int size) throws IOException {
+        byte[] data = SwordUtil.readRAF(state.getBdtRaf(), start, size);
+        decipher(data);
+        return SwordUtil.decode(key.getName(), data, getBookMetaData().getBookCharset());
+    }
+
+    /**
+     * Get the path of a key, from below the root. It is the name of each key
+     * from a child of the root down to the key, each after a PATH_SEPARATOR.
+     *
+     * @param key
+     *            The key whose path is sought
+     * @return the path
+     */
+    static String getPath(Key key) {
+        List<String> path = new ArrayList<String>();
+        for (Key parentKey = key; parentKey != null && parentKey.getName().length() > 0; parentKey = parentKey.getParent()) {
+            path.add(parentKey.getName());
+        }
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = path.size() - 1; i >= 0; i--) {
+            buf.append(PATH_SEPARATOR);
+            buf.append(path.get(i));
+        }
+        return buf.toString();
+    }
+
     /**
      * Given a Key, find the TreeNode for it.
      * 
@@ -171,6 +223,15 @@ public class GenBookBackend extends AbstractBackend<GenBookBackendState> {
         Key reply = new DefaultKeyList(null, bmd.getName());
 
         try {
+            TreeKeyTable table = index.getTable();
+            if (table != null) {
+                if (table.size() > 0) {
+                    reply = new TreeKey(table.getName(0), null);
+                    doReadIndex(table, table.getFirstChild(0), reply);
+                }
+                return reply;
+            }
+
             TreeNode node = index.getRoot();
             reply = new TreeKey(node.getName(), null);
             doReadIndex(node, reply);
@@ -223,6 +284,26 @@ public class GenBookBackend extends AbstractBackend<GenBookBackendState> {
         }
     }
 
+    /**
+     * A helper function to recursively build the entire tree from memory.
+     * 
+     * @param table
+     *            the preloaded tree
+     * @param firstChild
+     *            the first of the children being added
+     * @param parentKey
+     *            the key to which the children are added
+     */
+    private void doReadIndex(TreeKeyTable table, int firstChild, Key parentKey) {
+        for (int node = firstChild; node != -1; node = table.getNextSibling(node)) {
+            TreeKey childKey = new TreeKey(table.getName(node), parentKey);
+            parentKey.addAll(childKey);
+
+            // Build the tree as deep as possible
+            doReadIndex(table, table.getFirstChild(node), childKey);
+        }
+    }
+
     /**
      * The raw index file
      */
@@ -231,5 +312,11 @@ public class GenBookBackend extends AbstractBackend<GenBookBackendState> {
     /**
      * The log stream
      */
+    /**
+     * What separates the names in the path of a key. The names of entries
+     * may hold a '/', so a character that cannot be in a name is used.
+     */
+    static final char PATH_SEPARATOR = '\u0000';
+
     private static final Logger log = LoggerFactory.getLogger(GenBookBackend.class);
 }
@@ -0,0 +1,195 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The keys of a dictionary, in the order of its index, held in memory. All the
+ * keys are stored in a single char array, with the start of each key in an int
+ * array, so that even a large lexicon costs little more than the text of its
+ * keys.
+ *
+ * <p>
+ * The keys are normalized as {@link DataEntry#getKey()} would have them.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+final class LDKeyTable {
+    /**
+     * Create a table from keys that have been gathered.
+     *
+     * @param keys
+     *            the text of all the keys
+     * @param starts
+     *            the start of each key in keys, with one more at the end
+     */
+    private LDKeyTable(char[] keys, int[] starts) {
+        this.keys = keys;
+        this.starts = starts;
+    }
+
+    /**
+     * Read the keys of every entry of a dictionary. The data file is read
+     * sequentially, in large chunks, as the entries are generally in order.
+     *
+     * @param name
+     *            the name of the dictionary, for diagnostics
+     * @param idxRaf
+     *            the index file
+     * @param datRaf
+     *            the data file
+     * @param entrysize
+     *            the size of an entry in the index
+     * @param datasize
+     *            the number of bytes of an entry's size
+     * @param charset
+     *            the charset of the keys
+     * @return the table of keys
+     * @throws IOException
+     */
+    static LDKeyTable load(String name, RandomAccessFile idxRaf, RandomAccessFile datRaf, int entrysize, int datasize, String charset) throws IOException {
+        int count = (int) (idxRaf.length() / entrysize);
+        byte[] index = SwordUtil.readRAF(idxRaf, 0, count * entrysize);
+
+        StringBuilder buf = new StringBuilder(count * 8);
+        int[] starts = new int[count + 1];
+
+        long datLength = datRaf.length();
+        byte[] chunk = new byte[0];
+        long chunkStart = 0;
+        for (int i = 0; i < count; i++) {
+            int pos = i * entrysize;
+            int entryOffset = SwordUtil.decodeLittleEndian32(index, pos);
+            int entrySize = datasize == 2 ? SwordUtil.decodeLittleEndian16(index, pos + 4) : SwordUtil.decodeLittleEndian32(index, pos + 4);
+
+            starts[i] = buf.length();
+            if (entryOffset < 0 || entryOffset >= datLength) {
+                // A damaged index points past the data, so the entry has no key.
+                continue;
+            }
+            entrySize = (int) Math.min(entrySize, datLength - entryOffset);
+
+            // The key is at the start of the entry, so not all of it is needed.
+            int needed = Math.min(entrySize, MAX_KEY_SIZE);
+            if (entryOffset < chunkStart || entryOffset + needed > chunkStart + chunk.length) {
+                chunkStart = entryOffset;
+                int chunkSize = (int) Math.min(Math.max(needed, CHUNK_SIZE), datLength - chunkStart);
+                chunk = SwordUtil.readRAF(datRaf, chunkStart, chunkSize);
+            }
+
+            byte[] data = chunk;
+            int keyStart = (int) (entryOffset - chunkStart);
+            int available = Math.min(needed, chunk.length - keyStart);
+            int keyEnd = indexOfSeparator(data, keyStart, keyStart + available);
+            if (keyEnd < 0 && entrySize > available) {
+                // The key is longer than was looked for, so read the whole
+                // entry, as DataEntry would.
+                data = SwordUtil.readRAF(datRaf, entryOffset, entrySize);
+                keyStart = 0;
+                keyEnd = indexOfSeparator(data, 0, data.length);
+            }
+            if (keyEnd >= 0) {
+                buf.append(normalize(SwordUtil.decode(name, data, keyStart, keyEnd - keyStart, charset)));
+            }
+        }
+        starts[count] = buf.length();
+
+        char[] keys = new char[buf.length()];
+        buf.getChars(0, keys.length, keys, 0);
+        return new LDKeyTable(keys, starts);
+    }
+
+    /**
+     * @return the number of keys
+     */
+    int size() {
+        return starts.length - 1;
+    }
+
+    /**
+     * Get the key of an entry.
+     *
+     * @param index
+     *            the position of the entry in the dictionary
+     * @return the key
+     */
+    String getKey(int index) {
+        return new String(keys, starts[index], starts[index + 1] - starts[index]);
+    }
+
+    /**
+     * Find the separator that ends a key.
+     *
+     * @return its position or -1 if it is not from start to end
+     */
+    private static int indexOfSeparator(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Do to a key what DataEntry does.
+     */
+    private static String normalize(String key) {
+        // The key may have whitespace, including \r on the end,
+        // that is not actually part of the key.
+        String normalized = key.trim();
+        // Plain text dictionaries get \ added to the ends of the index entries.
+        if (normalized.endsWith("\\")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * The key always ends with \n, typically \r\n
+     */
+    private static final byte SEPARATOR = 10;
+
+    /**
+     * The longest key that will be looked for.
+     */
+    private static final int MAX_KEY_SIZE = 1024;
+
+    /**
+     * How much of the data file to read at once.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The text of all the keys.
+     */
+    private final char[] keys;
+
+    /**
+     * Where each key starts in keys, with the end of the last key at the end.
+     */
+    private final int[] starts;
+}
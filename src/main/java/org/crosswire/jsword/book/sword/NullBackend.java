@@ -109,6 +109,12 @@ public class NullBackend implements Backend {
         return new ArrayList();
     }
 
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.Backend#readRawContents(org.crosswire.jsword.passage.Key, org.crosswire.jsword.book.sword.RawTextConsumer)
+     */
+    public void readRawContents(Key key, RawTextConsumer consumer) throws BookException {
+    }
+
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.sword.Backend#create()
      */
@@ -0,0 +1,182 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.IOException;
+
+import org.crosswire.jsword.JSMsg;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.KeyType;
+import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
+import org.crosswire.jsword.book.sword.state.PackBackendState;
+import org.crosswire.jsword.passage.BitwisePassage;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.KeyUtil;
+import org.crosswire.jsword.passage.RocketPassage;
+import org.crosswire.jsword.passage.VerseRange;
+
+/**
+ * A backend that serves a Bible, a commentary or a general book from its
+ * ServingPack. Only the text is served from the pack. The tree of a general
+ * book is still read from the book's own backend.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class PackBackend extends AbstractBackend<PackBackendState> {
+    /**
+     * Serve a book from its pack.
+     *
+     * @param sbmd
+     *            the book
+     * @param pack
+     *            the pack of the book
+     * @param source
+     *            the book's own backend
+     */
+    public PackBackend(SwordBookMetaData sbmd, ServingPack pack, Backend source) {
+        super(sbmd);
+        this.pack = pack;
+        this.source = source;
+        this.verses = sbmd.getKeyType() == KeyType.VERSE;
+    }
+
+    /**
+     * @return the pack that this backend serves
+     */
+    public ServingPack getServingPack() {
+        return pack;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#initState()
+     */
+    public PackBackendState initState() throws BookException {
+        return OpenFileStateManager.instance().getPackBackendState(getBookMetaData());
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#contains(org.crosswire.jsword.passage.Key)
+     */
+    @Override
+    public boolean contains(Key key) {
+        return pack.getLength(getOrdinal(key)) > 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#size(org.crosswire.jsword.passage.Key)
+     */
+    @Override
+    public int getRawTextLength(Key key) {
+        return pack.getLength(getOrdinal(key));
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.Key)
+     */
+    public String readRawContent(PackBackendState state, Key key) throws BookException, IOException {
+        int ordinal = getOrdinal(key);
+        if (ordinal < 0) {
+            // TRANSLATOR: Error condition: Indicates that something could
+            // not be found in the book.
+            // {0} is a placeholder for the unknown key.
+            // {1} is the short name of the book
+            throw new BookException(JSMsg.gettext("No entry for '{0}' in {1}.", key.getName(), getBookMetaData().getInitials()));
+        }
+        return pack.getText(ordinal);
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.VerseRange)
+     */
+    @Override
+    protected String[] readRawContent(PackBackendState state, VerseRange range) throws IOException {
+        String[] rawTexts = new String[range.getCardinality()];
+        int ordinal = range.getStart().getOrdinal();
+        for (int i = 0; i < rawTexts.length; i++) {
+            rawTexts[i] = pack.getText(ordinal++);
+        }
+        return rawTexts;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#getGlobalKeyList()
+     */
+    @Override
+    public Key getGlobalKeyList() throws BookException {
+        if (!verses) {
+            return source.getGlobalKeyList();
+        }
+
+        BitwisePassage passage = new RocketPassage(getVersification());
+        passage.raiseEventSuppresion();
+        passage.raiseNormalizeProtection();
+
+        int size = pack.size();
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (pack.getLength(ordinal) > 0) {
+                passage.addVersifiedOrdinal(ordinal);
+            }
+        }
+
+        passage.lowerNormalizeProtection();
+        passage.lowerEventSuppressionAndTest();
+        return passage;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readIndex()
+     */
+    @Deprecated
+    @Override
+    public Key readIndex() {
+        return source.readIndex();
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#setAliasKey(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.Key, org.crosswire.jsword.passage.Key)
+     */
+    public void setAliasKey(PackBackendState state, Key alias, Key key) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#setRawText(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.Key, java.lang.String)
+     */
+    public void setRawText(PackBackendState state, Key key, String text) throws BookException, IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the ordinal of a key in the pack, -1 if it is not there.
+     */
+    private int getOrdinal(Key key) {
+        if (verses) {
+            return KeyUtil.getVerse(key).getOrdinal();
+        }
+        return pack.find(GenBookBackend.getPath(key));
+    }
+
+    private final ServingPack pack;
+    private final Backend source;
+    private final boolean verses;
+}
@@ -0,0 +1,115 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.IOException;
+
+import org.crosswire.jsword.JSMsg;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
+import org.crosswire.jsword.book.sword.state.PackBackendState;
+import org.crosswire.jsword.passage.Key;
+
+/**
+ * A backend that serves a dictionary from its ServingPack. The key list, and
+ * thus the search for a key, is that of the book's own backend, whose index
+ * gives the ordinal of the entry in the pack.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class PackKeyBackend extends AbstractKeyBackend<PackBackendState> {
+    /**
+     * Serve a dictionary from its pack.
+     *
+     * @param sbmd
+     *            the book
+     * @param pack
+     *            the pack of the book
+     * @param source
+     *            the book's own backend
+     */
+    public PackKeyBackend(SwordBookMetaData sbmd, ServingPack pack, AbstractKeyBackend<?> source) {
+        super(sbmd);
+        this.pack = pack;
+        this.source = source;
+    }
+
+    /**
+     * @return the pack that this backend serves
+     */
+    public ServingPack getServingPack() {
+        return pack;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#initState()
+     */
+    public PackBackendState initState() throws BookException {
+        return OpenFileStateManager.instance().getPackBackendState(getBookMetaData());
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.StatefulFileBackedBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.Key)
+     */
+    public String readRawContent(PackBackendState state, Key key) throws IOException {
+        int ordinal = source.indexOf(key);
+        if (ordinal < 0) {
+            // TRANSLATOR: Error condition: Indicates that something could not
+            // be found in the book. {0} is a placeholder for the unknown key.
+            throw new IOException(JSMsg.gettext("Key not found {0}", key.getName()));
+        }
+        return pack.getText(ordinal);
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#size(org.crosswire.jsword.passage.Key)
+     */
+    @Override
+    public int getRawTextLength(Key key) {
+        return pack.getLength(source.indexOf(key));
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.passage.Key#getCardinality()
+     */
+    public int getCardinality() {
+        return source.getCardinality();
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.passage.Key#get(int)
+     */
+    public Key get(int index) {
+        return source.get(index);
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.passage.Key#indexOf(org.crosswire.jsword.passage.Key)
+     */
+    public int indexOf(Key that) {
+        return source.indexOf(that);
+    }
+
+    private final ServingPack pack;
+    private final AbstractKeyBackend<?> source;
+}
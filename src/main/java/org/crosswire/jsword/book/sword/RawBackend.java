@@ -22,6 +22,7 @@ package org.crosswire.jsword.book.sword;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 import org.crosswire.jsword.JSMsg;
 import org.crosswire.jsword.book.BookException;
@@ -32,6 +33,7 @@ import org.crosswire.jsword.passage.Key;
 import org.crosswire.jsword.passage.KeyUtil;
 import org.crosswire.jsword.passage.RocketPassage;
 import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.passage.VerseRange;
 import org.crosswire.jsword.versification.Testament;
 import org.crosswire.jsword.versification.Versification;
 import org.crosswire.jsword.versification.system.Versifications;
@@ -56,6 +58,8 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
         super(sbmd);
         this.datasize = datasize;
         this.entrysize = OFFSETSIZE + datasize;
+        this.v11n = Versifications.instance().getVersification(sbmd.getProperty(ConfigEntryType.VERSIFICATION).toString());
+        this.charset = sbmd.getBookCharset();
 
         assert datasize == 2 || datasize == 4;
     }
@@ -65,7 +69,7 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
      */
     @Override
     public boolean contains(Key key) {
-        return getRawTextLength(key) > 0;
+        return containsOrdinal(KeyUtil.getVerse(key).getOrdinal());
     }
 
     /* (non-Javadoc)
@@ -73,8 +77,6 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
      */
     @Override
     public int getRawTextLength(Key key) {
-        String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-        Versification v11n = Versifications.instance().getVersification(v11nName);
         Verse verse = KeyUtil.getVerse(key);
 
         RawBackendState initState = null;
@@ -102,15 +104,15 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readGlobalKeyList()
+     */
     @Override
-    public Key getGlobalKeyList() throws BookException {
+    protected Key readGlobalKeyList() throws BookException {
         RawBackendState rafBook = null;
         try {
             rafBook = initState();
 
-            String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-            Versification v11n = Versifications.instance().getVersification(v11nName);
-
             Testament[] testaments = new Testament[] {
                     Testament.OLD, Testament.NEW
             };
@@ -128,15 +130,19 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
                     continue;
                 }
 
-                int maxIndex = v11n.getCount(currentTestament) - 1;
+                // The index has an entry for each testament ordinal, which
+                // starts at 1 in the New Testament.
+                int first = currentTestament == Testament.NEW ? 1 : 0;
+                int lastOrdinal = currentTestament == Testament.NEW ? v11n.maximumOrdinal() : v11n.getCount(Testament.OLD) - 1;
+                long wanted = entrysize * (v11n.getTestamentOrdinal(lastOrdinal) + 1L);
 
                 // Read in the whole index, a few hundred Kb at most.
-                byte[] temp = SwordUtil.readRAF(idxRaf, 0, entrysize * maxIndex);
+                byte[] temp = SwordUtil.readRAF(idxRaf, 0, (int) Math.min(wanted, idxRaf.length()));
 
                 // For each entry of entrysize bytes, the length of the verse in bytes
                 // is in the last datasize bytes. If all bytes are 0, then there is no content.
                 if (datasize == 2) {
-                    for (int ii = 0; ii < temp.length; ii += entrysize) {
+                    for (int ii = first * entrysize; ii + entrysize <= temp.length; ii += entrysize) {
                         // This can be simplified to temp[ii + 4] == 0 && temp[ii + 5] == 0.
                         // int verseSize = SwordUtil.decodeLittleEndian16(temp, ii + 4);
                         // if (verseSize > 0) {
@@ -146,7 +152,7 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
                         }
                     }
                 } else { // datasize == 4
-                    for (int ii = 0; ii < temp.length; ii += entrysize) {
+                    for (int ii = first * entrysize; ii + entrysize <= temp.length; ii += entrysize) {
                         // This can be simplified to temp[ii + 4] == 0 && temp[ii + 5] == 0 && temp[ii + 6] == 0 && temp[ii + 7] == 0.
                         // int verseSize = SwordUtil.decodeLittleEndian32(temp, ii + 4);
                         // if (verseSize > 0) {
@@ -181,23 +187,87 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
      * @see org.crosswire.jsword.book.sword.AbstractBackend#getRawText(org.crosswire.jsword.passage.Key)
      */
     public String readRawContent(RawBackendState state, Key key) throws IOException {
-        String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-        Versification v11n = Versifications.instance().getVersification(v11nName);
         Verse verse = KeyUtil.getVerse(key);
 
         int index = verse.getOrdinal();
 
         Testament testament = v11n.getTestament(index);
         index = v11n.getTestamentOrdinal(index);
-        RawBackendState initState = null;
-        try {
-            initState = initState();
-            return getEntry(state, verse.getName(), testament, index);
-        } catch (BookException e) {
-            return "";
-        } finally {
-            OpenFileStateManager.instance().release(initState);
+        return getEntry(state, verse.getName(), testament, index);
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.VerseRange)
+     */
+    @Override
+    protected String[] readRawContent(RawBackendState state, VerseRange range) throws IOException, BookException {
+        final int startOrdinal = range.getStart().getOrdinal();
+        final Testament testament = v11n.getTestament(startOrdinal);
+        if (testament != v11n.getTestament(range.getEnd().getOrdinal())) {
+            // The index entries are not in one file.
+            return super.readRawContent(state, range);
+        }
+
+        final int count = range.getCardinality();
+        final String[] texts = new String[count];
+        Arrays.fill(texts, "");
+
+        final RandomAccessFile idxRaf = state.getIdxRaf(testament);
+        final RandomAccessFile txtRaf = state.getTextRaf(testament);
+
+        // It may be that this is a single testament Bible
+        if (idxRaf == null) {
+            return texts;
         }
+
+        // The index entries of the verses in a range are consecutive,
+        // so they are read together.
+        byte[] entries = SwordUtil.readRAF(idxRaf, 1L * v11n.getTestamentOrdinal(startOrdinal) * entrysize, count * entrysize);
+        int found = entries.length / entrysize;
+        int[] offsets = new int[found];
+        int[] sizes = new int[found];
+        long spanStart = Long.MAX_VALUE;
+        long spanEnd = 0;
+        for (int i = 0; i < found; i++) {
+            offsets[i] = SwordUtil.decodeLittleEndian32(entries, i * entrysize);
+            sizes[i] = datasize == 2 ? SwordUtil.decodeLittleEndian16(entries, i * entrysize + OFFSETSIZE) : SwordUtil.decodeLittleEndian32(entries, i * entrysize + OFFSETSIZE);
+            if (sizes[i] > 0) {
+                spanStart = Math.min(spanStart, offsets[i]);
+                spanEnd = Math.max(spanEnd, (long) offsets[i] + sizes[i]);
+            }
+        }
+
+        // The text of the verses is generally consecutive too. If so,
+        // read it together. Otherwise, read each verse on its own.
+        byte[] span = null;
+        if (spanEnd > spanStart && spanEnd - spanStart <= MAX_SPAN) {
+            span = SwordUtil.readRAF(txtRaf, spanStart, (int) (spanEnd - spanStart));
+        }
+
+        int i = 0;
+        for (Key key : range) {
+            if (i >= found) {
+                break;
+            }
+            int size = sizes[i];
+            if (size < 0) {
+                log.error("In {}: Verse {} has a bad index size of {}", getBookMetaData().getInitials(), key.getName(), Integer.toString(size));
+            } else if (size > 0) {
+                byte[] data;
+                int start = (int) (offsets[i] - spanStart);
+                if (span != null && start + size <= span.length) {
+                    data = new byte[size];
+                    System.arraycopy(span, start, data, 0, size);
+                } else {
+                    data = SwordUtil.readRAF(txtRaf, offsets[i], size);
+                }
+                decipher(data);
+                texts[i] = SwordUtil.decode(key.getName(), data, charset);
+            }
+            i++;
+        }
+
+        return texts;
     }
 
     /* (non-Javadoc)
@@ -299,7 +369,7 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
 
         decipher(data);
 
-        return SwordUtil.decode(name, data, getBookMetaData().getBookCharset());
+        return SwordUtil.decode(name, data, charset);
     }
 
 
@@ -318,6 +388,21 @@ public class RawBackend<T extends RawBackendState> extends AbstractBackend<RawBa
      */
     protected static final int OFFSETSIZE = 4;
 
+    /**
+     * The most text that is read at once for a range of verses
+     */
+    private static final int MAX_SPAN = 1024 * 1024;
+
+    /**
+     * The versification of the book, resolved once rather than on every read
+     */
+    protected final Versification v11n;
+
+    /**
+     * The charset of the book's text
+     */
+    protected final String charset;
+
     /**
      * The log stream
      */
@@ -36,9 +36,8 @@ import org.crosswire.jsword.book.sword.state.RawFileBackendState;
 import org.crosswire.jsword.passage.Key;
 import org.crosswire.jsword.passage.KeyUtil;
 import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.passage.VerseRange;
 import org.crosswire.jsword.versification.Testament;
-import org.crosswire.jsword.versification.Versification;
-import org.crosswire.jsword.versification.system.Versifications;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -102,20 +101,27 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
             File dataFile = getDataTextFile(txtRaf, dataIndex);
             byte[] textBytes = readTextDataFile(dataFile);
             decipher(textBytes);
-            return SwordUtil.decode(name, textBytes, getBookMetaData().getBookCharset());
+            return SwordUtil.decode(name, textBytes, charset);
         } catch (BookException e) {
             throw new IOException(e.getMessage());
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.RawBackend#readRawContent(org.crosswire.jsword.book.sword.state.RawBackendState, org.crosswire.jsword.passage.VerseRange)
+     */
+    @Override
+    protected String[] readRawContent(RawBackendState state, VerseRange range) throws IOException, BookException {
+        // Each verse is in a file of its own.
+        return readRawContentByVerse(state, range);
+    }
+
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.sword.RawBackend#setRawText(org.crosswire.jsword.passage.Key, java.lang.String)
      * 
      */
     public void setRawText(RawFileBackendState state, Key key, String text) throws BookException, IOException {
 
-        String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-        Versification v11n = Versifications.instance().getVersification(v11nName);
         Verse verse = KeyUtil.getVerse(key);
         int index = verse.getOrdinal();
         Testament testament = v11n.getTestament(index);
@@ -139,11 +145,26 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
         byte[] textData = text.getBytes("UTF-8");
         encipher(textData);
         writeTextDataFile(dataFile, textData);
+        clearVerseBitmap();
+        clearRawTextCache();
+    }
+
+    /**
+     * Begin writing many entries at once. Nothing is changed that a reader
+     * can see until the session is committed.
+     *
+     * @return the session, which must be closed
+     * @throws BookException
+     *             if the book's files cannot be opened
+     * @throws IOException
+     *             if the book's index cannot be read
+     * @see RawFileWriteSession
+     */
+    public RawFileWriteSession beginWriteSession() throws BookException, IOException {
+        return new RawFileWriteSession(this);
     }
 
     public void setAliasKey(RawFileBackendState state, Key alias, Key source) throws IOException {
-        String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-        Versification v11n = Versifications.instance().getVersification(v11nName);
         Verse aliasVerse = KeyUtil.getVerse(alias);
         Verse sourceVerse = KeyUtil.getVerse(source);
         int aliasIndex = aliasVerse.getOrdinal();
@@ -158,6 +179,8 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
         // Only the index is updated to point to the same place as what is
         // linked.
         updateIndexFile(idxRaf, aliasIndex, dataIndex.getOffset());
+        clearVerseBitmap();
+        clearRawTextCache();
     }
 
     private File createDataTextFile(int index) throws BookException, IOException {
@@ -181,7 +204,7 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
      * @return the file having the verse text.
      * @throws IOException
      */
-    private String getTextFilename(RandomAccessFile txtRaf, DataIndex dataIndex) throws IOException {
+    String getTextFilename(RandomAccessFile txtRaf, DataIndex dataIndex) throws IOException {
         // data size to be read from the data file (ot or nt) should be 9 bytes
         // this will be the filename of the actual text file "\r\n"
         byte[] data = SwordUtil.readRAF(txtRaf, dataIndex.getOffset(), dataIndex.getSize());
@@ -233,7 +256,7 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
         BufferedOutputStream bos = null;
         try {
             bos = new BufferedOutputStream(new FileOutputStream(txtFile, true));
-            bos.write(fileName.getBytes(getBookMetaData().getBookCharset()));
+            bos.write(fileName.getBytes(charset));
         } finally {
             if (bos != null) {
                 bos.close();
@@ -312,8 +335,6 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
 
     private void prepopulateIndexFiles(RawFileBackendState state) throws IOException {
 
-        String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-        Versification v11n = Versifications.instance().getVersification(v11nName);
         int otCount = v11n.getCount(Testament.OLD);
         int ntCount = v11n.getCount(Testament.NEW) + 1;
         BufferedOutputStream otIdxBos = new BufferedOutputStream(new FileOutputStream(state.getIdxFile(Testament.OLD), false));
@@ -347,7 +368,7 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
         writeIncfile(state, 1);
     }
 
-    private void writeIncfile(RawFileBackendState state, int value) throws IOException {
+    void writeIncfile(RawFileBackendState state, int value) throws IOException {
         FileOutputStream fos = null;
         try {
             fos = new FileOutputStream(state.getIncfile(), false);
@@ -387,7 +408,7 @@ public class RawFileBackend extends RawBackend<RawFileBackendState> {
         }
     }
 
-    private void writeTextDataFile(File dataFile, byte[] textData) throws IOException {
+    void writeTextDataFile(File dataFile, byte[] textData) throws IOException {
         BufferedOutputStream bos = null;
         try {
             bos = new BufferedOutputStream(new FileOutputStream(dataFile, false));
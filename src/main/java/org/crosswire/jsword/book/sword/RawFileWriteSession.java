@@ -0,0 +1,469 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.KeyUtil;
+import org.crosswire.jsword.versification.Testament;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes many entries to a {@link RawFileBackend} as one change. Setting an
+ * entry one at a time seeks and writes the index, the list of file names and
+ * the incfile for each entry. A session reads the index once, changes it in
+ * memory and writes it back once, when it is committed.
+ *
+ * <p>
+ * The text of a new entry is written to its own file straight away, as no
+ * index refers to it until the session is committed. The text of an entry
+ * that is already in the book is written beside its file, and only replaces
+ * it on commit. Then the names of the new files are appended to the list of
+ * file names, the incfile is updated and the changed part of the index is
+ * written and synced. If any of this fails, or if the session is closed
+ * without being committed, the book is left as it was.
+ * </p>
+ *
+ * <p>
+ * Readers do not see the entries of a session until it is committed. There
+ * must be no other writing to the book while a session is open.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public final class RawFileWriteSession implements Closeable {
+    /**
+     * Start a session, reading the index of each testament.
+     *
+     * @param backend
+     *            the book to write
+     * @throws BookException
+     *             if the book's files cannot be opened
+     * @throws IOException
+     *             if the book's index cannot be read
+     */
+    RawFileWriteSession(RawFileBackend backend) throws BookException, IOException {
+        this.backend = backend;
+        this.dataPath = new File(SwordUtil.getExpandedDataPath(backend.getBookMetaData()).getPath());
+        this.state = backend.initState();
+        this.startIncfileValue = state.getIncfileValue();
+        this.nextIncfileValue = startIncfileValue;
+        this.created = new HashSet<File>();
+        this.staged = new LinkedHashMap<File, File>();
+        this.backups = new ArrayList<File>();
+
+        int count = Testament.values().length;
+        this.index = new byte[count][];
+        this.original = new byte[count][];
+        this.dirtyStart = new int[count];
+        this.dirtyEnd = new int[count];
+        this.textLength = new long[count];
+        this.names = new ByteArrayOutputStream[count];
+        try {
+            for (Testament testament : Testament.values()) {
+                int t = testament.ordinal();
+                RandomAccessFile idxRaf = state.getIdxRaf(testament);
+                if (idxRaf != null) {
+                    original[t] = SwordUtil.readRAF(idxRaf, 0, (int) idxRaf.length());
+                    index[t] = original[t].clone();
+                    textLength[t] = state.getTextRaf(testament).length();
+                }
+                dirtyStart[t] = Integer.MAX_VALUE;
+                names[t] = new ByteArrayOutputStream();
+            }
+        } catch (IOException e) {
+            OpenFileStateManager.instance().release(state);
+            throw e;
+        }
+    }
+
+    /**
+     * Set the text of an entry.
+     *
+     * @param key
+     *            the verse to set
+     * @param text
+     *            the text of the verse
+     * @throws IOException
+     *             if the text cannot be written
+     */
+    public void setRawText(Key key, String text) throws IOException {
+        checkOpen();
+        int ordinal = KeyUtil.getVerse(key).getOrdinal();
+        Testament testament = backend.v11n.getTestament(ordinal);
+        int entry = backend.v11n.getTestamentOrdinal(ordinal);
+        int t = testament.ordinal();
+
+        File dataFile;
+        if (getSize(t, entry) == 0) {
+            String fileName = String.format("%07d", Integer.valueOf(nextIncfileValue++));
+            setEntry(t, entry, textLength[t] + names[t].size(), FILE_NAME_SIZE);
+            names[t].write((fileName + "\r\n").getBytes(backend.charset));
+            dataFile = new File(dataPath, fileName);
+            created.add(dataFile);
+        } else {
+            dataFile = new File(dataPath, getFileName(testament, entry));
+        }
+
+        byte[] textData = text.getBytes("UTF-8");
+        backend.encipher(textData);
+        if (created.contains(dataFile)) {
+            backend.writeTextDataFile(dataFile, textData);
+        } else {
+            // The entry is in the book, so it cannot be replaced until commit.
+            File stagedFile = new File(dataPath, dataFile.getName() + SUFFIX_STAGED);
+            backend.writeTextDataFile(stagedFile, textData);
+            staged.put(dataFile, stagedFile);
+        }
+    }
+
+    /**
+     * Make an entry share the text of another.
+     *
+     * @param alias
+     *            the verse that is to share the text
+     * @param source
+     *            the verse whose text is shared
+     * @throws IOException
+     *             if the index is too short for either verse
+     */
+    public void setAliasKey(Key alias, Key source) throws IOException {
+        checkOpen();
+        int aliasOrdinal = KeyUtil.getVerse(alias).getOrdinal();
+        int t = backend.v11n.getTestament(aliasOrdinal).ordinal();
+        int aliasEntry = backend.v11n.getTestamentOrdinal(aliasOrdinal);
+        int sourceEntry = backend.v11n.getTestamentOrdinal(KeyUtil.getVerse(source).getOrdinal());
+
+        // Only the index is changed to point to what is linked.
+        byte[] idx = getIndex(t, Math.max(aliasEntry, sourceEntry));
+        setEntry(t, aliasEntry, SwordUtil.decodeLittleEndian32(idx, sourceEntry * backend.entrysize), getSize(t, sourceEntry));
+    }
+
+    /**
+     * Make the changes of this session part of the book. The session is
+     * closed, even if the commit fails.
+     *
+     * @throws IOException
+     *             if the changes cannot be written, in which case none of them
+     *             are made
+     */
+    public void commit() throws IOException {
+        checkOpen();
+        committing = true;
+        boolean done = false;
+        try {
+            // Replace the files of changed entries, keeping the old ones
+            // until all is done.
+            for (Map.Entry<File, File> change : staged.entrySet()) {
+                File dataFile = change.getKey();
+                File backup = new File(dataPath, dataFile.getName() + SUFFIX_BACKUP);
+                backup.delete();
+                if (dataFile.exists()) {
+                    rename(dataFile, backup);
+                    backups.add(backup);
+                }
+                rename(change.getValue(), dataFile);
+            }
+
+            for (Testament testament : Testament.values()) {
+                appendNames(testament);
+            }
+
+            // Numbers are never reused, even if the index is not written.
+            if (nextIncfileValue != startIncfileValue) {
+                state.setIncfileValue(nextIncfileValue);
+                backend.writeIncfile(state, nextIncfileValue);
+            }
+
+            // Publishing the index makes the changes visible.
+            for (Testament testament : Testament.values()) {
+                int t = testament.ordinal();
+                writeIndex(testament, index[t]);
+            }
+            done = true;
+        } finally {
+            if (done) {
+                for (File backup : backups) {
+                    backup.delete();
+                }
+                backend.clearVerseBitmap();
+                backend.clearRawTextCache();
+                log.debug("Committed {} new and {} changed entries to {}", Integer.toString(created.size()), Integer.toString(staged.size()),
+                        backend.getBookMetaData().getInitials());
+                finish();
+            } else {
+                rollback();
+            }
+        }
+    }
+
+    /**
+     * Discard the changes of this session and close it.
+     */
+    public void rollback() {
+        if (state == null) {
+            return;
+        }
+        try {
+            for (File dataFile : created) {
+                dataFile.delete();
+            }
+            for (File stagedFile : staged.values()) {
+                stagedFile.delete();
+            }
+            for (File backup : backups) {
+                String name = backup.getName();
+                File dataFile = new File(dataPath, name.substring(0, name.length() - SUFFIX_BACKUP.length()));
+                dataFile.delete();
+                if (!backup.renameTo(dataFile)) {
+                    log.error("Unable to restore {}", dataFile.getPath());
+                }
+            }
+
+            // Undo whatever part of the commit got done.
+            for (int i = 0; committing && i < Testament.values().length; i++) {
+                Testament testament = Testament.values()[i];
+                int t = testament.ordinal();
+                RandomAccessFile txtRaf = state.getTextRaf(testament);
+                if (txtRaf != null && txtRaf.length() > textLength[t]) {
+                    txtRaf.setLength(textLength[t]);
+                }
+                writeIndex(testament, original[t]);
+            }
+        } catch (IOException e) {
+            log.error("Unable to roll back changes to {}", backend.getBookMetaData().getInitials(), e);
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Close the session, discarding its changes if it has not been committed.
+     */
+    public void close() {
+        rollback();
+    }
+
+    /**
+     * @return the number of entries that are new in this session
+     */
+    public int getCreatedCount() {
+        return created.size();
+    }
+
+    /**
+     * @return the number of entries whose text is replaced in this session
+     */
+    public int getChangedCount() {
+        return staged.size();
+    }
+
+    private void checkOpen() throws IOException {
+        if (state == null) {
+            throw new IOException("The session is closed.");
+        }
+    }
+
+    /**
+     * Get the index of a testament, ensuring that it has the entry.
+     */
+    private byte[] getIndex(int t, int entry) throws IOException {
+        byte[] idx = index[t];
+        if (idx == null) {
+            throw new IOException("No index for " + Testament.values()[t] + " in " + backend.getBookMetaData().getInitials());
+        }
+        int needed = (entry + 1) * backend.entrysize;
+        if (idx.length < needed) {
+            byte[] larger = new byte[needed];
+            System.arraycopy(idx, 0, larger, 0, idx.length);
+            idx = larger;
+            index[t] = idx;
+        }
+        return idx;
+    }
+
+    private int getSize(int t, int entry) throws IOException {
+        byte[] idx = getIndex(t, entry);
+        int offset = entry * backend.entrysize + RawBackend.OFFSETSIZE;
+        return backend.datasize == 2 ? SwordUtil.decodeLittleEndian16(idx, offset) : SwordUtil.decodeLittleEndian32(idx, offset);
+    }
+
+    private void setEntry(int t, int entry, long dataOffset, int size) throws IOException {
+        byte[] idx = getIndex(t, entry);
+        int offset = entry * backend.entrysize;
+        SwordUtil.encodeLittleEndian32((int) dataOffset, idx, offset);
+        if (backend.datasize == 2) {
+            SwordUtil.encodeLittleEndian16(size, idx, offset + RawBackend.OFFSETSIZE);
+        } else {
+            SwordUtil.encodeLittleEndian32(size, idx, offset + RawBackend.OFFSETSIZE);
+        }
+        dirtyStart[t] = Math.min(dirtyStart[t], offset);
+        dirtyEnd[t] = Math.max(dirtyEnd[t], offset + backend.entrysize);
+    }
+
+    /**
+     * Get the name of the file of an entry, which may have been added in this
+     * session.
+     */
+    private String getFileName(Testament testament, int entry) throws IOException {
+        int t = testament.ordinal();
+        byte[] idx = index[t];
+        int offset = SwordUtil.decodeLittleEndian32(idx, entry * backend.entrysize);
+        if (offset >= textLength[t]) {
+            return new String(names[t].toByteArray(), (int) (offset - textLength[t]), FILE_NAME_SIZE, backend.charset);
+        }
+        return backend.getTextFilename(state.getTextRaf(testament), new DataIndex(offset, getSize(t, entry)));
+    }
+
+    /**
+     * Append the names of the new files of a testament and sync them.
+     */
+    private void appendNames(Testament testament) throws IOException {
+        ByteArrayOutputStream added = names[testament.ordinal()];
+        if (added.size() == 0) {
+            return;
+        }
+        FileOutputStream out = new FileOutputStream(state.getTextFile(testament), true);
+        try {
+            added.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the changed part of a testament's index, in one write, and sync
+     * it.
+     */
+    private void writeIndex(Testament testament, byte[] idx) throws IOException {
+        int t = testament.ordinal();
+        if (dirtyStart[t] >= dirtyEnd[t]) {
+            return;
+        }
+        RandomAccessFile idxRaf = state.getIdxRaf(testament);
+        int end = Math.min(dirtyEnd[t], idx.length);
+        if (end > dirtyStart[t]) {
+            idxRaf.seek(dirtyStart[t]);
+            idxRaf.write(idx, dirtyStart[t], end - dirtyStart[t]);
+        }
+        if (idx == original[t] && idxRaf.length() > idx.length) {
+            // The index was grown by this session.
+            idxRaf.setLength(idx.length);
+        }
+        idxRaf.getFD().sync();
+    }
+
+    private void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Unable to rename " + from.getPath() + " to " + to.getPath());
+        }
+    }
+
+    private void finish() {
+        OpenFileStateManager.instance().release(state);
+        state = null;
+    }
+
+    /**
+     * The stored name of a file is 7 digits.
+     */
+    private static final int FILE_NAME_SIZE = 7;
+
+    /**
+     * The suffix of the new text of an entry that is in the book.
+     */
+    private static final String SUFFIX_STAGED = ".new";
+
+    /**
+     * The suffix of the old text of an entry while it is replaced.
+     */
+    private static final String SUFFIX_BACKUP = ".old";
+
+    private final RawFileBackend backend;
+    private final File dataPath;
+    private RawFileBackendState state;
+
+    /**
+     * The index of each testament, as changed by the session.
+     */
+    private final byte[][] index;
+
+    /**
+     * The index of each testament, as it was.
+     */
+    private final byte[][] original;
+
+    /**
+     * The part of each index that has been changed.
+     */
+    private final int[] dirtyStart;
+    private final int[] dirtyEnd;
+
+    /**
+     * The length of each list of file names, before the session.
+     */
+    private final long[] textLength;
+
+    /**
+     * The names of the files added to each testament.
+     */
+    private final ByteArrayOutputStream[] names;
+
+    private final int startIncfileValue;
+    private int nextIncfileValue;
+    private boolean committing;
+
+    /**
+     * The files of the entries that are new in this session.
+     */
+    private final Set<File> created;
+
+    /**
+     * The files of changed entries, and the files of their new text.
+     */
+    private final Map<File, File> staged;
+
+    /**
+     * The old files of changed entries, while a commit is in progress.
+     */
+    private final List<File> backups;
+
+    private static final Logger log = LoggerFactory.getLogger(RawFileWriteSession.class);
+}
@@ -25,10 +25,14 @@ import java.io.ObjectInputStream;
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,8 +44,11 @@ import org.crosswire.jsword.book.BookException;
 import org.crosswire.jsword.book.FeatureType;
 import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
 import org.crosswire.jsword.book.sword.state.RawLDBackendState;
+import org.crosswire.jsword.passage.DefaultKeyList;
 import org.crosswire.jsword.passage.DefaultLeafKeyList;
 import org.crosswire.jsword.passage.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An implementation AbstractKeyBackend to read RAW format files.
@@ -64,6 +71,7 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
         super(sbmd);
         this.datasize = datasize;
         this.entrysize = OFFSETSIZE + datasize;
+        this.charset = sbmd.getBookCharset();
     }
 
     public String readRawContent(RawLDBackendState state, Key key) throws IOException {
@@ -74,33 +82,74 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
         return OpenFileStateManager.instance().getRawLDBackendState(getBookMetaData());
     }
 
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readRawContents(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.Key, org.crosswire.jsword.book.sword.RawTextConsumer)
+     */
+    @Override
+    protected void readRawContents(RawLDBackendState state, Key key, RawTextConsumer consumer) throws BookException {
+        // Find all the entries first, so that they can be read in the order of the files.
+        List<Key> keys = new ArrayList<Key>();
+        List<Integer> positions = new ArrayList<Integer>();
+        for (Key next : key) {
+            try {
+                int pos = search(state, next.getName());
+                if (pos >= 0) {
+                    keys.add(next);
+                    positions.add(Integer.valueOf(pos));
+                }
+            } catch (IOException e) {
+                log.debug(e.getMessage(), e);
+            }
+        }
+
+        // Sort by position, keeping track of the key of each.
+        long[] order = new long[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) positions.get(i).intValue() << 32) | i;
+        }
+        Arrays.sort(order);
+
+        for (long entry : order) {
+            Key next = keys.get((int) entry);
+            try {
+                consumer.accept(next, readRawContent(state, next.getName(), (int) (entry >>> 32)));
+            } catch (IOException e) {
+                log.debug(e.getMessage(), e);
+            }
+        }
+    }
+
     private String readRawContent(RawLDBackendState state, String key) throws IOException {
         int pos = search(state, key);
         if (pos >= 0) {
-            DataEntry entry = getEntry(state, key, pos);
-            entry = getEntry(state, entry);
-            if (entry.isLinkEntry()) {
-                return readRawContent(state, entry.getLinkTarget());
-            }
-//            // If the ZLDBackend is linked then the above isn't linked but
-//            // the raw text is.
-//            String raw = getRawText(state, entry);
-//            if (raw.startsWith("@LINK")) {
-//                return readRawContent(state, raw.substring(6).trim());
-//            }
-            return getRawText(entry);
+            return readRawContent(state, key, pos);
         }
         // TRANSLATOR: Error condition: Indicates that something could not
         // be found in the book. {0} is a placeholder for the unknown key.
         throw new IOException(JSMsg.gettext("Key not found {0}", key));
     }
 
+    private String readRawContent(RawLDBackendState state, String key, int pos) throws IOException {
+        DataEntry entry = getEntry(state, key, pos);
+        entry = getEntry(state, entry);
+        if (entry.isLinkEntry()) {
+            return readRawContent(state, entry.getLinkTarget());
+        }
+//        // If the ZLDBackend is linked then the above isn't linked but
+//        // the raw text is.
+//        String raw = getRawText(state, entry);
+//        if (raw.startsWith("@LINK")) {
+//            return readRawContent(state, raw.substring(6).trim());
+//        }
+        return getRawText(entry);
+    }
+
     protected String getRawText(DataEntry entry) {
         String cipherKeyString = (String) getBookMetaData().getProperty(ConfigEntryType.CIPHER_KEY);
         byte[] cipherKeyBytes = null;
         if (cipherKeyString != null) {
             try {
-                cipherKeyBytes = cipherKeyString.getBytes(getBookMetaData().getBookCharset());
+                cipherKeyBytes = cipherKeyString.getBytes(charset);
             } catch (UnsupportedEncodingException e) {
                 cipherKeyBytes = cipherKeyString.getBytes();
             }
@@ -112,6 +161,11 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
      * @see org.crosswire.jsword.passage.Key#getCardinality()
      */
     public int getCardinality() {
+        LDKeyTable table = keyTable;
+        if (table != null) {
+            return table.size();
+        }
+
         RawLDBackendState state = null;
         try {
             state = initState();
@@ -133,13 +187,19 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
      * @see org.crosswire.jsword.passage.Key#get(int)
      */
     public Key get(int index) {
+        LDKeyTable table = keyTable;
+        if (table != null && index >= 0 && index < table.size()) {
+            return new DefaultLeafKeyList(internal2external(table.getKey(index)));
+        }
+
         RawLDBackendState state = null;
         try {
             state = initState();
 
             if (index < getCardinality()) {
-                DataEntry entry = getEntry(state, getBookMetaData().getInitials(), index);
-                String keytitle = internal2external(entry.getKey());
+                LDKeyTable loaded = getKeyTable(state);
+                String key = loaded != null ? loaded.getKey(index) : getEntry(state, getBookMetaData().getInitials(), index).getKey();
+                String keytitle = internal2external(key);
                 return new DefaultLeafKeyList(keytitle);
             }
         } catch (BookException e) {
@@ -169,6 +229,64 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
         }
     }
 
+    /**
+     * Get the keys that start with a prefix, in the order of the dictionary.
+     * The prefix is matched as a key is by {@link #indexOf(Key)}, so case does
+     * not matter for most dictionaries. When the keys are in memory, no
+     * entry is read.
+     *
+     * @param prefix
+     *            the start of the keys that are sought
+     * @return the keys, which may be empty
+     */
+    public Key getKeysStartingWith(String prefix) {
+        Key found = new DefaultKeyList();
+        RawLDBackendState state = null;
+        try {
+            state = initState();
+            LDKeyTable table = getKeyTable(state);
+            int total = table != null ? table.size() : getCardinality();
+            String sought = normalizeForSearch(prefix);
+
+            // The first entry may be out of order, so it is checked on its own.
+            if (total > 0) {
+                String firstKey = getKey(state, table, prefix, 0);
+                if (normalizeForSearch(firstKey).startsWith(sought)) {
+                    found.addAll(new DefaultLeafKeyList(internal2external(firstKey)));
+                }
+            }
+
+            // Find the first of the rest that is not less than the prefix.
+            int low = 1;
+            int high = total;
+            while (low < high) {
+                // use >>> to keep mid always in range
+                int mid = (low + high) >>> 1;
+                if (getKey(state, table, prefix, mid).compareTo(sought) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            // Those that follow it match for as long as they start with it.
+            for (int i = low; i < total; i++) {
+                String key = getKey(state, table, prefix, i);
+                if (!key.startsWith(sought)) {
+                    break;
+                }
+                found.addAll(new DefaultLeafKeyList(internal2external(key)));
+            }
+        } catch (IOException e) {
+            log.error("Unable to search the keys of {}", getBookMetaData().getInitials(), e);
+        } catch (BookException e) {
+            log.error("Unable to search the keys of {}", getBookMetaData().getInitials(), e);
+        } finally {
+            OpenFileStateManager.instance().release(state);
+        }
+        return found;
+    }
+
     /* (non-Javadoc)
      * @see org.crosswire.jsword.book.sword.AbstractBackend#size(org.crosswire.jsword.passage.Key)
      */
@@ -240,7 +358,7 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
         DataIndex dataIndex = getIndex(state, index);
         // Now read the data file for this key using the offset and size
         byte[] data = SwordUtil.readRAF(state.getDatRaf(), dataIndex.getOffset(), dataIndex.getSize());
-        return new DataEntry(reply, data, getBookMetaData().getBookCharset());
+        return new DataEntry(reply, data, charset);
     }
 
     /**
@@ -270,8 +388,11 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
         // first element as a special case.
         // If that does not match return the position found otherwise.
 
+        // When the keys are in memory, only the matching entry is read.
+        LDKeyTable table = getKeyTable(state);
+
         // Initialize to one beyond both ends.
-        int total = getCardinality();
+        int total = table != null ? table.size() : getCardinality();
         int low = 0;
         int high = total;
         int match = -1;
@@ -281,7 +402,7 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
             int mid = (low + high) >>> 1;
 
             // Get the key for the item at "mid"
-            String entryKey = getEntry(state, key, mid).getKey();
+            String entryKey = getKey(state, table, key, mid);
             int cmp = entryKey.compareTo(normalizeForSearch(external2internal(key, entryKey)));
             if (cmp < 0) {
                 low = mid;
@@ -299,13 +420,73 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
         }
 
         // Many dictionaries have an introductory entry, so check it for a match.
-        if (normalizeForSearch(getEntry(state, key, 0).getKey()).compareTo(key) == 0) {
+        String firstKey = table != null && total == 0 ? "" : getKey(state, table, key, 0);
+        if (normalizeForSearch(firstKey).compareTo(key) == 0) {
             return 0;
         }
 
         return -(high + 1);
     }
 
+    /**
+     * Get the key of an entry, from memory if the keys are there.
+     *
+     * @param state the state from which the entry is read
+     * @param table the keys in memory or null
+     * @param reply the name of the sought key, for diagnostics
+     * @param index the position of the entry
+     * @return the key of the entry
+     * @throws IOException
+     */
+    private String getKey(RawLDBackendState state, LDKeyTable table, String reply, int index) throws IOException {
+        return table != null ? table.getKey(index) : getEntry(state, reply, index).getKey();
+    }
+
+    /**
+     * Get the keys of this dictionary, loading them on first use, if keys are
+     * to be kept in memory.
+     *
+     * @param state the state from which the keys are read
+     * @return the keys or null if they are not kept in memory
+     */
+    private LDKeyTable getKeyTable(RawLDBackendState state) {
+        LDKeyTable table = keyTable;
+        if (table == null && keysInMemory && state.getIdxRaf() != null) {
+            // A lock rather than a monitor, as the keys are read while it is held.
+            keyTableLock.lock();
+            try {
+                table = keyTable;
+                if (table == null) {
+                    table = LDKeyTable.load(getBookMetaData().getInitials(), state.getIdxRaf(), state.getDatRaf(), entrysize, datasize, charset);
+                    keyTable = table;
+                }
+            } catch (IOException e) {
+                log.error("Unable to load the keys of {}", getBookMetaData().getInitials(), e);
+            } finally {
+                keyTableLock.unlock();
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Whether the keys of dictionaries are loaded into memory on first use,
+     * so that finding a key needs no disk access. The default is false.
+     *
+     * @param keysInMemory
+     *            whether to keep the keys of dictionaries in memory
+     */
+    public static void setKeysInMemory(boolean keysInMemory) {
+        RawLDBackend.keysInMemory = keysInMemory;
+    }
+
+    /**
+     * @return whether the keys of dictionaries are kept in memory
+     */
+    public static boolean isKeysInMemory() {
+        return keysInMemory;
+    }
+
     /**
      * Convert the supplied key to something that can be understood by the module.
      * Use firstKey to determine the pattern for Strong's numbers.
@@ -459,11 +640,36 @@ public class RawLDBackend<T extends RawLDBackendState> extends AbstractKeyBacken
      */
     private final int datasize;
 
+    /**
+     * The charset of the book's text
+     */
+    private final String charset;
+
     /**
      * The number of bytes for each entry in the index: either 6 or 8
      */
     private final int entrysize;
 
+    /**
+     * The keys of the dictionary, when they are kept in memory.
+     */
+    private transient volatile LDKeyTable keyTable;
+
+    /**
+     * Serializes the loading of the keys.
+     */
+    private final ReentrantLock keyTableLock = new ReentrantLock();
+
+    /**
+     * Whether to keep the keys of dictionaries in memory.
+     */
+    private static volatile boolean keysInMemory;
+
+    /**
+     * The log stream
+     */
+    private static final Logger log = LoggerFactory.getLogger(RawLDBackend.class);
+
     /**
      * How many bytes in the offset pointers in the index
      */
@@ -0,0 +1,97 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import org.crosswire.common.util.WeightedLruCache;
+
+/**
+ * A cache of the raw text of the entries of a book, shared by all the readers
+ * of the book. A popular verse is then read, deciphered and decoded once,
+ * rather than every time it is asked for. Verses are keyed by their ordinal,
+ * other entries by their name or path.
+ *
+ * <p>
+ * The cache is bounded by the total number of characters it holds. When a new
+ * entry would exceed the bound, the least recently used entries are evicted.
+ * An empty entry weighs as one character. An entry that is larger than a
+ * quarter of the bound is not kept, so that reading a long dictionary entry
+ * or a chapter of a general book does not flush all the popular verses.
+ * </p>
+ *
+ * <p>
+ * The cache is optional and is off by default. It is turned on by giving it
+ * a default size before books are read.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class RawTextCache extends WeightedLruCache<Object, String> {
+    /**
+     * Create a RawTextCache bounded by the default size.
+     */
+    public RawTextCache() {
+        this(defaultMaxChars);
+    }
+
+    /**
+     * Create a RawTextCache bounded by the given size.
+     *
+     * @param maxChars
+     *            the most characters of raw text to keep
+     */
+    public RawTextCache(long maxChars) {
+        super(maxChars, maxChars / 4, WEIGHER);
+    }
+
+    /**
+     * Set the size bound of RawTextCaches that are created hereafter. A bound
+     * of 0 or less turns the cache off for books that are opened hereafter.
+     *
+     * @param maxChars
+     *            the most characters of raw text to keep per book
+     */
+    public static void setDefaultMaxChars(long maxChars) {
+        RawTextCache.defaultMaxChars = maxChars;
+    }
+
+    /**
+     * @return the size bound of RawTextCaches that are created hereafter
+     */
+    public static long getDefaultMaxChars() {
+        return defaultMaxChars;
+    }
+
+    /**
+     * An entry weighs its length, an empty one as one character.
+     */
+    private static final Weigher<Object, String> WEIGHER = new Weigher<Object, String>() {
+        public long weigh(Object key, String text) {
+            return Math.max(1, text.length());
+        }
+    };
+
+    /**
+     * The default bound, 0 for no cache.
+     */
+    private static volatile long defaultMaxChars;
+}
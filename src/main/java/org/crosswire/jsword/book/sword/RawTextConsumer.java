@@ -0,0 +1,44 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import org.crosswire.jsword.passage.Key;
+
+/**
+ * Receives the raw text of many keys, one key at a time, as it is read by
+ * {@link Backend#readRawContents(Key, RawTextConsumer)}.
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public interface RawTextConsumer {
+    /**
+     * Accept the raw text of a key.
+     *
+     * @param key
+     *            the key that was read. For a Bible or Commentary, this is a
+     *            Verse.
+     * @param rawText
+     *            the text that has been read, deciphered
+     */
+    void accept(Key key, String rawText);
+}
@@ -0,0 +1,847 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.crosswire.common.util.CWProject;
+import org.crosswire.common.util.FileUtil;
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.common.util.NetUtil;
+import org.crosswire.jsword.JSOtherMsg;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.KeyType;
+import org.crosswire.jsword.book.sword.state.MappedFile;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.KeyUtil;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A serving pack is a book converted for fast, repeated reading. The raw text
+ * of every entry is stored uncompressed and deciphered, as UTF-8, in a single
+ * file that is memory mapped. A dense table gives the offset and length of
+ * each entry by its ordinal, so an entry is found with one lookup and decoded
+ * straight from the mapping.
+ *
+ * <p>
+ * The ordinal of a verse is its ordinal in the book's versification. The
+ * ordinal of a dictionary entry is its position in the book's key list and
+ * the ordinal of a general book entry is its position in a pre-order walk of
+ * the book's tree. For these the pack also stores the name of each entry, and
+ * for a general book, the parent of each entry.
+ * </p>
+ *
+ * <p>
+ * A pack records the size and the last modified time of the module's data
+ * files. If either has changed, the pack is stale and is not used. Packs of
+ * enciphered books hold deciphered text, so they are only built and used
+ * while the book is unlocked with the key that it was built with.
+ * </p>
+ *
+ * <p>
+ * Packs are optional. When they are enabled, a book for which there is a
+ * fresh pack is served from it, and otherwise from its own backend. Packs are
+ * built by PackBuilder or, if so configured, in the background when the book
+ * is loaded.
+ * </p>
+ *
+ * <p>
+ * The file is little endian and has a header of:
+ * </p>
+ * <pre>
+ *  0 int  magic, "JSPK"
+ *  4 int  version
+ *  8 long the total size of the module's data files
+ * 16 long the latest modification time of the module's data files
+ * 24 int  a check of the cipher key, 0 if none
+ * 28 int  the number of ordinals
+ * 32 int  the offset of the text table of (int offset, int length) by ordinal
+ * 36 int  the offset of the name table, like the text table, or 0 if none.
+ *         A name whose length is -1 is absent.
+ * 40 int  the offset of the parent table of int by ordinal, or 0 if none
+ * 44 int  reserved
+ * </pre>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public final class ServingPack {
+    /**
+     * Open a pack, checking its header.
+     *
+     * @param bmd
+     *            the book that was packed
+     * @param file
+     *            the mapped pack
+     * @throws IOException
+     *             if it is not a pack that can be read
+     */
+    private ServingPack(SwordBookMetaData bmd, MappedFile file) throws IOException {
+        this.bmd = bmd;
+        this.file = file;
+        if (!file.contains(0, HEADER_SIZE) || file.getLittleEndian32(0) != MAGIC || file.getLittleEndian32(4) != VERSION) {
+            throw new IOException("Not a serving pack: " + file.getFile().getPath());
+        }
+
+        sourceSize = getLittleEndian64(8);
+        sourceModified = getLittleEndian64(16);
+        cipherCheck = file.getLittleEndian32(24);
+        count = file.getLittleEndian32(28);
+        textTable = file.getLittleEndian32(32);
+        nameTable = file.getLittleEndian32(36);
+        parentTable = file.getLittleEndian32(40);
+
+        if (count < 0 || !file.contains(textTable, count * TABLE_ENTRY_SIZE)
+                || (nameTable != 0 && !file.contains(nameTable, count * TABLE_ENTRY_SIZE))
+                || (parentTable != 0 && !file.contains(parentTable, count * 4)))
+        {
+            throw new IOException("Corrupt serving pack: " + file.getFile().getPath());
+        }
+    }
+
+    /**
+     * Open the pack of a book, if there is one that can be used.
+     *
+     * @param bmd
+     *            the book
+     * @return the pack, or null if there is none or it is stale
+     */
+    public static ServingPack open(SwordBookMetaData bmd) {
+        if (!isPackable(bmd) || bmd.isLocked()) {
+            return null;
+        }
+
+        try {
+            return open(bmd, getPackFile(bmd));
+        } catch (IOException e) {
+            log.warn("Unable to open serving pack for " + bmd.getInitials(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Open a pack of a book from the given file.
+     *
+     * @param bmd
+     *            the book
+     * @param packFile
+     *            the pack
+     * @return the pack, or null if there is none or it is stale
+     */
+    static ServingPack open(SwordBookMetaData bmd, File packFile) {
+        if (!packFile.canRead()) {
+            return null;
+        }
+
+        try {
+            ServingPack pack = new ServingPack(bmd, MappedFile.getInstance(packFile));
+            if (!pack.isFresh()) {
+                log.info("Serving pack for {} is stale", bmd.getInitials());
+                return null;
+            }
+            return pack;
+        } catch (IOException e) {
+            log.warn("Unable to open serving pack for " + bmd.getInitials(), e);
+        } catch (BookException e) {
+            log.warn("Unable to open serving pack for " + bmd.getInitials(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Build the pack of a book from the book's own backend, replacing any
+     * pack that is already there.
+     *
+     * @param bmd
+     *            the book to pack
+     * @throws IOException
+     *             if the pack cannot be written
+     * @throws BookException
+     *             if the book cannot be packed or read
+     */
+    public static void build(SwordBookMetaData bmd) throws IOException, BookException {
+        if (!isPackable(bmd)) {
+            throw new BookException(JSOtherMsg.lookupText("Unable to pack {0}.", bmd.getInitials()));
+        }
+        build(bmd, bmd.getBookType().getBackend(bmd), getPackFile(bmd));
+    }
+
+    /**
+     * Build a pack from the given backend.
+     *
+     * @param bmd
+     *            the book to pack
+     * @param source
+     *            the backend from which the book is read
+     * @param packFile
+     *            where the pack goes
+     * @throws IOException
+     *             if the pack cannot be written
+     * @throws BookException
+     *             if the book cannot be packed or read
+     */
+    static void build(SwordBookMetaData bmd, Backend source, File packFile) throws IOException, BookException {
+        if (bmd.isLocked()) {
+            throw new BookException(JSOtherMsg.lookupText("Unable to pack {0}.", bmd.getInitials()));
+        }
+
+        // Take the signature first so a change during the build makes the pack stale.
+        long[] signature = SwordUtil.getDataSignature(bmd);
+
+        long start = System.currentTimeMillis();
+        // A name of its own, so that builds of the same book do not collide.
+        File temp = File.createTempFile(packFile.getName(), EXTENSION_TEMP, packFile.getParentFile());
+        try {
+            Builder builder = null;
+            try {
+                switch (bmd.getKeyType()) {
+                    case VERSE:
+                        builder = buildVerses(bmd, source, temp);
+                        break;
+                    case LIST:
+                        builder = buildList(source, temp);
+                        break;
+                    case TREE:
+                        builder = buildTree(source, temp);
+                        break;
+                    default:
+                        throw new BookException(JSOtherMsg.lookupText("Unable to pack {0}.", bmd.getInitials()));
+                }
+                builder.finish(signature, getCipherCheck(bmd));
+            } finally {
+                if (builder != null) {
+                    builder.close();
+                }
+            }
+
+            // Replace the old pack, if any.
+            if (packFile.exists() && !packFile.delete()) {
+                throw new IOException("Unable to replace " + packFile.getPath());
+            }
+            if (!temp.renameTo(packFile)) {
+                throw new IOException("Unable to rename " + temp.getPath());
+            }
+            temp = null;
+        } finally {
+            if (temp != null && !temp.delete()) {
+                log.debug("Unable to delete {}", temp.getPath());
+            }
+        }
+        log.info("Built serving pack for {} in {}ms", bmd.getInitials(), Long.toString(System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Delete the pack of a book, if there is one.
+     *
+     * @param bmd
+     *            the book
+     * @return true if there is no longer a pack
+     * @throws IOException
+     *             if the location of the pack cannot be determined
+     */
+    public static boolean delete(SwordBookMetaData bmd) throws IOException {
+        File packFile = getPackFile(bmd);
+        return !packFile.exists() || packFile.delete();
+    }
+
+    /**
+     * Determine whether there is a pack for the book that can be used.
+     *
+     * @param bmd
+     *            the book
+     * @return true if the book has a fresh pack
+     */
+    public static boolean isPacked(SwordBookMetaData bmd) {
+        return open(bmd) != null;
+    }
+
+    /**
+     * Determine whether a book is of a type that can be packed. These are the
+     * compressed types and general books.
+     *
+     * @param bmd
+     *            the book
+     * @return true if the book can be packed
+     */
+    public static boolean isPackable(SwordBookMetaData bmd) {
+        BookType type = bmd.getBookType();
+        return type == BookType.Z_TEXT || type == BookType.Z_COM || type == BookType.Z_LD || type == BookType.RAW_GEN_BOOK;
+    }
+
+    /**
+     * Get the file that holds the pack of a book.
+     *
+     * @param bmd
+     *            the book
+     * @return the pack file, which may not exist
+     * @throws IOException
+     *             if the location of the pack cannot be determined
+     */
+    public static File getPackFile(SwordBookMetaData bmd) throws IOException {
+        File dir = NetUtil.getAsFile(CWProject.instance().getWriteableProjectSubdir(DIR_PACKS, true));
+        return new File(dir, bmd.getInitials() + EXTENSION_PACK);
+    }
+
+    /**
+     * Choose the backend for a book. When packs are enabled and the book has
+     * a fresh pack, the book is served from its pack. Otherwise it is served
+     * by the source backend and, if packs are built on load, its pack is
+     * built in the background, to be used when the book is next loaded.
+     *
+     * @param bmd
+     *            the book
+     * @param source
+     *            the book's own backend
+     * @return the backend to use
+     */
+    static Backend select(SwordBookMetaData bmd, Backend source) {
+        if (!enabled || !isPackable(bmd)) {
+            return source;
+        }
+
+        ServingPack pack = open(bmd);
+        if (pack == null) {
+            if (buildOnLoad && !bmd.isLocked()) {
+                buildLater(bmd, source);
+            }
+            return source;
+        }
+        if (bmd.getKeyType() == KeyType.LIST) {
+            return new PackKeyBackend(bmd, pack, (AbstractKeyBackend<?>) source);
+        }
+        return new PackBackend(bmd, pack, source);
+    }
+
+    /**
+     * Build the pack of a book on a thread of its own, so that loading the
+     * book is not held up. A book whose pack is being built is not built
+     * again until that build is done.
+     *
+     * @param bmd
+     *            the book to pack
+     * @param source
+     *            the backend from which the book is read
+     */
+    private static void buildLater(final SwordBookMetaData bmd, final Backend source) {
+        final String initials = bmd.getInitials();
+        synchronized (building) {
+            if (!building.add(initials)) {
+                return;
+            }
+        }
+
+        Thread worker = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    build(bmd, source, getPackFile(bmd));
+                } catch (IOException e) {
+                    log.warn("Unable to build serving pack for " + initials, e);
+                } catch (BookException e) {
+                    log.warn("Unable to build serving pack for " + initials, e);
+                } finally {
+                    synchronized (building) {
+                        building.remove(initials);
+                    }
+                }
+            }
+        }, "ServingPackBuilder-" + initials);
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * @return the number of ordinals in the pack
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the length, in bytes of UTF-8, of an entry.
+     *
+     * @param ordinal
+     *            the ordinal of the entry
+     * @return the length, 0 if there is no such entry
+     */
+    public int getLength(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            return 0;
+        }
+        return file.getLittleEndian32(textTable + 1L * ordinal * TABLE_ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Get the raw text of an entry, decoded straight from the mapping.
+     *
+     * @param ordinal
+     *            the ordinal of the entry
+     * @return the raw text, empty if there is no such entry
+     */
+    public String getText(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            return "";
+        }
+        return decode(textTable + 1L * ordinal * TABLE_ENTRY_SIZE);
+    }
+
+    /**
+     * Get the name of an entry of a dictionary or a general book. The name of
+     * a general book entry is its path, as given by GenBookBackend.getPath.
+     *
+     * @param ordinal
+     *            the ordinal of the entry
+     * @return the name, or null if names are not stored or the entry could
+     *         not be read when it was packed
+     */
+    public String getName(int ordinal) {
+        if (nameTable == 0 || ordinal < 0 || ordinal >= count) {
+            return null;
+        }
+        long tableEntry = nameTable + 1L * ordinal * TABLE_ENTRY_SIZE;
+        if (file.getLittleEndian32(tableEntry + 4) < 0) {
+            return null;
+        }
+        return decode(tableEntry);
+    }
+
+    /**
+     * Get the parent of an entry of a general book.
+     *
+     * @param ordinal
+     *            the ordinal of the entry
+     * @return the ordinal of the parent, or -1 if there is none
+     */
+    public int getParent(int ordinal) {
+        if (parentTable == 0 || ordinal < 0 || ordinal >= count) {
+            return -1;
+        }
+        return file.getLittleEndian32(parentTable + 4L * ordinal);
+    }
+
+    /**
+     * Find an entry by its name.
+     *
+     * @param name
+     *            the name of the entry
+     * @return the ordinal of the entry, or -1 if there is none
+     */
+    public int find(String name) {
+        Map<String, Integer> map = names;
+        if (map == null) {
+            map = new HashMap<String, Integer>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String entryName = getName(i);
+                if (entryName != null && !map.containsKey(entryName)) {
+                    map.put(entryName, Integer.valueOf(i));
+                }
+            }
+            names = map;
+        }
+        Integer ordinal = map.get(name);
+        return ordinal == null ? -1 : ordinal.intValue();
+    }
+
+    /**
+     * Determine whether the module is still what was packed.
+     *
+     * @return true if the pack can be used
+     * @throws BookException
+     *             if the module cannot be found
+     */
+    boolean isFresh() throws BookException {
+        long[] signature = SwordUtil.getDataSignature(bmd);
+        if (signature[0] != sourceSize || signature[1] != sourceModified || getCipherCheck(bmd) != cipherCheck) {
+            return false;
+        }
+        if (bmd.getKeyType() == KeyType.VERSE) {
+            Versification v11n = Versifications.instance().getVersification(bmd.getProperty(ConfigEntryType.VERSIFICATION).toString());
+            return count == v11n.maximumOrdinal() + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Use serving packs for the books that are loaded hereafter.
+     *
+     * @param enabled
+     *            whether to use serving packs
+     */
+    public static void setEnabled(boolean enabled) {
+        ServingPack.enabled = enabled;
+    }
+
+    /**
+     * @return whether serving packs are used
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * When serving packs are enabled, build the pack of a book that has none,
+     * or whose pack is stale, in the background as the book is loaded.
+     *
+     * @param buildOnLoad
+     *            whether to build missing packs
+     */
+    public static void setBuildOnLoad(boolean buildOnLoad) {
+        ServingPack.buildOnLoad = buildOnLoad;
+    }
+
+    /**
+     * @return whether missing packs are built as books are loaded
+     */
+    public static boolean isBuildOnLoad() {
+        return buildOnLoad;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ServingPack[" + bmd.getInitials() + ", entries=" + count + ", bytes=" + file.length() + ']';
+    }
+
+    /**
+     * Decode the UTF-8 run given by a table entry.
+     */
+    private String decode(long tableEntry) {
+        int offset = file.getLittleEndian32(tableEntry);
+        int length = file.getLittleEndian32(tableEntry + 4);
+        if (length <= 0) {
+            return "";
+        }
+        return UTF8.decode(file.slice(offset, length)).toString();
+    }
+
+    private long getLittleEndian64(long offset) {
+        long low = file.getLittleEndian32(offset) & 0xFFFFFFFFL;
+        long high = file.getLittleEndian32(offset + 4);
+        return (high << 32) | low;
+    }
+
+    /**
+     * Pack the verses of a Bible or commentary, by the ordinal of each verse.
+     */
+    private static Builder buildVerses(SwordBookMetaData bmd, Backend source, File temp) throws IOException, BookException {
+        Versification v11n = Versifications.instance().getVersification(bmd.getProperty(ConfigEntryType.VERSIFICATION).toString());
+        final Builder builder = new Builder(temp, v11n.maximumOrdinal() + 1);
+        // The consumer cannot throw, so hold on to the first failure.
+        final IOException[] failure = new IOException[1];
+        // Read every verse rather than the global key list, which may not be complete.
+        try {
+            source.readRawContents(v11n.getAllVerses(), new RawTextConsumer() {
+                public void accept(Key key, String rawText) {
+                    if (failure[0] == null) {
+                        try {
+                            builder.setText(KeyUtil.getVerse(key).getOrdinal(), rawText);
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            });
+        } catch (BookException e) {
+            builder.close();
+            throw e;
+        }
+        if (failure[0] != null) {
+            builder.close();
+            throw failure[0];
+        }
+        return builder;
+    }
+
+    /**
+     * Pack the entries of a dictionary, in the order of its key list.
+     */
+    private static Builder buildList(Backend source, File temp) throws IOException {
+        AbstractKeyBackend<?> keys = (AbstractKeyBackend<?>) source;
+        int size = keys.getCardinality();
+        Builder builder = new Builder(temp, size);
+        String[] entryNames = new String[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                Key key = keys.get(i);
+                entryNames[i] = key.getName();
+                builder.setText(i, getRawText(source, key));
+            }
+        } catch (IOException e) {
+            builder.close();
+            throw e;
+        }
+        builder.setNames(entryNames);
+        return builder;
+    }
+
+    /**
+     * Pack the entries of a general book, in a pre-order walk of its tree.
+     */
+    @SuppressWarnings("deprecation")
+    private static Builder buildTree(Backend source, File temp) throws IOException {
+        Key root = source.readIndex();
+        int size = root.getCardinality();
+        Map<Key, Integer> ordinals = new IdentityHashMap<Key, Integer>(size);
+        Builder builder = new Builder(temp, size);
+        String[] entryNames = new String[size];
+        int[] parents = new int[size];
+        try {
+            int ordinal = 0;
+            Iterator<Key> iter = root.iterator();
+            while (iter.hasNext() && ordinal < size) {
+                Key key = iter.next();
+                ordinals.put(key, Integer.valueOf(ordinal));
+                Integer parent = ordinals.get(key.getParent());
+                parents[ordinal] = parent == null ? -1 : parent.intValue();
+                String rawText = getRawText(source, key);
+                // An entry that cannot be read is not found in the pack either.
+                entryNames[ordinal] = rawText == null ? null : GenBookBackend.getPath(key);
+                builder.setText(ordinal, rawText);
+                ordinal++;
+            }
+        } catch (IOException e) {
+            builder.close();
+            throw e;
+        }
+        builder.setNames(entryNames);
+        builder.setParents(parents);
+        return builder;
+    }
+
+    /**
+     * Get the raw text of an entry, null if it cannot be read.
+     */
+    private static String getRawText(Backend source, Key key) {
+        try {
+            return source.getRawText(key);
+        } catch (BookException e) {
+            log.debug("Unable to pack {}: {}", key.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A check of the cipher key, so that a pack built with one key is not
+     * used with another.
+     */
+    private static int getCipherCheck(SwordBookMetaData bmd) {
+        if (!bmd.isEnciphered()) {
+            return 0;
+        }
+        String key = bmd.getUnlockKey();
+        return key == null ? 0 : key.hashCode() | 1;
+    }
+
+    /**
+     * Writes a pack. The text is written as it is given and the tables are
+     * written after it, so that the whole book is never held in memory.
+     */
+    private static final class Builder {
+        Builder(File file, int count) throws IOException {
+            this.file = file;
+            this.out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+            this.starts = new int[count];
+            this.lengths = new int[count];
+            this.scratch = new byte[HEADER_SIZE];
+            out.write(scratch);
+            position = HEADER_SIZE;
+        }
+
+        void setText(int ordinal, String text) throws IOException {
+            if (ordinal < 0 || ordinal >= starts.length) {
+                return;
+            }
+            if (text == null) {
+                return;
+            }
+            byte[] bytes = text.getBytes(UTF8_NAME);
+            starts[ordinal] = position;
+            lengths[ordinal] = bytes.length;
+            write(bytes);
+        }
+
+        void setNames(String[] names) {
+            this.names = names;
+        }
+
+        void setParents(int[] parents) {
+            this.parents = parents;
+        }
+
+        void finish(long[] signature, int cipherCheck) throws IOException {
+            int nameTable = 0;
+            if (names != null) {
+                int[] nameStarts = new int[names.length];
+                int[] nameLengths = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i] == null) {
+                        nameLengths[i] = -1;
+                        continue;
+                    }
+                    byte[] bytes = names[i].getBytes(UTF8_NAME);
+                    nameStarts[i] = position;
+                    nameLengths[i] = bytes.length;
+                    write(bytes);
+                }
+                nameTable = writeTable(nameStarts, nameLengths);
+            }
+
+            int parentTable = 0;
+            if (parents != null) {
+                parentTable = position;
+                for (int parent : parents) {
+                    writeInt(parent);
+                }
+            }
+
+            int textTable = writeTable(starts, lengths);
+            out.close();
+            out = null;
+
+            byte[] header = new byte[HEADER_SIZE];
+            SwordUtil.encodeLittleEndian32(MAGIC, header, 0);
+            SwordUtil.encodeLittleEndian32(VERSION, header, 4);
+            SwordUtil.encodeLittleEndian32((int) signature[0], header, 8);
+            SwordUtil.encodeLittleEndian32((int) (signature[0] >>> 32), header, 12);
+            SwordUtil.encodeLittleEndian32((int) signature[1], header, 16);
+            SwordUtil.encodeLittleEndian32((int) (signature[1] >>> 32), header, 20);
+            SwordUtil.encodeLittleEndian32(cipherCheck, header, 24);
+            SwordUtil.encodeLittleEndian32(starts.length, header, 28);
+            SwordUtil.encodeLittleEndian32(textTable, header, 32);
+            SwordUtil.encodeLittleEndian32(nameTable, header, 36);
+            SwordUtil.encodeLittleEndian32(parentTable, header, 40);
+
+            RandomAccessFile raf = new RandomAccessFile(file, FileUtil.MODE_WRITE);
+            try {
+                raf.write(header);
+            } finally {
+                IOUtil.close(raf);
+            }
+        }
+
+        void close() {
+            if (out != null) {
+                IOUtil.close(out);
+                out = null;
+            }
+        }
+
+        private int writeTable(int[] offsets, int[] sizes) throws IOException {
+            int table = position;
+            for (int i = 0; i < offsets.length; i++) {
+                writeInt(offsets[i]);
+                writeInt(sizes[i]);
+            }
+            return table;
+        }
+
+        private void writeInt(int value) throws IOException {
+            SwordUtil.encodeLittleEndian32(value, scratch, 0);
+            out.write(scratch, 0, 4);
+            advance(4);
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            advance(bytes.length);
+        }
+
+        private void advance(int size) throws IOException {
+            if ((long) position + size > Integer.MAX_VALUE) {
+                throw new IOException("A serving pack cannot be larger than 2GB: " + file.getPath());
+            }
+            position += size;
+        }
+
+        private final File file;
+        private OutputStream out;
+        private final int[] starts;
+        private final int[] lengths;
+        private final byte[] scratch;
+        private String[] names;
+        private int[] parents;
+        private int position;
+    }
+
+    /**
+     * The directory in the writable project directory that holds the packs.
+     */
+    public static final String DIR_PACKS = "packs";
+
+    /**
+     * The extension of a pack file.
+     */
+    public static final String EXTENSION_PACK = ".pack";
+
+    private static final String EXTENSION_TEMP = ".tmp";
+    private static final int MAGIC = 0x4B50534A;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48;
+    private static final int TABLE_ENTRY_SIZE = 8;
+    private static final String UTF8_NAME = "UTF-8";
+    private static final Charset UTF8 = Charset.forName(UTF8_NAME);
+
+    private static volatile boolean enabled;
+    private static volatile boolean buildOnLoad;
+
+    /**
+     * The initials of the books whose packs are being built on load.
+     */
+    private static final Set<String> building = new HashSet<String>();
+
+    private final SwordBookMetaData bmd;
+    private final MappedFile file;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final int cipherCheck;
+    private final int count;
+    private final int textTable;
+    private final int nameTable;
+    private final int parentTable;
+
+    /**
+     * The ordinal of each name, built on first use.
+     */
+    private volatile Map<String, Integer> names;
+
+    /**
+     * The log stream
+     */
+    private static final Logger log = LoggerFactory.getLogger(ServingPack.class);
+}
@@ -262,6 +262,7 @@ public class SwordBook extends AbstractPassageBook {
      */
     public void setAliasKey(Key alias, Key source) throws BookException {
         getBackend().setAliasKey(alias, source);
+        clearOSISCache();
     }
 
     /* (non-Javadoc)
@@ -20,10 +20,23 @@
  */
 package org.crosswire.jsword.book.sword;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.crosswire.common.util.NetUtil;
 import org.crosswire.jsword.JSOtherMsg;
@@ -100,6 +113,89 @@ public final class SwordUtil {
         return read;
     }
 
+    /**
+     * Read a file at a given position without moving its file pointer. Unlike
+     * a seek followed by a read, this is safe when the file is shared by many
+     * threads, and it needs no lock.
+     * 
+     * @param channel
+     *            The file to read
+     * @param offset
+     *            The start of the record to read
+     * @param theSize
+     *            The number of bytes to read
+     * @return the read data
+     * @throws IOException
+     *             on error
+     */
+    protected static byte[] readChannel(FileChannel channel, long offset, int theSize) throws IOException {
+        int size = theSize;
+        long channelSize = channel.size();
+
+        if (offset >= channelSize) {
+            log.error("Attempt to read beyond end. offset={} size={} but channel.size={}", Long.toString(offset), Integer.toString(size), Long.toString(channelSize));
+            return new byte[0];
+        }
+
+        if (offset + size > channelSize) {
+            log.error("Need to reduce size to avoid EOFException. offset={} size={} but channel.size={}", Long.toString(offset), Integer.toString(size), Long.toString(channelSize));
+            size = (int) (channelSize - offset);
+        }
+
+        if (size < 1) {
+            log.error("Nothing to read at offset = {} returning empty because size={}", Long.toString(offset), Integer.toString(size));
+            return new byte[0];
+        }
+
+        byte[] read = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(read);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+
+        return read;
+    }
+
+    /**
+     * Read a file at a given position, without moving its file pointer, until
+     * a particular byte is seen. The byte is included in what is returned,
+     * unless the end of the file is reached first.
+     * 
+     * @param channel
+     *            The file to read
+     * @param offset
+     *            The start of the record to read
+     * @param stopByte
+     *            The point at which to stop reading
+     * @return the read data
+     * @throws IOException
+     *             on error
+     */
+    protected static byte[] readUntilChannel(FileChannel channel, long offset, byte stopByte) throws IOException {
+        // Records are short, so read a small chunk at a time.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                return out.toByteArray();
+            }
+            byte[] chunk = buffer.array();
+            for (int i = 0; i < count; i++) {
+                if (chunk[i] == stopByte) {
+                    out.write(chunk, 0, i + 1);
+                    return out.toByteArray();
+                }
+            }
+            out.write(chunk, 0, count);
+            position += count;
+        }
+    }
+
     /**
      * Writes "data" to a RandomAccessFile at the "offset" position
      * 
@@ -287,7 +383,6 @@ public final class SwordUtil {
     /**
      * Transform a byte array into a string given the encoding. If the encoding
      * is bad then it just does it as a string.
-     * Note: this may modify data. Don't use it to examine data.
      * 
      * @param data
      *            The byte array to be converted
@@ -302,7 +397,6 @@ public final class SwordUtil {
     /**
      * Transform a portion of a byte array into a string given the encoding. If
      * the encoding is bad then it just does it as a string.
-     * Note: this may modify data. Don't use it to examine data.
      * 
      * @param data
      *            The byte array to be converted
@@ -319,7 +413,15 @@ public final class SwordUtil {
     /**
      * Transform a portion of a byte array starting at an offset into a string
      * given the encoding. If the encoding is bad then it just does it as a
-     * string. Note: this may modify data. Don't use it to examine data.
+     * string. The data is not modified, so it can be decoded in place, for
+     * example, from a shared, uncompressed block.
+     * 
+     * <p>
+     * Text that is all ASCII, as much of it is, is converted without a
+     * decoder. Latin-1 and WINDOWS-1252 are converted by table. Other
+     * encodings use a decoder that is kept by each thread. None of these
+     * copy the data beforehand.
+     * </p>
      * 
      * @param data
      *            The byte array to be converted
@@ -331,15 +433,29 @@ public final class SwordUtil {
      *            The encoding of the byte array
      * @return a string that is UTF-8 internally
      */
+    @SuppressWarnings("deprecation")
     public static String decode(String key, byte[] data, int offset, int length, String charset) {
-         if ("WINDOWS-1252".equals(charset)) {
-            clean1252(key, data, offset, length);
-         }
-        String txt = "";
+        if (offset + length > data.length) {
+            return "";
+        }
+
+        if (WINDOWS_1252.equals(charset)) {
+            return decode1252(key, data, offset, length);
+        }
+
+        if (charset != null && (ISO_8859_1.equals(charset) || (isAscii(data, offset, length) && isAsciiCompatible(charset)))) {
+            // Each byte is a char. This constructor is deprecated only
+            // because it does not handle other encodings.
+            return new String(data, 0, offset, length);
+        }
+
+        String txt = decodeWithDecoder(data, offset, length, charset);
+        if (txt != null) {
+            return txt;
+        }
+
         try {
-            if (offset + length <= data.length) {
-                txt = new String(data, offset, length, charset);
-            }
+            txt = new String(data, offset, length, charset);
         } catch (UnsupportedEncodingException ex) {
             // It is impossible! In case, use system default...
             log.error("{}: Encoding {} not supported.", key, charset, ex);
@@ -350,28 +466,144 @@ public final class SwordUtil {
     }
 
     /**
-     * Remove rogue characters in the source. These are characters that are not
-     * valid in cp1252 aka WINDOWS-1252 and in UTF-8 or are non-printing control
-     * characters in the range of 0-32.
+     * Convert WINDOWS-1252 by table, replacing rogue characters with a space.
+     * These are characters that are not valid in cp1252 aka WINDOWS-1252 and
+     * in UTF-8 or are non-printing control characters in the range of 0-32.
      */
-    private static void clean1252(String key, byte[] data, int offset, int length) {
-        int end = offset + length;
-        // make sure it doesn't go off the end
-        if (end > data.length) {
-            end = data.length;
-        }
-        for (int i = offset; i < end; i++) {
+    private static String decode1252(String key, byte[] data, int offset, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
             // between 0-32 only allow whitespace: \t, \n, \r, ' '
             // characters 0x81, 0x8D, 0x8F, 0x90 and 0x9D are undefined in
             // cp1252
-            int c = data[i] & 0xFF;
+            int c = data[offset + i] & 0xFF;
             if ((c >= 0x00 && c < 0x20 && c != 0x09 && c != 0x0A && c != 0x0D) || (c == 0x81 || c == 0x8D || c == 0x8F || c == 0x90 || c == 0x9D)) {
-                data[i] = 0x20;
-                log.error("{} has bad character 0x{} at position {} in input.", key, Integer.toString(c, 16), Integer.toString(i));
+                chars[i] = ' ';
+                log.error("{} has bad character 0x{} at position {} in input.", key, Integer.toString(c, 16), Integer.toString(offset + i));
+            } else if (c >= 0x80 && c < 0xA0) {
+                chars[i] = CP1252_HIGH[c - 0x80];
+            } else {
+                chars[i] = (char) c;
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decode using a decoder kept by this thread.
+     *
+     * @return the decoded string or null if the charset is not supported
+     */
+    private static String decodeWithDecoder(byte[] data, int offset, int length, String charset) {
+        Charset cs = getCharset(charset);
+        if (cs == null) {
+            return null;
+        }
+
+        ThreadDecoders decoders = DECODERS.get();
+        CharsetDecoder decoder = decoders.get(cs);
+        CharBuffer out = decoders.getBuffer((int) (length * (double) decoder.maxCharsPerByte()) + 1);
+        try {
+            decoder.reset();
+            ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+            decoder.decode(in, out, true);
+            decoder.flush(out);
+            return new String(out.array(), 0, out.position());
+        } catch (IllegalStateException e) {
+            // Should not happen as the decoder was reset.
+            log.error("Unable to decode with {}", charset, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get a Charset by name, remembering it for next time.
+     *
+     * @return the Charset or null if it is not supported
+     */
+    private static Charset getCharset(String charset) {
+        if (charset == null) {
+            return null;
+        }
+        Charset cs = CHARSETS.get(charset);
+        if (cs == null) {
+            try {
+                cs = Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                // Unsupported or illegal name.
+                return null;
+            }
+            CHARSETS.putIfAbsent(charset, cs);
+        }
+        return cs;
+    }
+
+    private static boolean isAscii(byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (data[i] < 0) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static boolean isAsciiCompatible(String charset) {
+        return UTF_8.equals(charset) || "US-ASCII".equals(charset);
     }
 
+    /**
+     * The decoders of a thread, one per Charset, and the buffer they share.
+     */
+    private static final class ThreadDecoders {
+        CharsetDecoder get(Charset charset) {
+            CharsetDecoder decoder = decoders.get(charset);
+            if (decoder == null) {
+                // Act as new String(byte[], String) does.
+                decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                decoders.put(charset, decoder);
+            }
+            return decoder;
+        }
+
+        CharBuffer getBuffer(int size) {
+            if (buffer == null || buffer.capacity() < size) {
+                buffer = CharBuffer.allocate(Math.max(size, 1024));
+            }
+            buffer.clear();
+            return buffer;
+        }
+
+        private final Map<Charset, CharsetDecoder> decoders = new HashMap<Charset, CharsetDecoder>();
+        private CharBuffer buffer;
+    }
+
+    private static final String UTF_8 = "UTF-8";
+    private static final String ISO_8859_1 = "ISO-8859-1";
+    private static final String WINDOWS_1252 = "WINDOWS-1252";
+
+    /**
+     * The characters of WINDOWS-1252 from 0x80 to 0x9F, where it differs from
+     * Latin-1. The undefined ones are never used.
+     */
+    private static final char[] CP1252_HIGH = {
+        '\u20AC', ' ', '\u201A', '\u0192', '\u201E', '\u2026', '\u2020', '\u2021',
+        '\u02C6', '\u2030', '\u0160', '\u2039', '\u0152', ' ', '\u017D', ' ',
+        ' ', '\u2018', '\u2019', '\u201C', '\u201D', '\u2022', '\u2013', '\u2014',
+        '\u02DC', '\u2122', '\u0161', '\u203A', '\u0153', ' ', '\u017E', '\u0178',
+    };
+
+    private static final ConcurrentMap<String, Charset> CHARSETS = new ConcurrentHashMap<String, Charset>();
+
+    private static final ThreadLocal<ThreadDecoders> DECODERS = new ThreadLocal<ThreadDecoders>() {
+        @Override
+        protected ThreadDecoders initialValue() {
+            return new ThreadDecoders();
+        }
+    };
+
     /**
      * Returns where the book should be located
      * @param bookMetaData meta information about the book
@@ -389,6 +621,59 @@ public final class SwordUtil {
         return loc;
     }
 
+    /**
+     * Get the total size and the latest modification time of the data files
+     * of a module, which change whenever the module is changed or replaced.
+     * The data path is either a directory of files or the common prefix of
+     * the files.
+     *
+     * @param bookMetaData meta information about the book
+     * @return the total size and the latest modification time, in that order
+     * @throws BookException if the data files cannot be located
+     */
+    static long[] getDataSignature(SwordBookMetaData bookMetaData) throws BookException {
+        File dataPath;
+        try {
+            dataPath = NetUtil.getAsFile(getExpandedDataPath(bookMetaData));
+        } catch (IOException e) {
+            throw new BookException("Unable to locate the data files of " + bookMetaData.getInitials(), e);
+        }
+
+        File[] files;
+        if (dataPath.isDirectory()) {
+            files = dataPath.listFiles();
+        } else {
+            final String prefix = dataPath.getName() + '.';
+            File dir = dataPath.getParentFile();
+            files = dir == null ? null : dir.listFiles();
+            if (files != null) {
+                int kept = 0;
+                for (File candidate : files) {
+                    if (candidate.getName().startsWith(prefix)) {
+                        files[kept++] = candidate;
+                    }
+                }
+                File[] matched = new File[kept];
+                System.arraycopy(files, 0, matched, 0, kept);
+                files = matched;
+            }
+        }
+
+        long size = 0;
+        long modified = 0;
+        if (files != null) {
+            for (File dataFile : files) {
+                if (dataFile.isFile()) {
+                    size += dataFile.length();
+                    modified = Math.max(modified, dataFile.lastModified());
+                }
+            }
+        }
+        return new long[] {
+                size, modified
+        };
+    }
+
     /**
      * The log stream
      */
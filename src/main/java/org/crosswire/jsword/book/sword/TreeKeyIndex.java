@@ -24,6 +24,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.crosswire.common.activate.Activatable;
 import org.crosswire.common.activate.Activator;
@@ -102,6 +104,58 @@ public class TreeKeyIndex implements Activatable {
         return getTreeNode(getOffset(node.getNextSibling()));
     }
 
+    /**
+     * Get the whole tree, loading it on first use, if trees are to be
+     * preloaded.
+     *
+     * @return the tree or null if trees are not preloaded
+     * @throws IOException
+     */
+    TreeKeyTable getTable() throws IOException {
+        if (!preloaded) {
+            return null;
+        }
+
+        TreeKeyTable loaded = table;
+        if (loaded != null) {
+            return loaded;
+        }
+
+        // A lock rather than a monitor, as the tree is read while it is held.
+        tableLock.lock();
+        try {
+            if (table == null) {
+                checkActive();
+                if (idxRaf == null || datRaf == null) {
+                    return null;
+                }
+                table = new TreeKeyTable(bmd.getName(), idxRaf, datRaf, bmd.getBookCharset());
+            }
+            return table;
+        } finally {
+            tableLock.unlock();
+        }
+    }
+
+    /**
+     * Whether the whole tree of a general book is loaded into memory on first
+     * use, so that finding a key and reading the index need no disk access.
+     * The default is false.
+     *
+     * @param preloaded
+     *            whether to preload trees
+     */
+    public static void setPreloaded(boolean preloaded) {
+        TreeKeyIndex.preloaded = preloaded;
+    }
+
+    /**
+     * @return whether trees are preloaded
+     */
+    public static boolean isPreloaded() {
+        return preloaded;
+    }
+
     /**
      * The idx file contains offsets into the dat file.
      * 
@@ -116,7 +170,7 @@ public class TreeKeyIndex implements Activatable {
         }
 
         checkActive();
-        byte[] buffer = SwordUtil.readRAF(idxRaf, index, 4);
+        byte[] buffer = SwordUtil.readChannel(idxRaf.getChannel(), index, 4);
         return SwordUtil.decodeLittleEndian32(buffer, 0);
     }
 
@@ -136,14 +190,20 @@ public class TreeKeyIndex implements Activatable {
         }
 
         checkActive();
-        byte[] buffer = SwordUtil.readRAF(datRaf, offset, 12);
+        // The files are shared by all the readers of the book, so each read
+        // is made at a position, rather than by seeking and then reading.
+        FileChannel datChannel = datRaf.getChannel();
+        long position = offset;
+        byte[] buffer = SwordUtil.readChannel(datChannel, position, 12);
         node.setParent(SwordUtil.decodeLittleEndian32(buffer, 0));
         node.setNextSibling(SwordUtil.decodeLittleEndian32(buffer, 4));
         node.setFirstChild(SwordUtil.decodeLittleEndian32(buffer, 8));
+        position += buffer.length;
 
-        buffer = SwordUtil.readUntilRAF(datRaf, (byte) 0);
+        buffer = SwordUtil.readUntilChannel(datChannel, position, (byte) 0);
+        position += buffer.length;
         int size = buffer.length;
-        if (buffer[size - 1] == 0) {
+        if (size > 0 && buffer[size - 1] == 0) {
             size--;
         }
 
@@ -151,10 +211,11 @@ public class TreeKeyIndex implements Activatable {
         // Some of the keys have extraneous whitespace, so remove it.
         node.setName(SwordUtil.decode(key.getName(), buffer, size, bmd.getBookCharset()).trim());
 
-        buffer = SwordUtil.readNextRAF(datRaf, 2);
+        buffer = SwordUtil.readChannel(datChannel, position, 2);
+        position += buffer.length;
         int userDataSize = SwordUtil.decodeLittleEndian16(buffer, 0);
         if (userDataSize > 0) {
-            node.setUserData(SwordUtil.readNextRAF(datRaf, userDataSize));
+            node.setUserData(SwordUtil.readChannel(datChannel, position, userDataSize));
         }
 
         return node;
@@ -250,6 +311,21 @@ public class TreeKeyIndex implements Activatable {
     private RandomAccessFile datRaf;
     private boolean active;
 
+    /**
+     * The whole tree, when it is preloaded. Written under tableLock.
+     */
+    private volatile TreeKeyTable table;
+
+    /**
+     * Serializes the loading of the tree.
+     */
+    private final ReentrantLock tableLock = new ReentrantLock();
+
+    /**
+     * Whether to preload trees.
+     */
+    private static volatile boolean preloaded;
+
     /**
      * The log stream
      */
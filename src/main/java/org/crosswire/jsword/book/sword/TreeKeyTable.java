@@ -0,0 +1,205 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The whole tree of a general book, loaded once from its index files and held
+ * in parallel arrays. Nodes are numbered by their position in the idx file,
+ * the root being 0. Each node name is stored once, no matter how often it is
+ * repeated, and every node can be found by its path without walking the tree.
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+final class TreeKeyTable {
+    /**
+     * Read the whole tree.
+     *
+     * @param name
+     *            the name of the book, for diagnostics
+     * @param idxRaf
+     *            the file of dat offsets, one per node
+     * @param datRaf
+     *            the file of nodes
+     * @param charset
+     *            the charset of the node names
+     * @throws IOException
+     */
+    TreeKeyTable(String name, RandomAccessFile idxRaf, RandomAccessFile datRaf, String charset) throws IOException {
+        int count = (int) (idxRaf.length() / IDX_ENTRY_SIZE);
+        byte[] idx = SwordUtil.readRAF(idxRaf, 0, count * IDX_ENTRY_SIZE);
+        byte[] dat = SwordUtil.readRAF(datRaf, 0, (int) datRaf.length());
+
+        parent = new int[count];
+        firstChild = new int[count];
+        nextSibling = new int[count];
+        dataStart = new int[count];
+        dataSize = new int[count];
+        names = new String[count];
+
+        Map<String, String> nameTable = new HashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            int offset = SwordUtil.decodeLittleEndian32(idx, i * IDX_ENTRY_SIZE);
+            parent[i] = toNode(SwordUtil.decodeLittleEndian32(dat, offset));
+            nextSibling[i] = toNode(SwordUtil.decodeLittleEndian32(dat, offset + 4));
+            firstChild[i] = toNode(SwordUtil.decodeLittleEndian32(dat, offset + 8));
+
+            int nameStart = offset + 12;
+            int nameEnd = SwordUtil.findByte(dat, nameStart, (byte) 0);
+            if (nameEnd < 0) {
+                nameEnd = dat.length;
+            }
+            // Some of the keys have extraneous whitespace, so remove it.
+            String nodeName = SwordUtil.decode(name, dat, nameStart, nameEnd - nameStart, charset).trim();
+            String shared = nameTable.get(nodeName);
+            if (shared == null) {
+                nameTable.put(nodeName, nodeName);
+                shared = nodeName;
+            }
+            names[i] = shared;
+
+            // The user data of a raw genbook is the start and size of the entry's text.
+            dataStart[i] = -1;
+            int userDataStart = nameEnd + 1;
+            if (userDataStart + 2 <= dat.length && SwordUtil.decodeLittleEndian16(dat, userDataStart) == 8) {
+                dataStart[i] = SwordUtil.decodeLittleEndian32(dat, userDataStart + 2);
+                dataSize[i] = SwordUtil.decodeLittleEndian32(dat, userDataStart + 6);
+            }
+        }
+
+        // Index every node by its path, starting below the root.
+        paths = new HashMap<String, Integer>(count * 2);
+        if (count > 0) {
+            addPaths(firstChild[0], "");
+        }
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Find the node with the given path, as given by GenBookBackend.getPath,
+     * where the first name is of a child of the root.
+     *
+     * @param path
+     *            the path of the node
+     * @return the node or -1 if there is no such node
+     */
+    int find(String path) {
+        Integer node = paths.get(path);
+        return node == null ? -1 : node.intValue();
+    }
+
+    /**
+     * @param node
+     *            the node in question
+     * @return the name of the node
+     */
+    String getName(int node) {
+        return names[node];
+    }
+
+    /**
+     * @param node
+     *            the node in question
+     * @return the parent of the node or -1 if it is the root
+     */
+    int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * @param node
+     *            the node in question
+     * @return the first child of the node or -1 if it has none
+     */
+    int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @param node
+     *            the node in question
+     * @return the next sibling of the node or -1 if it is the last
+     */
+    int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * @param node
+     *            the node in question
+     * @return the start of the node's text in the bdt file or -1 if it has none
+     */
+    int getDataStart(int node) {
+        return dataStart[node];
+    }
+
+    /**
+     * @param node
+     *            the node in question
+     * @return the size of the node's text in the bdt file
+     */
+    int getDataSize(int node) {
+        return dataSize[node];
+    }
+
+    /**
+     * Map the path of each node among a set of siblings, and of all their
+     * descendants. Where siblings share a name, the first one is found.
+     */
+    private void addPaths(int first, String parentPath) {
+        for (int node = first; node != -1; node = nextSibling[node]) {
+            String path = parentPath + GenBookBackend.PATH_SEPARATOR + names[node];
+            if (!paths.containsKey(path)) {
+                paths.put(path, Integer.valueOf(node));
+            }
+            addPaths(firstChild[node], path);
+        }
+    }
+
+    /**
+     * Links between nodes are offsets into the idx file.
+     */
+    private static int toNode(int idxOffset) {
+        return idxOffset == -1 ? -1 : idxOffset / IDX_ENTRY_SIZE;
+    }
+
+    private static final int IDX_ENTRY_SIZE = 4;
+
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] dataStart;
+    private final int[] dataSize;
+    private final String[] names;
+    private final Map<String, Integer> paths;
+}
@@ -0,0 +1,359 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.crosswire.common.util.CWProject;
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.common.util.NetUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.MappedFile;
+import org.crosswire.jsword.passage.BitwisePassage;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.Passage;
+import org.crosswire.jsword.passage.RocketPassage;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.Versification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The verses of a Bible or commentary that have content, one bit per
+ * ordinal of the book's versification. Finding these means reading the whole
+ * index of the book, so once found they are kept in a small file next to the
+ * other files that JSword writes, and mapped from there on later starts.
+ *
+ * <p>
+ * The file records the size and the last modified time of the module's data
+ * files and the module's version. If any has changed, the file is stale and
+ * the verses are found again.
+ * </p>
+ *
+ * <p>
+ * The file is little endian and has a header of:
+ * </p>
+ * <pre>
+ *  0 int  magic, "JSKB"
+ *  4 int  version
+ *  8 long the total size of the module's data files
+ * 16 long the latest modification time of the module's data files
+ * 24 int  a hash of the module's version
+ * 28 int  the number of ordinals
+ * </pre>
+ * <p>
+ * followed by the bits, the bit for ordinal n being bit n % 8 of byte n / 8.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public final class VerseBitmap {
+    /**
+     * Create a bitmap over the given bits.
+     *
+     * @param v11n
+     *            the versification of the book
+     * @param bits
+     *            the bits, positioned at the first
+     */
+    private VerseBitmap(Versification v11n, ByteBuffer bits) {
+        this.v11n = v11n;
+        this.bits = bits;
+        this.count = v11n.maximumOrdinal() + 1;
+        this.base = bits.position();
+    }
+
+    /**
+     * Get the bitmap of a book, from its file if that is fresh and otherwise
+     * from the book's own key list, which is then saved for next time.
+     *
+     * @param bmd
+     *            the book
+     * @param v11n
+     *            the versification of the book
+     * @param keys
+     *            the means of reading the key list from the book
+     * @return the bitmap
+     * @throws BookException
+     *             if the key list cannot be read from the book
+     */
+    public static VerseBitmap getInstance(SwordBookMetaData bmd, Versification v11n, KeyListReader keys) throws BookException {
+        File file = null;
+        try {
+            file = getBitmapFile(bmd);
+        } catch (IOException e) {
+            log.warn("Unable to locate verse bitmap for " + bmd.getInitials(), e);
+        }
+
+        VerseBitmap bitmap = file == null ? null : load(bmd, v11n, file);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        bitmap = create(v11n, keys.readGlobalKeyList());
+        if (file != null) {
+            bitmap.save(bmd, file);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Create a bitmap of the verses in a passage.
+     *
+     * @param v11n
+     *            the versification of the book
+     * @param verses
+     *            the verses that have content
+     * @return the bitmap
+     */
+    public static VerseBitmap create(Versification v11n, Key verses) {
+        byte[] bits = new byte[(v11n.maximumOrdinal() + 8) / 8];
+        for (Key key : verses) {
+            int ordinal = ((Verse) key).getOrdinal();
+            bits[ordinal >> 3] |= 1 << (ordinal & 7);
+        }
+        return new VerseBitmap(v11n, ByteBuffer.wrap(bits));
+    }
+
+    /**
+     * Load the bitmap of a book from a file.
+     *
+     * @param bmd
+     *            the book
+     * @param v11n
+     *            the versification of the book
+     * @param file
+     *            the file of the bitmap
+     * @return the bitmap or null if there is no file or it is stale
+     */
+    static VerseBitmap load(SwordBookMetaData bmd, Versification v11n, File file) {
+        if (!file.canRead()) {
+            return null;
+        }
+
+        try {
+
+            MappedFile mapped = MappedFile.getInstance(file);
+            int count = v11n.maximumOrdinal() + 1;
+            int size = (count + 7) / 8;
+            long[] signature = SwordUtil.getDataSignature(bmd);
+            if (!mapped.contains(0, HEADER_SIZE + size)
+                    || mapped.getLittleEndian32(0) != MAGIC
+                    || mapped.getLittleEndian32(4) != VERSION
+                    || getLittleEndian64(mapped, 8) != signature[0]
+                    || getLittleEndian64(mapped, 16) != signature[1]
+                    || mapped.getLittleEndian32(24) != getVersionHash(bmd)
+                    || mapped.getLittleEndian32(28) != count)
+            {
+                log.info("Verse bitmap for {} is stale", bmd.getInitials());
+                return null;
+            }
+            return new VerseBitmap(v11n, mapped.slice(HEADER_SIZE, size));
+        } catch (IOException e) {
+            log.warn("Unable to load verse bitmap for " + bmd.getInitials(), e);
+        } catch (BookException e) {
+            log.warn("Unable to load verse bitmap for " + bmd.getInitials(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Save this bitmap as the bitmap of a book to a file. Failure is not fatal, as the
+     * bitmap can be found again.
+     *
+     * @param bmd
+     *            the book
+     * @param file
+     *            the file of the bitmap
+     */
+    void save(SwordBookMetaData bmd, File file) {
+        File temp = null;
+        try {
+            long[] signature = SwordUtil.getDataSignature(bmd);
+            byte[] header = new byte[HEADER_SIZE];
+            SwordUtil.encodeLittleEndian32(MAGIC, header, 0);
+            SwordUtil.encodeLittleEndian32(VERSION, header, 4);
+            SwordUtil.encodeLittleEndian32((int) signature[0], header, 8);
+            SwordUtil.encodeLittleEndian32((int) (signature[0] >>> 32), header, 12);
+            SwordUtil.encodeLittleEndian32((int) signature[1], header, 16);
+            SwordUtil.encodeLittleEndian32((int) (signature[1] >>> 32), header, 20);
+            SwordUtil.encodeLittleEndian32(getVersionHash(bmd), header, 24);
+            SwordUtil.encodeLittleEndian32(count, header, 28);
+
+            byte[] data = new byte[(count + 7) / 8];
+            ByteBuffer view = bits.duplicate();
+            view.position(base);
+            view.get(data);
+
+            temp = new File(file.getPath() + EXTENSION_TEMP);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(header);
+                out.write(data);
+            } finally {
+                IOUtil.close(out);
+            }
+
+            if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file.getPath());
+            }
+            temp = null;
+        } catch (IOException e) {
+            log.warn("Unable to save verse bitmap for " + bmd.getInitials(), e);
+        } catch (BookException e) {
+            log.warn("Unable to save verse bitmap for " + bmd.getInitials(), e);
+        } finally {
+            if (temp != null && !temp.delete()) {
+                log.debug("Unable to delete {}", temp.getPath());
+            }
+        }
+    }
+
+    /**
+     * Determine whether a verse has content.
+     *
+     * @param ordinal
+     *            the ordinal of the verse in the book's versification
+     * @return true if the verse has content
+     */
+    public boolean containsOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            return false;
+        }
+        return (bits.get(base + (ordinal >> 3)) & (1 << (ordinal & 7))) != 0;
+    }
+
+    /**
+     * @return the number of verses that have content
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        int size = (count + 7) / 8;
+        for (int i = 0; i < size; i++) {
+            cardinality += Integer.bitCount(bits.get(base + i) & 0xFF);
+        }
+        return cardinality;
+    }
+
+    /**
+     * Get the verses that have content, as a new passage that the caller may
+     * change.
+     *
+     * @return the verses that have content
+     */
+    public Passage toPassage() {
+        BitwisePassage passage = new RocketPassage(v11n);
+        passage.raiseEventSuppresion();
+        passage.raiseNormalizeProtection();
+
+        int size = (count + 7) / 8;
+        for (int i = 0; i < size; i++) {
+            int b = bits.get(base + i) & 0xFF;
+            while (b != 0) {
+                int bit = Integer.numberOfTrailingZeros(b);
+                passage.addVersifiedOrdinal((i << 3) + bit);
+                b &= b - 1;
+            }
+        }
+
+        passage.lowerNormalizeProtection();
+        passage.lowerEventSuppressionAndTest();
+        return passage;
+    }
+
+    /**
+     * Get the file that holds the bitmap of a book.
+     *
+     * @param bmd
+     *            the book
+     * @return the bitmap file, which may not exist
+     * @throws IOException
+     *             if the location of the file cannot be determined
+     */
+    public static File getBitmapFile(SwordBookMetaData bmd) throws IOException {
+        File dir = NetUtil.getAsFile(CWProject.instance().getWriteableProjectSubdir(DIR_BITMAPS, true));
+        return new File(dir, bmd.getInitials() + EXTENSION_BITMAP);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "VerseBitmap[" + v11n.getName() + ", verses=" + getCardinality() + ']';
+    }
+
+    /**
+     * The means by which the key list is read from the book itself.
+     */
+    public interface KeyListReader {
+        /**
+         * Read the verses that have content from the book, the slow way.
+         *
+         * @return the verses that have content
+         * @throws BookException
+         *             if the key list cannot be read
+         */
+        Key readGlobalKeyList() throws BookException;
+    }
+
+    private static int getVersionHash(SwordBookMetaData bmd) {
+        Object version = bmd.getProperty(ConfigEntryType.VERSION);
+        return version == null ? 0 : version.toString().hashCode();
+    }
+
+    private static long getLittleEndian64(MappedFile mapped, long offset) {
+        long low = mapped.getLittleEndian32(offset) & 0xFFFFFFFFL;
+        long high = mapped.getLittleEndian32(offset + 4);
+        return (high << 32) | low;
+    }
+
+    /**
+     * The directory in the writable project directory that holds the bitmaps.
+     */
+    public static final String DIR_BITMAPS = "keys";
+
+    /**
+     * The extension of a bitmap file.
+     */
+    public static final String EXTENSION_BITMAP = ".bits";
+
+    private static final String EXTENSION_TEMP = ".tmp";
+    private static final int MAGIC = 0x424B534A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final Versification v11n;
+    private final ByteBuffer bits;
+    private final int base;
+    private final int count;
+
+    /**
+     * The log stream
+     */
+    private static final Logger log = LoggerFactory.getLogger(VerseBitmap.class);
+}
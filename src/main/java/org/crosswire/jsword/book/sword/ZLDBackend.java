@@ -23,6 +23,7 @@ package org.crosswire.jsword.book.sword;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 
+import org.crosswire.common.compress.Compressor;
 import org.crosswire.common.compress.CompressorType;
 import org.crosswire.jsword.book.BookException;
 import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
@@ -45,6 +46,18 @@ public class ZLDBackend extends RawLDBackend<ZLDBackendState> {
      */
     public ZLDBackend(SwordBookMetaData sbmd) {
         super(sbmd, 4);
+        blockCache = new BlockCache();
+        compressorType = CompressorType.fromString((String) sbmd.getProperty(ConfigEntryType.COMPRESS_TYPE));
+    }
+
+    /**
+     * Get the cache of uncompressed blocks shared by all readers of this book.
+     * This is useful for monitoring its effectiveness.
+     *
+     * @return the block cache
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
     }
 
     /* (non-Javadoc)
@@ -74,10 +87,8 @@ public class ZLDBackend extends RawLDBackend<ZLDBackendState> {
         int blockEntry = blockIndex.getSize();
 
         // Can we get the data from the cache
-        byte[] uncompressed = null;
-        if (blockNum == state.getLastBlockNum()) {
-            uncompressed = state.getLastUncompressed();
-        } else {
+        byte[] uncompressed = blockCache.get(null, blockNum);
+        if (uncompressed == null) {
             byte[] temp;
             try {
                 temp = SwordUtil.readRAF(state.getZdxRaf(), blockNum * ZDX_ENTRY_SIZE, ZDX_ENTRY_SIZE);
@@ -92,12 +103,10 @@ public class ZLDBackend extends RawLDBackend<ZLDBackendState> {
 
                 decipher(temp);
 
-                String compressType = (String) getBookMetaData().getProperty(ConfigEntryType.COMPRESS_TYPE);
-                uncompressed = CompressorType.fromString(compressType).getCompressor(temp).uncompress().toByteArray();
+                uncompressed = compressorType.uncompress(temp, Compressor.BUF_SIZE);
 
                 // cache the uncompressed data for next time
-                state.setLastBlockNum(blockNum);
-                state.setLastUncompressed(uncompressed);
+                blockCache.put(null, blockNum, uncompressed);
             } catch (IOException e) {
                 return new DataEntry(entry.getName(), new byte[0], entry.getCharset());
             }
@@ -119,7 +128,7 @@ public class ZLDBackend extends RawLDBackend<ZLDBackendState> {
         }
         byte[] entryBytes = new byte[entrySize];
         System.arraycopy(uncompressed, entryStart, entryBytes, 0, entrySize);
-        DataEntry finalEntry = new DataEntry(entry.getName(), entryBytes, getBookMetaData().getBookCharset());
+        DataEntry finalEntry = new DataEntry(entry.getName(), entryBytes, entry.getCharset());
 
         return finalEntry;
     }
@@ -133,8 +142,19 @@ public class ZLDBackend extends RawLDBackend<ZLDBackendState> {
      */
     private void readObject(ObjectInputStream is) throws IOException, ClassNotFoundException {
         is.defaultReadObject();
+        blockCache = new BlockCache();
     }
 
+    /**
+     * The uncompressed blocks, shared by all the states of this book.
+     */
+    private transient BlockCache blockCache;
+
+    /**
+     * How the blocks are compressed
+     */
+    private final CompressorType compressorType;
+
     private static final int ZDX_ENTRY_SIZE = 8;
     private static final int BLOCK_ENTRY_COUNT = 4;
     private static final int BLOCK_ENTRY_SIZE = 8;
@@ -22,10 +22,12 @@ package org.crosswire.jsword.book.sword;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 import org.crosswire.common.compress.CompressorType;
 import org.crosswire.jsword.JSMsg;
 import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.MappedFile;
 import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
 import org.crosswire.jsword.book.sword.state.ZVerseBackendState;
 import org.crosswire.jsword.passage.BitwisePassage;
@@ -33,6 +35,7 @@ import org.crosswire.jsword.passage.Key;
 import org.crosswire.jsword.passage.KeyUtil;
 import org.crosswire.jsword.passage.RocketPassage;
 import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.passage.VerseRange;
 import org.crosswire.jsword.versification.Testament;
 import org.crosswire.jsword.versification.Versification;
 import org.crosswire.jsword.versification.system.Versifications;
@@ -137,17 +140,41 @@ public class ZVerseBackend extends AbstractBackend<ZVerseBackendState> {
     public ZVerseBackend(SwordBookMetaData sbmd, BlockType blockType) {
         super(sbmd);
         this.blockType = blockType;
+        this.blockCache = new BlockCache();
+        this.prefetcher = new BlockPrefetcher(this);
+        this.v11n = Versifications.instance().getVersification(sbmd.getProperty(ConfigEntryType.VERSIFICATION).toString());
+        this.charset = sbmd.getBookCharset();
+        this.compressorType = CompressorType.fromString((String) sbmd.getProperty(ConfigEntryType.COMPRESS_TYPE));
+    }
+
+    /**
+     * Get the cache of uncompressed blocks shared by all readers of this book.
+     * This is useful for monitoring its effectiveness.
+     *
+     * @return the block cache
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Get the read-ahead of blocks for this book. This is useful for
+     * monitoring its effectiveness and for cancelling read-ahead.
+     *
+     * @return the prefetcher
+     */
+    public BlockPrefetcher getPrefetcher() {
+        return prefetcher;
     }
 
     /* This method assumes single keys. It is the responsibility of the caller to provide the iteration. 
      * 
-     * FIXME: this could be refactored to push the iterations down, but no performance benefit would be gained since we have a manager that keeps the file accesses open
      * (non-Javadoc)
      * @see org.crosswire.jsword.book.sword.AbstractBackend#contains(org.crosswire.jsword.passage.Key)
      */
     @Override
     public boolean contains(Key key) {
-        return getRawTextLength(key) > 0;
+        return containsOrdinal(KeyUtil.getVerse(key).getOrdinal());
     }
 
     /* (non-Javadoc)
@@ -159,14 +186,22 @@ public class ZVerseBackend extends AbstractBackend<ZVerseBackendState> {
         try {
             rafBook = initState();
 
-            String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-            Versification v11n = Versifications.instance().getVersification(v11nName);
             Verse verse = KeyUtil.getVerse(key);
 
             int index = verse.getOrdinal();
             Testament testament = v11n.getTestament(index);
             index = v11n.getTestamentOrdinal(index);
 
+            if (rafBook.isMapped()) {
+                MappedFile idxMap = rafBook.getIdxMap(testament);
+                long idxOffset = 1L * index * IDX_ENTRY_SIZE;
+                // If Bible does not contain the desired testament or verse, then false
+                if (idxMap == null || !idxMap.contains(idxOffset, IDX_ENTRY_SIZE)) {
+                    return 0;
+                }
+                return idxMap.getLittleEndian16(idxOffset + 8);
+            }
+
             RandomAccessFile idxRaf = rafBook.getIdxRaf(testament);
 
             // If Bible does not contain the desired testament, then false
@@ -200,17 +235,14 @@ public class ZVerseBackend extends AbstractBackend<ZVerseBackendState> {
     }
 
     /* (non-Javadoc)
-     * @see org.crosswire.jsword.book.sword.AbstractBackend#getGlobalKeyList()
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readGlobalKeyList()
      */
     @Override
-    public Key getGlobalKeyList() throws BookException {
+    protected Key readGlobalKeyList() throws BookException {
         ZVerseBackendState rafBook = null;
         try {
             rafBook = initState();
 
-            String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-            Versification v11n = Versifications.instance().getVersification(v11nName);
-
             Testament[] testaments = new Testament[] {
                     Testament.OLD, Testament.NEW
             };
@@ -220,22 +252,35 @@ public class ZVerseBackend extends AbstractBackend<ZVerseBackendState> {
             passage.raiseNormalizeProtection();
 
             for (Testament currentTestament : testaments) {
-                RandomAccessFile idxRaf = rafBook.getIdxRaf(currentTestament);
+                // The index has an entry for each testament ordinal, which
+                // starts at 1 in the New Testament.
+                int first = currentTestament == Testament.NEW ? 1 : 0;
+                int lastOrdinal = currentTestament == Testament.NEW ? v11n.maximumOrdinal() : v11n.getCount(Testament.OLD) - 1;
+                long wanted = IDX_ENTRY_SIZE * (v11n.getTestamentOrdinal(lastOrdinal) + 1L);
+
+                // Read in the whole index, a few hundred Kb at most.
+                byte[] temp = null;
+                if (rafBook.isMapped()) {
+                    MappedFile idxMap = rafBook.getIdxMap(currentTestament);
+                    if (idxMap != null) {
+                        temp = idxMap.read(0, (int) Math.min(wanted, idxMap.length()));
+                    }
+                } else {
+                    RandomAccessFile idxRaf = rafBook.getIdxRaf(currentTestament);
+                    if (idxRaf != null) {
+                        temp = SwordUtil.readRAF(idxRaf, 0, (int) Math.min(wanted, idxRaf.length()));
+                    }
+                }
 
                 // If Bible does not contain the desired testament, then false
-                if (idxRaf == null) {
+                if (temp == null) {
                     // no keys in this testament
                     continue;
                 }
 
-                int maxIndex = v11n.getCount(currentTestament) - 1;
-
-                // Read in the whole index, a few hundred Kb at most.
-                byte[] temp = SwordUtil.readRAF(idxRaf, 0, IDX_ENTRY_SIZE * maxIndex);
-
                 // For each entry of 10 bytes, the length of the verse in bytes
                 // is in the last 2 bytes. If both bytes are 0, then there is no content.
-                for (int ii = 0; ii < temp.length; ii += IDX_ENTRY_SIZE) {
+                for (int ii = first * IDX_ENTRY_SIZE; ii + IDX_ENTRY_SIZE <= temp.length; ii += IDX_ENTRY_SIZE) {
                     // This can be simplified to temp[ii + 8] == 0 && temp[ii + 9] == 0.
                     // int verseSize = SwordUtil.decodeLittleEndian16(temp, ii + 8);
                     // if (verseSize > 0) {
@@ -269,83 +314,258 @@ public class ZVerseBackend extends AbstractBackend<ZVerseBackendState> {
      */
     public String readRawContent(ZVerseBackendState rafBook, Key key) throws IOException {
 
-        SwordBookMetaData bookMetaData = getBookMetaData();
-        final String charset = bookMetaData.getBookCharset();
-        final String compressType = (String) bookMetaData.getProperty(ConfigEntryType.COMPRESS_TYPE);
-
-        final String v11nName = getBookMetaData().getProperty(ConfigEntryType.VERSIFICATION).toString();
-        final Versification v11n = Versifications.instance().getVersification(v11nName);
         Verse verse = KeyUtil.getVerse(key);
 
         int index = verse.getOrdinal();
         final Testament testament = v11n.getTestament(index);
         index = v11n.getTestamentOrdinal(index);
-        final RandomAccessFile idxRaf;
-        final RandomAccessFile compRaf;
-        final RandomAccessFile textRaf;
 
-        idxRaf = rafBook.getIdxRaf(testament);
-        compRaf = rafBook.getCompRaf(testament);
-        textRaf = rafBook.getTextRaf(testament);
+        final long blockNum;
+        final int verseStart;
+        final int verseSize;
+        if (rafBook.isMapped()) {
+            final MappedFile idxMap = rafBook.getIdxMap(testament);
+            final long idxOffset = 1L * index * IDX_ENTRY_SIZE;
+
+            // If Bible does not contain the desired testament or verse, return nothing.
+            if (idxMap == null || !idxMap.contains(idxOffset, IDX_ENTRY_SIZE)) {
+                return "";
+            }
+
+            // Decode the entry in place, no need to read it into a buffer.
+            blockNum = idxMap.getLittleEndian32(idxOffset);
+            verseStart = idxMap.getLittleEndian32(idxOffset + 4);
+            verseSize = idxMap.getLittleEndian16(idxOffset + 8);
+        } else {
+            final RandomAccessFile idxRaf = rafBook.getIdxRaf(testament);
+
+            // If Bible does not contain the desired testament, return nothing.
+            if (idxRaf == null) {
+                return "";
+            }
+
+            //dumpIdxRaf(v11n, 0, compRaf);
+            //dumpCompRaf(idxRaf);
+            // 10 because the index is 10 bytes long for each verse
+            byte[] temp = SwordUtil.readRAF(idxRaf, 1L * index * IDX_ENTRY_SIZE, IDX_ENTRY_SIZE);
 
-        // If Bible does not contain the desired testament, return nothing.
-        if (idxRaf == null) {
+            // If the Bible does not contain the desired verse, return nothing.
+            // Some Bibles have different versification, so the requested verse
+            // may not exist.
+            if (temp == null || temp.length == 0) {
+                return "";
+            }
+
+            // The data is little endian - extract the blockNum, verseStart
+            // and
+            // verseSize
+            blockNum = SwordUtil.decodeLittleEndian32(temp, 0);
+            verseStart = SwordUtil.decodeLittleEndian32(temp, 4);
+            verseSize = SwordUtil.decodeLittleEndian16(temp, 8);
+        }
+
+        final byte[] uncompressed = getBlock(rafBook, testament, blockNum);
+        if (uncompressed == null) {
             return "";
         }
 
-        //dumpIdxRaf(v11n, 0, compRaf);
-        //dumpCompRaf(idxRaf);
-        // 10 because the index is 10 bytes long for each verse
-        byte[] temp = SwordUtil.readRAF(idxRaf, 1L * index * IDX_ENTRY_SIZE, IDX_ENTRY_SIZE);
+        // and decode the required section in place.
+        return SwordUtil.decode(key.getName(), uncompressed, verseStart, verseSize, charset);
 
-        // If the Bible does not contain the desired verse, return nothing.
-        // Some Bibles have different versification, so the requested verse
-        // may not exist.
-        if (temp == null || temp.length == 0) {
-            return "";
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.AbstractBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.VerseRange)
+     */
+    @Override
+    protected String[] readRawContent(ZVerseBackendState rafBook, VerseRange range) throws IOException, BookException {
+
+        final int startOrdinal = range.getStart().getOrdinal();
+        final Testament testament = v11n.getTestament(startOrdinal);
+        if (testament != v11n.getTestament(range.getEnd().getOrdinal())) {
+            // The index entries are not in one file.
+            return super.readRawContent(rafBook, range);
         }
 
-        // The data is little endian - extract the blockNum, verseStart
-        // and
-        // verseSize
-        final long blockNum = SwordUtil.decodeLittleEndian32(temp, 0);
-        final int verseStart = SwordUtil.decodeLittleEndian32(temp, 4);
-        final int verseSize = SwordUtil.decodeLittleEndian16(temp, 8);
+        final int count = range.getCardinality();
+        final String[] texts = new String[count];
+        Arrays.fill(texts, "");
+
+        // The index entries of the verses in a range are consecutive,
+        // so they are read together, or not read at all when mapped.
+        final long firstOffset = 1L * v11n.getTestamentOrdinal(startOrdinal) * IDX_ENTRY_SIZE;
+        MappedFile idxMap = null;
+        byte[] entries = null;
+        if (rafBook.isMapped()) {
+            idxMap = rafBook.getIdxMap(testament);
+            if (idxMap == null) {
+                return texts;
+            }
+        } else {
+            final RandomAccessFile idxRaf = rafBook.getIdxRaf(testament);
+            if (idxRaf == null) {
+                return texts;
+            }
+            entries = SwordUtil.readRAF(idxRaf, firstOffset, count * IDX_ENTRY_SIZE);
+        }
 
-        // Can we get the data from the cache
+        // The verses of a block are consecutive too, so each block is
+        // gotten once and all of its verses are cut from it.
+        long lastBlockNum = -1;
         byte[] uncompressed = null;
-        if (blockNum == rafBook.getLastBlockNum() && testament == rafBook.getLastTestament()) {
-            uncompressed = rafBook.getLastUncompressed();
-        } else {
-            // Then seek using this index into the idx file
-            temp = SwordUtil.readRAF(compRaf, blockNum * COMP_ENTRY_SIZE, COMP_ENTRY_SIZE);
-            if (temp == null || temp.length == 0) {
-                return "";
+        int i = 0;
+        for (Key key : range) {
+            final long blockNum;
+            final int verseStart;
+            final int verseSize;
+            if (idxMap != null) {
+                final long idxOffset = firstOffset + i * IDX_ENTRY_SIZE;
+                if (!idxMap.contains(idxOffset, IDX_ENTRY_SIZE)) {
+                    break;
+                }
+                blockNum = idxMap.getLittleEndian32(idxOffset);
+                verseStart = idxMap.getLittleEndian32(idxOffset + 4);
+                verseSize = idxMap.getLittleEndian16(idxOffset + 8);
+            } else {
+                final int entry = i * IDX_ENTRY_SIZE;
+                if (entry + IDX_ENTRY_SIZE > entries.length) {
+                    break;
+                }
+                blockNum = SwordUtil.decodeLittleEndian32(entries, entry);
+                verseStart = SwordUtil.decodeLittleEndian32(entries, entry + 4);
+                verseSize = SwordUtil.decodeLittleEndian16(entries, entry + 8);
+            }
+
+            if (verseSize > 0) {
+                if (uncompressed == null || blockNum != lastBlockNum) {
+                    uncompressed = getBlock(rafBook, testament, blockNum);
+                    lastBlockNum = blockNum;
+                }
+                if (uncompressed != null) {
+                    texts[i] = SwordUtil.decode(key.getName(), uncompressed, verseStart, verseSize, charset);
+                }
             }
+            i++;
+        }
 
-            final int blockStart = SwordUtil.decodeLittleEndian32(temp, 0);
-            final int blockSize = SwordUtil.decodeLittleEndian32(temp, 4);
-            final int uncompressedSize = SwordUtil.decodeLittleEndian32(temp, 8);
+        return texts;
+    }
 
-            // Read from the data file.
-            final byte[] data = SwordUtil.readRAF(textRaf, blockStart, blockSize);
+    /**
+     * Get an uncompressed block, from the cache if possible.
+     *
+     * @param rafBook the open files
+     * @param testament the testament of the block
+     * @param blockNum the block's index in the comp file
+     * @return the uncompressed block or null if there is no such block
+     * @throws IOException
+     */
+    private byte[] getBlock(ZVerseBackendState rafBook, Testament testament, long blockNum) throws IOException {
+        // Can we get the data from the cache
+        byte[] uncompressed = blockCache.get(testament, blockNum);
+        if (uncompressed == null) {
+            uncompressed = readBlock(rafBook, testament, blockNum);
+            if (uncompressed != null) {
+                // cache the uncompressed data for next time
+                blockCache.put(testament, blockNum, uncompressed);
+            }
+        }
+        prefetcher.access(testament, blockNum);
+        return uncompressed;
+    }
+
+    /**
+     * Read a block into the cache, ahead of it being needed.
+     *
+     * @param testament the testament of the block
+     * @param blockNum the block's index in the comp file
+     * @return whether the block is now in the cache
+     */
+    boolean prefetchBlock(Testament testament, long blockNum) {
+        if (blockCache.contains(testament, blockNum)) {
+            return true;
+        }
 
-            decipher(data);
+        ZVerseBackendState rafBook = null;
+        try {
+            rafBook = initState();
 
-            uncompressed = CompressorType.fromString(compressType).getCompressor(data).uncompress(uncompressedSize).toByteArray();
+            // Don't read beyond the last block.
+            final long compEnd = (blockNum + 1) * COMP_ENTRY_SIZE;
+            if (rafBook.isMapped()) {
+                MappedFile compMap = rafBook.getCompMap(testament);
+                if (compMap == null || compMap.length() < compEnd) {
+                    return false;
+                }
+            } else {
+                RandomAccessFile compRaf = rafBook.getCompRaf(testament);
+                if (compRaf == null || compRaf.length() < compEnd) {
+                    return false;
+                }
+            }
 
-            // cache the uncompressed data for next time
-            rafBook.setLastBlockNum(blockNum);
-            rafBook.setLastTestament(testament);
-            rafBook.setLastUncompressed(uncompressed);
+            byte[] uncompressed = readBlock(rafBook, testament, blockNum);
+            if (uncompressed == null) {
+                return false;
+            }
+            blockCache.put(testament, blockNum, uncompressed);
+            return true;
+        } catch (IOException e) {
+            log.debug("Unable to read ahead", e);
+            return false;
+        } catch (BookException e) {
+            log.debug("Unable to read ahead", e);
+            return false;
+        } finally {
+            OpenFileStateManager.instance().release(rafBook);
         }
+    }
 
-        // and cut out the required section.
-        final byte[] chopped = new byte[verseSize];
-        System.arraycopy(uncompressed, verseStart, chopped, 0, verseSize);
+    /**
+     * Read, decipher and uncompress a block from the text file.
+     *
+     * @param rafBook the open files
+     * @param testament the testament of the block
+     * @param blockNum the block's index in the comp file
+     * @return the uncompressed block or null if there is no such block
+     * @throws IOException
+     */
+    private byte[] readBlock(ZVerseBackendState rafBook, Testament testament, long blockNum) throws IOException {
+        final long compOffset = blockNum * COMP_ENTRY_SIZE;
+        final int blockStart;
+        final int blockSize;
+        final int uncompressedSize;
+        final byte[] data;
+        if (rafBook.isMapped()) {
+            final MappedFile compMap = rafBook.getCompMap(testament);
+            if (compMap == null || !compMap.contains(compOffset, COMP_ENTRY_SIZE)) {
+                return null;
+            }
 
-        return SwordUtil.decode(key.getName(), chopped, charset);
+            blockStart = compMap.getLittleEndian32(compOffset);
+            blockSize = compMap.getLittleEndian32(compOffset + 4);
+            uncompressedSize = compMap.getLittleEndian32(compOffset + 8);
 
+            // Read from the data file.
+            data = rafBook.getTextMap(testament).read(blockStart, blockSize);
+        } else {
+            // Then seek using this index into the idx file
+            byte[] temp = SwordUtil.readRAF(rafBook.getCompRaf(testament), compOffset, COMP_ENTRY_SIZE);
+            if (temp == null || temp.length == 0) {
+                return null;
+            }
+
+            blockStart = SwordUtil.decodeLittleEndian32(temp, 0);
+            blockSize = SwordUtil.decodeLittleEndian32(temp, 4);
+            uncompressedSize = SwordUtil.decodeLittleEndian32(temp, 8);
+
+            // Read from the data file.
+            data = SwordUtil.readRAF(rafBook.getTextRaf(testament), blockStart, blockSize);
+        }
+
+        decipher(data);
+
+        return compressorType.uncompress(data, uncompressedSize);
     }
 
     /* (non-Javadoc)
@@ -469,15 +689,40 @@ public class ZVerseBackend extends AbstractBackend<ZVerseBackendState> {
      */
     private final BlockType blockType;
 
+    /**
+     * The uncompressed blocks, shared by all the states of this book.
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * Reads blocks ahead of a reader moving forward through the book.
+     */
+    private final BlockPrefetcher prefetcher;
+
+    /**
+     * The versification of the book, resolved once rather than on every read
+     */
+    private final Versification v11n;
+
+    /**
+     * The charset of the book's text
+     */
+    private final String charset;
+
+    /**
+     * How the blocks are compressed
+     */
+    private final CompressorType compressorType;
+
     /**
      * How many bytes in the idx index?
      */
-    private static final int IDX_ENTRY_SIZE = 10;
+    static final int IDX_ENTRY_SIZE = 10;
 
     /**
      * How many bytes in the comp index?
      */
-    private static final int COMP_ENTRY_SIZE = 12;
+    static final int COMP_ENTRY_SIZE = 12;
 
     /**
      * The log stream
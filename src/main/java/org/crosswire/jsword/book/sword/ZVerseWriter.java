@@ -0,0 +1,441 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.crosswire.common.compress.CompressorType;
+import org.crosswire.common.crypt.Sapphire;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Testament;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+
+/**
+ * Writes the files of a zText or zCom module, as described in
+ * {@link ZVerseBackend}, from verses given in versification order.
+ *
+ * <p>
+ * Verses are gathered into a block until the book, the chapter or the verse
+ * changes, according to the {@link BlockType}. Each finished block is
+ * compressed, and enciphered if the book has a cipher key, by a pool of
+ * threads while the next block is gathered. The blocks are then written in
+ * order, so the files are the same as if they had been written by one thread.
+ * Only a few blocks are ever waiting to be written, so the whole module is
+ * never held in memory.
+ * </p>
+ *
+ * <p>
+ * The writer must be closed to finish the files, even when writing fails.
+ * The files of a testament that has no verses are removed, as with a book
+ * that has only one testament.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class ZVerseWriter {
+    /**
+     * Create a writer for the data files of the book, using the book's
+     * versification, block type, compression, charset and cipher key.
+     *
+     * @param sbmd
+     *            the book to write
+     * @throws BookException
+     *             if the book's data path is not known
+     */
+    public ZVerseWriter(SwordBookMetaData sbmd) throws BookException {
+        this(new File(SwordUtil.getExpandedDataPath(sbmd)),
+             Versifications.instance().getVersification(sbmd.getProperty(ConfigEntryType.VERSIFICATION).toString()),
+             BlockType.fromString((String) sbmd.getProperty(ConfigEntryType.BLOCK_TYPE)),
+             CompressorType.fromString((String) sbmd.getProperty(ConfigEntryType.COMPRESS_TYPE)),
+             sbmd.getBookCharset(),
+             (String) sbmd.getProperty(ConfigEntryType.CIPHER_KEY));
+    }
+
+    /**
+     * Create a writer of module files in the given directory.
+     *
+     * @param dir
+     *            the directory of the module's data files
+     * @param v11n
+     *            the versification of the verses that are written
+     * @param blockType
+     *            how verses are gathered into blocks
+     * @param compressorType
+     *            how blocks are compressed
+     * @param charset
+     *            the charset of the book
+     * @param cipherKey
+     *            the key to encipher blocks with, or null
+     */
+    public ZVerseWriter(File dir, Versification v11n, BlockType blockType, CompressorType compressorType, String charset, String cipherKey) {
+        this.dir = dir;
+        this.v11n = v11n;
+        this.blockType = blockType;
+        this.compressorType = compressorType;
+        this.charset = charset;
+        this.cipher = cipherKey == null ? null : new Sapphire(cipherKey.getBytes());
+        this.block = new ByteArrayOutputStream();
+        this.pending = new LinkedList<PendingBlock>();
+        this.lastOrdinal = -1;
+
+        int count = threads;
+        this.maxPending = 2 * count;
+        this.executor = new ThreadPoolExecutor(count, count, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ZVerseWriter-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Write the text of a verse. Verses must be written in increasing order.
+     * Verses that are not written, or that are written as empty, have no text.
+     *
+     * @param verse
+     *            the verse to write
+     * @param text
+     *            the text of the verse
+     * @throws IOException
+     *             if the files cannot be written or a block cannot be
+     *             compressed
+     */
+    public void write(Verse verse, String text) throws IOException {
+        if (closed) {
+            throw new IOException("The writer is closed.");
+        }
+
+        int ordinal = verse.getOrdinal();
+        if (ordinal <= lastOrdinal) {
+            throw new IllegalArgumentException("Verses must be written in order: " + verse.getOsisRef());
+        }
+        lastOrdinal = ordinal;
+
+        if (text == null || text.length() == 0) {
+            return;
+        }
+
+        byte[] data = text.getBytes(charset);
+        if (data.length > MAX_VERSE_SIZE) {
+            throw new IllegalArgumentException("Verse is too long: " + verse.getOsisRef());
+        }
+
+        Testament t = v11n.getTestament(ordinal);
+        if (t != testament) {
+            finishTestament();
+            startTestament(t);
+        } else if (isNewBlock(verse)) {
+            flushBlock();
+        }
+        blockBook = verse.getBook();
+        blockChapter = verse.getChapter();
+
+        // Verses not written have an index entry of all zeros.
+        long index = v11n.getTestamentOrdinal(ordinal);
+        while (idxCount < index) {
+            idxOut.write(EMPTY_ENTRY);
+            idxCount++;
+        }
+
+        byte[] entry = new byte[ZVerseBackend.IDX_ENTRY_SIZE];
+        SwordUtil.encodeLittleEndian32(blockCount, entry, 0);
+        SwordUtil.encodeLittleEndian32(block.size(), entry, 4);
+        SwordUtil.encodeLittleEndian16(data.length, entry, 8);
+        idxOut.write(entry);
+        idxCount++;
+
+        block.write(data);
+    }
+
+    /**
+     * Finish writing the module and release the threads.
+     *
+     * @throws IOException
+     *             if the files cannot be written or a block cannot be
+     *             compressed
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finishTestament();
+            // A module with one testament has no files for the other.
+            for (Testament t : Testament.values()) {
+                if (!written[t.ordinal()]) {
+                    for (File file : getFiles(t)) {
+                        file.delete();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            closeFiles();
+        }
+    }
+
+    /**
+     * Set the number of threads that compress blocks for writers created
+     * hereafter. The default is the number of processors.
+     *
+     * @param threads
+     *            the number of compressing threads per writer
+     */
+    public static void setThreads(int threads) {
+        ZVerseWriter.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return the number of compressing threads per writer
+     */
+    public static int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Determine whether the verse belongs in a block after the current one.
+     */
+    private boolean isNewBlock(Verse verse) {
+        switch (blockType) {
+        case BLOCK_BOOK:
+            return verse.getBook() != blockBook;
+        case BLOCK_CHAPTER:
+            return verse.getBook() != blockBook || verse.getChapter() != blockChapter;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Open the files of a testament, replacing any that are there.
+     */
+    private void startTestament(Testament t) throws IOException {
+        dir.mkdirs();
+        File[] files = getFiles(t);
+        idxOut = new BufferedOutputStream(new FileOutputStream(files[0]));
+        compOut = new BufferedOutputStream(new FileOutputStream(files[1]));
+        textOut = new BufferedOutputStream(new FileOutputStream(files[2]));
+        testament = t;
+        written[t.ordinal()] = true;
+        idxCount = 0;
+        blockCount = 0;
+        textSize = 0;
+        blockBook = null;
+        blockChapter = -1;
+    }
+
+    /**
+     * Get the idx, comp and text files of a testament.
+     */
+    private File[] getFiles(Testament t) {
+        String prefix = (t == Testament.OLD ? SwordConstants.FILE_OT : SwordConstants.FILE_NT) + '.' + blockType.getIndicator() + 'z';
+        return new File[] {
+            new File(dir, prefix + 'v'),
+            new File(dir, prefix + 's'),
+            new File(dir, prefix + 'z'),
+        };
+    }
+
+    /**
+     * Write out the last block of the current testament and close its files.
+     * As with SWORD, the index has an entry for every verse of the testament,
+     * so that no read of a verse that was not written goes beyond its end.
+     */
+    private void finishTestament() throws IOException {
+        if (testament == null) {
+            return;
+        }
+        flushBlock();
+        while (!pending.isEmpty()) {
+            writeBlock();
+        }
+        int last = testament == Testament.NEW ? v11n.maximumOrdinal() : v11n.getCount(Testament.OLD) - 1;
+        long size = v11n.getTestamentOrdinal(last) + 1L;
+        while (idxCount < size) {
+            idxOut.write(EMPTY_ENTRY);
+            idxCount++;
+        }
+        closeFiles();
+        testament = null;
+    }
+
+    /**
+     * Hand the gathered block to be compressed. When too many blocks are
+     * waiting, write out the oldest.
+     */
+    private void flushBlock() throws IOException {
+        if (block.size() == 0) {
+            return;
+        }
+        final byte[] raw = block.toByteArray();
+        block.reset();
+        blockCount++;
+        Future<byte[]> compressed = executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                byte[] data = compressorType.getCompressor(raw).compress().toByteArray();
+                if (cipher != null) {
+                    // Each block is enciphered from the freshly keyed state.
+                    Sapphire engine = cipher.clone();
+                    engine.encipher(data, 0, data.length);
+                    engine.burn();
+                }
+                return data;
+            }
+        });
+        pending.add(new PendingBlock(raw.length, compressed));
+        while (pending.size() > maxPending) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Wait for the oldest block to be compressed and write it out.
+     */
+    private void writeBlock() throws IOException {
+        PendingBlock next = pending.removeFirst();
+        byte[] data;
+        try {
+            data = next.compressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing a block.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException("Unable to compress a block.");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+
+        byte[] entry = new byte[ZVerseBackend.COMP_ENTRY_SIZE];
+        SwordUtil.encodeLittleEndian32((int) textSize, entry, 0);
+        SwordUtil.encodeLittleEndian32(data.length, entry, 4);
+        SwordUtil.encodeLittleEndian32(next.size, entry, 8);
+        compOut.write(entry);
+        textOut.write(data);
+        textSize += data.length;
+    }
+
+    private void closeFiles() throws IOException {
+        OutputStream[] files = { idxOut, compOut, textOut };
+        idxOut = null;
+        compOut = null;
+        textOut = null;
+        IOException failure = null;
+        for (OutputStream out : files) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A block that has been handed to be compressed.
+     */
+    private static final class PendingBlock {
+        PendingBlock(int size, Future<byte[]> compressed) {
+            this.size = size;
+            this.compressed = compressed;
+        }
+
+        final int size;
+        final Future<byte[]> compressed;
+    }
+
+    /**
+     * Verses are stored with a 16 bit size.
+     */
+    private static final int MAX_VERSE_SIZE = 0xFFFF;
+
+    private static final byte[] EMPTY_ENTRY = new byte[ZVerseBackend.IDX_ENTRY_SIZE];
+
+    private static volatile int threads = Runtime.getRuntime().availableProcessors();
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final File dir;
+    private final Versification v11n;
+    private final BlockType blockType;
+    private final CompressorType compressorType;
+    private final String charset;
+
+    /**
+     * The keyed cipher engine, which is only ever cloned, or null.
+     */
+    private final Sapphire cipher;
+
+    private final ExecutorService executor;
+
+    /**
+     * The blocks being compressed, in the order that they are written.
+     */
+    private final LinkedList<PendingBlock> pending;
+    private final int maxPending;
+
+    /**
+     * The verses of the block being gathered.
+     */
+    private final ByteArrayOutputStream block;
+    private BibleBook blockBook;
+    private int blockChapter;
+
+    private final boolean[] written = new boolean[2];
+    private Testament testament;
+    private OutputStream idxOut;
+    private OutputStream compOut;
+    private OutputStream textOut;
+    private long idxCount;
+    private int blockCount;
+    private long textSize;
+    private int lastOrdinal;
+    private boolean closed;
+}
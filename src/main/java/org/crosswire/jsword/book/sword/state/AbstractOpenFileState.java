@@ -27,7 +27,7 @@ package org.crosswire.jsword.book.sword.state;
  * @author DM Smith
  */
 public abstract class AbstractOpenFileState implements OpenFileState {
-    private long lastAccess = System.currentTimeMillis();
+    private volatile long lastAccess = System.currentTimeMillis();
 
     /**
      * Allows us to decide whether to release the resources or continue using them
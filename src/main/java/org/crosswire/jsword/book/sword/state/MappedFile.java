@@ -0,0 +1,268 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.crosswire.common.util.FileUtil;
+import org.crosswire.common.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only, memory mapped view of a module file. Unlike a RandomAccessFile,
+ * a MappedFile has no file pointer, so a single instance is shared by all the
+ * OpenFileStates, and thus by all the threads, reading a book.
+ *
+ * <p>
+ * Little endian numbers are decoded in place, without seeking and without
+ * allocating a buffer. Only a request for a run of bytes allocates, and then
+ * only the array that is returned.
+ * </p>
+ *
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public final class MappedFile {
+    /**
+     * Map the file, which must be no larger than 2GB.
+     *
+     * @param file
+     *            the file to map
+     * @throws IOException
+     *             if the file cannot be opened or mapped
+     */
+    private MappedFile(File file) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(file, FileUtil.MODE_READ);
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too large to map: " + file.getPath());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            length = (int) size;
+        } finally {
+            // The mapping remains valid after the channel is closed.
+            IOUtil.close(raf);
+        }
+    }
+
+    /**
+     * Get the shared MappedFile for the given file, mapping it on first use.
+     *
+     * @param file
+     *            the file to map
+     * @return the shared mapping of the file
+     * @throws IOException
+     *             if the file cannot be opened or mapped
+     */
+    public static MappedFile getInstance(File file) throws IOException {
+        MappedFile mapped = FILES.get(file);
+        if (mapped != null && mapped.lastModified == file.lastModified()) {
+            return mapped;
+        }
+
+        // Either it has not been mapped or the module has been replaced.
+        MappedFile fresh = new MappedFile(file);
+        if (mapped == null) {
+            mapped = FILES.putIfAbsent(file, fresh);
+            if (mapped != null) {
+                // Another thread beat us to it. Ours will be collected.
+                return mapped;
+            }
+        } else {
+            FILES.replace(file, mapped, fresh);
+        }
+        log.debug("Mapped {} ({} bytes)", file.getPath(), Integer.toString(fresh.length));
+        return fresh;
+    }
+
+    /**
+     * Forget all the mappings. Mapped memory is returned to the system when
+     * the last reference to it is collected.
+     */
+    public static void releaseAll() {
+        FILES.clear();
+    }
+
+    /**
+     * @return the file that is mapped
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of bytes in the file
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Determine whether there are size bytes at the offset.
+     *
+     * @param offset
+     *            the start of the record
+     * @param size
+     *            the size of the record
+     * @return true if the whole record is in the file
+     */
+    public boolean contains(long offset, int size) {
+        return offset >= 0 && size >= 0 && offset + size <= length;
+    }
+
+    /**
+     * Decode a little endian 32-bit number at the given offset.
+     *
+     * @param offset
+     *            the position of the number in the file
+     * @return the decoded number
+     */
+    public int getLittleEndian32(long offset) {
+        return buffer.getInt((int) offset);
+    }
+
+    /**
+     * Decode a little endian, unsigned 16-bit number at the given offset.
+     *
+     * @param offset
+     *            the position of the number in the file
+     * @return the decoded number
+     */
+    public int getLittleEndian16(long offset) {
+        return buffer.getShort((int) offset) & 0xFFFF;
+    }
+
+    /**
+     * Get a single byte at the given offset.
+     *
+     * @param offset
+     *            the position of the byte in the file
+     * @return the byte
+     */
+    public byte get(long offset) {
+        return buffer.get((int) offset);
+    }
+
+    /**
+     * Read a run of bytes from the file. As with SwordUtil.readRAF, a read
+     * that would go beyond the end of the file is shortened and a read that
+     * starts beyond the end is empty.
+     *
+     * @param offset
+     *            The start of the record to read
+     * @param theSize
+     *            The number of bytes to read
+     * @return the read data
+     */
+    public byte[] read(long offset, int theSize) {
+        if (offset >= length) {
+            log.error("Attempt to read beyond end. offset={} size={} but length={}", Long.toString(offset), Integer.toString(theSize), Integer.toString(length));
+            return EMPTY_BYTES;
+        }
+
+        int size = theSize;
+        if (offset + size > length) {
+            log.error("Need to reduce size to avoid reading beyond end. offset={} size={} but length={}", Long.toString(offset), Integer.toString(size), Integer.toString(length));
+            size = (int) (length - offset);
+        }
+
+        if (size < 1) {
+            return EMPTY_BYTES;
+        }
+
+        byte[] read = new byte[size];
+        // Bulk relative gets change the position, so work on a view.
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.get(read);
+        return read;
+    }
+
+    /**
+     * Get a read-only view of a run of bytes in the file. Nothing is copied;
+     * the view reads straight from the mapping.
+     *
+     * @param offset
+     *            The start of the record
+     * @param size
+     *            The number of bytes in the record
+     * @return a view positioned at the start of the record and limited to its
+     *         end
+     * @throws IndexOutOfBoundsException
+     *             if the record is not wholly in the file
+     */
+    public ByteBuffer slice(long offset, int size) {
+        if (!contains(offset, size)) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " size=" + size + " but length=" + length);
+        }
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit((int) offset + size);
+        view.position((int) offset);
+        return view;
+    }
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * The mappings, shared by all.
+     */
+    private static final ConcurrentMap<File, MappedFile> FILES = new ConcurrentHashMap<File, MappedFile>();
+
+    /**
+     * The file that is mapped.
+     */
+    private final File file;
+
+    /**
+     * When the file was changed before it was mapped.
+     */
+    private final long lastModified;
+
+    /**
+     * The whole of the file. Only absolute gets are made against it.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The size of the file.
+     */
+    private final int length;
+
+    /**
+     * The log stream
+     */
+    private static final Logger log = LoggerFactory.getLogger(MappedFile.class);
+}
@@ -20,15 +20,17 @@
  */
 package org.crosswire.jsword.book.sword.state;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.crosswire.jsword.book.BookException;
 import org.crosswire.jsword.book.sword.BlockType;
@@ -53,8 +55,12 @@ import org.slf4j.LoggerFactory;
  * In order to avoid many file references piling up in memory, we implement a background cleaning thread which will clean
  * up redundant keys every so often.
  *
- *
+ * The pools are bounded. No more than {@link #getMaxIdleStatesPerBook()} idle states are kept for a book,
+ * any more are closed when they are released. Across all books, when more than {@link #getMaxOpenStates()}
+ * states are open, the least recently used idle states are closed. States that are in use are never closed,
+ * so the budget can be exceeded for as long as they are in use.
  * 
+ 
  * @see gnu.lgpl.License for license details.<br>
  *      The copyright to this program is held by it's authors.
  * 
@@ -80,15 +86,13 @@ public final class OpenFileStateManager {
                 // the heap.
                 long currentTime = System.currentTimeMillis();
 
-                for (Queue<OpenFileState> e : OpenFileStateManager.this.metaToStates.values()) {
-                    for (Iterator<OpenFileState> iterator = e.iterator(); iterator.hasNext(); ) {
+                for (StatePool pool : OpenFileStateManager.this.metaToStates.values()) {
+                    for (Iterator<OpenFileState> iterator = pool.states.iterator(); iterator.hasNext(); ) {
                         final OpenFileState state = iterator.next();
-                        if (state.getLastAccess() + maxExpiry * 1000 < currentTime) {
+                        // Only the thread that removes it from the queue may close it.
+                        if (state.getLastAccess() + maxExpiry * 1000 < currentTime && pool.remove(state)) {
                             //release resources
-                            state.releaseResources();
-
-                            //remove from the queues
-                            iterator.remove();
+                            closeState(state);
                         }
                     }
                 }
@@ -126,10 +130,10 @@ public final class OpenFileStateManager {
     public RawBackendState getRawBackendState(SwordBookMetaData metadata) throws BookException {
         ensureNotShuttingDown();
 
-        RawBackendState state = getInstance(metadata);
+        RawBackendState state = getInstance(metadata, RawBackendState.class);
         if (state == null) {
             LOGGER.trace("Initializing: {}", metadata.getInitials());
-            return new RawBackendState(metadata);
+            return opened(new RawBackendState(metadata));
         }
 
         LOGGER.trace("Reusing: {}", metadata.getInitials());
@@ -139,10 +143,10 @@ public final class OpenFileStateManager {
     public RawFileBackendState getRawFileBackendState(SwordBookMetaData metadata) throws BookException {
         ensureNotShuttingDown();
 
-        RawFileBackendState state = getInstance(metadata);
+        RawFileBackendState state = getInstance(metadata, RawFileBackendState.class);
         if (state == null) {
             LOGGER.trace("Initializing: {}", metadata.getInitials());
-            return new RawFileBackendState(metadata);
+            return opened(new RawFileBackendState(metadata));
         }
 
         LOGGER.trace("Reusing: {}", metadata.getInitials());
@@ -152,10 +156,10 @@ public final class OpenFileStateManager {
     public GenBookBackendState getGenBookBackendState(SwordBookMetaData metadata) throws BookException {
         ensureNotShuttingDown();
 
-        GenBookBackendState state = getInstance(metadata);
+        GenBookBackendState state = getInstance(metadata, GenBookBackendState.class);
         if (state == null) {
             LOGGER.trace("Initializing: {}", metadata.getInitials());
-            return new GenBookBackendState(metadata);
+            return opened(new GenBookBackendState(metadata));
         }
 
         LOGGER.trace("Reusing: {}", metadata.getInitials());
@@ -165,10 +169,10 @@ public final class OpenFileStateManager {
     public RawLDBackendState getRawLDBackendState(SwordBookMetaData metadata) throws BookException {
         ensureNotShuttingDown();
 
-        RawLDBackendState state = getInstance(metadata);
+        RawLDBackendState state = getInstance(metadata, RawLDBackendState.class);
         if (state == null) {
             LOGGER.trace("Initializing: {}", metadata.getInitials());
-            return new RawLDBackendState(metadata);
+            return opened(new RawLDBackendState(metadata));
         }
 
         LOGGER.trace("Reusing: {}", metadata.getInitials());
@@ -178,10 +182,10 @@ public final class OpenFileStateManager {
     public ZLDBackendState getZLDBackendState(SwordBookMetaData metadata) throws BookException {
         ensureNotShuttingDown();
 
-        ZLDBackendState state = getInstance(metadata);
+        ZLDBackendState state = getInstance(metadata, ZLDBackendState.class);
         if (state == null) {
             LOGGER.trace("Initializing: {}", metadata.getInitials());
-            return new ZLDBackendState(metadata);
+            return opened(new ZLDBackendState(metadata));
         }
 
         LOGGER.trace("Reusing: {}", metadata.getInitials());
@@ -191,20 +195,31 @@ public final class OpenFileStateManager {
     public ZVerseBackendState getZVerseBackendState(SwordBookMetaData metadata, BlockType blockType) throws BookException {
         ensureNotShuttingDown();
 
-        ZVerseBackendState state = getInstance(metadata);
+        ZVerseBackendState state = getInstance(metadata, ZVerseBackendState.class);
         if (state == null) {
             LOGGER.trace("Initializing: {}", metadata.getInitials());
-            return new ZVerseBackendState(metadata, blockType);
+            return opened(new ZVerseBackendState(metadata, blockType));
         }
 
         LOGGER.trace("Reusing: {}", metadata.getInitials());
         return state;
     }
 
-    @SuppressWarnings("unchecked")
-    private <T extends OpenFileState> T getInstance(SwordBookMetaData metadata) {
-        Queue<OpenFileState> availableStates = getQueueForMeta(metadata);
-        final T state = (T) availableStates.poll();
+    public PackBackendState getPackBackendState(SwordBookMetaData metadata) throws BookException {
+        ensureNotShuttingDown();
+
+        PackBackendState state = getInstance(metadata, PackBackendState.class);
+        if (state == null) {
+            LOGGER.trace("Initializing: {}", metadata.getInitials());
+            return opened(new PackBackendState(metadata));
+        }
+
+        LOGGER.trace("Reusing: {}", metadata.getInitials());
+        return state;
+    }
+
+    private <T extends OpenFileState> T getInstance(SwordBookMetaData metadata, Class<T> type) {
+        final T state = type.cast(getPoolForMeta(metadata, type).poll());
 
         //while not strictly necessary, the documentation suggests that iterating through the collection
         //gives you a snapshot at some point in time, though not necessarily consistent, so just in case this remains
@@ -212,19 +227,86 @@ public final class OpenFileStateManager {
         //use it
         if(state != null) {
             state.setLastAccess(System.currentTimeMillis());
+            reused.incrementAndGet();
         }
         return state;
     }
 
-    private Queue<OpenFileState> getQueueForMeta(SwordBookMetaData metadata) {
-        Queue<OpenFileState> availableStates = metaToStates.get(metadata);
-        if (availableStates == null) {
-            synchronized (OpenFileState.class) {
-                availableStates = new ConcurrentLinkedQueue<OpenFileState>();
-                metaToStates.put(metadata, availableStates);
+    /**
+     * Count a newly created state, making room for it if the budget has been reached.
+     */
+    private <T extends OpenFileState> T opened(T state) {
+        created.incrementAndGet();
+        openStates.incrementAndGet();
+        evictToBudget();
+        return state;
+    }
+
+    /**
+     * Close idle states, the least recently used first, until the number of open states
+     * is within the budget or there are no more idle states.
+     */
+    private void evictToBudget() {
+        while (openStates.get() > maxOpenStates) {
+            if (!evictEldest()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Close the least recently used idle state of all books.
+     *
+     * @return whether a state was closed
+     */
+    private boolean evictEldest() {
+        StatePool eldestPool = null;
+        OpenFileState eldest = null;
+        // The head of each queue is its least recently released state.
+        for (StatePool pool : metaToStates.values()) {
+            OpenFileState head = pool.states.peek();
+            if (head != null && (eldest == null || head.getLastAccess() < eldest.getLastAccess())) {
+                eldestPool = pool;
+                eldest = head;
+            }
+        }
+
+        if (eldest == null) {
+            return false;
+        }
+
+        // If another thread got to it first, then try again.
+        if (eldestPool.remove(eldest)) {
+            LOGGER.trace("Evicting: {}", eldest.getBookMetaData().getInitials());
+            evictions.incrementAndGet();
+            closeState(eldest);
+        }
+        return true;
+    }
+
+    /**
+     * Close a state that is no longer pooled.
+     */
+    private void closeState(OpenFileState state) {
+        state.releaseResources();
+        openStates.decrementAndGet();
+    }
+
+    /**
+     * Get the pool of idle states of a given type for a book. A book may be
+     * read by more than one kind of backend, each with its own kind of state.
+     */
+    private StatePool getPoolForMeta(SwordBookMetaData metadata, Class<? extends OpenFileState> type) {
+        PoolKey key = new PoolKey(metadata, type);
+        StatePool pool = metaToStates.get(key);
+        if (pool == null) {
+            StatePool fresh = new StatePool();
+            pool = metaToStates.putIfAbsent(key, fresh);
+            if (pool == null) {
+                pool = fresh;
             }
         }
-        return availableStates;
+        return pool;
     }
 
     public void release(OpenFileState fileState) {
@@ -238,15 +320,121 @@ public final class OpenFileStateManager {
 
         // instead of releasing, we add to our queue
         SwordBookMetaData bmd = fileState.getBookMetaData();
-        Queue<OpenFileState> queueForMeta = getQueueForMeta(bmd);
+        StatePool poolForMeta = getPoolForMeta(bmd, fileState.getClass());
         LOGGER.trace("Offering to releasing: {}", bmd.getInitials());
-        boolean offered = queueForMeta.offer(fileState);
+        boolean offered = !shuttingDown && poolForMeta.offer(fileState, maxIdleStatesPerBook);
 
-        // ignore if we couldn't offer to the queue
+        // close it if the pool is full
         if (!offered) {
             LOGGER.trace("Released: {}", bmd.getInitials());
-            fileState.releaseResources();
+            closeState(fileState);
+            return;
+        }
+
+        evictToBudget();
+    }
+
+    /**
+     * @return the most idle states that are kept for a single book
+     */
+    public int getMaxIdleStatesPerBook() {
+        return maxIdleStatesPerBook;
+    }
+
+    /**
+     * Set the most idle states that are kept for a single book. Any more are closed when released.
+     *
+     * @param maxIdleStatesPerBook the most idle states to keep per book
+     */
+    public void setMaxIdleStatesPerBook(int maxIdleStatesPerBook) {
+        this.maxIdleStatesPerBook = maxIdleStatesPerBook;
+    }
+
+    /**
+     * Get the most reads of a single book that are run at once by the book reading threads. Unless it has been set,
+     * this is the most idle states that are kept for a book, so that each read can find an open state.
+     *
+     * @return the most concurrent background reads of a book
+     */
+    public int getMaxReadsPerBook() {
+        int max = maxReadsPerBook;
+        return max > 0 ? max : maxIdleStatesPerBook;
+    }
+
+    /**
+     * Set the most reads of a single book that are run at once by the book reading threads. Any more wait until one
+     * finishes, leaving the threads free to read other books. Use 0 to follow the most idle states kept per book.
+     *
+     * @param maxReadsPerBook the most concurrent background reads of a book
+     */
+    public void setMaxReadsPerBook(int maxReadsPerBook) {
+        this.maxReadsPerBook = maxReadsPerBook;
+    }
+
+    /**
+     * @return the number of open states, in use and idle, above which idle states are closed
+     */
+    public int getMaxOpenStates() {
+        return maxOpenStates;
+    }
+
+    /**
+     * Set the number of open states, in use and idle, above which the least recently used idle states are closed.
+     * Each state holds the open files of one book, typically 2 to 6 of them.
+     *
+     * @param maxOpenStates the budget of open states for all books
+     */
+    public void setMaxOpenStates(int maxOpenStates) {
+        this.maxOpenStates = maxOpenStates;
+        evictToBudget();
+    }
+
+    /**
+     * @return the number of states created and not yet closed, whether in use or idle
+     */
+    public int getOpenStateCount() {
+        return openStates.get();
+    }
+
+    /**
+     * @return the number of states waiting in the pools to be reused
+     */
+    public int getIdleStateCount() {
+        int count = 0;
+        for (StatePool pool : metaToStates.values()) {
+            count += pool.size.get();
         }
+        return count;
+    }
+
+    /**
+     * @return the number of states that have been created
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of times an idle state has been reused
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * @return the fraction of requests for a state that were satisfied by an idle state
+     */
+    public double getReuseRatio() {
+        long hits = reused.get();
+        long total = hits + created.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * @return the number of idle states closed to keep within the budget of open states
+     */
+    public long getEvictionCount() {
+        return evictions.get();
     }
 
     /**
@@ -255,12 +443,13 @@ public final class OpenFileStateManager {
     public void shutDown() {
         shuttingDown = true;
         this.monitoringThread.cancel(true);
-        for (Queue<OpenFileState> e : metaToStates.values()) {
+        for (StatePool pool : metaToStates.values()) {
             OpenFileState state = null;
-            while ((state = e.poll()) != null) {
-                state.releaseResources();
+            while ((state = pool.poll()) != null) {
+                closeState(state);
             }
         }
+        MappedFile.releaseAll();
     }
 
     private void ensureNotShuttingDown() throws BookException {
@@ -269,9 +458,81 @@ public final class OpenFileStateManager {
         }
     }
 
+    /**
+     * Identifies the pool of a book for a type of state.
+     */
+    private static final class PoolKey {
+        PoolKey(SwordBookMetaData metadata, Class<? extends OpenFileState> type) {
+            this.metadata = metadata;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey that = (PoolKey) obj;
+            return metadata.equals(that.metadata) && type == that.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * metadata.hashCode() + type.hashCode();
+        }
+
+        private final SwordBookMetaData metadata;
+        private final Class<? extends OpenFileState> type;
+    }
+
+    /**
+     * The idle states of a book, with a count of them, since counting the queue is not constant time.
+     */
+    private static final class StatePool {
+        StatePool() {
+            states = new ConcurrentLinkedQueue<OpenFileState>();
+            size = new AtomicInteger();
+        }
+
+        OpenFileState poll() {
+            OpenFileState state = states.poll();
+            if (state != null) {
+                size.decrementAndGet();
+            }
+            return state;
+        }
+
+        boolean offer(OpenFileState state, int max) {
+            if (size.incrementAndGet() > max) {
+                size.decrementAndGet();
+                return false;
+            }
+            states.offer(state);
+            return true;
+        }
+
+        boolean remove(OpenFileState state) {
+            if (states.remove(state)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        final Queue<OpenFileState> states;
+        final AtomicInteger size;
+    }
+
     private final ScheduledFuture<?> monitoringThread;
-    private final Map<SwordBookMetaData, Queue<OpenFileState>> metaToStates = new HashMap<SwordBookMetaData, Queue<OpenFileState>>();
+    private final ConcurrentMap<PoolKey, StatePool> metaToStates = new ConcurrentHashMap<PoolKey, StatePool>();
     private volatile boolean shuttingDown;
+    private volatile int maxIdleStatesPerBook = 8;
+    private volatile int maxOpenStates = 64;
+    private volatile int maxReadsPerBook;
+    private final AtomicInteger openStates = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
 
     private static volatile OpenFileStateManager manager;
     private static final Logger LOGGER = LoggerFactory.getLogger(OpenFileStateManager.class);
@@ -0,0 +1,60 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword.state;
+
+import org.crosswire.jsword.book.sword.SwordBookMetaData;
+
+/**
+ * The state of a book that is served from a pre-built pack. The pack is
+ * memory mapped and shared, so there is nothing to open or to close. This
+ * state only exists so that a pack backend can be used like any other.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class PackBackendState extends AbstractOpenFileState {
+    /**
+     * This is default package access for forcing the use of the
+     * OpenFileStateManager to manage the creation.
+     * 
+     * @param bookMetaData the appropriate metadata for the book
+     */
+    PackBackendState(SwordBookMetaData bookMetaData) {
+        this.bookMetaData = bookMetaData;
+    }
+
+    /* (non-Javadoc)
+     * @see org.crosswire.jsword.book.sword.state.OpenFileState#releaseResources()
+     */
+    public void releaseResources() {
+        // Nothing is held open.
+    }
+
+    /**
+     * @return the bookMetaData
+     */
+    public SwordBookMetaData getBookMetaData() {
+        return bookMetaData;
+    }
+
+    private SwordBookMetaData bookMetaData;
+}
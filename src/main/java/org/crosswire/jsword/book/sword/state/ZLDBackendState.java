@@ -133,28 +133,36 @@ public class ZLDBackendState extends RawLDBackendState {
 
     /**
      * @return the lastBlockNum
+     * @deprecated Blocks are cached for the book by ZLDBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public long getLastBlockNum() {
         return lastBlockNum;
     }
 
     /**
      * @return the lastUncompressed
+     * @deprecated Blocks are cached for the book by ZLDBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public byte[] getLastUncompressed() {
         return lastUncompressed;
     }
 
     /**
      * @param lastBlockNum the lastBlockNum to set
+     * @deprecated Blocks are cached for the book by ZLDBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public void setLastBlockNum(long lastBlockNum) {
         this.lastBlockNum = lastBlockNum;
     }
 
     /**
      * @param lastUncompressed the lastUncompressed to set
+     * @deprecated Blocks are cached for the book by ZLDBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public void setLastUncompressed(byte[] lastUncompressed) {
         this.lastUncompressed = lastUncompressed;
     }
@@ -22,6 +22,7 @@ package org.crosswire.jsword.book.sword.state;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.URI;
 
@@ -39,6 +40,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Stores the random access files required for processing the passage request.
+ * When {@link #setMemoryMapped(boolean)} is on, the files are instead shared,
+ * memory mapped files that need no seeking.
  * 
  * The caller is required to close to correctly free resources and avoid File
  * pointer leaks.
@@ -70,6 +73,10 @@ public class ZVerseBackendState extends AbstractOpenFileState {
         File ntTextFile = new File(ntAllButLast + SUFFIX_TEXT);
         File ntCompFile = new File(ntAllButLast + SUFFIX_COMP);
 
+        if (memoryMapped && openMapped(otIdxFile, otCompFile, otTextFile, ntIdxFile, ntCompFile, ntTextFile)) {
+            return;
+        }
+
         // check whether exists to swallow any exception as before
         if (otIdxFile.canRead()) {
             try {
@@ -106,6 +113,38 @@ public class ZVerseBackendState extends AbstractOpenFileState {
         }
     }
 
+    /**
+     * Map the files for both testaments. Note: the file names follow the
+     * same odd convention as the RandomAccessFiles, the "idx" file being the
+     * per block index and the "comp" file being the per verse index.
+     *
+     * @return true if the module could be mapped, false to fall back to RandomAccessFiles
+     */
+    private boolean openMapped(File otIdxFile, File otCompFile, File otTextFile, File ntIdxFile, File ntCompFile, File ntTextFile) {
+        try {
+            if (otIdxFile.canRead()) {
+                otCompMap = MappedFile.getInstance(otIdxFile);
+                otTextMap = MappedFile.getInstance(otTextFile);
+                otIdxMap = MappedFile.getInstance(otCompFile);
+            }
+            if (ntIdxFile.canRead()) {
+                ntCompMap = MappedFile.getInstance(ntIdxFile);
+                ntTextMap = MappedFile.getInstance(ntTextFile);
+                ntIdxMap = MappedFile.getInstance(ntCompFile);
+            }
+            mapped = true;
+        } catch (IOException ex) {
+            log.warn("Could not map {}, falling back to random access files", bookMetaData.getInitials(), ex);
+            otCompMap = null;
+            otTextMap = null;
+            otIdxMap = null;
+            ntCompMap = null;
+            ntTextMap = null;
+            ntIdxMap = null;
+        }
+        return mapped;
+    }
+
     public void releaseResources() {
         IOUtil.close(ntCompRaf);
         IOUtil.close(ntTextRaf);
@@ -119,6 +158,68 @@ public class ZVerseBackendState extends AbstractOpenFileState {
         otCompRaf = null;
         otTextRaf = null;
         otIdxRaf = null;
+        // The mappings are shared, so they are dropped but not released.
+        ntCompMap = null;
+        ntTextMap = null;
+        ntIdxMap = null;
+        otCompMap = null;
+        otTextMap = null;
+        otIdxMap = null;
+    }
+
+    /**
+     * Whether new ZVerseBackendStates read through shared memory mapped files
+     * rather than through their own RandomAccessFiles. The default is false.
+     *
+     * @param memoryMapped
+     *            the memoryMapped to set
+     */
+    public static void setMemoryMapped(boolean memoryMapped) {
+        ZVerseBackendState.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return whether new ZVerseBackendStates will be memory mapped
+     */
+    public static boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return whether this ZVerseBackendState reads from memory mapped files
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Get the mapped compression file for the given testament.
+     * 
+     * @param testament the testament for the index
+     * @return the index for the testament
+     */
+    public MappedFile getCompMap(Testament testament) {
+        return testament == Testament.NEW ? ntCompMap : otCompMap;
+    }
+
+    /**
+     * Get the mapped text file for the given testament.
+     * 
+     * @param testament the testament for the index
+     * @return the index for the testament
+     */
+    public MappedFile getTextMap(Testament testament) {
+        return testament == Testament.NEW ? ntTextMap : otTextMap;
+    }
+
+    /**
+     * Get the mapped index file for the given testament.
+     * 
+     * @param testament the testament for the index
+     * @return the index for the testament
+     */
+    public MappedFile getIdxMap(Testament testament) {
+        return testament == Testament.NEW ? ntIdxMap : otIdxMap;
     }
 
     /**
@@ -153,21 +254,27 @@ public class ZVerseBackendState extends AbstractOpenFileState {
 
     /**
      * @return the lastTestament
+     * @deprecated Blocks are cached for the book by ZVerseBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public Testament getLastTestament() {
         return lastTestament;
     }
 
     /**
      * @return the lastBlockNum
+     * @deprecated Blocks are cached for the book by ZVerseBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public long getLastBlockNum() {
         return lastBlockNum;
     }
 
     /**
      * @return the lastUncompressed
+     * @deprecated Blocks are cached for the book by ZVerseBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public byte[] getLastUncompressed() {
         return lastUncompressed;
     }
@@ -175,7 +282,9 @@ public class ZVerseBackendState extends AbstractOpenFileState {
     /**
      * @param lastTestament
      *            the lastTestament to set
+     * @deprecated Blocks are cached for the book by ZVerseBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public void setLastTestament(Testament lastTestament) {
         this.lastTestament = lastTestament;
     }
@@ -183,7 +292,9 @@ public class ZVerseBackendState extends AbstractOpenFileState {
     /**
      * @param lastBlockNum
      *            the lastBlockNum to set
+     * @deprecated Blocks are cached for the book by ZVerseBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public void setLastBlockNum(long lastBlockNum) {
         this.lastBlockNum = lastBlockNum;
     }
@@ -191,7 +302,9 @@ public class ZVerseBackendState extends AbstractOpenFileState {
     /**
      * @param lastUncompressed
      *            the lastUncompressed to set
+     * @deprecated Blocks are cached for the book by ZVerseBackend's BlockCache. This is not used.
      */
+    @Deprecated
     public void setLastUncompressed(byte[] lastUncompressed) {
         this.lastUncompressed = lastUncompressed;
     }
@@ -225,11 +338,28 @@ public class ZVerseBackendState extends AbstractOpenFileState {
      */
     private RandomAccessFile otIdxRaf;
     private RandomAccessFile ntIdxRaf;
+
+    /**
+     * The shared mappings used instead of the random access files
+     */
+    private MappedFile otCompMap;
+    private MappedFile ntCompMap;
+    private MappedFile otTextMap;
+    private MappedFile ntTextMap;
+    private MappedFile otIdxMap;
+    private MappedFile ntIdxMap;
+    private boolean mapped;
+
     private Testament lastTestament;
     private long lastBlockNum = -1;
     private byte[] lastUncompressed;
     private SwordBookMetaData bookMetaData;
 
+    /**
+     * Whether to memory map modules.
+     */
+    private static volatile boolean memoryMapped;
+
     /**
      * The log stream
      */
@@ -0,0 +1,136 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.bridge;
+
+import java.io.IOException;
+
+import org.crosswire.jsword.book.Book;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.BookMetaData;
+import org.crosswire.jsword.book.Books;
+import org.crosswire.jsword.book.sword.ServingPack;
+import org.crosswire.jsword.book.sword.SwordBookMetaData;
+
+/**
+ * PackBuilder allows one to check whether a book has a fresh serving pack,
+ * build its serving pack or delete its serving pack.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class PackBuilder {
+
+    public PackBuilder(Book book) {
+        this.book = book;
+    }
+
+    public boolean isPackable() {
+        SwordBookMetaData bmd = getSwordBookMetaData();
+        return bmd != null && ServingPack.isPackable(bmd);
+    }
+
+    public boolean isPacked() {
+        SwordBookMetaData bmd = getSwordBookMetaData();
+        return bmd != null && ServingPack.isPacked(bmd);
+    }
+
+    public void createPack() throws IOException, BookException {
+        SwordBookMetaData bmd = getSwordBookMetaData();
+        if (bmd != null) {
+            ServingPack.build(bmd);
+        }
+    }
+
+    public boolean deletePack() throws IOException {
+        SwordBookMetaData bmd = getSwordBookMetaData();
+        return bmd == null || ServingPack.delete(bmd);
+    }
+
+    private SwordBookMetaData getSwordBookMetaData() {
+        BookMetaData bmd = book.getBookMetaData();
+        return bmd instanceof SwordBookMetaData ? (SwordBookMetaData) bmd : null;
+    }
+
+    private Book book;
+
+    /**
+     * Call with &lt;operation&gt; book. Where operation can be one of:
+     * <ul>
+     * <li>check - returns "TRUE" or "FALSE" indicating whether a fresh pack
+     * exists or not</li>
+     * <li>create - (re)create the pack</li>
+     * <li>delete - delete the pack if it exists</li>
+     * </ul>
+     * And book is the initials of a book, e.g. KJV.
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            usage();
+            return;
+        }
+
+        System.err.println("PackBuilder " + args[0] + " " + args[1]);
+
+        String operation = args[0];
+        Book b = Books.installed().getBook(args[1]);
+        if (b == null) {
+            System.err.println("Book not found");
+            return;
+        }
+
+        PackBuilder builder = new PackBuilder(b);
+        if ("create".equalsIgnoreCase(operation)) {
+            if (!builder.isPackable()) {
+                System.err.println("Book cannot be packed.");
+                return;
+            }
+            try {
+                builder.createPack();
+            } catch (IOException e) {
+                System.err.println("Unable to pack book.");
+                e.printStackTrace();
+            } catch (BookException e) {
+                System.err.println("Unable to pack book.");
+                e.printStackTrace();
+            }
+        } else if ("delete".equalsIgnoreCase(operation)) {
+            try {
+                if (!builder.deletePack()) {
+                    System.err.println("Unable to delete pack for book.");
+                }
+            } catch (IOException e) {
+                System.err.println("Unable to delete pack for book.");
+                e.printStackTrace();
+            }
+        } else if ("check".equalsIgnoreCase(operation)) {
+            System.err.println(builder.isPacked());
+        } else {
+            usage();
+        }
+    }
+
+    public static void usage() {
+        System.err.println("Usage: PackBuilder operation book");
+    }
+}
@@ -20,17 +20,19 @@
  */
 package org.crosswire.jsword.versification.system;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.crosswire.jsword.versification.Versification;
 
 /**
  * The Versifications class manages the creation of Versifications as needed.
  * It delays the construction of the Versification until getVersification(String name) is called.
+ * Once a Versification has been constructed, looking it up takes no lock.
  *
  * @see gnu.lgpl.License for license details.<br>
  *      The copyright to this program is held by it's authors.
@@ -60,7 +62,7 @@ public final class Versifications {
      * @deprecated Use {@link #getVersification(String)} instead.
      */
     @Deprecated
-    public synchronized Versification getDefaultVersification() {
+    public Versification getDefaultVersification() {
         return getVersification(DEFAULT_V11N);
     }
 
@@ -70,20 +72,15 @@ public final class Versifications {
      * @param name the name of the Versification
      * @return the Versification or null if it is not known.
      */
-    public synchronized Versification getVersification(String name) {
+    public Versification getVersification(String name) {
         String actual = name;
         if (actual == null) {
             actual = DEFAULT_V11N;
         }
 
-        // This class delays the building of a Versification to when it is
-        // actually needed.
         Versification rs = fluffed.get(actual);
         if (rs == null) {
-            rs = fluff(actual);
-            if (rs != null) {
-                fluffed.put(actual, rs);
-            }
+            rs = fluffAndRemember(actual);
         }
 
         return rs;
@@ -95,10 +92,35 @@ public final class Versifications {
      * @param name the name of the Versification
      * @return true when the Versification is available for use
      */
-    public synchronized boolean isDefined(String name) {
+    public boolean isDefined(String name) {
         return name == null || known.contains(name);
     }
 
+    /**
+     * This class delays the building of a Versification to when it is
+     * actually needed. Building is serialized so that each is only built once.
+     * Building loads classes, so a lock is used rather than a monitor.
+     *
+     * @param name the name of the Versification
+     * @return the Versification or null if it is not known.
+     */
+    private Versification fluffAndRemember(String name) {
+        lock.lock();
+        try {
+            // Another thread may have built it while we waited.
+            Versification rs = fluffed.get(name);
+            if (rs == null) {
+                rs = fluff(name);
+                if (rs != null) {
+                    fluffed.put(name, rs);
+                }
+            }
+            return rs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private Versification fluff(String name) {
         //keep KJV at the top as it is the most common
         if (name == null || SystemKJV.V11N_NAME.equals(name)) {
@@ -157,9 +179,14 @@ public final class Versifications {
      *
      * @param rs the Versification to register
      */
-    public synchronized void register(Versification rs) {
-        fluffed.put(rs.getName(), rs);
-        known.add(rs.getName());
+    public void register(Versification rs) {
+        lock.lock();
+        try {
+            fluffed.put(rs.getName(), rs);
+            known.add(rs.getName());
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -182,7 +209,7 @@ public final class Versifications {
      * This class is a singleton, enforced by a private constructor.
      */
     private Versifications() {
-        known = new HashSet<String>();
+        known = new CopyOnWriteArraySet<String>();
         known.add(SystemCatholic.V11N_NAME);
         known.add(SystemCatholic2.V11N_NAME);
         known.add(SystemGerman.V11N_NAME);
@@ -196,18 +223,24 @@ public final class Versifications {
         known.add(SystemSynodal.V11N_NAME);
         known.add(SystemSynodalProt.V11N_NAME);
         known.add(SystemVulg.V11N_NAME);
-        fluffed = new HashMap<String, Versification>();
+        fluffed = new ConcurrentHashMap<String, Versification>();
     }
 
     /**
-     * The set of v11n names.
+     * The set of v11n names. It is rarely changed and safe to iterate.
      */
-    private Set<String> known;
+    private final Set<String> known;
 
     /**
      * The map of instantiated Versifications, given by their names.
+     * It is read without locking.
+     */
+    private final ConcurrentMap<String, Versification> fluffed;
+
+    /**
+     * Serializes the building and registering of Versifications.
      */
-    private Map<String, Versification> fluffed;
+    private final ReentrantLock lock = new ReentrantLock();
 
     private static final Versifications instance = new Versifications();
 }
@@ -34,8 +34,10 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
     org.crosswire.jsword.prerequisites.AllTests.class,
     org.crosswire.jsword.book.AllTests.class,
+    org.crosswire.jsword.book.basic.AllTests.class,
     org.crosswire.jsword.book.filter.thml.AllTests.class,
     org.crosswire.jsword.book.sword.AllTests.class,
+    org.crosswire.jsword.book.sword.state.AllTests.class,
     org.crosswire.jsword.bridge.AllTests.class,
     org.crosswire.jsword.index.lucene.analysis.AllTests.class,
     org.crosswire.jsword.passage.AllTests.class,
@@ -34,6 +34,7 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
     BZip2Test.class,
+    CompressorTypeTest.class,
     GzipTest.class,
     LZSSTest.class,
     XZTest.class,
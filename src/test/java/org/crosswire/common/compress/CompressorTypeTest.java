@@ -0,0 +1,114 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.common.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.crosswire.common.util.ResourceUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test of the array based uncompression.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class CompressorTypeTest {
+
+    @Before
+    public void setUp() throws IOException {
+        InputStream in = ResourceUtil.getResourceAsStream("kjv_genesis.txt");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[Compressor.BUF_SIZE];
+        for (int count = in.read(buf); count != -1; count = in.read(buf)) {
+            bos.write(buf, 0, count);
+        }
+        in.close();
+        genesis = bos.toByteArray();
+    }
+
+    @Test
+    public void testExactLength() throws IOException {
+        for (CompressorType type : CompressorType.values()) {
+            byte[] compressed = compress(type);
+            assertArrayEquals(type.name(), genesis, type.uncompress(compressed, genesis.length));
+        }
+    }
+
+    @Test
+    public void testWrongLength() throws IOException {
+        for (CompressorType type : CompressorType.values()) {
+            byte[] compressed = compress(type);
+            assertArrayEquals(type.name(), genesis, type.uncompress(compressed, 10));
+            assertArrayEquals(type.name(), genesis, type.uncompress(compressed, 0));
+            assertArrayEquals(type.name(), genesis, type.uncompress(compressed, genesis.length * 2));
+        }
+    }
+
+    @Test
+    public void testSuppliedArray() throws IOException {
+        for (CompressorType type : CompressorType.values()) {
+            byte[] compressed = compress(type);
+            byte[] output = new byte[genesis.length + 100];
+            assertEquals(type.name(), genesis.length, type.uncompress(compressed, output));
+            for (int i = 0; i < genesis.length; i++) {
+                assertEquals(type.name(), genesis[i], output[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testSuppliedArrayTooSmall() throws IOException {
+        for (CompressorType type : CompressorType.values()) {
+            byte[] compressed = compress(type);
+            try {
+                type.uncompress(compressed, new byte[genesis.length - 1]);
+                fail(type.name() + " should not fit");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesStream() throws IOException {
+        for (CompressorType type : CompressorType.values()) {
+            byte[] compressed = compress(type);
+            byte[] streamed = type.getCompressor(compressed).uncompress().toByteArray();
+            assertArrayEquals(type.name(), streamed, type.uncompress(compressed, Compressor.BUF_SIZE));
+        }
+    }
+
+    private byte[] compress(CompressorType type) throws IOException {
+        Compressor compressor = type.getCompressor(genesis);
+        return compressor.compress().toByteArray();
+    }
+
+    private byte[] genesis;
+}
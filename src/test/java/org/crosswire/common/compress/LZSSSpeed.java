@@ -0,0 +1,149 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.common.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.crosswire.common.util.ResourceUtil;
+
+/**
+ * LZSSSpeed is a command line benchmark that compares uncompressing LZSS data
+ * from a stream with uncompressing it from an array. The data is KJV Genesis,
+ * compressed as a single block.
+ * 
+ * <p>
+ * Each decoder is warmed up before it is timed. The times are the best of a
+ * number of rounds, so as to discount garbage collection and the like.
+ * </p>
+ * 
+ * <p>
+ * Usage: LZSSSpeed [rounds]
+ * </p>
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class LZSSSpeed {
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            the optional number of timed rounds
+     */
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        InputStream in = ResourceUtil.getResourceAsStream("kjv_genesis.txt");
+        byte[] compressed = new LZSS(in).compress().toByteArray();
+        in.close();
+        int expected = CompressorType.LZSS.uncompress(compressed, 0).length;
+
+        System.out.println("LZSS of " + expected + " bytes, compressed to " + compressed.length + " bytes");
+
+        // Check that both agree before timing them.
+        byte[] streamed = new LZSS(new ByteArrayInputStream(compressed)).uncompress(expected).toByteArray();
+        byte[] array = CompressorType.LZSS.uncompress(compressed, expected);
+        if (!Arrays.equals(streamed, array)) {
+            System.out.println("The decoders do not agree");
+            return;
+        }
+
+        long stream = time(new StreamDecoder(compressed, expected), rounds);
+        long direct = time(new ArrayDecoder(compressed, expected), rounds);
+
+        report("stream", stream, expected);
+        report("array", direct, expected);
+        System.out.println("speedup: " + (stream * 100 / Math.max(direct, 1)) / 100.0 + "x");
+    }
+
+    /**
+     * Time a decoder, returning the best of a number of rounds.
+     */
+    private static long time(Decoder decoder, int rounds) throws IOException {
+        // Warm up so that the timed rounds are compiled code.
+        for (int i = 0; i < WARM_UP; i++) {
+            decoder.decode();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < REPEAT; i++) {
+                decoder.decode();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / REPEAT;
+    }
+
+    private static void report(String name, long nanos, int size) {
+        double mbPerSecond = size / (nanos / 1000000000.0) / (1024 * 1024);
+        System.out.println(name + ": " + nanos / 1000 + "us per block, " + (long) mbPerSecond + " MB/s");
+    }
+
+    /**
+     * One way to uncompress.
+     */
+    private interface Decoder {
+        byte[] decode() throws IOException;
+    }
+
+    /**
+     * The LZSS stream decoder.
+     */
+    private static class StreamDecoder implements Decoder {
+        StreamDecoder(byte[] compressed, int expected) {
+            this.compressed = compressed;
+            this.expected = expected;
+        }
+
+        public byte[] decode() throws IOException {
+            return new LZSS(new ByteArrayInputStream(compressed)).uncompress(expected).toByteArray();
+        }
+
+        private byte[] compressed;
+        private int expected;
+    }
+
+    /**
+     * The LZSS array decoder.
+     */
+    private static class ArrayDecoder implements Decoder {
+        ArrayDecoder(byte[] compressed, int expected) {
+            this.compressed = compressed;
+            this.expected = expected;
+        }
+
+        public byte[] decode() throws IOException {
+            return CompressorType.LZSS.uncompress(compressed, expected);
+        }
+
+        private byte[] compressed;
+        private int expected;
+    }
+
+    private static final int WARM_UP = 50;
+    private static final int REPEAT = 20;
+}
@@ -20,6 +20,7 @@
  */
 package org.crosswire.common.compress;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -30,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.MissingResourceException;
+import java.util.Random;
 
 import org.crosswire.common.util.ResourceUtil;
 import org.junit.Test;
@@ -120,4 +122,18 @@ public class LZSSTest {
         }
 
     }
+
+    @Test
+    public void testArrayMatchesStream() throws IOException {
+        // Any bytes are valid LZSS, so random data reaches back into the
+        // initial ring and overlaps its own copies in every way.
+        Random random = new Random(2014);
+        for (int i = 0; i < 200; i++) {
+            byte[] compressed = new byte[random.nextInt(3000)];
+            random.nextBytes(compressed);
+            byte[] streamed = new LZSS(new ByteArrayInputStream(compressed)).uncompress().toByteArray();
+            byte[] array = CompressorType.LZSS.uncompress(compressed, 0);
+            assertArrayEquals("random data " + i, streamed, array);
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.common.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class SapphireTest {
+
+    @Before
+    public void setUp() {
+        data = new byte[5000];
+        new Random(2014).nextBytes(data);
+    }
+
+    @Test
+    public void testBulkCipher() {
+        for (byte[] key : KEYS) {
+            byte[] bytewise = cipherBytewise(new Sapphire(key), data);
+            byte[] bulk = data.clone();
+            new Sapphire(key).cipher(bulk, 0, bulk.length);
+            assertArrayEquals(bytewise, bulk);
+            assertFalse(Arrays.equals(data, bulk));
+        }
+    }
+
+    @Test
+    public void testBulkCipherInParts() {
+        byte[] bytewise = cipherBytewise(new Sapphire(KEYS[0]), data);
+        byte[] parts = data.clone();
+        Sapphire cipher = new Sapphire(KEYS[0]);
+        cipher.cipher(parts, 0, 17);
+        cipher.cipher(parts, 17, 1000);
+        cipher.cipher(parts, 1017, parts.length - 1017);
+        assertArrayEquals(bytewise, parts);
+    }
+
+    @Test
+    public void testClone() {
+        Sapphire keyed = new Sapphire(KEYS[0]);
+        Sapphire first = keyed.clone();
+        Sapphire second = keyed.clone();
+
+        byte[] fresh = cipherBytewise(new Sapphire(KEYS[0]), data);
+        byte[] one = data.clone();
+        first.cipher(one, 0, one.length);
+        assertArrayEquals(fresh, one);
+
+        // Using one clone must not disturb the other, nor the original.
+        byte[] two = data.clone();
+        second.cipher(two, 0, two.length);
+        assertArrayEquals(fresh, two);
+        assertArrayEquals(fresh, cipherBytewise(keyed, data));
+    }
+
+    @Test
+    public void testEncipher() {
+        for (byte[] key : KEYS) {
+            byte[] enciphered = data.clone();
+            new Sapphire(key).encipher(enciphered, 0, enciphered.length);
+            assertFalse(Arrays.equals(data, enciphered));
+            new Sapphire(key).cipher(enciphered, 0, enciphered.length);
+            assertArrayEquals(data, enciphered);
+        }
+    }
+
+    private static byte[] cipherBytewise(Sapphire cipher, byte[] input) {
+        byte[] result = new byte[input.length];
+        for (int i = 0; i < input.length; i++) {
+            result[i] = cipher.cipher(input[i]);
+        }
+        return result;
+    }
+
+    private static final byte[][] KEYS = {
+        "ABCD1234efgh5678".getBytes(),
+        "x".getBytes(),
+        new byte[0],
+    };
+
+    private byte[] data;
+}
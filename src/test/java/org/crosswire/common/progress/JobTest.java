@@ -96,4 +96,35 @@ public class JobTest {
         assertEquals(100, job.getWork());
         // assertFalse(job.isCancelable());
     }
+
+    @Test
+    public void testCancelByWorker() {
+        Progress job = JobManager.createJob(UUID.randomUUID().toString(), WIBBLE, Thread.currentThread());
+        job.beginJob(WIBBLE);
+        job.cancel();
+        assertTrue(job.isFinished());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testCancelByOther() throws InterruptedException {
+        final Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        };
+        worker.start();
+        Progress job = JobManager.createJob(UUID.randomUUID().toString(), WIBBLE, worker);
+        job.beginJob(WIBBLE);
+        job.cancel();
+        worker.join(10000);
+        assertTrue(interrupted);
+    }
+
+    private volatile boolean interrupted;
 }
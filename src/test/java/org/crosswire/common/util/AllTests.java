@@ -36,7 +36,8 @@ import org.junit.runners.Suite.SuiteClasses;
     StringUtilTest.class,
     PropertyMapTest.class,
     LanguageTest.class,
-    LanguagesTest.class    
+    LanguagesTest.class,
+    WeightedLruCacheTest.class
 })
 public class AllTests {
 }
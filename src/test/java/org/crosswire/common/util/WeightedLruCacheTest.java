@@ -0,0 +1,116 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class WeightedLruCacheTest {
+
+    @Test
+    public void testEviction() {
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<Integer, String>(30, LENGTH);
+        cache.put(Integer.valueOf(1), "aaaaaaaaaa");
+        cache.put(Integer.valueOf(2), "bbbbbbbbbb");
+        cache.put(Integer.valueOf(3), "cccccccccc");
+        assertEquals(30, cache.getSize());
+
+        // Touch the first so that the second is the least recently used.
+        assertNotNull(cache.get(Integer.valueOf(1)));
+        cache.put(Integer.valueOf(4), "dddddddddddddddddddd");
+        assertNull(cache.get(Integer.valueOf(2)));
+        assertNull(cache.get(Integer.valueOf(3)));
+        assertNotNull(cache.get(Integer.valueOf(1)));
+        assertEquals(2, cache.getEvictions());
+        assertEquals(30, cache.getSize());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testReplace() {
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<Integer, String>(30, LENGTH);
+        cache.put(Integer.valueOf(1), "aaaaaaaaaa");
+        cache.put(Integer.valueOf(1), "aaaaa");
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(5, cache.getSize());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testContainsKey() {
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<Integer, String>(20, LENGTH);
+        cache.put(Integer.valueOf(1), "aaaaaaaaaa");
+        cache.put(Integer.valueOf(2), "bbbbbbbbbb");
+
+        // Asking does not count, nor does it save the first from eviction.
+        assertTrue(cache.containsKey(Integer.valueOf(1)));
+        cache.put(Integer.valueOf(3), "cccccccccc");
+        assertFalse(cache.containsKey(Integer.valueOf(1)));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0.0, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testHeavyEntries() {
+        // The newest entry is kept, even when it alone is too heavy.
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<Integer, String>(10, LENGTH);
+        cache.put(Integer.valueOf(1), "aaaaa");
+        String heavy = "This is heavier than the bound";
+        cache.put(Integer.valueOf(2), heavy);
+        assertSame(heavy, cache.get(Integer.valueOf(2)));
+        assertEquals(1, cache.getEntryCount());
+
+        // Unless it is heavier than an entry may be.
+        cache = new WeightedLruCache<Integer, String>(10, 5, LENGTH);
+        cache.put(Integer.valueOf(1), "aaaaa");
+        cache.put(Integer.valueOf(2), "bbbbbb");
+        assertNotNull(cache.get(Integer.valueOf(1)));
+        assertNull(cache.get(Integer.valueOf(2)));
+        assertEquals(5, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getHits());
+    }
+
+    private static final WeightedLruCache.Weigher<Object, String> LENGTH = new WeightedLruCache.Weigher<Object, String>() {
+        public long weigh(Object key, String value) {
+            return value.length();
+        }
+    };
+}
@@ -0,0 +1,212 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.OSISUtil;
+import org.crosswire.jsword.book.sword.RawFileBackend;
+import org.crosswire.jsword.book.sword.SwordBook;
+import org.crosswire.jsword.book.sword.SwordBookMetaData;
+import org.crosswire.jsword.book.sword.TestModules;
+import org.crosswire.jsword.book.sword.processing.RawTextToXmlProcessor;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.NoSuchKeyException;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class AbstractPassageBookTest {
+
+    private SwordBookMetaData bmd;
+    private RawFileBackend backend;
+    private CountingBook book;
+    private Versification v11n;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("RawFiles");
+        backend = new RawFileBackend(bmd, 2);
+        backend.create();
+        RawFileBackendState state = null;
+        try {
+            state = backend.initState();
+            backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 1, 1), "In the beginning");
+            backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 1, 30), "It was so");
+            backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 1, 31), "It was so");
+            backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 2, 1), "Thus the heavens");
+            backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 3, 1), "Now the serpent");
+        } finally {
+            IOUtil.close(state);
+        }
+        book = new CountingBook(bmd, backend);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testOsisIterator() throws Exception {
+        Iterator<Content> iter = book.getOsisIterator(book.getKey("Gen 1-3"), false);
+        StringBuilder buf = new StringBuilder();
+        while (iter.hasNext()) {
+            buf.append(toString(iter.next()));
+        }
+
+        // A verse that repeats the one before is only shown once.
+        assertEquals(title("Gen 1") + "In the beginning|It was so|" + title("Gen 2") + "Thus the heavens|" + title("Gen 3") + "Now the serpent|",
+                buf.toString());
+        assertEquals(3, book.reads);
+    }
+
+    @Test
+    public void testDemandDriven() throws Exception {
+        Iterator<Content> iter = book.getOsisIterator(book.getKey("Gen 1-50"), false);
+        // Only the first chapter is read until it has been used up.
+        assertEquals(1, book.reads);
+        assertEquals(title("Gen 1"), toString(iter.next()));
+        assertEquals("In the beginning|", toString(iter.next()));
+        assertEquals("It was so|", toString(iter.next()));
+        assertEquals(1, book.reads);
+
+        assertTrue(iter.hasNext());
+        assertEquals(title("Gen 2"), toString(iter.next()));
+        assertEquals(2, book.reads);
+
+        int count = 4;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(50, book.reads);
+        // A title for each chapter and the four verses that are not repeats.
+        assertEquals(50 + 4, count);
+    }
+
+    @Test
+    public void testOSISCache() throws Exception {
+        long defaultMaxChars = OSISCache.getDefaultMaxChars();
+        OSISCache.setDefaultMaxChars(1000);
+        try {
+            OSISCache cache = book.getOSISCache();
+            assertNotNull(cache);
+            String expected = title("Gen 1") + "In the beginning|It was so|" + title("Gen 2") + "Thus the heavens|" + title("Gen 3") + "Now the serpent|";
+            assertEquals(expected, read("Gen 1-3"));
+            assertEquals(0, cache.getHits());
+            assertEquals(4, cache.getMisses());
+
+            // The verses are filtered once and handed out afresh each time.
+            assertEquals(expected, read("Gen 1-3"));
+            assertEquals(4, cache.getHits());
+            assertEquals(4, cache.getEntryCount());
+
+            // A verse that has been changed is filtered again.
+            RawFileBackendState state = null;
+            try {
+                state = backend.initState();
+                backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 2, 1), "Thus the heavens and the earth");
+            } finally {
+                IOUtil.close(state);
+            }
+            assertEquals(title("Gen 2") + "Thus the heavens and the earth|", read("Gen 2"));
+            assertEquals(5, cache.getMisses());
+        } finally {
+            OSISCache.setDefaultMaxChars(defaultMaxChars);
+        }
+    }
+
+    @Test
+    public void testNoOSISCache() {
+        // The cache is off unless it has been given a size.
+        assertEquals(0, OSISCache.getDefaultMaxChars());
+        assertNull(book.getOSISCache());
+    }
+
+    private String read(String passage) throws Exception {
+        Iterator<Content> iter = book.getOsisIterator(book.getKey(passage), false);
+        StringBuilder buf = new StringBuilder();
+        while (iter.hasNext()) {
+            buf.append(toString(iter.next()));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * The title of a range is its name, which is shortened or not, depending
+     * on how references are being written.
+     */
+    private String title(String chapter) throws NoSuchKeyException {
+        return '[' + book.getKey(chapter).getName() + ']';
+    }
+
+    private static String toString(Content content) {
+        Element element = (Element) content;
+        if (OSISUtil.OSIS_ELEMENT_TITLE.equals(element.getName())) {
+            return '[' + element.getValue() + ']';
+        }
+        return OSISUtil.getCanonicalText(element) + '|';
+    }
+
+    /**
+     * Counts the times the book is read.
+     */
+    private static final class CountingBook extends SwordBook {
+        CountingBook(SwordBookMetaData bmd, RawFileBackend backend) {
+            super(bmd, backend);
+        }
+
+        @Override
+        protected List<Content> getOsis(Key key, RawTextToXmlProcessor processor) throws BookException {
+            reads++;
+            return super.getOsis(key, processor);
+        }
+
+        int reads;
+    }
+}
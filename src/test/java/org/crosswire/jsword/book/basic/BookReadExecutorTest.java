@@ -0,0 +1,369 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.Book;
+import org.crosswire.jsword.book.OSISUtil;
+import org.crosswire.jsword.book.sword.RawFileBackend;
+import org.crosswire.jsword.book.sword.SwordBook;
+import org.crosswire.jsword.book.sword.SwordBookMetaData;
+import org.crosswire.jsword.book.sword.TestModules;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class BookReadExecutorTest {
+
+    private SwordBookMetaData bmd;
+    private Book book;
+    private Versification v11n;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("RawFiles");
+        RawFileBackend backend = new RawFileBackend(bmd, 2);
+        backend.create();
+        RawFileBackendState state = null;
+        try {
+            state = backend.initState();
+            backend.setRawText(state, new Verse(v11n, BibleBook.GEN, 1, 1), "In the beginning");
+            backend.setRawText(state, new Verse(v11n, BibleBook.JOHN, 1, 1), "In the beginning was the Word");
+        } finally {
+            IOUtil.close(state);
+        }
+        book = new SwordBook(bmd, backend);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        Future<String> gen = book.getRawTextAsync(new Verse(v11n, BibleBook.GEN, 1, 1));
+        Future<List<Content>> john = book.getOsisAsync(new Verse(v11n, BibleBook.JOHN, 1, 1));
+        Future<String> exod = book.getRawTextAsync(new Verse(v11n, BibleBook.EXOD, 1, 1));
+
+        assertEquals("In the beginning", gen.get(10, TimeUnit.SECONDS));
+        assertEquals("", exod.get(10, TimeUnit.SECONDS));
+        StringBuilder text = new StringBuilder();
+        for (Content content : john.get(10, TimeUnit.SECONDS)) {
+            text.append(OSISUtil.getCanonicalText((Element) content));
+        }
+        assertTrue(text.toString().contains("In the beginning was the Word"));
+    }
+
+    @Test
+    public void testFailure() throws InterruptedException {
+        Future<String> failed = BookReadExecutor.submit(book, 1, new Callable<String>() {
+            public String call() {
+                throw new IllegalStateException("Bad read");
+            }
+        });
+        try {
+            failed.get();
+            fail("The read failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testMaxReadsPerBook() throws Exception {
+        // Enough threads for the reads that run and one more.
+        int threads = BookReadExecutor.getThreads();
+        BookReadExecutor.setThreads(3);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger most = new AtomicInteger();
+        Callable<Integer> read = new Callable<Integer>() {
+            public Integer call() throws InterruptedException {
+                int now = running.incrementAndGet();
+                synchronized (most) {
+                    most.set(Math.max(most.get(), now));
+                }
+                release.await(10, TimeUnit.SECONDS);
+                running.decrementAndGet();
+                return Integer.valueOf(now);
+            }
+        };
+
+        try {
+            List<Future<Integer>> reads = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 6; i++) {
+                reads.add(BookReadExecutor.submit(book, 2, read));
+            }
+
+            // Those that wait do not hold a thread, so other books are still read.
+            Future<String> other = BookReadExecutor.submit(new Object(), 2, new Callable<String>() {
+                public String call() {
+                    return "other";
+                }
+            });
+            assertEquals("other", other.get(5, TimeUnit.SECONDS));
+
+            // Threads are started as needed, so the second read may not have begun.
+            long deadline = System.currentTimeMillis() + 5000;
+            while (running.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<Integer> future : reads) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(2, most.get());
+        } finally {
+            release.countDown();
+            BookReadExecutor.setThreads(threads);
+        }
+    }
+
+    @Test
+    public void testCancelWaiting() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Boolean> first = BookReadExecutor.submit(book, 1, new Callable<Boolean>() {
+            public Boolean call() throws InterruptedException {
+                return Boolean.valueOf(release.await(10, TimeUnit.SECONDS));
+            }
+        });
+        Future<String> second = BookReadExecutor.submit(book, 1, new Callable<String>() {
+            public String call() {
+                return "second";
+            }
+        });
+        assertTrue(second.cancel(false));
+        Future<String> third = BookReadExecutor.submit(book, 1, new Callable<String>() {
+            public String call() {
+                return "third";
+            }
+        });
+
+        release.countDown();
+        assertEquals(Boolean.TRUE, first.get(10, TimeUnit.SECONDS));
+        assertEquals("third", third.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        int threads = BookReadExecutor.getThreads();
+        int queueSize = BookReadExecutor.getQueueSize();
+        BookReadExecutor.setThreads(1);
+        BookReadExecutor.setQueueSize(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> read = new Callable<String>() {
+            public String call() throws InterruptedException {
+                release.await(10, TimeUnit.SECONDS);
+                return "read";
+            }
+        };
+        try {
+            // Each is for a book of its own, so none waits on another.
+            Future<String> running = BookReadExecutor.submit("a", 1, read);
+            Future<String> queued = BookReadExecutor.submit("b", 1, read);
+            Future<String> rejected = BookReadExecutor.submit("c", 1, read);
+            try {
+                rejected.get(10, TimeUnit.SECONDS);
+                fail("The queue is full");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            assertEquals("read", running.get(10, TimeUnit.SECONDS));
+            assertEquals("read", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            BookReadExecutor.setThreads(threads);
+            BookReadExecutor.setQueueSize(queueSize);
+        }
+    }
+
+    @Test
+    public void testWaitingFull() throws Exception {
+        int maxWaiting = BookReadExecutor.getMaxWaiting();
+        BookReadExecutor.setMaxWaiting(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> read = new Callable<String>() {
+            public String call() throws InterruptedException {
+                release.await(10, TimeUnit.SECONDS);
+                return "read";
+            }
+        };
+        try {
+            Future<String> running = BookReadExecutor.submit(book, 1, read);
+            Future<String> waiting = BookReadExecutor.submit(book, 1, read);
+            Future<String> rejected = BookReadExecutor.submit(book, 1, read);
+            try {
+                rejected.get(10, TimeUnit.SECONDS);
+                fail("Too many reads are waiting");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            assertEquals("read", running.get(10, TimeUnit.SECONDS));
+            assertEquals("read", waiting.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            BookReadExecutor.setMaxWaiting(maxWaiting);
+        }
+    }
+
+    @Test
+    public void testWaitingRejected() throws Exception {
+        // The waiting reads are handed on when the queue is full, so each is
+        // rejected in turn. There are enough to overflow the stack, were
+        // they rejected by recursion.
+        int threads = BookReadExecutor.getThreads();
+        int queueSize = BookReadExecutor.getQueueSize();
+        int maxWaiting = BookReadExecutor.getMaxWaiting();
+        BookReadExecutor.setThreads(1);
+        BookReadExecutor.setQueueSize(1);
+        BookReadExecutor.setMaxWaiting(100000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch releaseQueued = new CountDownLatch(1);
+        try {
+            Future<String> running = BookReadExecutor.submit(book, 1, new Callable<String>() {
+                public String call() throws InterruptedException {
+                    started.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    return "read";
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> queued = BookReadExecutor.submit("other", 1, new Callable<String>() {
+                public String call() throws InterruptedException {
+                    releaseQueued.await(10, TimeUnit.SECONDS);
+                    return "queued";
+                }
+            });
+            Callable<String> read = new Callable<String>() {
+                public String call() {
+                    return "waited";
+                }
+            };
+            List<Future<String>> waiting = new ArrayList<Future<String>>();
+            for (int i = 0; i < 100000; i++) {
+                waiting.add(BookReadExecutor.submit(book, 1, read));
+            }
+
+            release.countDown();
+            assertEquals("read", running.get(10, TimeUnit.SECONDS));
+            for (Future<String> future : waiting) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    fail("The queue is full");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException);
+                }
+            }
+            releaseQueued.countDown();
+            assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+
+            // The book is free again.
+            assertEquals("waited", BookReadExecutor.submit(book, 1, read).get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            releaseQueued.countDown();
+            BookReadExecutor.setThreads(threads);
+            BookReadExecutor.setQueueSize(queueSize);
+            BookReadExecutor.setMaxWaiting(maxWaiting);
+        }
+    }
+
+    @Test
+    public void testReconfigure() throws Exception {
+        // Changing the settings replaces the threads while reads are being
+        // handed to them. No read may be rejected for it, as there is room.
+        int threads = BookReadExecutor.getThreads();
+        final Callable<String> read = new Callable<String>() {
+            public String call() {
+                return "read";
+            }
+        };
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        try {
+            for (int i = 0; i < 4; i++) {
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 100; j++) {
+                                // Some wait for others of the same book, to be handed on when they finish.
+                                List<Future<String>> reads = new ArrayList<Future<String>>();
+                                for (int k = 0; k < 4; k++) {
+                                    reads.add(BookReadExecutor.submit(book, 1, read));
+                                }
+                                for (Future<String> future : reads) {
+                                    try {
+                                        future.get(10, TimeUnit.SECONDS);
+                                    } catch (Exception e) {
+                                        failures.incrementAndGet();
+                                    }
+                                }
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            while (!done.await(1, TimeUnit.MILLISECONDS)) {
+                BookReadExecutor.setThreads(BookReadExecutor.getThreads() == 2 ? 3 : 2);
+            }
+            assertEquals(0, failures.get());
+        } finally {
+            done.await(30, TimeUnit.SECONDS);
+            BookReadExecutor.setThreads(threads);
+        }
+    }
+}
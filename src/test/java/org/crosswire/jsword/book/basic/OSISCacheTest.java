@@ -0,0 +1,104 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Text;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISCacheTest {
+
+    @Test
+    public void testCopies() {
+        OSISCache cache = new OSISCache(100);
+        Element parent = new Element("verse");
+        Element note = new Element("note");
+        note.addContent("a note");
+        parent.addContent(note);
+        List<Content> content = osis("In the beginning");
+        content.add(note);
+        cache.put(Integer.valueOf(1), "In the beginning", content);
+
+        // Changing the original does not change the cache.
+        note.setText("changed");
+        List<Content> first = cache.get(Integer.valueOf(1), "In the beginning");
+        assertNotNull(first);
+        assertEquals(2, first.size());
+        assertEquals("a note", ((Element) first.get(1)).getText());
+        assertNull(first.get(1).getParent());
+
+        // Nor does changing what was handed out.
+        ((Element) first.get(1)).setText("changed");
+        new Element("div").addContent(first);
+        List<Content> second = cache.get(Integer.valueOf(1), "In the beginning");
+        assertNotSame(first.get(0), second.get(0));
+        assertEquals("a note", ((Element) second.get(1)).getText());
+        assertNull(second.get(0).getParent());
+    }
+
+    @Test
+    public void testStaleText() {
+        OSISCache cache = new OSISCache(100);
+        cache.put(Integer.valueOf(1), "Before", osis("Before"));
+        assertNull(cache.get(Integer.valueOf(1), "After"));
+        assertNotNull(cache.get(Integer.valueOf(1), "Before"));
+
+        // The new text is cached beside the old, which ages out.
+        cache.put(Integer.valueOf(1), "After", osis("After"));
+        assertEquals("After", ((Text) cache.get(Integer.valueOf(1), "After").get(0)).getText());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(11, cache.getSize());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testOversizedEntry() {
+        OSISCache cache = new OSISCache(100);
+        cache.put(Integer.valueOf(1), "small", osis("small"));
+        cache.put(Integer.valueOf(2), "This entry is too long to be worth keeping", osis("long"));
+        assertNotNull(cache.get(Integer.valueOf(1), "small"));
+        assertNull(cache.get(Integer.valueOf(2), "This entry is too long to be worth keeping"));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    private static List<Content> osis(String text) {
+        List<Content> content = new ArrayList<Content>();
+        content.add(new Text(text));
+        return content;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.crosswire.common.xml.XMLUtil;
+import org.jdom2.JDOMException;
+
+/**
+ * OSISFilterSpeed is a command line benchmark that compares OSISFilter with
+ * OSISPullFilter, rendering Genesis a chapter at a time. Each entry goes
+ * through the work of toOSIS: it is scanned, reclosed if need be and parsed,
+ * and its content is taken from the parsed element.
+ * 
+ * <p>
+ * Each filter is warmed up before it is timed. The times are the best of a
+ * number of rounds, so as to discount garbage collection and the like.
+ * </p>
+ * 
+ * <p>
+ * Usage: OSISFilterSpeed [rounds]
+ * </p>
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISFilterSpeed {
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            the optional number of timed rounds
+     */
+    public static void main(String[] args) throws IOException, JDOMException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        // Gather the verses into chapters.
+        List<List<String>> chapters = new ArrayList<List<String>>();
+        String chapterID = null;
+        for (Map.Entry<String, String> entry : OSISSample.getGenesis().entrySet()) {
+            String osisID = entry.getKey();
+            String id = osisID.substring(0, osisID.lastIndexOf('.'));
+            if (!id.equals(chapterID)) {
+                chapters.add(new ArrayList<String>());
+                chapterID = id;
+            }
+            chapters.get(chapters.size() - 1).add(entry.getValue());
+        }
+        System.out.println(chapters.size() + " chapters");
+
+        long sax = time(new OSISFilter(), chapters, rounds);
+        long pull = time(new OSISPullFilter(), chapters, rounds);
+
+        report("OSISFilter", sax, chapters.size());
+        report("OSISPullFilter", pull, chapters.size());
+        System.out.println("speedup: " + (sax * 100 / Math.max(pull, 1)) / 100.0 + "x");
+    }
+
+    /**
+     * Time a filter, returning the best of a number of rounds.
+     */
+    private static long time(OSISFilter filter, List<List<String>> chapters, int rounds) throws IOException, JDOMException {
+        // Warm up so that the timed rounds are compiled code.
+        for (int i = 0; i < WARM_UP; i++) {
+            render(filter, chapters);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            render(filter, chapters);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static int render(OSISFilter filter, List<List<String>> chapters) throws IOException, JDOMException {
+        int total = 0;
+        for (List<String> chapter : chapters) {
+            for (String verse : chapter) {
+                OSISScanner scanner = new OSISScanner(verse);
+                String clean = scanner.getText();
+                if (!scanner.isBalanced()) {
+                    String reclosed = XMLUtil.recloseTags(clean);
+                    if (reclosed != null) {
+                        clean = reclosed;
+                    }
+                }
+                total += filter.parse(clean).removeContent().size();
+            }
+        }
+        return total;
+    }
+
+    private static void report(String name, long nanos, int chapters) {
+        System.out.println(name + ": " + nanos / 1000 + "us, " + nanos / 1000 / chapters + "us per chapter");
+    }
+
+    private static final int WARM_UP = 100;
+}
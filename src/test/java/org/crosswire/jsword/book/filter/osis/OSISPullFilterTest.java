@@ -0,0 +1,196 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.crosswire.jsword.book.Book;
+import org.crosswire.jsword.book.sword.BlockType;
+import org.crosswire.jsword.book.sword.ConfigEntryType;
+import org.crosswire.jsword.book.sword.SwordBook;
+import org.crosswire.jsword.book.sword.SwordBookMetaData;
+import org.crosswire.jsword.book.sword.TestModules;
+import org.crosswire.jsword.book.sword.ZVerseBackend;
+import org.crosswire.jsword.book.sword.ZVerseWriter;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.VerseFactory;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.jdom2.Attribute;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test. OSISPullFilter must give the same content as OSISFilter.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISPullFilterTest {
+
+    private SwordBookMetaData bmd;
+    private Book book;
+    private Map<String, String> genesis;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<ConfigEntryType, String> props = new HashMap<ConfigEntryType, String>();
+        props.put(ConfigEntryType.SOURCE_TYPE, "OSIS");
+        bmd = TestModules.createBook("zText", props);
+
+        Versification v11n = Versifications.instance().getDefaultVersification();
+        genesis = OSISSample.getGenesis();
+        ZVerseWriter writer = new ZVerseWriter(bmd);
+        try {
+            for (Map.Entry<String, String> entry : genesis.entrySet()) {
+                writer.write(VerseFactory.fromString(v11n, entry.getKey()), entry.getValue());
+            }
+        } finally {
+            writer.close();
+        }
+        book = new SwordBook(bmd, new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testModule() throws Exception {
+        OSISFilter expected = new OSISFilter();
+        OSISPullFilter actual = new OSISPullFilter();
+        int count = 0;
+        for (Key key : book.getGlobalKeyList()) {
+            String raw = book.getRawText(key);
+            assertSameContent(key.getOsisRef(), expected.toOSIS(book, key, raw), actual.toOSIS(book, key, raw));
+            count++;
+        }
+        assertEquals(genesis.size(), count);
+    }
+
+    @Test
+    public void testFragmentParser() throws Exception {
+        // The whole of the module is handled without falling back.
+        for (Key key : book.getGlobalKeyList()) {
+            OSISScanner scanner = new OSISScanner(book.getRawText(key));
+            if (scanner.isBalanced()) {
+                assertNotNull(key.getOsisRef(), OSISFragmentParser.parse(scanner.getText()));
+            }
+        }
+    }
+
+    @Test
+    public void testFragments() throws Exception {
+        Key key = book.getKey("Gen.1.1");
+        OSISFilter expected = new OSISFilter();
+        OSISPullFilter actual = new OSISPullFilter();
+        for (String fragment : HANDLED) {
+            assertNotNull(fragment, OSISFragmentParser.parse(new OSISScanner(fragment).getText()));
+            assertSameContent(fragment, expected.toOSIS(book, key, fragment), actual.toOSIS(book, key, fragment));
+        }
+        for (String fragment : NOT_HANDLED) {
+            assertNull(fragment, OSISFragmentParser.parse(new OSISScanner(fragment).getText()));
+            assertSameContent(fragment, expected.toOSIS(book, key, fragment), actual.toOSIS(book, key, fragment));
+        }
+    }
+
+    private static void assertSameContent(String message, List<Content> expected, List<Content> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Content want = expected.get(i);
+            Content got = actual.get(i);
+            assertSame(message, want.getClass(), got.getClass());
+            if (want instanceof Element) {
+                assertSameElement(message, (Element) want, (Element) got);
+            } else {
+                assertEquals(message, want.getValue(), got.getValue());
+            }
+        }
+    }
+
+    private static void assertSameElement(String message, Element expected, Element actual) {
+        assertEquals(message, expected.getName(), actual.getName());
+        assertEquals(message, expected.getNamespace(), actual.getNamespace());
+        assertEquals(message, expected.getAdditionalNamespaces(), actual.getAdditionalNamespaces());
+        List<Attribute> want = expected.getAttributes();
+        List<Attribute> got = actual.getAttributes();
+        assertEquals(message, want.size(), got.size());
+        for (int i = 0; i < want.size(); i++) {
+            assertEquals(message, want.get(i).getName(), got.get(i).getName());
+            assertEquals(message, want.get(i).getNamespace(), got.get(i).getNamespace());
+            assertEquals(message, want.get(i).getValue(), got.get(i).getValue());
+            assertEquals(message, want.get(i).getAttributeType(), got.get(i).getAttributeType());
+            assertEquals(message, want.get(i).isSpecified(), got.get(i).isSpecified());
+        }
+        assertSameContent(message, expected.getContent(), actual.getContent());
+    }
+
+    private static final String[] HANDLED = {
+        "",
+        "In the beginning",
+        "a &amp; b &lt;c&gt; &quot;d&quot; &apos;e&apos; > f",
+        "&#65;&#x42;&#x1F600;&#9;",
+        "😀 is a pair",
+        "line\r\nend\rmore\n",
+        "<w lemma=\"a\tb\nc\r\nd&#10;e &amp; f\" morph='g\"h'>x</w>",
+        "<hi type = 'bold' >x</hi\n>",
+        "<title xml:lang=\"en\" type=\"x-main\">T</title>",
+        "<lb/><lb type=\"x\" />",
+        "<![CDATA[<b> & ]]>text",
+        "x<![CDATA[y]]>z<![CDATA[\r\n]]>",
+        "before<!-- remark - here -->after",
+        "<div><p><q who=\"Jesus\" marker=\"\">Follow me</q></p></div>",
+        "<div type=\"x\"/><speech>words</speech></chapter>",
+    };
+
+    private static final String[] NOT_HANDLED = {
+        "<?pi data?>",
+        "<w xmlns:x=\"urn:x\" x:a=\"1\">y</w>",
+        "<x:w>y</x:w>",
+        "<w a=\"1\" a=\"2\">x</w>",
+        "<w a=1>x</w>",
+        "<w a=\"1\"b=\"2\"/>",
+        "<w a=\"<\"/>",
+        "x ]]> y",
+        "</xxx><xxx>",
+        "<a>x</b>",
+        "bad \u0001 char",
+        "lone \uD83D surrogate",
+        "<!DOCTYPE x>",
+        "<é>x</é>",
+        "<!-- a -- b -->",
+        "x<![CDATA[]]>",
+        "<w",
+    };
+}
@@ -0,0 +1,102 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * KJV Genesis, marked up as osis2mod would mark it up, for the tests and
+ * benchmarks of the OSIS filter. Bracketed words become added text, braced
+ * notes become notes, the names of God become words with a lemma and a verse
+ * starting a chapter starts a div. Now and again there is an HTML entity, a
+ * bare ampersand, a quote left open or some less common XML.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+final class OSISSample {
+    /**
+     * Prevent instantiation
+     */
+    private OSISSample() {
+    }
+
+    /**
+     * @return the verses of Genesis, keyed by their OSIS ID
+     */
+    static Map<String, String> getGenesis() throws IOException {
+        InputStream in = OSISSample.class.getResourceAsStream("/org/crosswire/common/compress/kjv_genesis.txt");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        Map<String, String> verses = new LinkedHashMap<String, String>();
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.startsWith("Gen.")) {
+                    int space = line.indexOf(' ');
+                    String osisID = line.substring(0, space);
+                    verses.put(osisID, markup(verses.size(), osisID, line.substring(space + 1)));
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return verses;
+    }
+
+    private static String markup(int n, String osisID, String plain) {
+        String text = plain;
+        text = ADDED.matcher(text).replaceAll("<transChange type=\"added\">$1</transChange>");
+        text = NOTE.matcher(text).replaceAll("<note type=\"translation\" osisRef=\"" + osisID + "\">$1</note>");
+        text = WORD.matcher(text).replaceAll("<w lemma=\"strong:H0430\" morph=\"strongMorph:TH8804\">$1</w>");
+        if (osisID.endsWith(".1")) {
+            text = "<div><title>" + osisID + "</title>" + text;
+        }
+        switch (n % 50) {
+        case 7:
+            return text + " &nbsp;&para;";
+        case 13:
+            return text + "<!-- checked -->";
+        case 23:
+            return text + " milk & honey";
+        case 29:
+            return "<foreign xml:lang=\"he\">&#x05D0;&#1489;</foreign> " + text;
+        case 37:
+            return text + "<lb type='x-end-paragraph'\r\n/>\r\n";
+        case 41:
+            return "<q who=\"God\">" + text;
+        default:
+            return text;
+        }
+    }
+
+    private static final Pattern ADDED = Pattern.compile("\\[([^\\]]*)\\]");
+    private static final Pattern NOTE = Pattern.compile("\\{([^}]*)\\}");
+    private static final Pattern WORD = Pattern.compile("\\b(God|LORD)\\b");
+}
@@ -0,0 +1,197 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.crosswire.common.xml.XMLUtil;
+import org.crosswire.jsword.book.Book;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.Books;
+import org.crosswire.jsword.passage.Key;
+
+/**
+ * OSISScanSpeed is a command line benchmark that compares the single pass
+ * OSISScanner with the chain of regular expression replacements and cleanups
+ * that OSISFilter once ran over every entry before parsing it.
+ * 
+ * <p>
+ * The entries are the raw text of all the verses of an installed module. When
+ * no module is given, they are the verses of OSISSample.
+ * </p>
+ * 
+ * <p>
+ * Each way is warmed up before it is timed. The times are the best of a number
+ * of rounds, so as to discount garbage collection and the like.
+ * </p>
+ * 
+ * <p>
+ * Usage: OSISScanSpeed [rounds [initials]]
+ * </p>
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISScanSpeed {
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            the optional number of timed rounds and module initials
+     */
+    public static void main(String[] args) throws IOException, BookException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> verses = args.length > 1 ? readModule(args[1]) : new ArrayList<String>(OSISSample.getGenesis().values());
+        if (verses == null) {
+            System.out.println("Cannot find module " + args[1]);
+            return;
+        }
+
+        int chars = 0;
+        for (String verse : verses) {
+            chars += verse.length();
+        }
+        System.out.println(verses.size() + " verses of " + chars + " chars");
+
+        long chain = time(new ChainCleaner(), verses, rounds);
+        long scan = time(new ScanCleaner(), verses, rounds);
+
+        report("chain", chain, verses.size(), chars);
+        report("scanner", scan, verses.size(), chars);
+        System.out.println("speedup: " + (chain * 100 / Math.max(scan, 1)) / 100.0 + "x");
+    }
+
+    /**
+     * Get the raw text of every verse in an installed module.
+     */
+    private static List<String> readModule(String initials) throws BookException {
+        Book book = Books.installed().getBook(initials);
+        if (book == null) {
+            return null;
+        }
+        List<String> verses = new ArrayList<String>();
+        for (Key key : book.getGlobalKeyList()) {
+            verses.add(book.getRawText(key));
+        }
+        return verses;
+    }
+
+    /**
+     * Time a way of cleaning, returning the best of a number of rounds.
+     */
+    private static long time(Cleaner cleaner, List<String> verses, int rounds) {
+        // Which verses the old way would have failed to parse because of
+        // their tags.
+        boolean[] unbalanced = new boolean[verses.size()];
+        for (int i = 0; i < unbalanced.length; i++) {
+            unbalanced[i] = !new OSISScanner(verses.get(i)).isBalanced();
+        }
+
+        // Warm up so that the timed rounds are compiled code.
+        for (int i = 0; i < WARM_UP; i++) {
+            cleanAll(cleaner, verses, unbalanced);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            cleanAll(cleaner, verses, unbalanced);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static int cleanAll(Cleaner cleaner, List<String> verses, boolean[] unbalanced) {
+        int total = 0;
+        for (int i = 0; i < unbalanced.length; i++) {
+            total += cleaner.clean(verses.get(i), unbalanced[i]).length();
+        }
+        return total;
+    }
+
+    private static void report(String name, long nanos, int verses, int chars) {
+        double seconds = nanos / 1000000000.0;
+        System.out.println(name + ": " + nanos / 1000 + "us, " + (long) (verses / seconds) + " verses/s, " + (long) (chars / seconds / (1024 * 1024)) + " MB/s");
+    }
+
+    /**
+     * One way to clean an entry before it is parsed.
+     */
+    private interface Cleaner {
+        String clean(String raw, boolean unbalanced);
+    }
+
+    /**
+     * The replacements and cleanups as OSISFilter once did them. It is given
+     * the benefit of the doubt, cleaning entities and reclosing tags only when
+     * they need it. OSISFilter found that out by failing to parse.
+     */
+    private static class ChainCleaner implements Cleaner {
+        public String clean(String raw, boolean unbalanced) {
+            String clean = raw;
+            clean = DIV_START.matcher(clean).replaceAll("<div sID=\"xyz\"/>");
+            clean = DIV_END.matcher(clean).replaceAll("<div eID=\"xyz\"/>");
+            clean = CHAPTER_END.matcher(clean).replaceAll("<chapter eID=\"xyz\"/>");
+            clean = SPEECH_START.matcher(clean).replaceAll("<speech sID=\"xyz\"/>");
+            clean = SPEECH_END.matcher(clean).replaceAll("<speech eID=\"xyz\"/>");
+            if (clean.indexOf('&') != -1) {
+                clean = XMLUtil.cleanAllEntities(clean);
+            }
+            if (unbalanced) {
+                String reclosed = XMLUtil.recloseTags(clean);
+                if (reclosed != null) {
+                    clean = reclosed;
+                }
+            }
+            return clean;
+        }
+
+        private static final Pattern DIV_START = Pattern.compile("<div>", Pattern.LITERAL);
+        private static final Pattern DIV_END = Pattern.compile("</div>", Pattern.LITERAL);
+        private static final Pattern CHAPTER_END = Pattern.compile("</chapter>", Pattern.LITERAL);
+        private static final Pattern SPEECH_START = Pattern.compile("<speech>", Pattern.LITERAL);
+        private static final Pattern SPEECH_END = Pattern.compile("</speech>", Pattern.LITERAL);
+    }
+
+    /**
+     * The single pass, reclosing tags only when the scanner finds that they
+     * need it.
+     */
+    private static class ScanCleaner implements Cleaner {
+        public String clean(String raw, boolean unbalanced) {
+            OSISScanner scanner = new OSISScanner(raw);
+            String clean = scanner.getText();
+            if (!scanner.isBalanced()) {
+                String reclosed = XMLUtil.recloseTags(clean);
+                if (reclosed != null) {
+                    clean = reclosed;
+                }
+            }
+            return clean;
+        }
+    }
+
+    private static final int WARM_UP = 200;
+}
@@ -0,0 +1,112 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.osis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.crosswire.common.xml.XMLUtil;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OSISScannerTest {
+
+    @Test
+    public void testPlain() {
+        OSISScanner scanner = new OSISScanner("In the beginning God created the heaven and the earth.");
+        assertEquals("In the beginning God created the heaven and the earth.", scanner.getText());
+        assertTrue(scanner.isBalanced());
+    }
+
+    @Test
+    public void testMilestones() {
+        OSISScanner scanner = new OSISScanner("<div><speech>Let there be light</speech></div></chapter><div type=\"x\"/>");
+        assertEquals("<div sID=\"xyz\"/><speech sID=\"xyz\"/>Let there be light<speech eID=\"xyz\"/><div eID=\"xyz\"/><chapter eID=\"xyz\"/><div type=\"x\"/>", scanner.getText());
+        assertTrue(scanner.isBalanced());
+    }
+
+    @Test
+    public void testEntities() {
+        String raw = "A &amp; B &lt;&gt; &quot;&apos; &#169; &#xA9; &#x1F600;";
+        OSISScanner scanner = new OSISScanner(raw);
+        assertEquals(raw, scanner.getText());
+
+        scanner = new OSISScanner("&nbsp;&unknown; &#0; &#xD800; &#12a; & B &");
+        assertEquals("   &amp;#0; &amp;#xD800; &amp;#12a; &amp; B &amp;", scanner.getText());
+
+        // Entities in attributes are fixed too.
+        scanner = new OSISScanner("<note n=\"&copy;\">x</note>");
+        assertEquals("<note n=\"©\">x</note>", scanner.getText());
+    }
+
+    @Test
+    public void testComments() {
+        // Neither milestones, entities nor tags are seen in a comment.
+        String raw = "<!-- <div> & <q who=\"Jesus\"> -->Let there be light";
+        OSISScanner scanner = new OSISScanner(raw);
+        assertEquals(raw, scanner.getText());
+        assertTrue(scanner.isBalanced());
+
+        scanner = new OSISScanner("<!-- & --> & <!-- </q> -->");
+        assertEquals("<!-- & --> &amp; <!-- </q> -->", scanner.getText());
+        assertTrue(scanner.isBalanced());
+    }
+
+    @Test
+    public void testCData() {
+        // An & in a CDATA section is not escaped and its tags are not seen.
+        String raw = "<![CDATA[<b> & </i>]]><hi type=\"bold\">x</hi>";
+        OSISScanner scanner = new OSISScanner(raw);
+        assertEquals(raw, scanner.getText());
+        assertTrue(scanner.isBalanced());
+
+        scanner = new OSISScanner("<![CDATA[&]]> & <q>");
+        assertEquals("<![CDATA[&]]> &amp; <q>", scanner.getText());
+        assertFalse(scanner.isBalanced());
+    }
+
+    @Test
+    public void testSameAsCleanAllEntities() {
+        String[] samples = {
+            "&nbsp;", "&eacute;t&eacute;", "fish & chips", "&;", "a &b c", "end &", "&amp;&lt;", "&#65;"
+        };
+        for (String sample : samples) {
+            assertEquals(sample, XMLUtil.cleanAllEntities(sample), new OSISScanner(sample).getText());
+        }
+    }
+
+    @Test
+    public void testBalance() {
+        assertTrue(new OSISScanner("<w lemma=\"strong:H07225\">beginning</w> <lb/><milestone type=\"x\" />").isBalanced());
+        assertTrue(new OSISScanner("<!-- comment --> 1 < 2").isBalanced());
+        assertFalse(new OSISScanner("<q who=\"Jesus\">Follow me").isBalanced());
+        assertFalse(new OSISScanner("Follow me</q>").isBalanced());
+        assertFalse(new OSISScanner("<l>Follow</lg>").isBalanced());
+        assertFalse(new OSISScanner("<hi type=\"bold\"").isBalanced());
+    }
+}
@@ -33,7 +33,8 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
-    ATagTest.class
+    ATagTest.class,
+    THMLFilterTest.class
 })
 public class AllTests {
 }
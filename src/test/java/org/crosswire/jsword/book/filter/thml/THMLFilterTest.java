@@ -0,0 +1,107 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.filter.thml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class THMLFilterTest {
+
+    @Test
+    public void testCleanups() {
+        THMLFilter filter = new THMLFilter();
+        assertEquals("plain", toOSIS(filter, "plain"));
+        assertEquals("<p>x<lb />y</p>", toOSIS(filter, "<p>x<br/>y</p>"));
+        // Entities
+        assertEquals("a   b & c", toOSIS(filter, "a &nbsp; b & c"));
+        // Empty tags
+        assertEquals("<p>x<lb />y</p>", toOSIS(filter, "<p>x<br>y</p>"));
+        assertEquals("<figure src=\"a.png\" />", toOSIS(filter, "<img src=\"a.png\">"));
+        // A closed br is left alone.
+        assertEquals("<lb>x</lb>", toOSIS(filter, "<br>x</br>"));
+        // Tags in comments don't count.
+        assertEquals("<p>ok</p>", toOSIS(filter, "<!-- <br> --><p>ok</p>"));
+        // Characters
+        assertEquals("bad   char<lb />", toOSIS(filter, "bad \u0001 char<br>"));
+        assertEquals("😀 pair", toOSIS(filter, "😀 pair"));
+        assertEquals("lone  ", toOSIS(filter, "lone \uD83D"));
+        // Tags
+        assertEquals(" bold  it", toOSIS(filter, "<b>bold</b><i>it"));
+    }
+
+    @Test
+    public void testReuse() throws InterruptedException {
+        final THMLFilter filter = new THMLFilter();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    // A failed parse must not spoil the parser for the next.
+                    for (int j = 0; j < 200; j++) {
+                        check("<p>x<lb />y</p>", toOSIS(filter, "<p>x<br>y</p>"));
+                        check("<seg type=\"color: red;\">r</seg>", toOSIS(filter.clone(), "<font color=\"red\">r</font>"));
+                        check(" bold  it", toOSIS(filter, "<b>bold</b><i>it"));
+                    }
+                }
+
+                private void check(String expected, String actual) {
+                    if (!expected.equals(actual)) {
+                        failure.compareAndSet(null, actual);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(null, failure.get());
+    }
+
+    private static String toOSIS(THMLFilter filter, String thml) {
+        List<Content> out = filter.toOSIS(null, null, thml);
+        StringBuilder buf = new StringBuilder();
+        XMLOutputter outputter = new XMLOutputter();
+        for (Content content : out) {
+            if (content instanceof Element) {
+                buf.append(outputter.outputString((Element) content));
+            } else {
+                buf.append(content.getValue());
+            }
+        }
+        return buf.toString();
+    }
+}
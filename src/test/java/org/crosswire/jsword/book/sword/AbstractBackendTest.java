@@ -0,0 +1,214 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.processing.RawTextToXmlProcessor;
+import org.crosswire.jsword.book.sword.state.OpenFileState;
+import org.crosswire.jsword.passage.DefaultKeyList;
+import org.crosswire.jsword.passage.DefaultLeafKeyList;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.PassageKeyFactory;
+import org.crosswire.jsword.passage.VerseRange;
+import org.crosswire.jsword.passage.VerseRangeFactory;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.jdom2.Content;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how AbstractBackend reads many keys when some of them fail: a verse
+ * that cannot be read is passed over, but a book that cannot be read is an
+ * error.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class AbstractBackendTest {
+
+    private SwordBookMetaData bmd;
+    private Versification v11n;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("RawText");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testReadToOsis() throws Exception {
+        FailingBackend backend = new FailingBackend(bmd);
+        RecordingProcessor processor = new RecordingProcessor();
+        backend.readToOsis(VerseRangeFactory.fromString(v11n, "Gen 1:3-5"), processor);
+        assertEquals("[Gen.1.3, Gen.1.5]", processor.texts.toString());
+
+        try {
+            backend.readToOsis(VerseRangeFactory.fromString(v11n, "Gen 1:1-3"), new RecordingProcessor());
+            fail("The book could not be read");
+        } catch (BookException e) {
+            assertEquals("Gen.1.2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadRawContents() throws Exception {
+        FailingBackend backend = new FailingBackend(bmd);
+        RecordingConsumer consumer = new RecordingConsumer();
+        backend.readRawContents(PassageKeyFactory.instance().getKey(v11n, "Gen 1:3-5"), consumer);
+        assertEquals("[Gen.1.3, Gen.1.5]", consumer.texts.toString());
+
+        try {
+            backend.readRawContents(PassageKeyFactory.instance().getKey(v11n, "Gen 1:1-3"), new RecordingConsumer());
+            fail("The book could not be read");
+        } catch (BookException e) {
+            assertEquals("Gen.1.2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadRawContentsOfList() throws Exception {
+        SwordBookMetaData dictionary = TestModules.createBook("RawLD");
+        try {
+            FailingBackend backend = new FailingBackend(dictionary);
+            RecordingConsumer consumer = new RecordingConsumer();
+            backend.readRawContents(list("Gen.1.3", "Gen.1.4", "Gen.1.5"), consumer);
+            assertEquals("[Gen.1.3, Gen.1.5]", consumer.texts.toString());
+
+            try {
+                backend.readRawContents(list("Gen.1.1", "Gen.1.2", "Gen.1.3"), new RecordingConsumer());
+                fail("The book could not be read");
+            } catch (BookException e) {
+                assertEquals("Gen.1.2", e.getMessage());
+            }
+        } finally {
+            TestModules.delete(dictionary);
+        }
+    }
+
+    private static Key list(String... names) {
+        Key key = new DefaultKeyList();
+        for (String name : names) {
+            key.addAll(new DefaultLeafKeyList(name));
+        }
+        return key;
+    }
+
+    /**
+     * Reads verses by name. A range cannot be read at once, so verses are read
+     * one by one. Gen 1:2 fails as if the book could not be read, and Gen 1:4
+     * as if the verse could not be read.
+     */
+    private static final class FailingBackend extends AbstractBackend<OpenFileState> {
+        FailingBackend(SwordBookMetaData sbmd) {
+            super(sbmd);
+        }
+
+        /* (non-Javadoc)
+         * @see org.crosswire.jsword.book.sword.AbstractBackend#contains(org.crosswire.jsword.passage.Key)
+         */
+        @Override
+        public boolean contains(Key key) {
+            return true;
+        }
+
+        public OpenFileState initState() {
+            return null;
+        }
+
+        public String readRawContent(OpenFileState state, Key key) throws BookException, IOException {
+            String name = key.getOsisRef();
+            if ("Gen.1.2".equals(name)) {
+                throw new BookException(name);
+            }
+            if ("Gen.1.4".equals(name)) {
+                throw new IOException(name);
+            }
+            return name;
+        }
+
+        /* (non-Javadoc)
+         * @see org.crosswire.jsword.book.sword.AbstractBackend#readRawContent(org.crosswire.jsword.book.sword.state.OpenFileState, org.crosswire.jsword.passage.VerseRange)
+         */
+        @Override
+        protected String[] readRawContent(OpenFileState state, VerseRange range) throws IOException, BookException {
+            throw new IOException("No ranges");
+        }
+
+        public void setRawText(OpenFileState state, Key key, String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void setAliasKey(OpenFileState state, Key alias, Key source) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Notes the raw text of each verse.
+     */
+    private static final class RecordingProcessor implements RawTextToXmlProcessor {
+        RecordingProcessor() {
+            texts = new ArrayList<String>();
+        }
+
+        public void init(List<Content> partialDom) {
+        }
+
+        public void preRange(VerseRange range, List<Content> partialDom) {
+        }
+
+        public void postVerse(Key verse, List<Content> partialDom, String rawText) {
+            texts.add(rawText);
+        }
+
+        final List<String> texts;
+    }
+
+    /**
+     * Notes the raw text of each key.
+     */
+    private static final class RecordingConsumer implements RawTextConsumer {
+        RecordingConsumer() {
+            texts = new ArrayList<String>();
+        }
+
+        public void accept(Key key, String rawText) {
+            texts.add(rawText);
+        }
+
+        final List<String> texts;
+    }
+}
@@ -33,12 +33,25 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
+    AbstractBackendTest.class,
     BackendTest.class,
+    BlockCacheTest.class,
+    BlockPrefetcherTest.class,
+    ConcurrentReadTest.class,
     ConfigEntryTableTest.class,
+    LDKeyTableTest.class,
     RawFileBackendTest.class,
+    RawFileWriteSessionTest.class,
+    RawTextCacheTest.class,
+    ServingPackTest.class,
     SwordBookDriverTest.class,
     SwordBookMetaDataTest.class,
-    SwordBookTest.class
+    SwordBookTest.class,
+    SwordUtilTest.class,
+    TreeKeyTableTest.class,
+    VerseBitmapTest.class,
+    ZVerseBackendTest.class,
+    ZVerseWriterTest.class
 })
 public class AllTests {
 }
@@ -0,0 +1,83 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.crosswire.jsword.versification.Testament;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class BlockCacheTest {
+
+    @Test
+    public void testKeys() {
+        BlockCache cache = new BlockCache(100);
+        byte[] ot = new byte[10];
+        byte[] nt = new byte[10];
+        byte[] ld = new byte[10];
+        cache.put(Testament.OLD, 1, ot);
+        cache.put(Testament.NEW, 1, nt);
+        cache.put(null, 1, ld);
+        assertSame(ot, cache.get(Testament.OLD, 1));
+        assertSame(nt, cache.get(Testament.NEW, 1));
+        assertSame(ld, cache.get(null, 1));
+        assertNull(cache.get(Testament.OLD, 2));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(30, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        BlockCache cache = new BlockCache(30);
+        cache.put(Testament.OLD, 1, new byte[10]);
+        cache.put(Testament.OLD, 2, new byte[10]);
+        cache.put(Testament.OLD, 3, new byte[10]);
+        // Touch the first so that the second is the least recently used.
+        assertNotNull(cache.get(Testament.OLD, 1));
+        cache.put(Testament.OLD, 4, new byte[10]);
+        assertNull(cache.get(Testament.OLD, 2));
+        assertNotNull(cache.get(Testament.OLD, 1));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(30, cache.getSize());
+    }
+
+    @Test
+    public void testOversizedBlock() {
+        BlockCache cache = new BlockCache(30);
+        cache.put(Testament.OLD, 1, new byte[10]);
+        byte[] big = new byte[100];
+        cache.put(Testament.OLD, 2, big);
+        assertSame(big, cache.get(Testament.OLD, 2));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(100, cache.getSize());
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Testament;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class BlockPrefetcherTest {
+
+    private Versification v11n;
+    private SwordBookMetaData bmd;
+    private int depth;
+
+    @Before
+    public void setUp() throws Exception {
+        depth = BlockPrefetcher.getDepth();
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("zText");
+
+        // One block for each chapter, numbered from 0
+        ZVerseWriter writer = new ZVerseWriter(bmd);
+        try {
+            for (int chapter = 1; chapter <= CHAPTERS; chapter++) {
+                for (int verse = 1; verse <= 3; verse++) {
+                    writer.write(new Verse(v11n, BibleBook.GEN, chapter, verse), "Genesis " + chapter + ':' + verse);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        BlockPrefetcher.setDepth(depth);
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testReadAhead() throws BookException, InterruptedException {
+        BlockPrefetcher.setDepth(1);
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER);
+        BlockPrefetcher prefetcher = backend.getPrefetcher();
+        BlockCache cache = backend.getBlockCache();
+
+        // A single read is not a reader moving forward.
+        backend.getRawText(new Verse(v11n, BibleBook.GEN, 1, 1));
+        assertEquals(0, prefetcher.getScheduled());
+
+        // Reading the next block is, so the one after it is read ahead.
+        backend.getRawText(new Verse(v11n, BibleBook.GEN, 2, 1));
+        assertEquals(1, prefetcher.getScheduled());
+        awaitPrefetched(prefetcher, 1);
+        assertTrue(cache.contains(Testament.OLD, 2));
+        assertFalse(cache.contains(Testament.OLD, 3));
+
+        // Reading it finds it in the cache, and reads ahead again.
+        assertEquals("Genesis 3:2", backend.getRawText(new Verse(v11n, BibleBook.GEN, 3, 2)));
+        assertEquals(1, prefetcher.getUsed());
+        awaitPrefetched(prefetcher, 2);
+        assertTrue(cache.contains(Testament.OLD, 3));
+        assertEquals(0, prefetcher.getDropped());
+    }
+
+    @Test
+    public void testDropWhenBusy() {
+        final CountDownLatch busy = new CountDownLatch(1);
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER) {
+            @Override
+            boolean prefetchBlock(Testament testament, long blockNum) {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        };
+        BlockPrefetcher prefetcher = backend.getPrefetcher();
+
+        // Ask for far more than the threads and their queue can take.
+        int wanted = 200;
+        BlockPrefetcher.setDepth(wanted);
+        try {
+            prefetcher.access(Testament.OLD, 1000);
+            prefetcher.access(Testament.OLD, 1001);
+
+            // 2 threads each hold one and at most 64 wait.
+            assertEquals(wanted, prefetcher.getScheduled() + prefetcher.getDropped());
+            assertTrue(prefetcher.toString(), prefetcher.getScheduled() <= 2 + 64);
+            assertTrue(prefetcher.toString(), prefetcher.getDropped() >= wanted - 2 - 64);
+        } finally {
+            prefetcher.cancel();
+            busy.countDown();
+        }
+    }
+
+    private static void awaitPrefetched(BlockPrefetcher prefetcher, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (prefetcher.getPrefetched() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, prefetcher.getPrefetched());
+    }
+
+    private static final int CHAPTERS = 6;
+}
@@ -0,0 +1,314 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.passage.TreeKey;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test. Many readers share the backends of a Bible and of a general
+ * book, and each must get exactly what a lone reader would.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class ConcurrentReadTest {
+
+    private static final int READERS = 2000;
+    private static final int READS = 10;
+    private static final int CHAPTERS = 20;
+
+    /**
+     * The most reads at once, so that the open files stay within bounds.
+     */
+    private static final int MAX_READS = 64;
+
+    private SwordBookMetaData bibleMetaData;
+    private SwordBookMetaData genBookMetaData;
+    private ZVerseBackend bible;
+    private GenBookBackend genBook;
+    private Verse[] verses;
+
+    @Before
+    public void setUp() throws Exception {
+        Versification v11n = Versifications.instance().getDefaultVersification();
+        bibleMetaData = TestModules.createBook("zText");
+        List<Verse> written = new ArrayList<Verse>();
+        ZVerseWriter writer = new ZVerseWriter(bibleMetaData);
+        try {
+            for (int chapter = 1; chapter <= v11n.getLastChapter(BibleBook.GEN); chapter++) {
+                for (int v = 1; v <= v11n.getLastVerse(BibleBook.GEN, chapter); v++) {
+                    Verse verse = new Verse(v11n, BibleBook.GEN, chapter, v);
+                    writer.write(verse, verse.getOsisID());
+                    written.add(verse);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        verses = written.toArray(new Verse[written.size()]);
+        bible = new ZVerseBackend(bibleMetaData, BlockType.BLOCK_CHAPTER);
+
+        genBookMetaData = TestModules.createBook("RawGenBook");
+        writeGenBook(TestModules.getDataPath(genBookMetaData).getPath());
+        genBook = new GenBookBackend(genBookMetaData);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bibleMetaData);
+        TestModules.delete(genBookMetaData);
+    }
+
+    @Test
+    public void testPlatformThreads() throws InterruptedException {
+        final ReadCounter counter = new ReadCounter();
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        for (int i = 0; i < READERS; i++) {
+            pool.execute(new Reader(i, counter));
+        }
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.MINUTES);
+
+        counter.check();
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Method start = getVirtualThreadStarter();
+        assumeTrue(start != null);
+
+        PinningRecorder recorder = PinningRecorder.start();
+        assumeTrue(recorder != null);
+        final ReadCounter counter = new ReadCounter();
+        Thread[] threads = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            threads[i] = (Thread) start.invoke(null, new Reader(i, counter));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        counter.check();
+        assertEquals("Readers pinned their carrier threads", 0, recorder.stop());
+    }
+
+    /**
+     * Read a scattering of verses and general book entries, checking each.
+     */
+    private final class Reader implements Runnable {
+        Reader(int seed, ReadCounter counter) {
+            this.seed = seed;
+            this.counter = counter;
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < READS; i++) {
+                    int pick = seed * 31 + i * 7;
+                    Verse verse = verses[pick % verses.length];
+                    int chapter = pick % CHAPTERS + 1;
+                    counter.permits.acquire();
+                    try {
+                        counter.check(verse.getOsisID(), bible.getRawText(verse));
+                        counter.check("Text of chapter " + chapter, genBook.getRawText(new TreeKey("Chapter " + chapter, null)));
+                    } finally {
+                        counter.permits.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                counter.fail(e.toString());
+            } catch (BookException e) {
+                counter.fail(e.toString());
+            }
+        }
+
+        private final int seed;
+        private final ReadCounter counter;
+    }
+
+    /**
+     * Counts the reads that went wrong, remembering the first.
+     */
+    private static final class ReadCounter {
+        void check(String expected, String actual) {
+            reads.incrementAndGet();
+            if (!expected.equals(actual)) {
+                fail("expected <" + expected + "> but was <" + actual + '>');
+            }
+        }
+
+        void fail(String message) {
+            failures.incrementAndGet();
+            first.compareAndSet(null, message);
+        }
+
+        void check() {
+            assertEquals(first.get(), 0, failures.get());
+            assertEquals(2 * READERS * READS, reads.get());
+        }
+
+        final Semaphore permits = new Semaphore(MAX_READS);
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicReference<String> first = new AtomicReference<String>();
+    }
+
+    /**
+     * Records the times a virtual thread blocked while holding a monitor,
+     * using Flight Recorder, when the JVM has both.
+     */
+    private static final class PinningRecorder {
+        private PinningRecorder(Object recording) {
+            this.recording = recording;
+        }
+
+        /**
+         * @return the recorder or null if Flight Recorder is not available
+         */
+        static PinningRecorder start() {
+            try {
+                Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+                Class<?> durationClass = Class.forName("java.time.Duration");
+                Object recording = recordingClass.newInstance();
+                Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, "jdk.VirtualThreadPinned");
+                Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", durationClass).invoke(settings, durationClass.getField("ZERO").get(null));
+                recordingClass.getMethod("start").invoke(recording);
+                return new PinningRecorder(recording);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the number of times a virtual thread was pinned
+         */
+        int stop() throws Exception {
+            Class<?> recordingClass = recording.getClass();
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            File dump = File.createTempFile("pinning", ".jfr");
+            try {
+                recordingClass.getMethod("stop").invoke(recording);
+                Object path = File.class.getMethod("toPath").invoke(dump);
+                recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+                List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", pathClass).invoke(null, path);
+                return events.size();
+            } finally {
+                recordingClass.getMethod("close").invoke(recording);
+                dump.delete();
+            }
+        }
+
+        private final Object recording;
+    }
+
+    /**
+     * @return Thread.startVirtualThread or null if there are no virtual threads
+     */
+    private static Method getVirtualThreadStarter() {
+        try {
+            Method start = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            // Where they are a preview feature, they may not be enabled.
+            ((Thread) start.invoke(null, new Runnable() {
+                public void run() {
+                }
+            })).join();
+            return start;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a general book of chapters, each a child of the root. The idx file
+     * holds the offset of each node in the dat file. A node is its parent,
+     * next sibling and first child, as offsets in the idx file, its name and
+     * the start and size of its text in the bdt file.
+     */
+    private static void writeGenBook(String prefix) throws IOException {
+        OutputStream idx = new FileOutputStream(prefix + ".idx");
+        OutputStream dat = new FileOutputStream(prefix + ".dat");
+        OutputStream bdt = new FileOutputStream(prefix + ".bdt");
+        try {
+            int datSize = 0;
+            int bdtSize = 0;
+            for (int node = 0; node <= CHAPTERS; node++) {
+                byte[] name = node == 0 ? new byte[0] : ("Chapter " + node).getBytes("UTF-8");
+                byte[] text = node == 0 ? new byte[0] : ("Text of chapter " + node).getBytes("UTF-8");
+                idx.write(toLittleEndian(datSize, 4));
+
+                byte[] record = new byte[12 + name.length + 1 + 2 + (node == 0 ? 0 : 8)];
+                System.arraycopy(toLittleEndian(node == 0 ? -1 : 0, 4), 0, record, 0, 4);
+                System.arraycopy(toLittleEndian(node == 0 || node == CHAPTERS ? -1 : (node + 1) * 4, 4), 0, record, 4, 4);
+                System.arraycopy(toLittleEndian(node == 0 ? 4 : -1, 4), 0, record, 8, 4);
+                System.arraycopy(name, 0, record, 12, name.length);
+                int userData = 12 + name.length + 1;
+                if (node > 0) {
+                    System.arraycopy(toLittleEndian(8, 2), 0, record, userData, 2);
+                    System.arraycopy(toLittleEndian(bdtSize, 4), 0, record, userData + 2, 4);
+                    System.arraycopy(toLittleEndian(text.length, 4), 0, record, userData + 6, 4);
+                }
+                dat.write(record);
+                bdt.write(text);
+                datSize += record.length;
+                bdtSize += text.length;
+            }
+        } finally {
+            IOUtil.close(idx);
+            IOUtil.close(dat);
+            IOUtil.close(bdt);
+        }
+    }
+
+    private static byte[] toLittleEndian(int value, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (value >> (8 * i));
+        }
+        return bytes;
+    }
+}
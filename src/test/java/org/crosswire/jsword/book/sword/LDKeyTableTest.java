@@ -0,0 +1,256 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.crosswire.common.util.FileUtil;
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.RawLDBackendState;
+import org.crosswire.jsword.passage.DefaultLeafKeyList;
+import org.crosswire.jsword.passage.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a dictionary whose keys are in memory finds the same entries as
+ * one that searches its files.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class LDKeyTableTest {
+
+    private SwordBookMetaData bmd;
+    private boolean keysInMemory;
+
+    @Before
+    public void setUp() throws Exception {
+        keysInMemory = RawLDBackend.isKeysInMemory();
+        bmd = TestModules.createBook("RawLD");
+        writeDictionary(TestModules.getDataPath(bmd).getPath(), KEYS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        RawLDBackend.setKeysInMemory(keysInMemory);
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testKeys() throws BookException {
+        // Whether the keys are loaded is decided when they are first needed.
+        RawLDBackend.setKeysInMemory(false);
+        RawLDBackend<RawLDBackendState> onDisk = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        assertEquals(KEYS.length, onDisk.getCardinality());
+        String[] names = new String[KEYS.length];
+        String[] texts = new String[KEYS.length];
+        for (int i = 0; i < KEYS.length; i++) {
+            names[i] = onDisk.get(i).getName();
+            texts[i] = onDisk.getRawText(onDisk.get(i));
+        }
+
+        RawLDBackend.setKeysInMemory(true);
+        RawLDBackend<RawLDBackendState> inMemory = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        inMemory.indexOf(new DefaultLeafKeyList("ABEL"));
+        assertEquals(KEYS.length, inMemory.getCardinality());
+        for (int i = 0; i < KEYS.length; i++) {
+            assertEquals(names[i], inMemory.get(i).getName());
+            assertEquals(i, inMemory.indexOf(inMemory.get(i)));
+            assertEquals(texts[i], inMemory.getRawText(inMemory.get(i)));
+        }
+        // The keys are trimmed and plain text's trailing \ is removed.
+        assertEquals("BETHEL", inMemory.get(3).getName());
+        assertEquals("CANA", inMemory.get(4).getName());
+    }
+
+    @Test
+    public void testSearch() {
+        String[] sought = {
+            "TITLE", "AARON", "aaron", "Abel", "bethel", "Cana", "ZION",
+            "A", "ABBA", "BETH", "CANAAN", "TITLES", "ZZZ", "title"
+        };
+        RawLDBackend.setKeysInMemory(false);
+        RawLDBackend<RawLDBackendState> onDisk = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        int[] expected = new int[sought.length];
+        for (int i = 0; i < sought.length; i++) {
+            expected[i] = onDisk.indexOf(new DefaultLeafKeyList(sought[i]));
+        }
+
+        RawLDBackend.setKeysInMemory(true);
+        RawLDBackend<RawLDBackendState> inMemory = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        for (int i = 0; i < sought.length; i++) {
+            assertEquals(sought[i], expected[i], inMemory.indexOf(new DefaultLeafKeyList(sought[i])));
+        }
+
+        // Found regardless of case
+        assertEquals(1, inMemory.indexOf(new DefaultLeafKeyList("aaron")));
+        assertEquals(4, inMemory.indexOf(new DefaultLeafKeyList("Cana")));
+        // The out of order title is found too
+        assertEquals(0, inMemory.indexOf(new DefaultLeafKeyList("TITLE")));
+        // Missing keys give where they would be
+        assertTrue(inMemory.indexOf(new DefaultLeafKeyList("BETH")) < 0);
+        assertTrue(inMemory.indexOf(new DefaultLeafKeyList("ZZZ")) < 0);
+    }
+
+    @Test
+    public void testKeysAreInMemory() throws IOException {
+        RawLDBackend.setKeysInMemory(true);
+        RawLDBackend<RawLDBackendState> inMemory = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        assertEquals(2, inMemory.indexOf(new DefaultLeafKeyList("ABEL")));
+
+        // Once loaded, the keys are not read from the files.
+        RandomAccessFile dat = new RandomAccessFile(TestModules.getDataPath(bmd).getPath() + SwordConstants.EXTENSION_DATA, FileUtil.MODE_WRITE);
+        try {
+            dat.setLength(0);
+        } finally {
+            IOUtil.close(dat);
+        }
+        assertEquals(5, inMemory.indexOf(new DefaultLeafKeyList("Eden")));
+        assertEquals(KEYS.length, inMemory.getCardinality());
+    }
+
+    @Test
+    public void testKeysStartingWith() {
+        String[] sought = {
+            "A", "ab", "BETH", "T", "title", "Z", "ZIONS", "Q", ""
+        };
+        RawLDBackend.setKeysInMemory(false);
+        RawLDBackend<RawLDBackendState> onDisk = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        String[] expected = new String[sought.length];
+        for (int i = 0; i < sought.length; i++) {
+            expected[i] = names(onDisk.getKeysStartingWith(sought[i]));
+        }
+
+        RawLDBackend.setKeysInMemory(true);
+        RawLDBackend<RawLDBackendState> inMemory = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        for (int i = 0; i < sought.length; i++) {
+            assertEquals(sought[i], expected[i], names(inMemory.getKeysStartingWith(sought[i])));
+        }
+
+        assertEquals("[AARON, ABEL]", names(inMemory.getKeysStartingWith("a")));
+        assertEquals("[BETHEL]", names(inMemory.getKeysStartingWith("Beth")));
+        // The out of order title is found too
+        assertEquals("[TITLE]", names(inMemory.getKeysStartingWith("T")));
+        assertEquals("[]", names(inMemory.getKeysStartingWith("Q")));
+        assertEquals(KEYS.length, inMemory.getKeysStartingWith("").getCardinality());
+    }
+
+    @Test
+    public void testLongKey() throws BookException, IOException {
+        StringBuilder buf = new StringBuilder("LONG");
+        while (buf.length() < 1500) {
+            buf.append(" AND LONGER");
+        }
+        String longKey = buf.toString();
+        writeDictionary(TestModules.getDataPath(bmd).getPath(), new String[] {
+            "TITLE", "AARON", longKey, "ZION"
+        });
+
+        RawLDBackend.setKeysInMemory(false);
+        RawLDBackend<RawLDBackendState> onDisk = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        assertEquals(longKey, onDisk.get(2).getName());
+
+        // The key is longer than the start of an entry that is first read.
+        RawLDBackend.setKeysInMemory(true);
+        RawLDBackend<RawLDBackendState> inMemory = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        assertEquals(longKey, inMemory.get(2).getName());
+        assertEquals(2, inMemory.indexOf(new DefaultLeafKeyList(longKey)));
+        assertEquals(3, inMemory.indexOf(new DefaultLeafKeyList("ZION")));
+        assertEquals("The entry for " + longKey, inMemory.getRawText(inMemory.get(2)));
+    }
+
+    @Test
+    public void testEntryPastEnd() throws IOException {
+        // An index entry that points past the end of the data file
+        OutputStream idx = new FileOutputStream(TestModules.getDataPath(bmd).getPath() + SwordConstants.EXTENSION_INDEX, true);
+        try {
+            idx.write(toLittleEndian(100000, 4));
+            idx.write(toLittleEndian(10, 2));
+        } finally {
+            IOUtil.close(idx);
+        }
+
+        RawLDBackend.setKeysInMemory(true);
+        RawLDBackend<RawLDBackendState> inMemory = new RawLDBackend<RawLDBackendState>(bmd, 2);
+        assertEquals(KEYS.length + 1, inMemory.getCardinality());
+        assertEquals("", inMemory.get(KEYS.length).getName());
+        assertEquals(5, inMemory.indexOf(new DefaultLeafKeyList("Eden")));
+        assertEquals(6, inMemory.indexOf(new DefaultLeafKeyList("ZION")));
+    }
+
+    /**
+     * The names of the keys, in order.
+     */
+    private static String names(Key keys) {
+        List<String> names = new ArrayList<String>();
+        for (Key key : keys) {
+            names.add(key.getName());
+        }
+        return names.toString();
+    }
+
+    /**
+     * Write a dictionary whose first entry, its title, is out of order. Each
+     * entry in the idx file is the offset and size of the entry in the dat
+     * file, which is its key on a line of its own followed by its text.
+     */
+    private static void writeDictionary(String prefix, String[] keys) throws IOException {
+        OutputStream idx = new FileOutputStream(prefix + SwordConstants.EXTENSION_INDEX);
+        OutputStream dat = new FileOutputStream(prefix + SwordConstants.EXTENSION_DATA);
+        try {
+            int datSize = 0;
+            for (int i = 0; i < keys.length; i++) {
+                byte[] entry = (keys[i] + "\r\nThe entry for " + keys[i].trim()).getBytes("UTF-8");
+                idx.write(toLittleEndian(datSize, 4));
+                idx.write(toLittleEndian(entry.length, 2));
+                dat.write(entry);
+                datSize += entry.length;
+            }
+        } finally {
+            IOUtil.close(idx);
+            IOUtil.close(dat);
+        }
+    }
+
+    private static byte[] toLittleEndian(int value, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (value >> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static final String[] KEYS = {
+        "TITLE", "AARON", "ABEL", "BETHEL\\", " CANA ", "EDEN", "ZION"
+    };
+}
@@ -0,0 +1,157 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class RawFileWriteSessionTest {
+
+    private File dataDir;
+    private RawFileBackend backend;
+    private Versification v11n;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+        SwordBookMetaData bmd = TestModules.createBook("RawFiles");
+        dataDir = TestModules.getDataDir(bmd);
+        backend = new RawFileBackend(bmd, 2);
+        backend.create();
+    }
+
+    @After
+    public void tearDown() throws IOException, BookException {
+        TestModules.delete(backend.getBookMetaData());
+    }
+
+    @Test
+    public void testCommit() throws IOException, BookException {
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse gen2 = new Verse(v11n, BibleBook.GEN, 1, 2);
+        Verse exod = new Verse(v11n, BibleBook.EXOD, 1, 1);
+        Verse rev = new Verse(v11n, BibleBook.REV, 22, 21);
+        setRawText(gen, "Before");
+
+        RawFileWriteSession session = backend.beginWriteSession();
+        try {
+            session.setRawText(gen, "In the beginning");
+            session.setRawText(exod, "Now these");
+            session.setRawText(rev, "The grace É中");
+            session.setAliasKey(gen2, gen);
+            session.setRawText(exod, "Now these are the names");
+
+            // Nothing is seen until the commit.
+            assertEquals("Before", backend.getRawText(gen));
+            assertEquals("", backend.getRawText(exod));
+
+            assertEquals(2, session.getCreatedCount());
+            assertEquals(1, session.getChangedCount());
+            session.commit();
+        } finally {
+            session.close();
+        }
+
+        assertEquals("In the beginning", backend.getRawText(gen));
+        assertEquals("In the beginning", backend.getRawText(gen2));
+        assertEquals("Now these are the names", backend.getRawText(exod));
+        assertEquals("The grace É中", backend.getRawText(rev));
+        assertEquals(4, backend.getGlobalKeyList().getCardinality());
+        assertEquals(0, dataDir.list(new SuffixFilter()).length);
+
+        // Writing one at a time carries on from where the session left off.
+        Verse lev = new Verse(v11n, BibleBook.LEV, 1, 1);
+        setRawText(lev, "And the Lord called");
+        assertEquals("And the Lord called", backend.getRawText(lev));
+        assertEquals("The grace É中", backend.getRawText(rev));
+    }
+
+    @Test
+    public void testRollback() throws IOException, BookException {
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse matt = new Verse(v11n, BibleBook.MATT, 1, 1);
+        setRawText(gen, "Before");
+        int fileCount = dataDir.list().length;
+
+        RawFileWriteSession session = backend.beginWriteSession();
+        try {
+            session.setRawText(gen, "In the beginning");
+            session.setRawText(matt, "The book");
+        } finally {
+            session.close();
+        }
+
+        assertEquals("Before", backend.getRawText(gen));
+        assertEquals("", backend.getRawText(matt));
+        assertFalse(backend.contains(matt));
+        assertEquals(fileCount, dataDir.list().length);
+
+        try {
+            session.setRawText(matt, "The book");
+            fail("The session is closed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("closed") >= 0);
+        }
+    }
+
+    private void setRawText(Verse verse, String text) throws IOException, BookException {
+        RawFileBackendState state = null;
+        try {
+            state = backend.initState();
+            backend.setRawText(state, verse, text);
+        } finally {
+            IOUtil.close(state);
+        }
+    }
+
+    /**
+     * Accepts the files a session leaves behind, if any.
+     */
+    private static final class SuffixFilter implements FilenameFilter {
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".new") || name.endsWith(".old");
+        }
+    }
+}
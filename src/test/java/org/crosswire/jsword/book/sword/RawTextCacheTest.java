@@ -0,0 +1,179 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.passage.VerseRange;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class RawTextCacheTest {
+
+    private RawFileBackend backend;
+    private Versification v11n;
+    private long defaultMaxChars;
+
+    @Before
+    public void setUp() throws Exception {
+        defaultMaxChars = RawTextCache.getDefaultMaxChars();
+        RawTextCache.setDefaultMaxChars(1000);
+
+        v11n = Versifications.instance().getDefaultVersification();
+        backend = new RawFileBackend(TestModules.createBook("RawFiles"), 2);
+        backend.create();
+    }
+
+    @After
+    public void tearDown() throws IOException, BookException {
+        RawTextCache.setDefaultMaxChars(defaultMaxChars);
+        TestModules.delete(backend.getBookMetaData());
+    }
+
+    @Test
+    public void testEviction() {
+        RawTextCache cache = new RawTextCache(100);
+        cache.put(Integer.valueOf(1), "aaaaaaaaaaaaaaaaaaaa");
+        cache.put(Integer.valueOf(2), "bbbbbbbbbbbbbbbbbbbb");
+        cache.put("Grace", "cccccccccccccccccccc");
+        cache.put(Integer.valueOf(3), "");
+        assertEquals(61, cache.getSize());
+
+        // Touch the first so that the second is the least recently used.
+        assertNotNull(cache.get(Integer.valueOf(1)));
+        cache.put(Integer.valueOf(4), "dddddddddddddddddddddddd");
+        cache.put(Integer.valueOf(5), "eeeeeeeeeeeeeeeeeeee");
+        assertNull(cache.get(Integer.valueOf(2)));
+        assertNotNull(cache.get(Integer.valueOf(1)));
+        assertNotNull(cache.get("Grace"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(85, cache.getSize());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testOversizedEntry() {
+        RawTextCache cache = new RawTextCache(100);
+        String small = "small";
+        cache.put(Integer.valueOf(1), small);
+        cache.put(Integer.valueOf(2), "This entry is too long to be worth keeping");
+        assertSame(small, cache.get(Integer.valueOf(1)));
+        assertNull(cache.get(Integer.valueOf(2)));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void testReads() throws IOException, BookException {
+        RawTextCache cache = backend.getRawTextCache();
+        assertNotNull(cache);
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse gen2 = new Verse(v11n, BibleBook.GEN, 1, 2);
+        setRawText(gen, "In the beginning");
+        setRawText(gen2, "And the earth");
+
+        assertEquals("In the beginning", backend.getRawText(gen));
+        assertEquals("In the beginning", backend.getRawText(gen));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // Both verses of the range are needed, so the whole range is read once.
+        final StringBuilder buf = new StringBuilder();
+        RawTextConsumer consumer = new RawTextConsumer() {
+            public void accept(Key key, String rawText) {
+                buf.append(rawText).append('|');
+            }
+        };
+        backend.readRawContents(new VerseRange(v11n, gen, gen2), consumer);
+        backend.readRawContents(new VerseRange(v11n, gen, gen2), consumer);
+        assertEquals("In the beginning|And the earth|In the beginning|And the earth|", buf.toString());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(4, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidation() throws IOException, BookException {
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse gen2 = new Verse(v11n, BibleBook.GEN, 1, 2);
+        setRawText(gen, "Before");
+        setAliasKey(gen2, gen);
+        assertEquals("Before", backend.getRawText(gen));
+        assertEquals("Before", backend.getRawText(gen2));
+
+        // The alias shares the entry, so it changes too.
+        setRawText(gen, "After");
+        assertEquals("After", backend.getRawText(gen));
+        assertEquals("After", backend.getRawText(gen2));
+
+        RawFileWriteSession session = backend.beginWriteSession();
+        try {
+            session.setRawText(gen, "Committed");
+            session.commit();
+        } finally {
+            session.close();
+        }
+        assertEquals("Committed", backend.getRawText(gen));
+        assertEquals("Committed", backend.getRawText(gen2));
+    }
+
+    private void setRawText(Verse verse, String text) throws IOException, BookException {
+        RawFileBackendState state = null;
+        try {
+            state = backend.initState();
+            backend.setRawText(state, verse, text);
+        } finally {
+            IOUtil.close(state);
+        }
+    }
+
+    private void setAliasKey(Verse alias, Verse source) throws IOException, BookException {
+        RawFileBackendState state = null;
+        try {
+            state = backend.initState();
+            backend.setAliasKey(state, alias, source);
+        } finally {
+            IOUtil.close(state);
+        }
+    }
+}
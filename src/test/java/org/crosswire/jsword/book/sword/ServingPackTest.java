@@ -0,0 +1,178 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class ServingPackTest {
+
+    private File packFile;
+    private RawFileBackend source;
+    private SwordBookMetaData bmd;
+    private Versification v11n;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("RawFiles");
+        packFile = ServingPack.getPackFile(bmd);
+        source = new RawFileBackend(bmd, 2);
+        source.create();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testVerses() throws IOException, BookException {
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse mal = new Verse(v11n, BibleBook.MAL, 4, 6);
+        setRawText(gen, "In the beginning");
+        setRawText(mal, "Amen. É中");
+
+        assertNull(ServingPack.open(bmd, packFile));
+        ServingPack.build(bmd, source, packFile);
+        ServingPack pack = ServingPack.open(bmd, packFile);
+        assertNotNull(pack);
+        assertEquals(v11n.maximumOrdinal() + 1, pack.size());
+        assertEquals("In the beginning", pack.getText(gen.getOrdinal()));
+        assertEquals("", pack.getText(gen.getOrdinal() + 1));
+        assertEquals("", pack.getText(-1));
+        assertEquals("", pack.getText(pack.size()));
+        assertNull(pack.getName(0));
+        assertEquals(-1, pack.getParent(0));
+
+        PackBackend backend = new PackBackend(bmd, pack, source);
+        assertEquals("Amen. É中", backend.getRawText(mal));
+        assertEquals("Amen. É中".getBytes("UTF-8").length, backend.getRawTextLength(mal));
+        assertTrue(backend.contains(gen));
+        assertFalse(backend.contains(new Verse(v11n, BibleBook.EXOD, 1, 1)));
+
+        Key keys = backend.getGlobalKeyList();
+        assertEquals(2, keys.getCardinality());
+        assertTrue(keys.contains(gen));
+        assertTrue(keys.contains(mal));
+    }
+
+    @Test
+    public void testStale() throws IOException, BookException {
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        setRawText(gen, "In the beginning");
+        ServingPack.build(bmd, source, packFile);
+        assertNotNull(ServingPack.open(bmd, packFile));
+
+        setRawText(new Verse(v11n, BibleBook.GEN, 1, 2), "And the earth");
+        assertNull(ServingPack.open(bmd, packFile));
+    }
+
+    @Test
+    public void testFailedBuild() throws IOException {
+        RawFileBackend failing = new RawFileBackend(bmd, 2) {
+            /* (non-Javadoc)
+             * @see org.crosswire.jsword.book.sword.AbstractBackend#readRawContents(org.crosswire.jsword.passage.Key, org.crosswire.jsword.book.sword.RawTextConsumer)
+             */
+            @Override
+            public void readRawContents(Key key, RawTextConsumer consumer) throws BookException {
+                throw new BookException("Unreadable");
+            }
+        };
+        try {
+            ServingPack.build(bmd, failing, packFile);
+            fail("The book could not be read");
+        } catch (BookException e) {
+            assertEquals("Unreadable", e.getMessage());
+        }
+
+        // Neither the pack nor the file it was written to is left behind.
+        assertFalse(packFile.exists());
+        String[] left = packFile.getParentFile().list();
+        for (int i = 0; i < left.length; i++) {
+            assertFalse(left[i], left[i].startsWith(packFile.getName()));
+        }
+    }
+
+    @Test
+    public void testBuildOnLoad() throws Exception {
+        SwordBookMetaData zbmd = TestModules.createBook("zText");
+        File zpackFile = ServingPack.getPackFile(zbmd);
+        boolean enabled = ServingPack.isEnabled();
+        boolean buildOnLoad = ServingPack.isBuildOnLoad();
+        try {
+            ServingPack.setEnabled(true);
+            ServingPack.setBuildOnLoad(true);
+            Backend zsource = zbmd.getBookType().getBackend(zbmd);
+
+            // The book is served from its own backend while its pack is built.
+            assertSame(zsource, ServingPack.select(zbmd, zsource));
+            for (int i = 0; i < 200 && ServingPack.open(zbmd) == null; i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(ServingPack.select(zbmd, zsource) instanceof PackBackend);
+        } finally {
+            ServingPack.setEnabled(enabled);
+            ServingPack.setBuildOnLoad(buildOnLoad);
+            if (!zpackFile.delete()) {
+                zpackFile.deleteOnExit();
+            }
+            TestModules.delete(zbmd);
+        }
+    }
+
+    private void setRawText(Verse verse, String text) throws IOException, BookException {
+        RawFileBackendState state = null;
+        try {
+            state = source.initState();
+            source.setRawText(state, verse, text);
+        } finally {
+            IOUtil.close(state);
+        }
+    }
+}
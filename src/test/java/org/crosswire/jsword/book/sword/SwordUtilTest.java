@@ -0,0 +1,96 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class SwordUtilTest {
+
+    @Test
+    public void testDecodeAscii() {
+        byte[] data = "xxIn the beginningxx".getBytes();
+        assertEquals("In the beginning", SwordUtil.decode("Gen.1.1", data, 2, 16, "UTF-8"));
+        assertEquals("In the beginning", SwordUtil.decode("Gen.1.1", data, 2, 16, "WINDOWS-1252"));
+        assertEquals("", SwordUtil.decode("Gen.1.1", data, 10, 16, "UTF-8"));
+    }
+
+    @Test
+    public void testDecodeUTF8() throws UnsupportedEncodingException {
+        String text = "\u1F10\u03BD \u1F00\u03C1\u03C7\u1FC7 \u05D1\u05BC\u05B0\u05E8\u05B5\u05D0\u05E9\u05C1\u05B4\u05D9\u05EA \uD834\uDD1E";
+        byte[] data = ("<w>" + text + "</w>").getBytes("UTF-8");
+        int start = 3;
+        int length = data.length - 7;
+        byte[] copy = data.clone();
+        assertEquals(text, SwordUtil.decode("Gen.1.1", data, start, length, "UTF-8"));
+        assertArrayEquals(copy, data);
+    }
+
+    @Test
+    public void testDecodeMalformedUTF8() throws UnsupportedEncodingException {
+        // Whatever is malformed is replaced as new String(...) would.
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            byte[] data = new byte[random.nextInt(64)];
+            random.nextBytes(data);
+            assertEquals(new String(data, "UTF-8"), SwordUtil.decode("Gen.1.1", data, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testDecode1252() throws UnsupportedEncodingException {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        byte[] copy = data.clone();
+
+        // What Java makes of it, with the rogue characters as spaces.
+        byte[] clean = data.clone();
+        for (int i = 0; i < clean.length; i++) {
+            if ((i < 0x20 && i != 0x09 && i != 0x0A && i != 0x0D) || i == 0x81 || i == 0x8D || i == 0x8F || i == 0x90 || i == 0x9D) {
+                clean[i] = 0x20;
+            }
+        }
+        String expected = new String(clean, "WINDOWS-1252");
+
+        assertEquals(expected, SwordUtil.decode("Gen.1.1", data, "WINDOWS-1252"));
+        assertArrayEquals(copy, data);
+    }
+
+    @Test
+    public void testDecodeLatin1() throws UnsupportedEncodingException {
+        byte[] data = "caf\u00E9 na\u00EFve".getBytes("ISO-8859-1");
+        assertEquals("caf\u00E9 na\u00EFve", SwordUtil.decode("Gen.1.1", data, "ISO-8859-1"));
+    }
+}
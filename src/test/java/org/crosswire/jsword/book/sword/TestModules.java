@@ -0,0 +1,164 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.crosswire.common.util.FileUtil;
+import org.crosswire.jsword.book.BookException;
+
+/**
+ * Makes modules for tests to write and read, each in a directory of its own
+ * under java.io.tmpdir. Open file states, caches and bitmaps are kept by book,
+ * so every module is given initials that no other module in the run has.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public final class TestModules {
+    /**
+     * Prevent instantiation
+     */
+    private TestModules() {
+    }
+
+    /**
+     * Create an empty module with the given driver and the default
+     * configuration.
+     * 
+     * @param driver
+     *            the ModDrv of the module
+     * @return the metadata of the module
+     * @throws IOException
+     * @throws BookException
+     */
+    public static SwordBookMetaData createBook(String driver) throws IOException, BookException {
+        return createBook(driver, new LinkedHashMap<ConfigEntryType, String>());
+    }
+
+    /**
+     * Create an empty module with the given driver. The module is in UTF-8,
+     * English and has a data directory of its own. A compressed Bible or
+     * commentary is zipped by chapter. Any of these can be
+     * overridden by the given properties, as can the data path, which is
+     * relative to java.io.tmpdir. The data directory exists when this returns.
+     * For a dictionary or a general book, whose data path is a prefix of its
+     * files, an empty dat file is made so that the module can be found.
+     * 
+     * @param driver
+     *            the ModDrv of the module
+     * @param props
+     *            further entries of the configuration
+     * @return the metadata of the module
+     * @throws IOException
+     * @throws BookException
+     */
+    public static SwordBookMetaData createBook(String driver, Map<ConfigEntryType, String> props) throws IOException, BookException {
+        String initials = nextInitials();
+        String dirName = initials.toLowerCase();
+        File dataDir = new File(TMP, dirName);
+        FileUtil.delete(dataDir);
+        dataDir.mkdirs();
+
+        Map<ConfigEntryType, String> entries = new LinkedHashMap<ConfigEntryType, String>();
+        entries.put(ConfigEntryType.LANG, "en");
+        entries.put(ConfigEntryType.INITIALS, initials);
+        entries.put(ConfigEntryType.DESCRIPTION, "Test Module");
+        entries.put(ConfigEntryType.MOD_DRV, driver);
+        entries.put(ConfigEntryType.ENCODING, "UTF-8");
+        if ("zText".equals(driver) || "zCom".equals(driver)) {
+            entries.put(ConfigEntryType.BLOCK_TYPE, "CHAPTER");
+            entries.put(ConfigEntryType.COMPRESS_TYPE, "ZIP");
+        }
+        if ("RawGenBook".equals(driver) || "RawLD".equals(driver) || "RawLD4".equals(driver) || "zLD".equals(driver)) {
+            entries.put(ConfigEntryType.DATA_PATH, dirName + '/' + dirName);
+            new File(dataDir, dirName + ".dat").createNewFile();
+        } else {
+            entries.put(ConfigEntryType.DATA_PATH, dirName);
+        }
+        entries.putAll(props);
+
+        ConfigEntryTable table = new ConfigEntryTable(initials);
+        for (Map.Entry<ConfigEntryType, String> entry : entries.entrySet()) {
+            table.add(entry.getKey(), entry.getValue());
+        }
+        File configFile = new File(TMP, dirName + ".conf");
+        table.save(configFile);
+        SwordBookMetaData bmd = new SwordBookMetaData(configFile, initials, TMP.toURI());
+
+        // Left from a run that did not finish.
+        VerseBitmap.getBitmapFile(bmd).delete();
+        ServingPack.getPackFile(bmd).delete();
+        return bmd;
+    }
+
+    /**
+     * Get the data path of a module, which is its directory or, for a general
+     * book, the prefix of its files.
+     * 
+     * @param bmd
+     *            the metadata of the module
+     * @return the data path as a file
+     */
+    public static File getDataPath(SwordBookMetaData bmd) {
+        return new File(TMP, (String) bmd.getProperty(ConfigEntryType.DATA_PATH));
+    }
+
+    /**
+     * Get the directory that holds all of a module's data.
+     * 
+     * @param bmd
+     *            the metadata of the module
+     * @return the data directory
+     */
+    public static File getDataDir(SwordBookMetaData bmd) {
+        return new File(TMP, bmd.getInitials().toLowerCase());
+    }
+
+    /**
+     * Delete a module, with its configuration and the bitmap and pack that
+     * may have been made for it. It is safe to call this with null.
+     * 
+     * @param bmd
+     *            the metadata of the module
+     * @throws IOException
+     */
+    public static void delete(SwordBookMetaData bmd) throws IOException {
+        if (bmd == null) {
+            return;
+        }
+        bmd.getConfigFile().delete();
+        VerseBitmap.getBitmapFile(bmd).delete();
+        ServingPack.getPackFile(bmd).delete();
+        FileUtil.delete(getDataDir(bmd));
+    }
+
+    private static synchronized String nextInitials() {
+        return "TestModule" + (++count);
+    }
+
+    private static final File TMP = new File(System.getProperty("java.io.tmpdir"));
+    private static int count;
+}
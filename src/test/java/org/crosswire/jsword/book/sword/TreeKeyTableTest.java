@@ -0,0 +1,260 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.TreeKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a general book whose tree is preloaded has the same keys and
+ * finds the same entries as one that walks its files.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class TreeKeyTableTest {
+
+    private SwordBookMetaData bmd;
+    private boolean preloaded;
+
+    @Before
+    public void setUp() throws Exception {
+        preloaded = TreeKeyIndex.isPreloaded();
+        bmd = TestModules.createBook("RawGenBook");
+        writeGenBook(TestModules.getDataPath(bmd).getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TreeKeyIndex.setPreloaded(preloaded);
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testIndex() {
+        // Whether the tree is preloaded is decided when it is first needed.
+        TreeKeyIndex.setPreloaded(false);
+        Key expected = new GenBookBackend(bmd).readIndex();
+        TreeKeyIndex.setPreloaded(true);
+        Key actual = new GenBookBackend(bmd).readIndex();
+
+        assertEquals(PARENTS.length, actual.getCardinality());
+        assertEquals(5, actual.getChildCount());
+        assertEquals(expected.getCardinality(), actual.getCardinality());
+        assertSameTree(expected, actual);
+    }
+
+    @Test
+    public void testPaths() throws BookException {
+        TreeKeyIndex.setPreloaded(false);
+        GenBookBackend onDisk = new GenBookBackend(bmd);
+        Key root = onDisk.readIndex();
+        List<String> texts = new ArrayList<String>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        for (Key key : root) {
+            texts.add(read(onDisk, key));
+            lengths.add(Integer.valueOf(onDisk.getRawTextLength(key)));
+        }
+        TreeKey part1 = new TreeKey("Part 1", null);
+        TreeKey part2 = new TreeKey("Part 2", null);
+        TreeKey missing = new TreeKey("Chapter 2", part2);
+        String part1Text = read(onDisk, part1);
+        assertEquals(0, onDisk.getRawTextLength(missing));
+
+        TreeKeyIndex.setPreloaded(true);
+        GenBookBackend inMemory = new GenBookBackend(bmd);
+        int i = 0;
+        for (Key key : root) {
+            assertEquals(key.getName(), texts.get(i), read(inMemory, key));
+            assertEquals(key.getName(), lengths.get(i).intValue(), inMemory.getRawTextLength(key));
+            i++;
+        }
+
+        // Names are trimmed and repeated names are told apart by their parents.
+        assertEquals("Text of Part 2, Chapter 1", inMemory.getRawText(new TreeKey("Chapter 1", part2)));
+        assertEquals("Text of Part 1, Chapter 1", inMemory.getRawText(new TreeKey("Chapter 1", part1)));
+        assertEquals("Text of Appendix", inMemory.getRawText(new TreeKey("Appendix", null)));
+        assertEquals(path(6), GenBookBackend.getPath(new TreeKey("Chapter 1", part2)));
+        // A name with a / in it is not taken for a child
+        assertEquals("Text of Part 1/Chapter 1", inMemory.getRawText(new TreeKey("Part 1/Chapter 1", null)));
+
+        // A node without text and a node that is not there
+        assertEquals(0, inMemory.getRawTextLength(part1));
+        assertEquals(part1Text, read(inMemory, part1));
+        assertEquals(0, inMemory.getRawTextLength(missing));
+        assertNull(read(inMemory, missing));
+    }
+
+    @Test
+    public void testTable() throws IOException {
+        TreeKeyIndex.setPreloaded(true);
+        TreeKeyIndex index = new TreeKeyIndex(bmd);
+        TreeKeyTable table = index.getTable();
+        assertNotNull(table);
+        assertEquals(PARENTS.length, table.size());
+        for (int node = 0; node < PARENTS.length; node++) {
+            assertEquals(PARENTS[node], table.getParent(node));
+            assertEquals(NAMES[node].trim(), table.getName(node));
+            if (node > 0) {
+                assertEquals(node, table.find(path(node)));
+            }
+        }
+        assertEquals(-1, table.find(path(5) + GenBookBackend.PATH_SEPARATOR + "Chapter 2"));
+        assertEquals(-1, table.find(GenBookBackend.PATH_SEPARATOR + "Part 1/Chapter 2"));
+        // Repeated names are stored once
+        assertEquals(System.identityHashCode(table.getName(3)), System.identityHashCode(table.getName(6)));
+
+        TreeKeyIndex.setPreloaded(false);
+        assertNull(new TreeKeyIndex(bmd).getTable());
+    }
+
+    /**
+     * @return the text of the key or null if it is not in the book
+     */
+    private static String read(GenBookBackend backend, Key key) {
+        try {
+            return backend.getRawText(key);
+        } catch (BookException e) {
+            return null;
+        }
+    }
+
+    private static void assertSameTree(Key expected, Key actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getName(), expected.getChildCount(), actual.getChildCount());
+        for (int i = 0; i < expected.getChildCount(); i++) {
+            assertSameTree(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static String path(int node) {
+        return node == 0 ? "" : path(PARENTS[node]) + GenBookBackend.PATH_SEPARATOR + NAMES[node].trim();
+    }
+
+    /**
+     * @return the names from below the root to the node, separated by commas
+     */
+    private static String title(int node) {
+        return PARENTS[node] == 0 ? NAMES[node].trim() : title(PARENTS[node]) + ", " + NAMES[node].trim();
+    }
+
+    /**
+     * Write a general book from PARENTS and NAMES. The idx file holds the
+     * offset of each node in the dat file. A node is its parent, next sibling
+     * and first child, as offsets in the idx file, its name and, if it has
+     * text, the start and size of its text in the bdt file.
+     */
+    private static void writeGenBook(String prefix) throws IOException {
+        OutputStream idx = new FileOutputStream(prefix + ".idx");
+        OutputStream dat = new FileOutputStream(prefix + ".dat");
+        OutputStream bdt = new FileOutputStream(prefix + ".bdt");
+        try {
+            int datSize = 0;
+            int bdtSize = 0;
+            for (int node = 0; node < PARENTS.length; node++) {
+                byte[] name = NAMES[node].getBytes("UTF-8");
+                byte[] text = node == 0 || node == 2 ? new byte[0] : ("Text of " + title(node)).getBytes("UTF-8");
+                idx.write(toLittleEndian(datSize, 4));
+
+                byte[] record = new byte[12 + name.length + 1 + 2 + (text.length > 0 ? 8 : 0)];
+                System.arraycopy(toLittleEndian(toOffset(PARENTS[node]), 4), 0, record, 0, 4);
+                System.arraycopy(toLittleEndian(toOffset(nextSibling(node)), 4), 0, record, 4, 4);
+                System.arraycopy(toLittleEndian(toOffset(firstChild(node)), 4), 0, record, 8, 4);
+                System.arraycopy(name, 0, record, 12, name.length);
+                if (text.length > 0) {
+                    int userData = 12 + name.length + 1;
+                    System.arraycopy(toLittleEndian(8, 2), 0, record, userData, 2);
+                    System.arraycopy(toLittleEndian(bdtSize, 4), 0, record, userData + 2, 4);
+                    System.arraycopy(toLittleEndian(text.length, 4), 0, record, userData + 6, 4);
+                }
+                dat.write(record);
+                bdt.write(text);
+                datSize += record.length;
+                bdtSize += text.length;
+            }
+        } finally {
+            IOUtil.close(idx);
+            IOUtil.close(dat);
+            IOUtil.close(bdt);
+        }
+    }
+
+    private static int firstChild(int node) {
+        for (int i = node + 1; i < PARENTS.length; i++) {
+            if (PARENTS[i] == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int nextSibling(int node) {
+        for (int i = node + 1; node > 0 && i < PARENTS.length; i++) {
+            if (PARENTS[i] == PARENTS[node]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int toOffset(int node) {
+        return node == -1 ? -1 : node * 4;
+    }
+
+    private static byte[] toLittleEndian(int value, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (value >> (8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * The parent of each node, the root being first.
+     */
+    private static final int[] PARENTS = {
+        -1, 0, 0, 2, 2, 0, 5, 0, 0
+    };
+
+    /**
+     * The name of each node. Part 1 has no text of its own. The last looks
+     * like the path of the first Chapter 1.
+     */
+    private static final String[] NAMES = {
+        "", "Preface", "Part 1", "Chapter 1", "Chapter 2", "Part 2", "Chapter 1", " Appendix ", "Part 1/Chapter 1"
+    };
+}
@@ -0,0 +1,138 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.crosswire.common.util.IOUtil;
+import org.crosswire.jsword.book.sword.state.RawFileBackendState;
+import org.crosswire.jsword.passage.Passage;
+import org.crosswire.jsword.passage.RocketPassage;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class VerseBitmapTest {
+
+    private File dataDir;
+    private File bitmapFile;
+    private SwordBookMetaData bmd;
+    private Versification v11n;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("RawFiles");
+        dataDir = TestModules.getDataDir(bmd);
+        bitmapFile = VerseBitmap.getBitmapFile(bmd);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testCreate() {
+        Passage verses = new RocketPassage(v11n);
+        Verse first = new Verse(v11n, BibleBook.INTRO_BIBLE, 0, 0);
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse last = new Verse(v11n, BibleBook.REV, 22, 21);
+        verses.add(first);
+        verses.add(gen);
+        verses.add(last);
+
+        VerseBitmap bitmap = VerseBitmap.create(v11n, verses);
+        assertEquals(3, bitmap.getCardinality());
+        assertTrue(bitmap.containsOrdinal(first.getOrdinal()));
+        assertTrue(bitmap.containsOrdinal(gen.getOrdinal()));
+        assertTrue(bitmap.containsOrdinal(last.getOrdinal()));
+        assertFalse(bitmap.containsOrdinal(gen.getOrdinal() + 1));
+        assertFalse(bitmap.containsOrdinal(-1));
+        assertFalse(bitmap.containsOrdinal(v11n.maximumOrdinal() + 1));
+        assertEquals(verses, bitmap.toPassage());
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        Passage verses = new RocketPassage(v11n);
+        verses.add(new Verse(v11n, BibleBook.EXOD, 3, 14));
+        verses.add(new Verse(v11n, BibleBook.JOHN, 3, 16));
+
+        assertNull(VerseBitmap.load(bmd, v11n, bitmapFile));
+        VerseBitmap.create(v11n, verses).save(bmd, bitmapFile);
+        VerseBitmap loaded = VerseBitmap.load(bmd, v11n, bitmapFile);
+        assertNotNull(loaded);
+        assertEquals(verses, loaded.toPassage());
+
+        // A change to the module makes the bitmap stale.
+        FileOutputStream out = new FileOutputStream(new File(dataDir, "0000001"));
+        try {
+            out.write('x');
+        } finally {
+            out.close();
+        }
+        assertNull(VerseBitmap.load(bmd, v11n, bitmapFile));
+    }
+
+    @Test
+    public void testBackend() throws Exception {
+        RawFileBackend backend = new RawFileBackend(bmd, 2);
+        backend.create();
+        Verse gen = new Verse(v11n, BibleBook.GEN, 1, 1);
+        Verse mal = new Verse(v11n, BibleBook.MAL, 4, 6);
+
+        RawFileBackendState state = null;
+        try {
+            state = backend.initState();
+            backend.setRawText(state, gen, "In the beginning");
+            assertTrue(backend.contains(gen));
+            assertFalse(backend.contains(mal));
+
+            // The last verse of a testament is in the key list, too.
+            backend.setRawText(state, mal, "Lest I come");
+            assertTrue(backend.contains(mal));
+            assertTrue(backend.containsOrdinal(mal.getOrdinal()));
+            assertEquals(2, backend.getGlobalKeyList().getCardinality());
+        } finally {
+            IOUtil.close(state);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.state.OpenFileStateManager;
+import org.crosswire.jsword.book.sword.state.ZVerseBackendState;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.Passage;
+import org.crosswire.jsword.passage.RocketPassage;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.passage.VerseRange;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the ways a ZVerseBackend reads a module, verse by verse or a
+ * range at a time, through RandomAccessFiles or mapped files, all agree.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class ZVerseBackendTest {
+
+    private Versification v11n;
+    private SwordBookMetaData bmd;
+    private boolean memoryMapped;
+
+    @Before
+    public void setUp() throws Exception {
+        memoryMapped = ZVerseBackendState.isMemoryMapped();
+        v11n = Versifications.instance().getDefaultVersification();
+        bmd = TestModules.createBook("zText");
+        write("");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ZVerseBackendState.setMemoryMapped(memoryMapped);
+        closeIdleStates();
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testMappedMatchesRandomAccess() throws IOException, BookException {
+        assertMappedMatchesRandomAccess("");
+
+        // Replace the module, making sure that it looks changed.
+        closeIdleStates();
+        write(" again");
+        for (File file : TestModules.getDataDir(bmd).listFiles()) {
+            file.setLastModified(file.lastModified() + 10000);
+        }
+        assertMappedMatchesRandomAccess(" again");
+    }
+
+    @Test
+    public void testRangeMatchesVerses() throws IOException, BookException {
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER);
+        ZVerseBackendState state = backend.initState();
+        try {
+            // Within a block, across blocks, across books and across testaments
+            assertRangeMatchesVerses(backend, state, new VerseRange(v11n, verse(BibleBook.GEN, 50, 2), verse(BibleBook.GEN, 50, 9)));
+            assertRangeMatchesVerses(backend, state, new VerseRange(v11n, verse(BibleBook.GEN, 50, 20), verse(BibleBook.EXOD, 1, 5)));
+            assertRangeMatchesVerses(backend, state, new VerseRange(v11n, verse(BibleBook.MAL, 4, 1), verse(BibleBook.MATT, 1, 3)));
+            // Verses that were not written
+            assertRangeMatchesVerses(backend, state, new VerseRange(v11n, verse(BibleBook.EXOD, 2, 1), verse(BibleBook.EXOD, 2, 3)));
+        } finally {
+            OpenFileStateManager.instance().release(state);
+        }
+    }
+
+    @Test
+    public void testReadRawContents() throws BookException {
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER);
+        Passage passage = new RocketPassage(v11n);
+        passage.add(verse(BibleBook.MATT, 1, 1));
+        passage.add(new VerseRange(v11n, verse(BibleBook.GEN, 50, 25), verse(BibleBook.EXOD, 1, 2)));
+        passage.add(verse(BibleBook.MAL, 4, 6));
+        passage.add(verse(BibleBook.LEV, 1, 1));
+
+        final List<Key> keys = new ArrayList<Key>();
+        final List<String> texts = new ArrayList<String>();
+        backend.readRawContents(passage, new RawTextConsumer() {
+            public void accept(Key key, String rawText) {
+                keys.add(key);
+                texts.add(rawText);
+            }
+        });
+
+        List<Key> expected = new ArrayList<Key>();
+        for (Key key : passage) {
+            expected.add(key);
+        }
+        assertEquals(expected, keys);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(backend.getRawText(keys.get(i)), texts.get(i));
+        }
+        assertEquals(text(verse(BibleBook.GEN, 50, 25), ""), texts.get(0));
+        // A verse that was not written is delivered, empty
+        assertEquals("", texts.get(keys.indexOf(verse(BibleBook.LEV, 1, 1))));
+    }
+
+    private void assertMappedMatchesRandomAccess(String suffix) throws IOException, BookException {
+        // Each has its own block cache, so neither reads blocks from the other.
+        ZVerseBackend rafBackend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER);
+        ZVerseBackend mappedBackend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER);
+
+        ZVerseBackendState.setMemoryMapped(false);
+        ZVerseBackendState rafState = rafBackend.initState();
+        ZVerseBackendState.setMemoryMapped(true);
+        ZVerseBackendState mappedState = mappedBackend.initState();
+        try {
+            assertFalse(rafState.isMapped());
+            assertTrue(mappedState.isMapped());
+
+            for (Verse verse : writtenVerses()) {
+                String expected = text(verse, suffix);
+                assertEquals(expected, rafBackend.readRawContent(rafState, verse));
+                assertEquals(expected, mappedBackend.readRawContent(mappedState, verse));
+            }
+
+            VerseRange range = new VerseRange(v11n, verse(BibleBook.GEN, 50, 20), verse(BibleBook.EXOD, 1, 5));
+            assertArrayEquals(rafBackend.readRawContent(rafState, range), mappedBackend.readRawContent(mappedState, range));
+            Verse unwritten = verse(BibleBook.EXOD, 2, 1);
+            assertEquals("", rafBackend.readRawContent(rafState, unwritten));
+            assertEquals("", mappedBackend.readRawContent(mappedState, unwritten));
+        } finally {
+            OpenFileStateManager.instance().release(rafState);
+            OpenFileStateManager.instance().release(mappedState);
+        }
+    }
+
+    private void assertRangeMatchesVerses(ZVerseBackend backend, ZVerseBackendState state, VerseRange range) throws IOException, BookException {
+        String[] texts = backend.readRawContent(state, range);
+        assertEquals(range.getCardinality(), texts.length);
+        int i = 0;
+        for (Key key : range) {
+            assertEquals(key.getName(), backend.readRawContent(state, key), texts[i++]);
+        }
+    }
+
+    /**
+     * Write Genesis 50, Exodus 1, Malachi 4 and Matthew 1, so that there are
+     * two blocks in each testament.
+     */
+    private void write(String suffix) throws IOException, BookException {
+        ZVerseWriter writer = new ZVerseWriter(bmd);
+        try {
+            for (Verse verse : writtenVerses()) {
+                writer.write(verse, text(verse, suffix));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<Verse> writtenVerses() {
+        List<Verse> verses = new ArrayList<Verse>();
+        addChapter(verses, BibleBook.GEN, 50);
+        addChapter(verses, BibleBook.EXOD, 1);
+        addChapter(verses, BibleBook.MAL, 4);
+        addChapter(verses, BibleBook.MATT, 1);
+        return verses;
+    }
+
+    private void addChapter(List<Verse> verses, BibleBook book, int chapter) {
+        int last = v11n.getLastVerse(book, chapter);
+        for (int v = 1; v <= last; v++) {
+            verses.add(verse(book, chapter, v));
+        }
+    }
+
+    private Verse verse(BibleBook book, int chapter, int verse) {
+        return new Verse(v11n, book, chapter, verse);
+    }
+
+    private static String text(Verse verse, String suffix) {
+        return verse.getOsisID() + " É中" + suffix;
+    }
+
+    /**
+     * Close the pooled states of the module, so that the next are opened afresh.
+     */
+    private static void closeIdleStates() {
+        OpenFileStateManager manager = OpenFileStateManager.instance();
+        int maxOpenStates = manager.getMaxOpenStates();
+        manager.setMaxOpenStates(0);
+        manager.setMaxOpenStates(maxOpenStates);
+    }
+}
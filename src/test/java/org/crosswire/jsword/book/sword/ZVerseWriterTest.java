@@ -0,0 +1,194 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.passage.Key;
+import org.crosswire.jsword.passage.Verse;
+import org.crosswire.jsword.versification.BibleBook;
+import org.crosswire.jsword.versification.Versification;
+import org.crosswire.jsword.versification.system.Versifications;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class ZVerseWriterTest {
+
+    private File dataDir;
+    private Versification v11n;
+    private SwordBookMetaData bmd;
+
+    @Before
+    public void setUp() throws Exception {
+        v11n = Versifications.instance().getDefaultVersification();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestModules.delete(bmd);
+    }
+
+    @Test
+    public void testChapterBlocks() throws IOException, BookException {
+        bmd = createBook("CHAPTER", null);
+        Verse[] verses = {
+            new Verse(v11n, BibleBook.GEN, 1, 1),
+            new Verse(v11n, BibleBook.GEN, 1, 2),
+            new Verse(v11n, BibleBook.GEN, 2, 1),
+            new Verse(v11n, BibleBook.MAL, 4, 6),
+            new Verse(v11n, BibleBook.MATT, 1, 1),
+            new Verse(v11n, BibleBook.REV, 22, 21),
+        };
+        String[] texts = { "In the beginning", "And the earth", "Thus the heavens", "Lest I come", "The book É中", "The grace" };
+
+        ZVerseWriter writer = new ZVerseWriter(bmd);
+        try {
+            for (int i = 0; i < verses.length; i++) {
+                writer.write(verses[i], texts[i]);
+            }
+        } finally {
+            writer.close();
+        }
+
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_CHAPTER);
+        for (int i = 0; i < verses.length; i++) {
+            assertEquals(texts[i], backend.getRawText(verses[i]));
+        }
+        assertEquals("", backend.getRawText(new Verse(v11n, BibleBook.GEN, 1, 3)));
+        assertEquals("", backend.getRawText(new Verse(v11n, BibleBook.EXOD, 1, 1)));
+
+        Key keys = backend.getGlobalKeyList();
+        assertEquals(verses.length, keys.getCardinality());
+        for (Verse verse : verses) {
+            assertTrue(keys.contains(verse));
+        }
+
+        // Two blocks for Genesis, one each for the other chapters.
+        assertEquals(3 * ZVerseBackend.COMP_ENTRY_SIZE, new File(dataDir, "ot.czs").length());
+        assertEquals(2 * ZVerseBackend.COMP_ENTRY_SIZE, new File(dataDir, "nt.czs").length());
+    }
+
+    @Test
+    public void testEncipheredBookBlocks() throws IOException, BookException {
+        bmd = createBook("BOOK", "abcd");
+        int threads = ZVerseWriter.getThreads();
+        ZVerseWriter.setThreads(3);
+        ZVerseWriter writer = new ZVerseWriter(bmd);
+        ZVerseWriter.setThreads(threads);
+        int[] books = new int[2];
+        try {
+            BibleBook book = null;
+            Iterator<Key> iter = v11n.getAllVerses().iterator();
+            while (iter.hasNext()) {
+                Verse verse = (Verse) iter.next();
+                writer.write(verse, verse.getOsisID());
+                if (verse.getBook() != book) {
+                    book = verse.getBook();
+                    books[v11n.getTestament(verse.getOrdinal()).ordinal()]++;
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_BOOK);
+        for (Key key : v11n.getAllVerses()) {
+            Verse verse = (Verse) key;
+            assertEquals(verse.getOsisID(), backend.getRawText(verse));
+        }
+        assertEquals(v11n.getAllVerses().getCardinality(), backend.getGlobalKeyList().getCardinality());
+        // One block per book, the introductions being books of their own.
+        assertEquals(books[0] * ZVerseBackend.COMP_ENTRY_SIZE, new File(dataDir, "ot.bzs").length());
+        assertEquals(books[1] * ZVerseBackend.COMP_ENTRY_SIZE, new File(dataDir, "nt.bzs").length());
+    }
+
+    @Test
+    public void testNewTestamentOnly() throws IOException, BookException {
+        bmd = createBook("VERSE", null);
+        Verse matt = new Verse(v11n, BibleBook.MATT, 1, 1);
+        Verse mark = new Verse(v11n, BibleBook.MARK, 1, 1);
+        ZVerseWriter writer = new ZVerseWriter(bmd);
+        try {
+            writer.write(matt, "The book");
+            writer.write(mark, "The beginning");
+        } finally {
+            writer.close();
+        }
+
+        assertFalse(new File(dataDir, "ot.vzv").exists());
+        assertTrue(new File(dataDir, "nt.vzv").exists());
+        // The index covers the whole testament, not just the verses written.
+        int ntSize = v11n.getTestamentOrdinal(v11n.maximumOrdinal()) + 1;
+        assertEquals(ntSize * ZVerseBackend.IDX_ENTRY_SIZE, new File(dataDir, "nt.vzv").length());
+
+        ZVerseBackend backend = new ZVerseBackend(bmd, BlockType.BLOCK_VERSE);
+        assertEquals("The book", backend.getRawText(matt));
+        assertEquals("The beginning", backend.getRawText(mark));
+        assertEquals("", backend.getRawText(new Verse(v11n, BibleBook.MARK, 1, 2)));
+        assertEquals("", backend.getRawText(new Verse(v11n, BibleBook.REV, 22, 21)));
+        assertEquals("", backend.getRawText(new Verse(v11n, BibleBook.GEN, 1, 1)));
+        assertFalse(backend.contains(new Verse(v11n, BibleBook.GEN, 1, 1)));
+        assertEquals(2, backend.getGlobalKeyList().getCardinality());
+    }
+
+    @Test
+    public void testOrder() throws IOException, BookException {
+        ZVerseWriter writer = new ZVerseWriter(createBook("CHAPTER", null));
+        try {
+            writer.write(new Verse(v11n, BibleBook.GEN, 1, 2), "And the earth");
+            writer.write(new Verse(v11n, BibleBook.GEN, 1, 1), "In the beginning");
+            fail("Verses out of order");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            writer.close();
+        }
+    }
+
+    private SwordBookMetaData createBook(String blockType, String cipherKey) throws IOException, BookException {
+        Map<ConfigEntryType, String> props = new HashMap<ConfigEntryType, String>();
+        props.put(ConfigEntryType.BLOCK_TYPE, blockType);
+        if (cipherKey != null) {
+            props.put(ConfigEntryType.CIPHER_KEY, cipherKey);
+        }
+        bmd = TestModules.createBook("zText", props);
+        dataDir = TestModules.getDataDir(bmd);
+        return bmd;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Distribution License:
+ * JSword is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License, version 2.1 or later
+ * as published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The License is available on the internet at:
+ *       http://www.gnu.org/copyleft/lgpl.html
+ * or by writing to:
+ *      Free Software Foundation, Inc.
+ *      59 Temple Place - Suite 330
+ *      Boston, MA 02111-1307, USA
+ *
+ * Copyright: 2014
+ *     The copyright to this program is held by it's authors.
+ *
+ */
+package org.crosswire.jsword.book.sword.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.crosswire.jsword.book.BookException;
+import org.crosswire.jsword.book.sword.SwordBookMetaData;
+import org.crosswire.jsword.book.sword.SwordConstants;
+import org.crosswire.jsword.book.sword.TestModules;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit Test.
+ * 
+ * @see gnu.lgpl.License for license details.<br>
+ *      The copyright to this program is held by it's authors.
+ * @author DM Smith
+ */
+public class OpenFileStateManagerTest {
+
+    private OpenFileStateManager manager;
+    private int maxIdleStatesPerBook;
+    private int maxOpenStates;
+    private SwordBookMetaData bookA;
+    private SwordBookMetaData bookB;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = OpenFileStateManager.instance();
+        maxIdleStatesPerBook = manager.getMaxIdleStatesPerBook();
+        maxOpenStates = manager.getMaxOpenStates();
+        bookA = createBook();
+        bookB = createBook();
+    }
+
+    @After
+    public void tearDown() throws IOException, BookException {
+        manager.setMaxIdleStatesPerBook(maxIdleStatesPerBook);
+        // Close the idle states of the test modules before deleting them
+        manager.setMaxOpenStates(0);
+        manager.setMaxOpenStates(maxOpenStates);
+        TestModules.delete(bookA);
+        TestModules.delete(bookB);
+    }
+
+    @Test
+    public void testReleaseAboveMaxIdleCloses() throws BookException {
+        manager.setMaxIdleStatesPerBook(1);
+        RawBackendState first = manager.getRawBackendState(bookA);
+        RawBackendState second = manager.getRawBackendState(bookA);
+        assertNotSame(first, second);
+        int open = manager.getOpenStateCount();
+
+        manager.release(first);
+        assertTrue("pooled state is kept open", isOpen(first));
+        assertEquals(open, manager.getOpenStateCount());
+
+        manager.release(second);
+        assertFalse("state above the per book maximum is closed", isOpen(second));
+        assertEquals(open - 1, manager.getOpenStateCount());
+
+        assertSame(first, manager.getRawBackendState(bookA));
+    }
+
+    @Test
+    public void testBudgetEvictsOtherBooks() throws BookException {
+        // Start with no idle states of other tests
+        manager.setMaxOpenStates(0);
+        manager.setMaxOpenStates(maxOpenStates);
+        assertEquals(0, manager.getIdleStateCount());
+
+        RawBackendState first = manager.getRawBackendState(bookA);
+        RawBackendState second = manager.getRawBackendState(bookA);
+        manager.release(first);
+        manager.release(second);
+        assertEquals(2, manager.getIdleStateCount());
+
+        manager.setMaxOpenStates(manager.getOpenStateCount());
+        long evictions = manager.getEvictionCount();
+
+        // Opening a state of B goes over the budget, closing A's eldest
+        RawBackendState other = manager.getRawBackendState(bookB);
+        assertFalse("least recently used is evicted", isOpen(first));
+        assertTrue(isOpen(second));
+        assertEquals(evictions + 1, manager.getEvictionCount());
+        assertEquals(1, manager.getIdleStateCount());
+
+        RawBackendState another = manager.getRawBackendState(bookB);
+        assertFalse(isOpen(second));
+        assertEquals(evictions + 2, manager.getEvictionCount());
+        assertEquals(0, manager.getIdleStateCount());
+
+        // States in use are not evicted, even over the budget
+        RawBackendState third = manager.getRawBackendState(bookB);
+        assertTrue(isOpen(other));
+        assertTrue(isOpen(another));
+        assertTrue(isOpen(third));
+        assertEquals(evictions + 2, manager.getEvictionCount());
+
+        manager.release(other);
+        manager.release(another);
+        manager.release(third);
+    }
+
+    @Test
+    public void testCounters() throws BookException {
+        long created = manager.getCreatedCount();
+        long reused = manager.getReusedCount();
+
+        RawBackendState state = manager.getRawBackendState(bookA);
+        assertEquals(created + 1, manager.getCreatedCount());
+        assertEquals(reused, manager.getReusedCount());
+
+        manager.release(state);
+        assertSame(state, manager.getRawBackendState(bookA));
+        assertEquals(created + 1, manager.getCreatedCount());
+        assertEquals(reused + 1, manager.getReusedCount());
+
+        // The pool of one book is not used for another, nor for another kind of state
+        RawBackendState other = manager.getRawBackendState(bookB);
+        assertNotSame(state, other);
+        assertEquals(created + 2, manager.getCreatedCount());
+        assertEquals(reused + 1, manager.getReusedCount());
+
+        double ratio = manager.getReuseRatio();
+        assertTrue(ratio > 0.0 && ratio < 1.0);
+
+        manager.release(state);
+        manager.release(other);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        manager.setMaxIdleStatesPerBook(2);
+        int open = manager.getOpenStateCount();
+        final ConcurrentMap<OpenFileState, Thread> inUse = new ConcurrentHashMap<OpenFileState, Thread>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500 && failure.get() == null; j++) {
+                            RawBackendState state = manager.getRawBackendState(bookA);
+                            if (inUse.putIfAbsent(state, Thread.currentThread()) != null) {
+                                failure.compareAndSet(null, new AssertionError("state handed out twice"));
+                            }
+                            if (!isOpen(state)) {
+                                failure.compareAndSet(null, new AssertionError("closed state handed out"));
+                            }
+                            Thread.yield();
+                            inUse.remove(state);
+                            manager.release(state);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+        // All were released and no more than 2 were kept
+        assertTrue(manager.getOpenStateCount() >= open);
+        assertTrue(manager.getOpenStateCount() <= open + 2);
+    }
+
+    private static boolean isOpen(RawBackendState state) {
+        return state.getOtTextRaf() != null;
+    }
+
+    /**
+     * Create a Bible with empty files for both testaments.
+     */
+    private static SwordBookMetaData createBook() throws IOException, BookException {
+        SwordBookMetaData bmd = TestModules.createBook("RawText");
+        File dir = TestModules.getDataPath(bmd);
+        String[] names = {
+                SwordConstants.FILE_OT, SwordConstants.FILE_OT + SwordConstants.EXTENSION_VSS,
+                SwordConstants.FILE_NT, SwordConstants.FILE_NT + SwordConstants.EXTENSION_VSS
+        };
+        for (String name : names) {
+            new File(dir, name).createNewFile();
+        }
+        return bmd;
+    }
+}